@@ -106,6 +106,100 @@ interface ControlPoint {
      */
     val deviceList: List<Device>
 
+    /**
+     * Number of SSDP messages dropped as a repeated copy of the announcement received just before.
+     *
+     * Devices send the same announcement several times,
+     * such messages are dropped before being processed to reduce the load.
+     */
+    val ssdpDuplicateHitCount: Long
+
+    /**
+     * Number of SSDP messages that passed the duplicate check and were processed.
+     *
+     * @see ssdpDuplicateHitCount
+     */
+    val ssdpDuplicateMissCount: Long
+
+    /**
+     * Number of renew requests of the subscriptions executed automatically.
+     */
+    val subscriptionRenewCount: Long
+
+    /**
+     * Number of renew requests reduced by the adaptive renew.
+     *
+     * Negative if the renew interval was shortened more than lengthened, because the device responded slowly.
+     *
+     * @see ControlPointFactory.ControlPointBuilder.setSubscriptionAdaptiveRenewEnabled
+     */
+    val subscriptionSavedRenewCount: Long
+
+    /**
+     * Number of times that lost events were detected by the gap of SEQ.
+     *
+     * @see ControlPointFactory.ControlPointBuilder.setResubscribeOnEventGapEnabled
+     */
+    val eventSequenceGapCount: Long
+
+    /**
+     * Number of events dropped because the SEQ was the same as or older than the previous event.
+     */
+    val eventDuplicateCount: Long
+
+    /**
+     * Number of times that the SEQ went back to 0 without subscribing again.
+     */
+    val eventSequenceResetCount: Long
+
+    /**
+     * Number of the event notifications waiting to be delivered to the listeners.
+     *
+     * Always 0 unless the event conflation is enabled.
+     *
+     * @see ControlPointFactory.ControlPointBuilder.setEventConflationEnabled
+     */
+    val eventBacklogSize: Int
+
+    /**
+     * Number of the event notifications merged into the pending one because the listener was busy.
+     *
+     * @see ControlPointFactory.ControlPointBuilder.setEventConflationEnabled
+     */
+    val eventConflatedCount: Long
+
+    /**
+     * Number of the callbacks waiting to be executed.
+     *
+     * Always 0 if the callback executor is specified.
+     *
+     * @see ControlPointFactory.ControlPointBuilder.setCallbackThreadCount
+     */
+    val callbackPendingCount: Int
+
+    /**
+     * Moving average of the time in milliseconds from the request to the execution of the callbacks.
+     *
+     * Always 0 if the callback executor is specified.
+     *
+     * @see ControlPointFactory.ControlPointBuilder.setCallbackThreadCount
+     */
+    val callbackLatency: Long
+
+    /**
+     * Number of the communication tasks waiting to be started.
+     *
+     * @see ControlPointFactory.ControlPointBuilder.setIoQueueCapacity
+     */
+    val ioPendingCount: Int
+
+    /**
+     * Number of the communication tasks rejected because too many tasks were waiting.
+     *
+     * @see ControlPointFactory.ControlPointBuilder.setIoQueueCapacity
+     */
+    val ioRejectedCount: Int
+
     /**
      * Do initialize.
      *
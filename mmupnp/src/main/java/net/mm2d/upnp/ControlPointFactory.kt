@@ -10,6 +10,10 @@ package net.mm2d.upnp
 import net.mm2d.upnp.Adapter.taskExecutor
 import net.mm2d.upnp.internal.impl.ControlPointImpl
 import net.mm2d.upnp.internal.impl.DiFactory
+import net.mm2d.upnp.internal.manager.SubscribeManagerImpl
+import net.mm2d.upnp.internal.manager.SubscribeServiceHolder
+import net.mm2d.upnp.internal.thread.IoScheduler
+import java.io.File
 import java.net.NetworkInterface
 
 /**
@@ -93,6 +97,22 @@ object ControlPointFactory {
         private var notifySegmentCheckEnabled: Boolean = false
         private var subscriptionEnabled: Boolean = true
         private var multicastEventingEnabled: Boolean = false
+        private var nioEventReceiverEnabled: Boolean = false
+        private var datagramSelectorThreadCount: Int = 0
+        private var descriptionCacheDirectory: File? = null
+        private var subscriptionRenewJitter: Float = SubscribeServiceHolder.DEFAULT_RENEW_JITTER_RATIO
+        private var subscriptionRenewHostInterval: Long = 0L
+        private var subscriptionTimeout: Long = SubscribeManagerImpl.DEFAULT_SUBSCRIPTION_TIMEOUT
+        private var subscriptionAdaptiveRenewEnabled: Boolean = false
+        private var resubscribeOnEventGapEnabled: Boolean = false
+        private var stateVariableCacheEnabled: Boolean = false
+        private var lastChangeParser: ((service: Service, value: String) -> List<Pair<String, String>>)? = null
+        private var eventConflationEnabled: Boolean = false
+        private var callbackThreadCount: Int = 1
+        private var virtualThreadEnabled: Boolean = false
+        private var ioMaxPerHost: Int = IoScheduler.DEFAULT_MAX_PER_HOST
+        private var ioQueueCapacity: Int = IoScheduler.DEFAULT_CAPACITY
+        private var asyncActionEnabled: Boolean = false
 
         /**
          * Set protocol stack.
@@ -187,6 +207,263 @@ object ControlPointFactory {
             multicastEventingEnabled = enabled
         }
 
+        /**
+         * Set whether to receive events with non-blocking I/O.
+         *
+         * Default is false.
+         * If set to true, all event connections are handled by a single thread using a selector,
+         * instead of using a thread for each connection.
+         * This prevents slow or misbehaving devices from occupying the threads shared with other communication.
+         *
+         * @param enabled true, use non-blocking I/O. false, otherwise
+         * @return builder
+         */
+        fun setNioEventReceiverEnabled(enabled: Boolean): ControlPointBuilder = apply {
+            nioEventReceiverEnabled = enabled
+        }
+
+        /**
+         * Set the number of threads to receive SSDP and multicast event with non-blocking I/O.
+         *
+         * Default is 0.
+         * If 0, a thread is used for each socket, that is, for each interface, address family and purpose.
+         * If set to 1 or more, all sockets are multiplexed on the specified number of threads using selectors.
+         * This requires the multicast support of DatagramChannel, that is, Java 7 or Android API level 24.
+         * If it is not available, the socket falls back to a thread.
+         *
+         * @param count number of threads, 0 to disable
+         * @return builder
+         */
+        fun setNioDatagramThreadCount(count: Int): ControlPointBuilder = apply {
+            datagramSelectorThreadCount = count
+        }
+
+        /**
+         * Set the directory to cache the descriptions of devices and services.
+         *
+         * Default is null, that is, the descriptions are not cached.
+         * If set, the descriptions are stored in the directory and reused after restarting.
+         * If the device announces CONFIGID.UPNP.ORG, the cached descriptions are used without communication
+         * until the CONFIGID.UPNP.ORG or BOOTID.UPNP.ORG is changed.
+         * Otherwise, they are validated with ETag or Last-Modified if the device supports them.
+         *
+         * @param directory directory to store the cache, null to disable
+         * @return builder
+         */
+        fun setDescriptionCacheDirectory(directory: File?): ControlPointBuilder = apply {
+            descriptionCacheDirectory = directory
+        }
+
+        /**
+         * Set the ratio of the random jitter of the subscription renew time.
+         *
+         * Default is 0.1.
+         * The renew time of each subscription is advanced randomly up to the ratio of the renew interval,
+         * so that the subscriptions started at the same time do not renew at the same time.
+         * The value is limited to the range from 0 to 0.5, 0 to disable.
+         *
+         * @param ratio ratio of the jitter
+         * @return builder
+         */
+        fun setSubscriptionRenewJitter(ratio: Float): ControlPointBuilder = apply {
+            subscriptionRenewJitter = ratio.coerceIn(0f, SubscribeServiceHolder.MAX_RENEW_JITTER_RATIO)
+        }
+
+        /**
+         * Set the interval between the subscription renew requests to the same host.
+         *
+         * Default is 0.
+         * The renew requests to the same host are always executed one by one on a keep-alive connection.
+         * If set to 1 or more, wait the specified time between them, to limit the rate of the requests.
+         *
+         * @param interval interval in milliseconds
+         * @return builder
+         */
+        fun setSubscriptionRenewHostInterval(interval: Long): ControlPointBuilder = apply {
+            subscriptionRenewHostInterval = maxOf(interval, 0L)
+        }
+
+        /**
+         * Set the subscription timeout requested by subscribe and renew subscribe.
+         *
+         * Default is 300 seconds.
+         * Longer timeout reduces the renew requests, but it takes longer to notice that the subscription is lost.
+         * [Long.MAX_VALUE] to request "infinite", but it is deprecated in UPnP 2.0 and many devices do not accept it.
+         * This can be overridden for each Service by [Service.requestedSubscriptionTimeout].
+         *
+         * @param timeout timeout in milliseconds, rounded up to seconds
+         * @return builder
+         */
+        fun setSubscriptionTimeout(timeout: Long): ControlPointBuilder = apply {
+            subscriptionTimeout = if (timeout > 0) timeout else SubscribeManagerImpl.DEFAULT_SUBSCRIPTION_TIMEOUT
+        }
+
+        /**
+         * Set whether to adapt the renew interval of the subscription to the result of renew.
+         *
+         * Default is false, that is, renew is executed at about half of the timeout.
+         * If set to true, the renew interval is lengthened up to about 3/4 of the timeout while renew keeps succeeding,
+         * and the margin before the expiration is widened if the device responds slowly.
+         * The effect can be seen by [ControlPoint.subscriptionSavedRenewCount].
+         *
+         * @param enabled true, adapt the renew interval. false, otherwise
+         * @return builder
+         */
+        fun setSubscriptionAdaptiveRenewEnabled(enabled: Boolean): ControlPointBuilder = apply {
+            subscriptionAdaptiveRenewEnabled = enabled
+        }
+
+        /**
+         * Set whether to subscribe again when lost events are detected.
+         *
+         * Default is false.
+         * The lost events are detected by the gap of SEQ of the received events.
+         * A missing initial event of a new subscription is not treated as a gap.
+         * If set to true, the subscription is restarted by unsubscribe and subscribe,
+         * then the initial event notifies the current values of all evented state variables.
+         * So it is not necessary to get them by actions to recover the state.
+         *
+         * @param enabled true, subscribe again on lost events. false, otherwise
+         * @return builder
+         */
+        fun setResubscribeOnEventGapEnabled(enabled: Boolean): ControlPointBuilder = apply {
+            resubscribeOnEventGapEnabled = enabled
+        }
+
+        /**
+         * Set whether to cache the values of StateVariables received by event.
+         *
+         * Default is false.
+         * If set to true, the last known values are kept for each Service,
+         * and can be read by [Service.getStateVariableValue] without communication.
+         * The values are cleared when the subscription ends or the device is lost.
+         *
+         * @param enabled true, cache the values. false, otherwise
+         * @return builder
+         */
+        fun setStateVariableCacheEnabled(enabled: Boolean): ControlPointBuilder = apply {
+            stateVariableCacheEnabled = enabled
+        }
+
+        /**
+         * Set the parser of the "LastChange" StateVariable used by the StateVariable cache.
+         *
+         * Some services, such as AVTransport and RenderingControl, notify the changes of the StateVariables
+         * as an XML in the value of LastChange, instead of notifying the StateVariables themselves.
+         * The pairs of the name and value returned by the parser are cached in addition to LastChange itself.
+         * The parser is called on the thread receiving the event, and should not block.
+         *
+         * @param parser parser of LastChange, null to cache LastChange as it is.
+         * @return builder
+         * @see setStateVariableCacheEnabled
+         */
+        fun setLastChangeParser(
+            parser: ((service: Service, value: String) -> List<Pair<String, String>>)?
+        ): ControlPointBuilder = apply {
+            lastChangeParser = parser
+        }
+
+        /**
+         * Set whether to conflate the events while the listener is busy.
+         *
+         * Default is false, that is, every event is delivered to [ControlPoint.EventListener]
+         * and [ControlPoint.NotifyEventListener].
+         * If set to true, while a listener is busy or waiting for the callback thread,
+         * only the latest value for each Service and StateVariable is kept and delivered.
+         * This prevents the backlog of the listener from growing
+         * when the device notifies the events frequently, such as LastChange of a renderer.
+         * The sequence of the values of a StateVariable is not guaranteed to be complete.
+         *
+         * @param enabled true, conflate the events. false, otherwise
+         * @return builder
+         */
+        fun setEventConflationEnabled(enabled: Boolean): ControlPointBuilder = apply {
+            eventConflationEnabled = enabled
+        }
+
+        /**
+         * Set the number of the callback threads.
+         *
+         * Default is 1, all callbacks are executed on a single thread in order.
+         * If set to 2 or more, the callbacks about different devices are executed in parallel,
+         * so that a slow listener for a device does not delay the callbacks about the other devices.
+         * The callbacks about the same device, including its embedded devices, are still executed in order.
+         * Ignored if the callback executor or the callback handler is specified.
+         *
+         * @param count number of threads
+         * @return builder
+         */
+        fun setCallbackThreadCount(count: Int): ControlPointBuilder = apply {
+            callbackThreadCount = maxOf(count, 1)
+        }
+
+        /**
+         * Set whether to use virtual threads for the internal threads.
+         *
+         * Default is false, the platform threads are used.
+         * If set to true, the I/O tasks such as loading descriptions, invoking actions and receiving events,
+         * and the server loops are executed on virtual threads,
+         * so that a large number of concurrent communications do not need the same number of platform threads.
+         * The callback threads are not affected.
+         * If the runtime does not support virtual threads, the platform threads are used.
+         *
+         * @param enabled true, use virtual threads if available. false, otherwise
+         * @return builder
+         */
+        fun setVirtualThreadEnabled(enabled: Boolean): ControlPointBuilder = apply {
+            virtualThreadEnabled = enabled
+        }
+
+        /**
+         * Set the max number of the communications executed at once for the same host.
+         *
+         * Default is 4.
+         * The communications over the limit wait, and the communications with the other hosts are started ahead.
+         * This prevents a slow device from occupying all threads.
+         *
+         * @param count max number of the communications for a host
+         * @return builder
+         */
+        fun setIoMaxConnectionsPerHost(count: Int): ControlPointBuilder = apply {
+            ioMaxPerHost = maxOf(count, 1)
+        }
+
+        /**
+         * Set the max number of the communication tasks waiting to be started.
+         *
+         * Default is 256.
+         * The tasks are started in the order of the priority,
+         * the action and the subscription requested by the user and the event from the device first,
+         * the loading of the description and the renewal of the subscription last.
+         * If the queue is full, the new task is rejected and retried on the next chance,
+         * such as the next SSDP message.
+         * The tasks requested by the user and the event are never rejected.
+         *
+         * @param capacity max number of the waiting tasks
+         * @return builder
+         */
+        fun setIoQueueCapacity(capacity: Int): ControlPointBuilder = apply {
+            ioQueueCapacity = maxOf(capacity, 1)
+        }
+
+        /**
+         * Set whether to invoke the actions with non-blocking I/O.
+         *
+         * Default is false, each action invoked by [Action.invoke] or [Action.invokeAsync]
+         * occupies a thread until the response is received.
+         * If set to true, all requests are sent and received by a single thread with non-blocking I/O,
+         * and a thread is used only to read the response,
+         * so that a large number of actions waiting for the response do not need the same number of threads.
+         * Each action uses a new connection, and redirection is not followed.
+         * [Action.invokeSync] is not affected.
+         *
+         * @param enabled true, use non-blocking I/O. false, otherwise
+         * @return builder
+         */
+        fun setAsyncActionEnabled(enabled: Boolean): ControlPointBuilder = apply {
+            asyncActionEnabled = enabled
+        }
+
         /**
          * Build an instance of ControlPoint.
          *
@@ -199,7 +476,26 @@ object ControlPointFactory {
             notifySegmentCheckEnabled,
             subscriptionEnabled,
             multicastEventingEnabled,
-            DiFactory(protocol, callbackExecutor)
+            DiFactory(
+                protocol,
+                callbackExecutor,
+                nioEventReceiverEnabled,
+                datagramSelectorThreadCount,
+                descriptionCacheDirectory,
+                subscriptionRenewJitter,
+                subscriptionRenewHostInterval,
+                subscriptionTimeout,
+                subscriptionAdaptiveRenewEnabled,
+                resubscribeOnEventGapEnabled,
+                stateVariableCacheEnabled,
+                lastChangeParser,
+                eventConflationEnabled,
+                callbackThreadCount,
+                virtualThreadEnabled,
+                ioMaxPerHost,
+                ioQueueCapacity,
+                asyncActionEnabled
+            )
         )
     }
 }
@@ -7,6 +7,8 @@
 
 package net.mm2d.upnp
 
+import java.io.IOException
+
 /**
  * Interface of UPnP Device.
  *
@@ -329,4 +331,65 @@ interface Device {
      * @return Embedded Device
      */
     fun findDeviceByTypeRecursively(deviceType: String): Device?
+
+    /**
+     * Invoke the Actions of this Device at once.
+     *
+     * The requests are sent over a connection without waiting for the responses (HTTP/1.1 pipelining),
+     * and the results are returned in the order of [invocations].
+     * This is useful to poll the state with several Actions, such as GetPositionInfo and GetVolume.
+     * If the device closes the connection, the remaining Actions are invoked one by one.
+     * Since an Action may be invoked again in this case, use only the Actions that do not change the state.
+     *
+     * Each invocation is specified by the pair of the Action and the argument values.
+     * The Action must be of this Device or its embedded Devices.
+     *
+     * @param invocations List of the pair of the Action and the argument values
+     * @param returnErrorResponse When an error response is received, if true,
+     * the error is also parsed and returned as a return value. If false, throws IOException.
+     * @return Invocation results in the order of [invocations]
+     * @throws IOException If any exception occurs while communication or there is an error response
+     * @throws IllegalArgumentException If the Action is not of this Device
+     * @see Action.invokeSync
+     */
+    @Throws(IOException::class)
+    fun invokeBatchSync(
+        invocations: List<Pair<Action, Map<String, String?>>>,
+        returnErrorResponse: Boolean = false
+    ): List<Map<String, String>>
+
+    /**
+     * Invoke the Actions of this Device at once asynchronously. The result is received by callback.
+     *
+     * @param invocations List of the pair of the Action and the argument values
+     * @param returnErrorResponse When an error response is received, if true,
+     * the error is also parsed and returned as a return value. If false, notify the error.
+     * @param onResult Callback to notify the results. It will be Executed in callback thread.
+     * @param onError Callback to notify error. It will be Executed in callback thread.
+     * @throws IllegalArgumentException If the Action is not of this Device
+     * @see invokeBatchSync
+     */
+    fun invokeBatch(
+        invocations: List<Pair<Action, Map<String, String?>>>,
+        returnErrorResponse: Boolean = false,
+        onResult: ((List<Map<String, String>>) -> Unit)? = null,
+        onError: ((IOException) -> Unit)? = null
+    )
+
+    /**
+     * Invoke the Actions of this Device at once asynchronously.
+     * Suspends the invoking coroutine until the results are received.
+     *
+     * @param invocations List of the pair of the Action and the argument values
+     * @param returnErrorResponse When an error response is received, if true,
+     * the error is also parsed and returned as a return value. If false, throws IOException.
+     * @return Invocation results in the order of [invocations]
+     * @throws IOException If any exception occurs while communication or there is an error response
+     * @throws IllegalArgumentException If the Action is not of this Device
+     * @see invokeBatchSync
+     */
+    suspend fun invokeBatchAsync(
+        invocations: List<Pair<Action, Map<String, String?>>>,
+        returnErrorResponse: Boolean = false
+    ): List<Map<String, String>>
 }
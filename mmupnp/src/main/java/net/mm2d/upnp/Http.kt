@@ -53,6 +53,14 @@ object Http {
     const val CONTENT_TYPE_DEFAULT = "text/xml; charset=\"utf-8\""
     /** User-Agent */
     const val USER_AGENT = "User-Agent"
+    /** ETag */
+    const val ETAG = "ETag"
+    /** Last-Modified */
+    const val LAST_MODIFIED = "Last-Modified"
+    /** If-None-Match */
+    const val IF_NONE_MATCH = "If-None-Match"
+    /** If-Modified-Since */
+    const val IF_MODIFIED_SINCE = "If-Modified-Since"
     /** Mandatory request */
     const val MAN = "MAN"
     /** Maximum wait time in seconds 1-5 */
@@ -8,10 +8,13 @@
 package net.mm2d.upnp
 
 import net.mm2d.log.Logger
+import net.mm2d.upnp.internal.manager.HttpConnectionPool
+import net.mm2d.upnp.internal.message.HttpInputStream
 import net.mm2d.upnp.internal.util.closeQuietly
 import java.io.*
 import java.net.InetAddress
 import java.net.Socket
+import java.net.SocketTimeoutException
 import java.net.URL
 
 /**
@@ -26,6 +29,9 @@ import java.net.URL
  * Naturally even in the keep-alive state,
  * if it is not the same host port as the connection maintained at post, disconnect and reconnect.
  *
+ * When created by the ControlPoint, connections that can be kept alive are returned to the pool at close,
+ * and are reused by the following communication to the same host.
+ *
  * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
  *
  * @constructor initialize
@@ -33,11 +39,12 @@ import java.net.URL
  * @param keepAlive true: keep-alive
  */
 class HttpClient(keepAlive: Boolean = true) {
-    private class SocketHolder(
+    internal class SocketHolder(
         val socket: Socket
     ) {
-        val input: InputStream = BufferedInputStream(socket.getInputStream())
+        val input: InputStream = HttpInputStream(socket.getInputStream())
         val output: OutputStream = BufferedOutputStream(socket.getOutputStream())
+        var pooled: Boolean = false
 
         fun close() {
             socket.closeQuietly()
@@ -45,6 +52,12 @@ class HttpClient(keepAlive: Boolean = true) {
     }
 
     private var socketHolder: SocketHolder? = null
+    private var connectionPool: HttpConnectionPool? = null
+
+    internal constructor(keepAlive: Boolean, connectionPool: HttpConnectionPool?) : this(keepAlive) {
+        this.connectionPool = connectionPool
+    }
+
     /**
      * Returns the local address used by the socket.
      *
@@ -112,17 +125,79 @@ class HttpClient(keepAlive: Boolean = true) {
         return redirectIfNeeded(request, response, redirectDepth)
     }
 
+    /**
+     * Send the requests at once over a connection, and receive the responses in the order of the requests.
+     *
+     * The requests are sent without waiting for the responses (HTTP/1.1 pipelining),
+     * so that the round trip time is not multiplied by the number of requests.
+     * If the connection is closed before all responses are received, or the requests are not for the same host,
+     * the remaining requests are sent one by one by [post].
+     * Since a request may be sent again, the requests must be idempotent.
+     * Redirection is followed only for the requests sent by [post].
+     *
+     * @param requests Requests to send
+     * @return Received responses
+     * @throws IOException if an I/O error occurs.
+     */
+    @Throws(IOException::class)
+    internal fun postPipelined(requests: List<HttpRequest>): List<HttpResponse> {
+        val responses = ArrayList<HttpResponse>(requests.size)
+        if (requests.size > 1 && isKeepAlive && requests.all { it.isSameDestination(requests[0]) }) {
+            pipeline(requests, responses)
+        }
+        for (i in responses.size until requests.size) {
+            responses.add(post(requests[i]))
+        }
+        return responses
+    }
+
+    private fun HttpRequest.isSameDestination(other: HttpRequest): Boolean =
+        address != null && address == other.address && port == other.port
+
+    private fun pipeline(requests: List<HttpRequest>, responses: MutableList<HttpResponse>) {
+        val first = requests[0]
+        confirmReuseSocket(first)
+        try {
+            val socketHolder = socketHolder ?: acquireSocket(first) ?: openSocket(first)
+            socketHolder.pooled = false
+            requests.forEach { it.writeData(socketHolder.output) }
+            for (i in requests.indices) {
+                val response = HttpResponse.create(socketHolder.input)
+                responses.add(response)
+                // the following requests are discarded by the server
+                if (!response.isKeepAlive()) break
+            }
+        } catch (e: IOException) {
+            Logger.v { "pipelining is interrupted:\n" + e.message }
+        }
+        if (responses.size < requests.size || !responses.last().isKeepAlive()) {
+            closeSocket()
+        }
+    }
+
     private fun confirmReuseSocket(request: HttpRequest) {
         if (!canReuse(request)) {
-            closeSocket()
+            releaseSocket()
         }
     }
 
     @Throws(IOException::class)
     private fun doRequest(request: HttpRequest): HttpResponse {
-        val socketHolder = socketHolder
+        val socketHolder = socketHolder ?: acquireSocket(request)
         return if (socketHolder == null) {
             writeAndRead(openSocket(request), request)
+        } else if (socketHolder.pooled) {
+            socketHolder.pooled = false
+            try {
+                writeAndRead(socketHolder, request)
+            } catch (e: SocketTimeoutException) {
+                throw e
+            } catch (e: IOException) {
+                // プールしている間にpeerから切断された可能性があるため、新しいコネクションでリトライ
+                Logger.v { "retry with new connection:\n" + e.message }
+                closeSocket()
+                writeAndRead(openSocket(request), request)
+            }
         } else {
             try {
                 writeAndRead(socketHolder, request)
@@ -182,6 +257,16 @@ class HttpClient(keepAlive: Boolean = true) {
     internal fun Socket.canReuse(request: HttpRequest): Boolean =
         isConnected && inetAddress == request.address && port == request.port
 
+    private fun acquireSocket(request: HttpRequest): SocketHolder? {
+        if (!isKeepAlive) return null
+        val address = request.address ?: return null
+        return connectionPool?.acquire(address, request.port)?.also {
+            it.pooled = true
+            socketHolder = it
+            localAddress = it.socket.localAddress
+        }
+    }
+
     @Throws(IOException::class)
     private fun openSocket(request: HttpRequest): SocketHolder {
         val socket = Socket().also {
@@ -199,10 +284,24 @@ class HttpClient(keepAlive: Boolean = true) {
         socketHolder = null
     }
 
+    private fun releaseSocket() {
+        val socketHolder = socketHolder ?: return
+        this.socketHolder = null
+        val pool = connectionPool
+        if (pool != null && isKeepAlive) {
+            pool.release(socketHolder)
+        } else {
+            socketHolder.close()
+        }
+    }
+
     /**
      * close socket.
+     *
+     * If the connection can be kept alive and this was created with the connection pool,
+     * the connection is returned to the pool instead of closing it.
      */
-    fun close(): Unit = closeSocket()
+    fun close(): Unit = releaseSocket()
 
     /**
      * Get a string by simple HTTP GET.
@@ -243,6 +342,33 @@ class HttpClient(keepAlive: Boolean = true) {
         }
     }
 
+    /**
+     * Invoke HTTP GET with the validators of the cached entity.
+     *
+     * @param url Destination URL
+     * @param etag ETag of the cached entity
+     * @param lastModified Last-Modified of the cached entity
+     * @return Received response, or null if the entity is not modified.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Throws(IOException::class)
+    internal fun downloadIfModified(url: URL, etag: String?, lastModified: String?): HttpResponse? {
+        val request = makeHttpRequest(url).apply {
+            etag?.let { setHeader(Http.IF_NONE_MATCH, it) }
+            lastModified?.let { setHeader(Http.IF_MODIFIED_SINCE, it) }
+        }
+        return post(request).let {
+            when {
+                it.getStatus() == Http.Status.HTTP_NOT_MODIFIED -> null
+                it.getStatus() !== Http.Status.HTTP_OK || it.getBody() == null -> {
+                    Logger.i { "request:\n$request\nresponse:\n$it" }
+                    throw IOException(it.startLine)
+                }
+                else -> it
+            }
+        }
+    }
+
     @Throws(IOException::class)
     private fun makeHttpRequest(url: URL): HttpRequest =
         HttpRequest.create().apply {
@@ -255,6 +381,27 @@ class HttpClient(keepAlive: Boolean = true) {
     companion object {
         private const val REDIRECT_MAX = 2
 
-        internal fun create(keepAlive: Boolean = true) = HttpClient(keepAlive)
+        internal fun create(
+            keepAlive: Boolean = true,
+            connectionPool: HttpConnectionPool? = null
+        ) = HttpClient(keepAlive, connectionPool)
     }
 }
+
+/**
+ * Send a request and receive a response, then close this client.
+ *
+ * Used for one-shot communication, so that the connection is returned to the pool if possible.
+ *
+ * @receiver HttpClient
+ * @param request Request to send
+ * @return Received response
+ * @throws IOException if an I/O error occurs.
+ */
+@Throws(IOException::class)
+internal fun HttpClient.postAndClose(request: HttpRequest): HttpResponse =
+    try {
+        post(request)
+    } finally {
+        close()
+    }
@@ -118,6 +118,28 @@ interface Service {
      */
     val subscriptionId: String?
 
+    /**
+     * Subscription timeout in milliseconds requested by subscribe and renew subscribe.
+     *
+     * 0 or less to use the value set to ControlPoint, [Long.MAX_VALUE] to request "infinite".
+     * The device may not accept the requested value, and the actual timeout is the value it responds.
+     *
+     * @see ControlPointFactory.ControlPointBuilder.setSubscriptionTimeout
+     */
+    var requestedSubscriptionTimeout: Long
+
+    /**
+     * Last known values of the StateVariables received by event, keyed by the name.
+     *
+     * This is a snapshot, and no communication is performed.
+     * Empty unless the StateVariable cache is enabled.
+     * Cleared when a new subscription starts, when unsubscribed, and when the device is lost,
+     * so it only holds the values received by the current subscription.
+     *
+     * @see ControlPointFactory.ControlPointBuilder.setStateVariableCacheEnabled
+     */
+    val stateVariableValues: Map<String, StateVariableValue>
+
     /**
      * Find the Action by name.
      *
@@ -138,6 +160,19 @@ interface Service {
      */
     fun findStateVariable(name: String?): StateVariable?
 
+    /**
+     * Returns the last known value of the StateVariable received by event.
+     *
+     * No communication is performed.
+     * Check [StateVariableValue.time] to judge whether the value is still valid.
+     *
+     * @param name name of StateVariable, or the name given by the LastChange parser
+     * @return last known value, null if no event has been received by the current subscription,
+     * or the cache is disabled.
+     * @see ControlPointFactory.ControlPointBuilder.setStateVariableCacheEnabled
+     */
+    fun getStateVariableValue(name: String): StateVariableValue?
+
     /**
      * Invoke subscribe synchronously.
      *
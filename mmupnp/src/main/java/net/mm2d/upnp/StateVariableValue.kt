@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp
+
+/**
+ * Last known value of the StateVariable received by event.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param name name of the StateVariable, or the name given by the LastChange parser
+ * @param value value
+ * @param time time when the event was received (UTC(ms)), to judge whether the value is stale
+ */
+data class StateVariableValue(
+    val name: String,
+    val value: String,
+    val time: Long
+)
@@ -19,6 +19,19 @@ import net.mm2d.upnp.SsdpMessage
 object EmptyControlPoint : ControlPoint {
     override val deviceListSize: Int = 0
     override val deviceList: List<Device> = emptyList()
+    override val ssdpDuplicateHitCount: Long = 0L
+    override val ssdpDuplicateMissCount: Long = 0L
+    override val subscriptionRenewCount: Long = 0L
+    override val subscriptionSavedRenewCount: Long = 0L
+    override val eventSequenceGapCount: Long = 0L
+    override val eventDuplicateCount: Long = 0L
+    override val eventSequenceResetCount: Long = 0L
+    override val eventBacklogSize: Int = 0
+    override val eventConflatedCount: Long = 0L
+    override val callbackPendingCount: Int = 0
+    override val callbackLatency: Long = 0L
+    override val ioPendingCount: Int = 0
+    override val ioRejectedCount: Int = 0
     override fun initialize() = Unit
     override fun terminate() = Unit
     override fun start() = Unit
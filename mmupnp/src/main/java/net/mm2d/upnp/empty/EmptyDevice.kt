@@ -8,6 +8,7 @@
 package net.mm2d.upnp.empty
 
 import net.mm2d.upnp.*
+import java.io.IOException
 
 /**
  * Empty implementation of [Device].
@@ -75,4 +76,28 @@ object EmptyDevice : Device {
     override fun findAction(name: String): Action? = null
     override fun findDeviceByType(deviceType: String): Device? = null
     override fun findDeviceByTypeRecursively(deviceType: String): Device? = null
+
+    @Throws(IOException::class)
+    override fun invokeBatchSync(
+        invocations: List<Pair<Action, Map<String, String?>>>,
+        returnErrorResponse: Boolean
+    ): List<Map<String, String>> {
+        throw IOException("empty object")
+    }
+
+    override fun invokeBatch(
+        invocations: List<Pair<Action, Map<String, String?>>>,
+        returnErrorResponse: Boolean,
+        onResult: ((List<Map<String, String>>) -> Unit)?,
+        onError: ((IOException) -> Unit)?
+    ) {
+        onError?.invoke(IOException("empty object"))
+    }
+
+    override suspend fun invokeBatchAsync(
+        invocations: List<Pair<Action, Map<String, String?>>>,
+        returnErrorResponse: Boolean
+    ): List<Map<String, String>> {
+        throw IOException("empty object")
+    }
 }
@@ -23,9 +23,14 @@ object EmptyService : Service {
     override val actionList: List<Action> = emptyList()
     override val stateVariableList: List<StateVariable> = emptyList()
     override val subscriptionId: String? = null
+    override var requestedSubscriptionTimeout: Long
+        get() = 0L
+        set(_) = Unit
+    override val stateVariableValues: Map<String, StateVariableValue> = emptyMap()
 
     override fun findAction(name: String): Action? = null
     override fun findStateVariable(name: String?): StateVariable? = null
+    override fun getStateVariableValue(name: String): StateVariableValue? = null
     override fun subscribeSync(keepRenew: Boolean): Boolean = false
     override fun renewSubscribeSync(): Boolean = false
     override fun unsubscribeSync(): Boolean = false
@@ -9,6 +9,7 @@ package net.mm2d.upnp.internal.impl
 
 import net.mm2d.upnp.Action
 import net.mm2d.upnp.Argument
+import net.mm2d.upnp.internal.thread.IoPriority
 import java.io.IOException
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
@@ -58,7 +59,26 @@ internal class ActionImpl(
         onResult: (Map<String, String>) -> Unit,
         onError: (IOException) -> Unit
     ) {
-        taskExecutors.io {
+        val client = service.device.controlPoint.asyncHttpClient
+        if (client != null) {
+            // build the request on the io thread, only waiting for the response is left to the selector
+            taskExecutors.io(IoPriority.HIGH, service.device.ipAddress) {
+                invokeDelegate.post(client, argumentValues, customNamespace, customArguments, { response ->
+                    // read on the io thread not to block the selector thread
+                    taskExecutors.io(IoPriority.HIGH, null) {
+                        try {
+                            onResult(invokeDelegate.readResponse(response, returnErrorResponse))
+                        } catch (e: IOException) {
+                            onError(e)
+                        }
+                    }
+                }, { e ->
+                    taskExecutors.io(IoPriority.HIGH, null) { onError(e) }
+                })
+            }
+            return
+        }
+        taskExecutors.io(IoPriority.HIGH, service.device.ipAddress) {
             try {
                 onResult(invokeCustomSync(argumentValues, customNamespace, customArguments, returnErrorResponse))
             } catch (e: IOException) {
@@ -83,10 +103,10 @@ internal class ActionImpl(
         onError: ((IOException) -> Unit)?
     ) = invokeInner(argumentValues, customNamespace, customArguments, returnErrorResponse, {
         onResult ?: return@invokeInner
-        taskExecutors.callback { onResult(it) }
+        taskExecutors.callback(service.device.rootUdn) { onResult(it) }
     }, {
         onError ?: return@invokeInner
-        taskExecutors.callback { onError(it) }
+        taskExecutors.callback(service.device.rootUdn) { onError(it) }
     })
 
     override suspend fun invokeAsync(
@@ -107,36 +127,17 @@ internal class ActionImpl(
     }
 
     class Builder {
-        private var service: ServiceImpl? = null
         private var name: String? = null
         private val argumentList: MutableList<ArgumentImpl.Builder> = mutableListOf()
 
-        @Throws(IllegalStateException::class)
-        fun build(): ActionImpl {
-            val service = service
-                ?: throw IllegalStateException("service must be set.")
-            val name = name
-                ?: throw IllegalStateException("name must be set.")
-            return ActionImpl(
-                service = service,
-                name = name,
-                argumentMap = argumentList
-                    .map { it.build() }
-                    .map { it.name to it }
-                    .toMap()
-            )
-        }
-
         fun getArgumentBuilderList(): List<ArgumentImpl.Builder> = argumentList
 
-        fun setService(service: ServiceImpl): Builder = apply {
-            this.service = service
-        }
-
         fun setName(name: String): Builder = apply {
             this.name = name
         }
 
+        fun getName(): String? = name
+
         // Actionのインスタンス作成後にArgumentを登録することはできない
         fun addArgumentBuilder(argument: ArgumentImpl.Builder): Builder = apply {
             argumentList.add(argument)
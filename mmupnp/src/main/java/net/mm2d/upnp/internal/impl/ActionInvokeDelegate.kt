@@ -9,21 +9,14 @@ package net.mm2d.upnp.internal.impl
 
 import net.mm2d.log.Logger
 import net.mm2d.upnp.*
-import net.mm2d.upnp.util.*
-import org.w3c.dom.Document
-import org.w3c.dom.Element
-import org.w3c.dom.Node
+import net.mm2d.upnp.internal.manager.AsyncHttpClient
+import net.mm2d.upnp.internal.message.SoapWriter
+import net.mm2d.upnp.internal.parser.SoapResponseParser
 import org.xml.sax.SAXException
 import java.io.IOException
-import java.io.StringWriter
 import java.net.MalformedURLException
 import java.net.URL
 import javax.xml.parsers.ParserConfigurationException
-import javax.xml.transform.OutputKeys
-import javax.xml.transform.TransformerException
-import javax.xml.transform.TransformerFactory
-import javax.xml.transform.dom.DOMSource
-import javax.xml.transform.stream.StreamResult
 
 internal class ActionInvokeDelegate(
     action: ActionImpl
@@ -31,7 +24,25 @@ internal class ActionInvokeDelegate(
     private val service: ServiceImpl = action.service
     private val name: String = action.name
     private val argumentMap: Map<String, Argument> = action.argumentMap
-    private fun createHttpClient(): HttpClient = HttpClient.create(false)
+    private val inputArgumentList: List<Argument> by lazy {
+        argumentMap.values.filter { it.isInputDirection }
+    }
+    private val soapWriter: SoapWriter by lazy { SoapWriter(service.serviceType, name) }
+    @Volatile
+    private var requestTemplate: RequestTemplate? = null
+
+    /**
+     * HttpRequest with the fixed headers and destination, copied for each invoke.
+     *
+     * The control URL depends on the location of the device, so it is rebuilt if the base URL changes.
+     */
+    private class RequestTemplate(
+        val baseUrl: String,
+        val request: HttpRequest
+    )
+
+    private fun createHttpClient(): HttpClient =
+        HttpClient.create(true, service.device.controlPoint.httpConnectionPool)
 
     @Throws(IOException::class)
     fun invoke(
@@ -40,11 +51,62 @@ internal class ActionInvokeDelegate(
         customArguments: Map<String, String>,
         returnErrorResponse: Boolean
     ): Map<String, String> {
-        val arguments = argumentMap.values
-            .filter { it.isInputDirection }
+        val soap = makeSoap(argumentValues, customNamespace, customArguments)
+        return invoke(soap, returnErrorResponse)
+    }
+
+    /**
+     * Send the request of this Action with [AsyncHttpClient].
+     *
+     * The response is passed as it is, and should be read by [readResponse] on the other thread,
+     * since the callbacks are called on the selector thread of [AsyncHttpClient].
+     *
+     * @param client AsyncHttpClient
+     * @param argumentValues Argument values
+     * @param customNamespace custom namespaces
+     * @param customArguments custom arguments
+     * @param onResponse Callback to receive the response
+     * @param onError Callback to receive the error
+     */
+    fun post(
+        client: AsyncHttpClient,
+        argumentValues: Map<String, String?>,
+        customNamespace: Map<String, String>,
+        customArguments: Map<String, String>,
+        onResponse: (HttpResponse) -> Unit,
+        onError: (IOException) -> Unit
+    ) {
+        val request = try {
+            makeHttpRequest(makeSoap(argumentValues, customNamespace, customArguments))
+        } catch (e: IOException) {
+            onError(e)
+            return
+        }
+        Logger.d { "action invoke:\n$request" }
+        client.post(request, onResponse, onError)
+    }
+
+    /**
+     * Create the request of this Action.
+     *
+     * @param argumentValues Argument values
+     * @return HttpRequest
+     * @throws IOException if the request can not be created.
+     */
+    @Throws(IOException::class)
+    fun makeRequest(argumentValues: Map<String, String?>): HttpRequest =
+        makeHttpRequest(makeSoap(argumentValues, emptyMap(), emptyMap()))
+
+    @Throws(IOException::class)
+    private fun makeSoap(
+        argumentValues: Map<String, String?>,
+        customNamespace: Map<String, String>,
+        customArguments: Map<String, String>
+    ): String {
+        val arguments = inputArgumentList
             .map { it.name to selectArgumentValue(it, argumentValues) } +
             customArguments.toList()
-        return invoke(arguments.makeSoap(customNamespace), returnErrorResponse)
+        return arguments.makeSoap(customNamespace)
     }
 
     /**
@@ -61,26 +123,31 @@ internal class ActionInvokeDelegate(
         argumentValues[argument.name] ?: argument.relatedStateVariable.defaultValue
 
     @Throws(IOException::class)
-    private fun invoke(soap: String, returnErrorResponse: Boolean): Map<String, String> =
-        invoke(soap).also {
+    private fun invoke(soap: String, returnErrorResponse: Boolean): Map<String, String> {
+        val request = makeHttpRequest(soap)
+        Logger.d { "action invoke:\n$request" }
+        return readResponse(createHttpClient().postAndClose(request), returnErrorResponse)
+    }
+
+    /**
+     * Read the response of this Action.
+     *
+     * @param response response
+     * @param returnErrorResponse true: return the error response as the result
+     * @return result
+     * @throws IOException if the response is invalid or the error response is received.
+     */
+    @Throws(IOException::class)
+    fun readResponse(response: HttpResponse, returnErrorResponse: Boolean): Map<String, String> =
+        readResponse(response).also {
             Logger.v { "action result:\n$it" }
             if (!returnErrorResponse && it.containsKey(Action.ERROR_CODE_KEY)) {
                 throw IOException("error response: $it")
             }
         }
 
-    /**
-     * invoke this Action
-     *
-     * @param soap SOAP XML String to send
-     * @return result
-     * @throws IOException if an I/O error occurs or receive the error response.
-     */
     @Throws(IOException::class)
-    private fun invoke(soap: String): Map<String, String> {
-        val request = makeHttpRequest(makeAbsoluteControlUrl(), soap)
-        Logger.d { "action invoke:\n$request" }
-        val response = createHttpClient().post(request)
+    private fun readResponse(response: HttpResponse): Map<String, String> {
         val body = response.getBody()
         Logger.d { "action receive:\n$body" }
         if (response.getStatus() == Http.Status.HTTP_INTERNAL_ERROR && !body.isNullOrEmpty()) {
@@ -114,22 +181,33 @@ internal class ActionInvokeDelegate(
     /**
      * SOAP送信のためのHttpRequestを作成する。
      *
-     * @param url 接続先URL
      * @param soap SOAPの文字列
      * @return SOAP送信用HttpRequest
      * @throws IOException if an I/O error occurs.
      */
     @Throws(IOException::class)
-    private fun makeHttpRequest(url: URL, soap: String): HttpRequest =
-        HttpRequest.create().apply {
+    private fun makeHttpRequest(soap: String): HttpRequest =
+        HttpRequest.copy(getRequestTemplate()).apply {
+            setBody(soap, true)
+        }
+
+    @Throws(IOException::class)
+    private fun getRequestTemplate(): HttpRequest {
+        val baseUrl = service.device.baseUrl
+        requestTemplate?.let {
+            if (it.baseUrl == baseUrl) return it.request
+        }
+        val request = HttpRequest.create().apply {
             setMethod(Http.POST)
-            setUrl(url, true)
+            setUrl(makeAbsoluteControlUrl(), true)
             setHeader(Http.SOAPACTION, soapActionName)
             setHeader(Http.USER_AGENT, Property.USER_AGENT_VALUE)
-            setHeader(Http.CONNECTION, Http.CLOSE)
+            setHeader(Http.CONNECTION, Http.KEEP_ALIVE)
             setHeader(Http.CONTENT_TYPE, Http.CONTENT_TYPE_DEFAULT)
-            setBody(soap, true)
         }
+        requestTemplate = RequestTemplate(baseUrl, request)
+        return request
+    }
 
     /**
      * Create a SOAP Action XML string.
@@ -137,71 +215,12 @@ internal class ActionInvokeDelegate(
      * @receiver Arguments
      * @param namespaces custom namespaces
      * @return SOAP Action XML string
-     * @throws IOException if an I/O error occurs.
+     * @throws IOException if the name of argument or namespace is invalid.
      */
     // VisibleForTesting
     @Throws(IOException::class)
-    internal fun List<Pair<String, String?>>.makeSoap(namespaces: Map<String, String>): String {
-        try {
-            val document = XmlUtils.newDocument(true)
-            document.makeUpToActionElement().also {
-                it.setNamespace(namespaces)
-                it.setArgument(this)
-            }
-            return document.formatXmlString()
-        } catch (e: Exception) {
-            throw IOException(e)
-        }
-    }
-
-    private fun Element.setNamespace(namespace: Map<String, String>) {
-        namespace.forEach {
-            setAttributeNS(XMLNS_URI, XMLNS_PREFIX + it.key, it.value)
-        }
-    }
-
-    /**
-     * Include Action's arguments in XML
-     *
-     * @receiver Element of action
-     * @param arguments Arguments
-     */
-    private fun Element.setArgument(arguments: List<Pair<String, String?>>) {
-        arguments.forEach {
-            appendNewElement(it.first, it.second)
-        }
-    }
-
-    /**
-     * Create SOAP Action XML up to ActionElement.
-     *
-     * @receiver document XML Document
-     * @return ActionElement
-     */
-    private fun Document.makeUpToActionElement(): Element =
-        appendNewElementNs(SOAP_NS, "s:Envelope").let {
-            it.setAttributeNS(SOAP_NS, "s:encodingStyle", SOAP_STYLE)
-            it.appendNewElementNs(SOAP_NS, "s:Body")
-                .appendNewElementNs(service.serviceType, "u:$name")
-        }
-
-    /**
-     * Convert XML Document to String.
-     *
-     * @receiver XML Document to convert
-     * @return Converted string
-     * @throws TransformerException If a conversion error occurs
-     */
-    // VisibleForTesting
-    @Throws(TransformerException::class)
-    internal fun Document.formatXmlString(): String {
-        val sw = StringWriter()
-        TransformerFactory.newInstance().newTransformer().also {
-            it.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes")
-            it.transform(DOMSource(this), StreamResult(sw))
-        }
-        return sw.toString()
-    }
+    internal fun List<Pair<String, String?>>.makeSoap(namespaces: Map<String, String>): String =
+        soapWriter.write(namespaces, this)
 
     /**
      * Parses the response of this Action.
@@ -213,35 +232,19 @@ internal class ActionInvokeDelegate(
      * @throws ParserConfigurationException If there is a problem with instantiation
      */
     @Throws(ParserConfigurationException::class, IOException::class, SAXException::class)
-    private fun parseResponse(xml: String): Map<String, String> {
-        val result = mutableMapOf<String, String>()
-        findResponseElement(xml).firstChild?.forEachElement {
-            val tag = it.localName
-            val text = it.textContent
-            if (argumentMap[tag] == null) {
-                // Optionalな情報としてArgumentに記述されていないタグが含まれる可能性があるためログ出力に留める
-                Logger.i { "invalid argument:$tag->$text" }
+    private fun parseResponse(xml: String): Map<String, String> =
+        SoapResponseParser.parseResponse(xml, responseTagName).also { result ->
+            result.forEach { (tag, text) ->
+                if (argumentMap[tag] == null) {
+                    // Optionalな情報としてArgumentに記述されていないタグが含まれる可能性があるためログ出力に留める
+                    Logger.i { "invalid argument:$tag->$text" }
+                }
             }
-            result[tag] = text
         }
-        return result
-    }
 
     private val responseTagName: String
         get() = "${name}Response"
 
-    /**
-     * Parses the error response of this Action, finds and returns the Element of the Response tag.
-     *
-     * @param xml XML string that is the response of Action
-     * @return Element of the Response tag
-     * @throws SAXException if an parse error occurs.
-     * @throws IOException if an I/O error occurs.
-     * @throws ParserConfigurationException If there is a problem with instantiation
-     */
-    @Throws(ParserConfigurationException::class, SAXException::class, IOException::class)
-    private fun findResponseElement(xml: String): Element = findElement(xml, responseTagName)
-
     /**
      * Parses the error response of this Action.
      *
@@ -252,60 +255,6 @@ internal class ActionInvokeDelegate(
      * @throws ParserConfigurationException If there is a problem with instantiation
      */
     @Throws(ParserConfigurationException::class, IOException::class, SAXException::class)
-    private fun parseErrorResponse(xml: String): Map<String, String> {
-        val result = mutableMapOf<String, String>()
-        findFaultElement(xml).firstChild?.forEachElement {
-            val tag = it.localName
-            if (tag == "detail") {
-                parseErrorDetail(result, it)
-            } else {
-                result[tag] = it.textContent
-            }
-        }
-        if (!result.containsKey(Action.ERROR_CODE_KEY)) {
-            throw IOException("no UPnPError/errorCode tag")
-        }
-        return result
-    }
-
-    /**
-     * Parse the descendants of the detail tag of the error response.
-     *
-     * @param result Output destination of parse result
-     * @param detailNode detail node
-     * @throws IOException if an I/O error occurs.
-     */
-    @Throws(IOException::class)
-    private fun parseErrorDetail(result: MutableMap<String, String>, detailNode: Node) {
-        detailNode.findChildElementByLocalName("UPnPError")
-            ?.firstChild
-            ?.forEachElement {
-                result["UPnPError/${it.localName}"] = it.textContent
-            } ?: throw IOException("no UPnPError tag")
-    }
-
-    /**
-     * Parses the error response of this Action, finds and returns the Element of the Fault tag.
-     *
-     * @param xml XML string that is the response of Action
-     * @return Element of the Fault tag
-     * @throws SAXException if an parse error occurs.
-     * @throws IOException if an I/O error occurs.
-     * @throws ParserConfigurationException If there is a problem with instantiation
-     */
-    @Throws(ParserConfigurationException::class, SAXException::class, IOException::class)
-    private fun findFaultElement(xml: String): Element = findElement(xml, "Fault")
-
-    @Throws(IOException::class, ParserConfigurationException::class, SAXException::class)
-    private fun findElement(xml: String, tag: String): Element =
-        XmlUtils.newDocument(true, xml).documentElement
-            .findChildElementByLocalName("Body")
-            ?.findChildElementByLocalName(tag) ?: throw IOException("no response tag")
-
-    companion object {
-        private const val XMLNS_URI = "http://www.w3.org/2000/xmlns/"
-        private const val XMLNS_PREFIX = "xmlns:"
-        private const val SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/"
-        private const val SOAP_STYLE = "http://schemas.xmlsoap.org/soap/encoding/"
-    }
+    private fun parseErrorResponse(xml: String): Map<String, String> =
+        SoapResponseParser.parseErrorResponse(xml)
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.impl
+
+import net.mm2d.log.Logger
+import net.mm2d.upnp.ControlPoint.EventListener
+import net.mm2d.upnp.ControlPoint.NotifyEventListener
+import net.mm2d.upnp.Service
+import net.mm2d.upnp.internal.thread.TaskExecutors
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Dispatcher of events to the listeners, that conflates the events while the listener is busy.
+ *
+ * Each listener has a mailbox that holds only the latest value for each (Service, StateVariable).
+ * Only one task for each listener is posted to the callback thread,
+ * and it delivers all the values pending at that time.
+ * While the task is waiting or running, the newer events overwrite the pending values.
+ * So the slow listener receives the latest values, and the backlog does not grow without limit.
+ *
+ * This can be used from multiple threads.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal class ConflatingEventDispatcher(
+    private val taskExecutors: TaskExecutors
+) {
+    private class Event(
+        val seq: Long,
+        val properties: List<Pair<String, String>>
+    )
+
+    private inner class Mailbox<K, V>(
+        private val merge: (old: V, new: V) -> V,
+        private val deliver: (K, V) -> Unit
+    ) {
+        private val pending = LinkedHashMap<K, V>()
+        private var scheduled = false
+
+        fun post(key: K, value: V): Unit = synchronized(this) {
+            val old = pending[key]
+            if (old == null) {
+                pending[key] = value
+                backlog.incrementAndGet()
+            } else {
+                pending[key] = merge(old, value)
+                conflated.incrementAndGet()
+            }
+            if (!scheduled) {
+                schedule()
+            }
+        }
+
+        private fun schedule() {
+            scheduled = true
+            if (!taskExecutors.callback(this) { deliverPending() }) {
+                scheduled = false
+                backlog.addAndGet(-pending.size)
+                pending.clear()
+            }
+        }
+
+        // Deliver one batch for each task, so that the other listeners are not kept waiting.
+        private fun deliverPending() {
+            val batch = synchronized(this) {
+                pending.map { it.key to it.value }.also {
+                    pending.clear()
+                    backlog.addAndGet(-it.size)
+                }
+            }
+            try {
+                // an exception of the listener must not lose the rest of the batch
+                batch.forEach {
+                    try {
+                        deliver(it.first, it.second)
+                    } catch (e: Exception) {
+                        Logger.w(e)
+                    }
+                }
+            } finally {
+                // re-arm in any case, otherwise this mailbox is never scheduled again
+                synchronized(this) {
+                    if (pending.isEmpty()) {
+                        scheduled = false
+                    } else {
+                        schedule()
+                    }
+                }
+            }
+        }
+    }
+
+    private val notifyEventMailboxMap =
+        ConcurrentHashMap<NotifyEventListener, Mailbox<Pair<Service, String>, Pair<Long, String>>>()
+    private val eventMailboxMap = ConcurrentHashMap<EventListener, Mailbox<Service, Event>>()
+    private val backlog = AtomicInteger()
+    private val conflated = AtomicLong()
+
+    /**
+     * Number of the notifications waiting to be delivered.
+     */
+    val backlogSize: Int
+        get() = backlog.get()
+
+    /**
+     * Number of the notifications merged into the pending one before being delivered.
+     */
+    val conflatedCount: Long
+        get() = conflated.get()
+
+    fun dispatch(listener: NotifyEventListener, service: Service, seq: Long, variable: String, value: String) {
+        val mailbox = notifyEventMailboxMap[listener] ?: Mailbox<Pair<Service, String>, Pair<Long, String>>(
+            { _, new -> new },
+            { key, v -> listener.onNotifyEvent(key.first, v.first, key.second, v.second) }
+        ).let { notifyEventMailboxMap.putIfAbsent(listener, it) ?: it }
+        mailbox.post(service to variable, seq to value)
+    }
+
+    fun dispatch(listener: EventListener, service: Service, seq: Long, properties: List<Pair<String, String>>) {
+        val mailbox = eventMailboxMap[listener] ?: Mailbox<Service, Event>(
+            { old, new -> Event(new.seq, mergeProperties(old.properties, new.properties)) },
+            { key, event -> listener.onEvent(key, event.seq, event.properties) }
+        ).let { eventMailboxMap.putIfAbsent(listener, it) ?: it }
+        mailbox.post(service, Event(seq, properties))
+    }
+
+    fun remove(listener: NotifyEventListener) {
+        notifyEventMailboxMap.remove(listener)
+    }
+
+    fun remove(listener: EventListener) {
+        eventMailboxMap.remove(listener)
+    }
+
+    // The newer value wins, keeping the order of the first appearance.
+    private fun mergeProperties(
+        old: List<Pair<String, String>>,
+        new: List<Pair<String, String>>
+    ): List<Pair<String, String>> {
+        val map = LinkedHashMap<String, String>()
+        old.forEach { map[it.first] = it.second }
+        new.forEach { map[it.first] = it.second }
+        return map.map { it.key to it.value }
+    }
+}
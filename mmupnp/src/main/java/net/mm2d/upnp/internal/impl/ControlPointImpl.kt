@@ -13,20 +13,28 @@ import net.mm2d.upnp.Adapter.iconFilter
 import net.mm2d.upnp.ControlPoint.*
 import net.mm2d.upnp.ControlPoint.EventListener
 import net.mm2d.upnp.internal.impl.DeviceImpl.Builder
+import net.mm2d.upnp.internal.manager.AsyncHttpClient
+import net.mm2d.upnp.internal.manager.DescriptionCache
 import net.mm2d.upnp.internal.manager.DeviceHolder
+import net.mm2d.upnp.internal.manager.HttpConnectionPool
+import net.mm2d.upnp.internal.manager.SsdpDuplicateFilter
 import net.mm2d.upnp.internal.manager.SubscribeManager
 import net.mm2d.upnp.internal.message.FakeSsdpMessage
 import net.mm2d.upnp.internal.parser.DeviceParser
+import net.mm2d.upnp.internal.parser.ParallelDownloader
 import net.mm2d.upnp.internal.server.DEFAULT_SSDP_MESSAGE_FILTER
 import net.mm2d.upnp.internal.server.MulticastEventReceiverList
 import net.mm2d.upnp.internal.server.SsdpNotifyServerList
 import net.mm2d.upnp.internal.server.SsdpSearchServerList
+import net.mm2d.upnp.internal.thread.IoPriority
 import net.mm2d.upnp.internal.thread.TaskExecutors
 import net.mm2d.upnp.internal.util.toSimpleTrace
 import java.net.Inet4Address
 import java.net.Inet6Address
 import java.net.NetworkInterface
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
 import java.util.concurrent.CopyOnWriteArraySet
 import java.util.concurrent.atomic.AtomicBoolean
 
@@ -51,13 +59,21 @@ internal class ControlPointImpl(
     private val multicastEventListenerSet: MutableSet<MulticastEventListener>
     private val searchServerList: SsdpSearchServerList
     private val notifyServerList: SsdpNotifyServerList
-    private val deviceMap: MutableMap<String, Device>
-    private val loadingDeviceMap: MutableMap<String, Builder>
+    private val deviceMap: ConcurrentMap<String, Device>
+    private val loadingDeviceMap: ConcurrentMap<String, Builder>
+    private val deviceLocks = Array(DEVICE_LOCK_STRIPES) { Any() }
     private val initialized = AtomicBoolean()
     private val started = AtomicBoolean()
     private val deviceHolder: DeviceHolder
     private val loadingPinnedDevices: MutableList<Builder>
     private val multicastEventReceiverList: MulticastEventReceiverList?
+    private val ssdpDuplicateFilter: SsdpDuplicateFilter
+    internal val httpConnectionPool: HttpConnectionPool
+    internal val asyncHttpClient: AsyncHttpClient?
+    private val parallelDownloader: ParallelDownloader
+    private val descriptionCache: DescriptionCache?
+    private val stateVariableCacheUpdater: StateVariableCache.Updater?
+    private val eventDispatcher: ConflatingEventDispatcher?
     internal val subscribeManager: SubscribeManager
     internal val taskExecutors: TaskExecutors
 
@@ -67,15 +83,24 @@ internal class ControlPointImpl(
         notifyEventListenerSet = CopyOnWriteArraySet()
         eventListenerSet = CopyOnWriteArraySet()
         multicastEventListenerSet = CopyOnWriteArraySet()
-        deviceMap = mutableMapOf()
+        deviceMap = ConcurrentHashMap()
         loadingPinnedDevices = Collections.synchronizedList(mutableListOf())
         taskExecutors = factory.createTaskExecutors()
         loadingDeviceMap = factory.createLoadingDeviceMap()
+        ssdpDuplicateFilter = factory.createSsdpDuplicateFilter()
+        httpConnectionPool = factory.createHttpConnectionPool()
+        asyncHttpClient = factory.createAsyncHttpClient(taskExecutors)
+        parallelDownloader = ParallelDownloader({ host, task ->
+            taskExecutors.io(IoPriority.LOW, host, task)
+        }, ::createHttpClient)
+        descriptionCache = factory.createDescriptionCache()
+        stateVariableCacheUpdater = factory.createStateVariableCacheUpdater()
+        eventDispatcher = factory.createEventDispatcher(taskExecutors)
         searchServerList = factory.createSsdpSearchServerList(taskExecutors, interfaces) { message ->
-            taskExecutors.io { onReceiveSsdpMessage(message) }
+            onAcceptSsdpMessage(message)
         }
         notifyServerList = factory.createSsdpNotifyServerList(taskExecutors, interfaces) { message ->
-            taskExecutors.io { onReceiveSsdpMessage(message) }
+            onAcceptSsdpMessage(message)
         }
         notifyServerList.setSegmentCheckEnabled(notifySegmentCheckEnabled)
         deviceHolder = factory.createDeviceHolder(taskExecutors) { lostDevice(it) }
@@ -85,7 +110,7 @@ internal class ControlPointImpl(
         } else null
     }
 
-    private fun createHttpClient(): HttpClient = HttpClient.create(true)
+    private fun createHttpClient(): HttpClient = HttpClient.create(true, httpConnectionPool)
 
     // VisibleForTesting
     internal fun needToUpdateSsdpMessage(oldMessage: SsdpMessage, newMessage: SsdpMessage): Boolean {
@@ -104,27 +129,68 @@ internal class ControlPointImpl(
         }
     }
 
+    // VisibleForTesting
+    internal fun onAcceptSsdpMessage(message: SsdpMessage) {
+        if (ssdpDuplicateFilter.isDuplicate(message)) return
+        taskExecutors.io { onReceiveSsdpMessage(message) }
+    }
+
+    /**
+     * Returns the lock for the state transition of the device.
+     *
+     * The state of each UDN, loading, discovered and lost, is changed with this lock,
+     * so that the messages for the different devices are processed in parallel.
+     */
+    private fun lockFor(udn: String): Any = deviceLocks[lockIndex(udn)]
+
+    private fun lockIndex(udn: String): Int = (udn.hashCode() and Int.MAX_VALUE) % deviceLocks.size
+
+    // Take the locks in the order of the index to avoid the deadlock.
+    private inline fun <T> withLocks(udn1: String, udn2: String, block: () -> T): T {
+        val index1 = lockIndex(udn1)
+        val index2 = lockIndex(udn2)
+        return synchronized(deviceLocks[minOf(index1, index2)]) {
+            synchronized(deviceLocks[maxOf(index1, index2)]) { block() }
+        }
+    }
+
     // VisibleForTesting
     internal fun onReceiveSsdpMessage(message: SsdpMessage) {
-        synchronized(deviceHolder) {
-            val uuid = message.uuid
+        val uuid = message.uuid
+        while (true) {
             val device = deviceMap[uuid]
             if (device == null) {
-                onReceiveNewSsdp(message)
-                return
-            }
-            if (message.nts == SsdpMessage.SSDP_BYEBYE) {
-                if (!isPinnedDevice(device)) {
-                    lostDevice(device)
+                synchronized(lockFor(uuid)) {
+                    if (deviceMap[uuid] == null) {
+                        onReceiveNewSsdp(message)
+                        return
+                    }
                 }
-            } else {
-                if (needToUpdateSsdpMessage(device.ssdpMessage, message)) {
-                    device.updateSsdpMessage(message)
+                continue
+            }
+            synchronized(lockFor(device.udn)) {
+                // retry if the device is lost or replaced by the other thread
+                if (deviceMap[uuid] === device) {
+                    onReceiveKnownSsdp(device, message)
+                    return
                 }
             }
         }
     }
 
+    private fun onReceiveKnownSsdp(device: Device, message: SsdpMessage) {
+        if (message.nts == SsdpMessage.SSDP_BYEBYE) {
+            if (!isPinnedDevice(device)) {
+                lostDevice(device)
+            }
+        } else {
+            if (needToUpdateSsdpMessage(device.ssdpMessage, message)) {
+                device.updateSsdpMessage(message)
+                deviceHolder.update(device)
+            }
+        }
+    }
+
     private fun onReceiveNewSsdp(message: SsdpMessage) {
         val uuid = message.uuid
         if (message.nts == SsdpMessage.SSDP_BYEBYE) {
@@ -142,9 +208,12 @@ internal class ControlPointImpl(
 
     // VisibleForTesting
     internal fun loadDevice(uuid: String, builder: Builder) {
-        loadingDeviceMap[uuid] = builder
-        if (!taskExecutors.io { loadDevice(builder) }) {
-            loadingDeviceMap.remove(uuid)
+        if (loadingDeviceMap.putIfAbsent(uuid, builder) != null) {
+            Logger.i { "already loading: $uuid" }
+            return
+        }
+        if (!taskExecutors.io(IoPriority.LOW, builder.getIpAddress()) { loadDevice(builder) }) {
+            loadingDeviceMap.remove(uuid, builder)
         }
     }
 
@@ -152,28 +221,31 @@ internal class ControlPointImpl(
         val client = createHttpClient()
         val uuid = builder.getUuid()
         try {
-            DeviceParser.loadDescription(client, builder)
+            DeviceParser.loadDescription(client, builder, parallelDownloader, iconFilter, descriptionCache)
             val device = builder.build()
-            device.loadIconBinary(client, iconFilter)
-            synchronized(deviceHolder) {
-                if (loadingDeviceMap.remove(uuid) != null) {
+            // If byebye is received while loading, the builder has been removed.
+            withLocks(uuid, device.udn) {
+                if (loadingDeviceMap.remove(uuid, builder)) {
                     discoverDevice(device)
                 }
             }
         } catch (e: Exception) {
             Logger.w { "loadDevice: " + e.toSimpleTrace() }
             Logger.i(e) { builder.toDumpString() }
-            synchronized(deviceHolder) {
-                loadingDeviceMap.remove(uuid)
-            }
+            loadingDeviceMap.remove(uuid, builder)
         } finally {
             client.close()
         }
     }
 
     private fun onReceiveEvent(service: Service, seq: Long, properties: List<Pair<String, String>>) {
+        stateVariableCacheUpdater?.update(service, properties)
         eventListenerSet.forEach {
-            taskExecutors.callback { it.onEvent(service, seq, properties) }
+            if (eventDispatcher != null) {
+                eventDispatcher.dispatch(it, service, seq, properties)
+            } else {
+                taskExecutors.callback(service.device.rootUdn) { it.onEvent(service, seq, properties) }
+            }
         }
         if (notifyEventListenerSet.isEmpty()) return
         properties.forEach {
@@ -188,7 +260,11 @@ internal class ControlPointImpl(
             return
         }
         notifyEventListenerSet.forEach {
-            taskExecutors.callback { it.onNotifyEvent(service, seq, variable.name, value) }
+            if (eventDispatcher != null) {
+                eventDispatcher.dispatch(it, service, seq, variable.name, value)
+            } else {
+                taskExecutors.callback(service.device.rootUdn) { it.onNotifyEvent(service, seq, variable.name, value) }
+            }
         }
     }
 
@@ -200,11 +276,9 @@ internal class ControlPointImpl(
         seq: Long,
         properties: List<Pair<String, String>>
     ) {
-        val service = synchronized(deviceHolder) {
-            deviceMap[uuid]?.findServiceById(svcid)
-        } ?: return
+        val service = deviceMap[uuid]?.findServiceById(svcid) ?: return
         multicastEventListenerSet.forEach {
-            taskExecutors.callback { it.onEvent(service, lvl, seq, properties) }
+            taskExecutors.callback(service.device.rootUdn) { it.onEvent(service, lvl, seq, properties) }
         }
     }
 
@@ -214,6 +288,45 @@ internal class ControlPointImpl(
     override val deviceList: List<Device>
         get() = deviceHolder.deviceList
 
+    override val ssdpDuplicateHitCount: Long
+        get() = ssdpDuplicateFilter.hitCount
+
+    override val ssdpDuplicateMissCount: Long
+        get() = ssdpDuplicateFilter.missCount
+
+    override val subscriptionRenewCount: Long
+        get() = subscribeManager.getRenewCount()
+
+    override val subscriptionSavedRenewCount: Long
+        get() = subscribeManager.getSavedRenewCount()
+
+    override val eventSequenceGapCount: Long
+        get() = subscribeManager.getEventGapCount()
+
+    override val eventDuplicateCount: Long
+        get() = subscribeManager.getEventDuplicateCount()
+
+    override val eventSequenceResetCount: Long
+        get() = subscribeManager.getEventResetCount()
+
+    override val eventBacklogSize: Int
+        get() = eventDispatcher?.backlogSize ?: 0
+
+    override val eventConflatedCount: Long
+        get() = eventDispatcher?.conflatedCount ?: 0L
+
+    override val callbackPendingCount: Int
+        get() = taskExecutors.callbackPendingCount
+
+    override val callbackLatency: Long
+        get() = taskExecutors.callbackLatency
+
+    override val ioPendingCount: Int
+        get() = taskExecutors.ioPendingCount
+
+    override val ioRejectedCount: Int
+        get() = taskExecutors.ioRejectedCount
+
     override fun initialize() {
         if (initialized.getAndSet(true)) {
             return
@@ -242,6 +355,7 @@ internal class ControlPointImpl(
             return
         }
         multicastEventReceiverList?.start()
+        asyncHttpClient?.start()
         subscribeManager.start()
         searchServerList.start()
         notifyServerList.start()
@@ -252,17 +366,18 @@ internal class ControlPointImpl(
             return
         }
         multicastEventReceiverList?.stop()
+        asyncHttpClient?.stop()
         subscribeManager.stop()
         searchServerList.stop()
         notifyServerList.stop()
         deviceList.forEach { lostDevice(it) }
         deviceHolder.clear()
+        ssdpDuplicateFilter.clear()
+        httpConnectionPool.evictAll()
     }
 
     override fun clearDeviceList() {
-        synchronized(deviceHolder) {
-            deviceList.forEach { lostDevice(it) }
-        }
+        deviceList.forEach { lostDevice(it) }
     }
 
     override fun search(st: String?) {
@@ -296,6 +411,7 @@ internal class ControlPointImpl(
     @Suppress("DEPRECATION")
     override fun removeNotifyEventListener(listener: NotifyEventListener) {
         notifyEventListenerSet.remove(listener)
+        eventDispatcher?.remove(listener)
     }
 
     override fun addEventListener(listener: EventListener) {
@@ -304,6 +420,7 @@ internal class ControlPointImpl(
 
     override fun removeEventListener(listener: EventListener) {
         eventListenerSet.remove(listener)
+        eventDispatcher?.remove(listener)
     }
 
     override fun addMulticastEventListener(listener: MulticastEventListener) {
@@ -317,26 +434,42 @@ internal class ControlPointImpl(
     // VisibleForTesting
     internal fun discoverDevice(device: Device) {
         Logger.d { "discoverDevice:[${device.friendlyName}](${device.ipAddress})" }
-        if (isPinnedDevice(deviceHolder[device.udn])) {
-            return
-        }
-        deviceHolder.add(device)
-        collectUdn(device).forEach { deviceMap[it] = device }
-        taskExecutors.callback {
-            discoveryListenerSet.forEach { it.onDiscover(device) }
+        synchronized(lockFor(device.udn)) {
+            deviceMap[device.udn]?.let {
+                if (it === device || isPinnedDevice(it) && !isPinnedDevice(device)) {
+                    return
+                }
+                lostDevice(it)
+            }
+            deviceHolder.add(device)
+            collectUdn(device).forEach { deviceMap[it] = device }
+            // The callback is queued with the lock, so that onDiscover is always notified before onLost.
+            taskExecutors.callback(device.udn) {
+                discoveryListenerSet.forEach { it.onDiscover(device) }
+            }
         }
     }
 
     // VisibleForTesting
     internal fun lostDevice(device: Device) {
-        Logger.d { "lostDevice:[${device.friendlyName}](${device.ipAddress})" }
-        synchronized(deviceHolder) {
-            device.serviceList.forEach { subscribeManager.unregister(it) }
-            collectUdn(device).forEach { deviceMap.remove(it) }
+        synchronized(lockFor(device.udn)) {
+            // Only the first call for the device notifies onLost.
+            if (!deviceMap.remove(device.udn, device)) {
+                return
+            }
+            Logger.d { "lostDevice:[${device.friendlyName}](${device.ipAddress})" }
+            device.serviceList.forEach {
+                subscribeManager.unregister(it)
+                (it as? ServiceImpl)?.stateVariableCache?.clear()
+            }
+            collectUdn(device).forEach {
+                deviceMap.remove(it, device)
+                ssdpDuplicateFilter.remove(it)
+            }
             deviceHolder.remove(device)
-        }
-        taskExecutors.callback {
-            discoveryListenerSet.forEach { it.onLost(device) }
+            taskExecutors.callback(device.udn) {
+                discoveryListenerSet.forEach { it.onLost(device) }
+            }
         }
     }
 
@@ -362,22 +495,20 @@ internal class ControlPointImpl(
         }
         val builder = Builder(this, FakeSsdpMessage(location))
         loadingPinnedDevices.add(builder)
-        taskExecutors.io { loadPinnedDevice(builder) }
+        taskExecutors.io(IoPriority.LOW, builder.getIpAddress()) { loadPinnedDevice(builder) }
     }
 
     private fun loadPinnedDevice(builder: Builder) {
         val client = createHttpClient()
         try {
-            DeviceParser.loadDescription(client, builder)
+            DeviceParser.loadDescription(client, builder, parallelDownloader, iconFilter, descriptionCache)
             val device = builder.build()
-            device.loadIconBinary(client, iconFilter)
-            synchronized(deviceHolder) {
-                if (!loadingPinnedDevices.remove(builder)) {
-                    return
-                }
-                val udn = device.udn
+            if (!loadingPinnedDevices.remove(builder)) {
+                return
+            }
+            val udn = device.udn
+            synchronized(lockFor(udn)) {
                 loadingDeviceMap.remove(udn)
-                deviceHolder.remove(udn)?.let { lostDevice(it) }
                 discoverDevice(device)
             }
         } catch (e: Exception) {
@@ -403,6 +534,7 @@ internal class ControlPointImpl(
 
     companion object {
         private val EMPTY_FILTER = iconFilter { emptyList() }
+        private const val DEVICE_LOCK_STRIPES = 16
 
         // VisibleForTesting
         internal fun collectUdn(device: Device): Set<String> = mutableSetOf<String>().also {
@@ -9,9 +9,13 @@ package net.mm2d.upnp.internal.impl
 
 import net.mm2d.upnp.*
 import net.mm2d.upnp.internal.message.FakeSsdpMessage
+import net.mm2d.upnp.internal.thread.IoPriority
 import java.io.IOException
 import java.net.MalformedURLException
 import java.net.URL
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlin.coroutines.suspendCoroutine
 
 /**
  * Implements for [Device].
@@ -43,20 +47,18 @@ internal class DeviceImpl private constructor(
     serviceBuilderList: List<ServiceImpl.Builder>,
     deviceBuilderList: List<Builder>
 ) : Device {
+    @Volatile
     override var ssdpMessage: SsdpMessage = ssdpMessage
         private set
-    override val expireTime: Long = ssdpMessage.expireTime
+    override val expireTime: Long
+        get() = ssdpMessage.expireTime
     override val scopeId: Int = ssdpMessage.scopeId
     override var location: String = location
         private set
     override val baseUrl: String
         get() = urlBase ?: location
     override val ipAddress: String
-        get() = try {
-            URL(location).host
-        } catch (e: MalformedURLException) {
-            ""
-        }
+        get() = getHost(location)
     override val serviceList: List<Service> = serviceBuilderList.map {
         it.setDevice(this)
         it.build()
@@ -124,6 +126,71 @@ internal class DeviceImpl private constructor(
         return null
     }
 
+    @Throws(IOException::class)
+    override fun invokeBatchSync(
+        invocations: List<Pair<Action, Map<String, String?>>>,
+        returnErrorResponse: Boolean
+    ): List<Map<String, String>> = invokeBatchInner(getInvokeDelegates(invocations), invocations, returnErrorResponse)
+
+    override fun invokeBatch(
+        invocations: List<Pair<Action, Map<String, String?>>>,
+        returnErrorResponse: Boolean,
+        onResult: ((List<Map<String, String>>) -> Unit)?,
+        onError: ((IOException) -> Unit)?
+    ) {
+        val delegates = getInvokeDelegates(invocations)
+        val taskExecutors = controlPoint.taskExecutors
+        taskExecutors.io(IoPriority.HIGH, ipAddress) {
+            try {
+                val result = invokeBatchInner(delegates, invocations, returnErrorResponse)
+                onResult ?: return@io
+                taskExecutors.callback(rootUdn) { onResult(result) }
+            } catch (e: IOException) {
+                onError ?: return@io
+                taskExecutors.callback(rootUdn) { onError(e) }
+            }
+        }
+    }
+
+    override suspend fun invokeBatchAsync(
+        invocations: List<Pair<Action, Map<String, String?>>>,
+        returnErrorResponse: Boolean
+    ): List<Map<String, String>> {
+        val delegates = getInvokeDelegates(invocations)
+        return suspendCoroutine { continuation ->
+            controlPoint.taskExecutors.io(IoPriority.HIGH, ipAddress) {
+                try {
+                    continuation.resume(invokeBatchInner(delegates, invocations, returnErrorResponse))
+                } catch (e: IOException) {
+                    continuation.resumeWithException(e)
+                }
+            }
+        }
+    }
+
+    private fun getInvokeDelegates(
+        invocations: List<Pair<Action, Map<String, String?>>>
+    ): List<ActionInvokeDelegate> = invocations.map { (action, _) ->
+        (action as? ActionImpl)?.takeIf { it.service.device.rootUdn == rootUdn }?.invokeDelegate
+            ?: throw IllegalArgumentException("${action.name} is not an action of this device")
+    }
+
+    @Throws(IOException::class)
+    private fun invokeBatchInner(
+        delegates: List<ActionInvokeDelegate>,
+        invocations: List<Pair<Action, Map<String, String?>>>,
+        returnErrorResponse: Boolean
+    ): List<Map<String, String>> {
+        val requests = delegates.mapIndexed { i, delegate -> delegate.makeRequest(invocations[i].second) }
+        val client = HttpClient.create(true, controlPoint.httpConnectionPool)
+        val responses = try {
+            client.postPipelined(requests)
+        } finally {
+            client.close()
+        }
+        return responses.mapIndexed { i, response -> delegates[i].readResponse(response, returnErrorResponse) }
+    }
+
     override fun hashCode(): Int = udn.hashCode()
 
     override fun equals(other: Any?): Boolean {
@@ -229,12 +296,16 @@ internal class DeviceImpl private constructor(
 
         fun getLocation(): String = location
 
+        fun getIpAddress(): String = getHost(location)
+
         fun getUuid(): String = ssdpMessage.uuid
 
         fun getBaseUrl(): String = urlBase ?: location
 
         fun getServiceBuilderList(): List<ServiceImpl.Builder> = serviceBuilderList
 
+        fun getIconList(): List<Icon> = iconList
+
         fun createEmbeddedDeviceBuilder(): Builder {
             val builder = Builder(controlPoint, ssdpMessage)
             builder.setDescription(description!!)
@@ -358,3 +429,23 @@ internal class DeviceImpl private constructor(
         }
     }
 }
+
+/**
+ * UDN of the root device.
+ *
+ * This is used as the key to keep the order of the callbacks about the device.
+ */
+internal val Device.rootUdn: String
+    get() {
+        var device = this
+        while (device.isEmbeddedDevice) {
+            device = device.parent ?: break
+        }
+        return device.udn
+    }
+
+private fun getHost(location: String): String = try {
+    URL(location).host
+} catch (e: MalformedURLException) {
+    ""
+}
@@ -9,12 +9,19 @@ package net.mm2d.upnp.internal.impl
 
 import net.mm2d.upnp.*
 import net.mm2d.upnp.internal.manager.*
+import net.mm2d.upnp.internal.server.DatagramSelector
 import net.mm2d.upnp.internal.server.EventReceiver
+import net.mm2d.upnp.internal.server.EventServer
 import net.mm2d.upnp.internal.server.MulticastEventReceiverList
+import net.mm2d.upnp.internal.server.NioEventReceiver
 import net.mm2d.upnp.internal.server.SsdpNotifyServerList
 import net.mm2d.upnp.internal.server.SsdpSearchServerList
+import net.mm2d.upnp.internal.thread.IoScheduler
 import net.mm2d.upnp.internal.thread.TaskExecutors
+import java.io.File
 import java.net.NetworkInterface
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
 
 /**
  * Dependency injection for ControlPoint
@@ -23,51 +30,104 @@ import java.net.NetworkInterface
  */
 internal class DiFactory(
     private val protocol: Protocol = Protocol.DEFAULT,
-    private val callbackExecutor: TaskExecutor? = null
+    private val callbackExecutor: TaskExecutor? = null,
+    private val nioEventReceiverEnabled: Boolean = false,
+    private val datagramSelectorThreadCount: Int = 0,
+    private val descriptionCacheDirectory: File? = null,
+    private val renewJitterRatio: Float = SubscribeServiceHolder.DEFAULT_RENEW_JITTER_RATIO,
+    private val renewHostInterval: Long = 0L,
+    private val subscriptionTimeout: Long = SubscribeManagerImpl.DEFAULT_SUBSCRIPTION_TIMEOUT,
+    private val adaptiveRenewEnabled: Boolean = false,
+    private val resubscribeOnEventGapEnabled: Boolean = false,
+    private val stateVariableCacheEnabled: Boolean = false,
+    private val lastChangeParser: ((service: Service, value: String) -> List<Pair<String, String>>)? = null,
+    private val eventConflationEnabled: Boolean = false,
+    private val callbackThreadCount: Int = 1,
+    private val virtualThreadEnabled: Boolean = false,
+    private val ioMaxPerHost: Int = IoScheduler.DEFAULT_MAX_PER_HOST,
+    private val ioQueueCapacity: Int = IoScheduler.DEFAULT_CAPACITY,
+    private val asyncActionEnabled: Boolean = false
 ) {
-    fun createLoadingDeviceMap(): MutableMap<String, DeviceImpl.Builder> = mutableMapOf()
+    private var datagramSelector: DatagramSelector? = null
+
+    private fun getDatagramSelector(taskExecutors: TaskExecutors): DatagramSelector? {
+        if (datagramSelectorThreadCount <= 0) return null
+        return datagramSelector ?: DatagramSelector(taskExecutors, datagramSelectorThreadCount).also {
+            datagramSelector = it
+        }
+    }
+
+    fun createLoadingDeviceMap(): ConcurrentMap<String, DeviceImpl.Builder> = ConcurrentHashMap()
 
     fun createDeviceHolder(
         taskExecutors: TaskExecutors,
         listener: (device: Device) -> Unit
     ): DeviceHolder = DeviceHolder(taskExecutors, listener)
 
+    fun createSsdpDuplicateFilter(): SsdpDuplicateFilter = SsdpDuplicateFilter()
+
+    fun createHttpConnectionPool(): HttpConnectionPool = HttpConnectionPool()
+
+    fun createAsyncHttpClient(taskExecutors: TaskExecutors): AsyncHttpClient? =
+        if (asyncActionEnabled) AsyncHttpClient(taskExecutors) else null
+
+    fun createDescriptionCache(): DescriptionCache? = descriptionCacheDirectory?.let { DescriptionCache(it) }
+
+    fun createStateVariableCacheUpdater(): StateVariableCache.Updater? =
+        if (stateVariableCacheEnabled) StateVariableCache.Updater(lastChangeParser) else null
+
     fun createSsdpSearchServerList(
         taskExecutors: TaskExecutors,
         interfaces: Iterable<NetworkInterface>,
         listener: (SsdpMessage) -> Unit
-    ): SsdpSearchServerList = SsdpSearchServerList(taskExecutors, protocol, interfaces, listener)
+    ): SsdpSearchServerList =
+        SsdpSearchServerList(taskExecutors, protocol, interfaces, listener, getDatagramSelector(taskExecutors))
 
     fun createSsdpNotifyServerList(
         taskExecutors: TaskExecutors,
         interfaces: Iterable<NetworkInterface>,
         listener: (SsdpMessage) -> Unit
-    ): SsdpNotifyServerList = SsdpNotifyServerList(taskExecutors, protocol, interfaces, listener)
+    ): SsdpNotifyServerList =
+        SsdpNotifyServerList(taskExecutors, protocol, interfaces, listener, getDatagramSelector(taskExecutors))
 
     fun createSubscribeManager(
         subscriptionEnabled: Boolean,
         taskExecutors: TaskExecutors,
         listener: (service: Service, seq: Long, properties: List<Pair<String, String>>) -> Unit
     ): SubscribeManager = if (subscriptionEnabled) {
-        SubscribeManagerImpl(taskExecutors, listener, this)
+        SubscribeManagerImpl(taskExecutors, listener, this, subscriptionTimeout, resubscribeOnEventGapEnabled)
     } else {
         EmptySubscribeManager()
     }
 
     fun createSubscribeServiceHolder(
         taskExecutors: TaskExecutors
-    ): SubscribeServiceHolder = SubscribeServiceHolder(taskExecutors)
+    ): SubscribeServiceHolder = SubscribeServiceHolder(taskExecutors, renewJitterRatio, renewHostInterval, adaptiveRenewEnabled)
 
     fun createEventReceiver(
         taskExecutors: TaskExecutors,
         listener: (sid: String, seq: Long, properties: List<Pair<String, String>>) -> Boolean
-    ): EventReceiver = EventReceiver(taskExecutors, listener)
+    ): EventServer = if (nioEventReceiverEnabled) {
+        NioEventReceiver(taskExecutors, listener)
+    } else {
+        EventReceiver(taskExecutors, listener)
+    }
 
     fun createMulticastEventReceiverList(
         taskExecutors: TaskExecutors,
         interfaces: Iterable<NetworkInterface>,
         listener: (uuid: String, svcid: String, lvl: String, seq: Long, properties: List<Pair<String, String>>) -> Unit
-    ): MulticastEventReceiverList = MulticastEventReceiverList(taskExecutors, protocol, interfaces, listener)
+    ): MulticastEventReceiverList =
+        MulticastEventReceiverList(taskExecutors, protocol, interfaces, listener, getDatagramSelector(taskExecutors))
+
+    fun createEventDispatcher(taskExecutors: TaskExecutors): ConflatingEventDispatcher? =
+        if (eventConflationEnabled) ConflatingEventDispatcher(taskExecutors) else null
 
-    fun createTaskExecutors(): TaskExecutors = TaskExecutors(callbackExecutor)
+    fun createTaskExecutors(): TaskExecutors = TaskExecutors(
+        callbackExecutor,
+        callbackThreadCount = callbackThreadCount,
+        virtualThreadEnabled = virtualThreadEnabled,
+        ioMaxPerHost = ioMaxPerHost,
+        ioQueueCapacity = ioQueueCapacity
+    )
 }
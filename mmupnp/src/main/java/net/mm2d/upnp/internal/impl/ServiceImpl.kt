@@ -7,11 +7,12 @@
 
 package net.mm2d.upnp.internal.impl
 
-import net.mm2d.log.Logger
 import net.mm2d.upnp.Action
 import net.mm2d.upnp.Service
 import net.mm2d.upnp.StateVariable
+import net.mm2d.upnp.StateVariableValue
 import net.mm2d.upnp.internal.manager.SubscribeManager
+import net.mm2d.upnp.internal.thread.IoPriority
 import net.mm2d.upnp.internal.thread.TaskExecutors
 import kotlin.coroutines.resume
 import kotlin.coroutines.suspendCoroutine
@@ -23,27 +24,28 @@ import kotlin.coroutines.suspendCoroutine
  */
 internal class ServiceImpl(
     override val device: DeviceImpl,
-    override val description: String,
     override val serviceType: String,
     override val serviceId: String,
     override val scpdUrl: String,
     override val controlUrl: String,
     override val eventSubUrl: String,
-    actionBuilderList: List<ActionImpl.Builder>,
-    stateVariables: List<StateVariable>
+    // held to keep the shared model in the pool while this service is alive
+    private val model: ServiceModel
 ) : Service {
+    override val description: String = model.description
     private val subscribeManager: SubscribeManager = device.controlPoint.subscribeManager
     private val taskExecutors: TaskExecutors = device.controlPoint.taskExecutors
-    private val actionMap: Map<String, Action>
-    private val stateVariableMap = stateVariables.map { it.name to it }.toMap()
+    private val actionMap: Map<String, Action> = model.actionMap.mapValues { ActionImpl(this, it.key, it.value) }
+    private val stateVariableMap: Map<String, StateVariable> = model.stateVariableMap
     // VisibleForTesting
     internal val subscribeDelegate: SubscribeDelegate by lazy { createSubscribeDelegate(this) }
     override val subscriptionId: String?
         get() = subscribeDelegate.subscriptionId
-
-    init {
-        actionMap = buildActionMap(this, stateVariableMap, actionBuilderList)
-    }
+    @Volatile
+    override var requestedSubscriptionTimeout: Long = 0L
+    internal val stateVariableCache = StateVariableCache()
+    override val stateVariableValues: Map<String, StateVariableValue>
+        get() = stateVariableCache.values
 
     override val actionList: List<Action> by lazy {
         actionMap.values.toList()
@@ -56,16 +58,18 @@ internal class ServiceImpl(
 
     override fun findStateVariable(name: String?): StateVariable? = stateVariableMap[name]
 
+    override fun getStateVariableValue(name: String): StateVariableValue? = stateVariableCache[name]
+
     private fun subscribeInner(keepRenew: Boolean, callback: (Boolean) -> Unit) {
-        taskExecutors.io { callback(subscribeDelegate.subscribe(keepRenew)) }
+        taskExecutors.io(IoPriority.HIGH, device.ipAddress) { callback(subscribeDelegate.subscribe(keepRenew)) }
     }
 
     private fun renewSubscribeInner(callback: (Boolean) -> Unit) {
-        taskExecutors.io { callback(subscribeDelegate.renewSubscribe()) }
+        taskExecutors.io(IoPriority.HIGH, device.ipAddress) { callback(subscribeDelegate.renewSubscribe()) }
     }
 
     private fun unsubscribeInner(callback: (Boolean) -> Unit) {
-        taskExecutors.io { callback(subscribeDelegate.unsubscribe()) }
+        taskExecutors.io(IoPriority.HIGH, device.ipAddress) { callback(subscribeDelegate.unsubscribe()) }
     }
 
     override fun subscribeSync(keepRenew: Boolean): Boolean {
@@ -87,7 +91,7 @@ internal class ServiceImpl(
         subscribeManager.checkEnabled()
         subscribeInner(keepRenew) {
             callback ?: return@subscribeInner
-            taskExecutors.callback { callback(it) }
+            taskExecutors.callback(device.rootUdn) { callback(it) }
         }
     }
 
@@ -95,7 +99,7 @@ internal class ServiceImpl(
         subscribeManager.checkEnabled()
         renewSubscribeInner {
             callback ?: return@renewSubscribeInner
-            taskExecutors.callback { callback(it) }
+            taskExecutors.callback(device.rootUdn) { callback(it) }
         }
     }
 
@@ -103,7 +107,7 @@ internal class ServiceImpl(
         subscribeManager.checkEnabled()
         unsubscribeInner {
             callback ?: return@unsubscribeInner
-            taskExecutors.callback { callback(it) }
+            taskExecutors.callback(device.rootUdn) { callback(it) }
         }
     }
 
@@ -140,53 +144,6 @@ internal class ServiceImpl(
     companion object {
         // VisibleForTesting
         internal fun createSubscribeDelegate(service: ServiceImpl) = SubscribeDelegate(service)
-
-        @Throws(IllegalStateException::class)
-        private fun buildActionMap(
-            service: ServiceImpl,
-            variableMap: Map<String, StateVariable>,
-            builderList: List<ActionImpl.Builder>
-        ): Map<String, Action> {
-            if (builderList.isEmpty()) {
-                return emptyMap()
-            }
-            builderList.forEach { builder ->
-                builder.setService(service)
-                builder.getArgumentBuilderList().forEach {
-                    it.setRelatedStateVariable(variableMap)
-                }
-            }
-            return builderList
-                .map { it.build() }
-                .map { it.name to it }
-                .toMap()
-        }
-
-        @Throws(IllegalStateException::class)
-        private fun ArgumentImpl.Builder.setRelatedStateVariable(
-            variableMap: Map<String, StateVariable>
-        ) {
-            val name = getRelatedStateVariableName()
-                ?: throw IllegalStateException("relatedStateVariable name is null")
-            val variable = variableMap[name] ?: repairInvalidFormatAndGet(name, variableMap)
-            setRelatedStateVariable(variable)
-        }
-
-        // Implement the remedies because there is a device that has the wrong format of XML
-        // That indented in the text content.
-        // e.g. AN-WLTU1
-        @Throws(IllegalStateException::class)
-        private fun ArgumentImpl.Builder.repairInvalidFormatAndGet(
-            name: String,
-            variableMap: Map<String, StateVariable>
-        ): StateVariable {
-            val trimmedName = name.trim()
-            val trimmedVariable = variableMap[trimmedName]
-                ?: throw IllegalStateException("There is no StateVariable [$name]")
-            setRelatedStateVariableName(trimmedName)
-            Logger.i { "Invalid description. relatedStateVariable name has unnecessary blanks [$name]" }
-            return trimmedVariable
-        }
     }
 
     internal class Builder {
@@ -197,6 +154,7 @@ internal class ServiceImpl(
         private var controlUrl: String? = null
         private var eventSubUrl: String? = null
         private var description: String? = null
+        private var model: ServiceModel? = null
         private val actionBuilderList = mutableListOf<ActionImpl.Builder>()
         private val stateVariables = mutableListOf<StateVariable>()
 
@@ -214,7 +172,8 @@ internal class ServiceImpl(
                 ?: throw IllegalStateException("controlURL must be set.")
             val eventSubUrl = eventSubUrl
                 ?: throw IllegalStateException("eventSubURL must be set.")
-            val description = description ?: ""
+            val model = model
+                ?: ServiceModel.create(description ?: "", actionBuilderList, stateVariables)
             return ServiceImpl(
                 device = device,
                 serviceType = serviceType,
@@ -222,9 +181,7 @@ internal class ServiceImpl(
                 scpdUrl = scpdUrl,
                 controlUrl = controlUrl,
                 eventSubUrl = eventSubUrl,
-                description = description,
-                actionBuilderList = actionBuilderList,
-                stateVariables = stateVariables
+                model = model
             )
         }
 
@@ -258,6 +215,12 @@ internal class ServiceImpl(
             this.description = description
         }
 
+        // If the model is set, the description, Actions and StateVariables of this builder are not used.
+        fun setModel(model: ServiceModel): Builder = apply {
+            this.model = model
+            this.description = model.description
+        }
+
         fun addActionBuilder(builder: ActionImpl.Builder): Builder = apply {
             actionBuilderList.add(builder)
         }
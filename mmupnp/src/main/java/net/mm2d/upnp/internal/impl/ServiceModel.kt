@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.impl
+
+import net.mm2d.log.Logger
+import net.mm2d.upnp.Argument
+import net.mm2d.upnp.StateVariable
+import java.lang.ref.WeakReference
+import java.util.*
+
+/**
+ * Immutable model of the Actions and StateVariables described in SCPD.
+ *
+ * The model does not contain anything specific to the device, such as URLs,
+ * so the Services that have the same SCPD share the instance obtained by [intern].
+ * The Action instances, that refer to the Service, are created by each [ServiceImpl] with the shared Arguments.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param description SCPD
+ * @param actionMap Action name to the map of Argument name to Argument
+ * @param stateVariableMap StateVariable name to StateVariable
+ */
+internal class ServiceModel(
+    val description: String,
+    val actionMap: Map<String, Map<String, Argument>>,
+    val stateVariableMap: Map<String, StateVariable>
+) {
+    companion object {
+        // The key is the description held by the model, so the entry is removed when the model is no longer used.
+        private val pool = WeakHashMap<String, WeakReference<ServiceModel>>()
+
+        /**
+         * Returns the model of the description shared with the other Services.
+         *
+         * If there is no model of the same description, create it by [parse] and register it.
+         *
+         * @param description SCPD
+         * @param parse function to create the model from the description
+         * @return model of the description
+         */
+        fun intern(description: String, parse: (String) -> ServiceModel): ServiceModel {
+            find(description)?.let { return it }
+            val model = parse(description)
+            synchronized(pool) {
+                pool[description]?.get()?.let { return it }
+                pool[model.description] = WeakReference(model)
+            }
+            return model
+        }
+
+        private fun find(description: String): ServiceModel? = synchronized(pool) {
+            pool[description]?.get()
+        }
+
+        /**
+         * Create the model with resolving the relatedStateVariable of Arguments.
+         *
+         * @param description SCPD
+         * @param actionBuilderList builders of Action
+         * @param stateVariables StateVariables
+         * @return model
+         * @throws IllegalStateException if the related StateVariable is not found.
+         */
+        @Throws(IllegalStateException::class)
+        fun create(
+            description: String,
+            actionBuilderList: List<ActionImpl.Builder>,
+            stateVariables: List<StateVariable>
+        ): ServiceModel {
+            val stateVariableMap = stateVariables.map { it.name to it }.toMap()
+            return ServiceModel(description, buildActionMap(stateVariableMap, actionBuilderList), stateVariableMap)
+        }
+
+        @Throws(IllegalStateException::class)
+        private fun buildActionMap(
+            variableMap: Map<String, StateVariable>,
+            builderList: List<ActionImpl.Builder>
+        ): Map<String, Map<String, Argument>> {
+            if (builderList.isEmpty()) {
+                return emptyMap()
+            }
+            return builderList.map { builder ->
+                val name = builder.getName()
+                    ?: throw IllegalStateException("name must be set.")
+                name to builder.getArgumentBuilderList()
+                    .map { it.setRelatedStateVariable(variableMap).build() }
+                    .map { it.name to it }
+                    .toMap()
+            }.toMap()
+        }
+
+        @Throws(IllegalStateException::class)
+        private fun ArgumentImpl.Builder.setRelatedStateVariable(
+            variableMap: Map<String, StateVariable>
+        ): ArgumentImpl.Builder {
+            val name = getRelatedStateVariableName()
+                ?: throw IllegalStateException("relatedStateVariable name is null")
+            val variable = variableMap[name] ?: repairInvalidFormatAndGet(name, variableMap)
+            return setRelatedStateVariable(variable)
+        }
+
+        // Implement the remedies because there is a device that has the wrong format of XML
+        // That indented in the text content.
+        // e.g. AN-WLTU1
+        @Throws(IllegalStateException::class)
+        private fun ArgumentImpl.Builder.repairInvalidFormatAndGet(
+            name: String,
+            variableMap: Map<String, StateVariable>
+        ): StateVariable {
+            val trimmedName = name.trim()
+            val trimmedVariable = variableMap[trimmedName]
+                ?: throw IllegalStateException("There is no StateVariable [$name]")
+            setRelatedStateVariableName(trimmedName)
+            Logger.i { "Invalid description. relatedStateVariable name has unnecessary blanks [$name]" }
+            return trimmedVariable
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.impl
+
+import net.mm2d.log.Logger
+import net.mm2d.upnp.Service
+import net.mm2d.upnp.StateVariableValue
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Last known values of the StateVariables of a Service.
+ *
+ * This can be used from multiple threads.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal class StateVariableCache {
+    private val map = ConcurrentHashMap<String, StateVariableValue>()
+
+    operator fun get(name: String): StateVariableValue? = map[name]
+
+    /**
+     * Snapshot of all values.
+     */
+    val values: Map<String, StateVariableValue>
+        get() = HashMap(map)
+
+    fun put(name: String, value: String, time: Long) {
+        map[name] = StateVariableValue(name, value, time)
+    }
+
+    fun clear(): Unit = map.clear()
+
+    /**
+     * Update the cache of the Service by the received event.
+     *
+     * @param lastChangeParser parser of LastChange, values returned by it are also cached.
+     */
+    class Updater(
+        private val lastChangeParser: ((service: Service, value: String) -> List<Pair<String, String>>)?
+    ) {
+        fun update(service: Service, properties: List<Pair<String, String>>) {
+            val cache = (service as? ServiceImpl)?.stateVariableCache ?: return
+            val time = System.currentTimeMillis()
+            properties.forEach { (name, value) ->
+                cache.put(name, value, time)
+                if (name == LAST_CHANGE && lastChangeParser != null) {
+                    parseLastChange(lastChangeParser, service, value).forEach {
+                        cache.put(it.first, it.second, time)
+                    }
+                }
+            }
+        }
+
+        private fun parseLastChange(
+            parser: (service: Service, value: String) -> List<Pair<String, String>>,
+            service: Service,
+            value: String
+        ): List<Pair<String, String>> = try {
+            parser(service, value)
+        } catch (e: Exception) {
+            Logger.w(e) { "fail to parse LastChange: $value" }
+            emptyList()
+        }
+    }
+
+    companion object {
+        private const val LAST_CHANGE = "LastChange"
+    }
+}
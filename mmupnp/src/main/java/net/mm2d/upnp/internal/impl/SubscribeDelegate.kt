@@ -12,7 +12,10 @@ import net.mm2d.upnp.Http
 import net.mm2d.upnp.HttpClient
 import net.mm2d.upnp.HttpRequest
 import net.mm2d.upnp.HttpResponse
+import net.mm2d.upnp.postAndClose
 import net.mm2d.upnp.internal.manager.SubscribeManager
+import net.mm2d.upnp.internal.manager.SubscribeManagerImpl
+import net.mm2d.upnp.internal.manager.SubscribeService
 import net.mm2d.upnp.util.toAddressString
 import java.io.IOException
 import java.net.MalformedURLException
@@ -35,7 +38,12 @@ internal class SubscribeDelegate(
             return "<http://${address.toAddressString(port)}/>"
         }
 
-    private fun createHttpClient(): HttpClient = HttpClient.create(false)
+    // VisibleForTesting
+    internal val requestedTimeout: Long
+        get() = service.requestedSubscriptionTimeout.takeIf { it > 0 } ?: subscribeManager.getSubscriptionTimeout()
+
+    private fun createHttpClient(): HttpClient =
+        HttpClient.create(true, device.controlPoint.httpConnectionPool)
 
     // VisibleForTesting
     @Throws(MalformedURLException::class)
@@ -62,19 +70,21 @@ internal class SubscribeDelegate(
     @Throws(IOException::class)
     internal fun subscribeActual(keepRenew: Boolean): Boolean {
         val request = makeSubscribeRequest()
-        val response = createHttpClient().post(request)
+        val response = createHttpClient().postAndClose(request)
         if (response.getStatus() != Http.Status.HTTP_OK) {
             Logger.w { "error subscribe request:\n$request\nresponse:\n$response" }
             return false
         }
         val sid = response.getHeader(Http.SID)
-        val timeout = parseTimeout(response)
+        val timeout = parseTimeout(response, requestedTimeout)
         if (sid.isNullOrEmpty() || timeout <= 0) {
             Logger.w { "error subscribe response:\n$response" }
             return false
         }
         Logger.v { "subscribe request:\n$request\nresponse:\n$response" }
         subscriptionId = sid
+        // values of the previous subscription may have been missed, start over with the initial event
+        service.stateVariableCache.clear()
         subscribeManager.register(service, timeout, keepRenew)
         return true
     }
@@ -86,7 +96,7 @@ internal class SubscribeDelegate(
             setUrl(makeAbsoluteUrl(service.eventSubUrl), true)
             setHeader(Http.NT, Http.UPNP_EVENT)
             setHeader(Http.CALLBACK, callback)
-            setHeader(Http.TIMEOUT, "Second-300")
+            setHeader(Http.TIMEOUT, makeTimeoutHeader(requestedTimeout))
             setHeader(Http.CONTENT_LENGTH, "0")
         }
 
@@ -105,13 +115,13 @@ internal class SubscribeDelegate(
     @Throws(IOException::class)
     internal fun renewSubscribeActual(subscriptionId: String): Boolean {
         val request = makeRenewSubscribeRequest(subscriptionId)
-        val response = createHttpClient().post(request)
+        val response = createHttpClient().postAndClose(request)
         if (response.getStatus() != Http.Status.HTTP_OK) {
             Logger.w { "renewSubscribe request:\n$request\nresponse:\n$response" }
             return false
         }
         val sid = response.getHeader(Http.SID)
-        val timeout = parseTimeout(response)
+        val timeout = parseTimeout(response, requestedTimeout)
         if (sid != subscriptionId || timeout <= 0) {
             Logger.w { "renewSubscribe response:\n$response" }
             return false
@@ -127,7 +137,7 @@ internal class SubscribeDelegate(
             setMethod(Http.SUBSCRIBE)
             setUrl(makeAbsoluteUrl(service.eventSubUrl), true)
             setHeader(Http.SID, subscriptionId)
-            setHeader(Http.TIMEOUT, "Second-300")
+            setHeader(Http.TIMEOUT, makeTimeoutHeader(requestedTimeout))
             setHeader(Http.CONTENT_LENGTH, "0")
         }
 
@@ -138,9 +148,10 @@ internal class SubscribeDelegate(
         }
         try {
             val request = makeUnsubscribeRequest(sId)
-            val response = createHttpClient().post(request)
+            val response = createHttpClient().postAndClose(request)
             subscribeManager.unregister(service)
             subscriptionId = null
+            service.stateVariableCache.clear()
             if (response.getStatus() != Http.Status.HTTP_OK) {
                 Logger.w { "unsubscribe request:\n$request\nresponse:\n$response" }
                 return false
@@ -163,23 +174,47 @@ internal class SubscribeDelegate(
         }
 
     companion object {
-        private val DEFAULT_SUBSCRIPTION_TIMEOUT = TimeUnit.SECONDS.toMillis(300)
         private const val SECOND_PREFIX = "second-"
+        private const val INFINITE = "infinite"
+
+        // VisibleForTesting
+        internal fun makeTimeoutHeader(timeout: Long): String =
+            if (timeout == SubscribeService.INFINITE) "Second-$INFINITE"
+            else "Second-" + maxOf(1L, (timeout + 999L) / 1000L)
+
+        /**
+         * Parse the timeout of the response.
+         *
+         * "infinite" is accepted only if it is requested.
+         *
+         * @param response response
+         * @param requestedTimeout requested timeout
+         * @return timeout
+         */
+        // VisibleForTesting
+        internal fun parseTimeout(response: HttpResponse, requestedTimeout: Long): Long {
+            if (requestedTimeout == SubscribeService.INFINITE &&
+                response.getHeader(Http.TIMEOUT)?.toLowerCase(Locale.ENGLISH)?.contains(INFINITE) == true
+            ) {
+                return SubscribeService.INFINITE
+            }
+            return parseTimeout(response)
+        }
 
         // VisibleForTesting
         internal fun parseTimeout(response: HttpResponse): Long {
             val timeout = response.getHeader(Http.TIMEOUT)?.toLowerCase(Locale.ENGLISH)
-            if (timeout.isNullOrEmpty() || timeout.contains("infinite")) {
+            if (timeout.isNullOrEmpty() || timeout.contains(INFINITE)) {
                 // infiniteはUPnP2.0でdeprecated扱い、有限な値にする。
-                return DEFAULT_SUBSCRIPTION_TIMEOUT
+                return SubscribeManagerImpl.DEFAULT_SUBSCRIPTION_TIMEOUT
             }
             val pos = timeout.indexOf(SECOND_PREFIX)
             if (pos < 0) {
-                return DEFAULT_SUBSCRIPTION_TIMEOUT
+                return SubscribeManagerImpl.DEFAULT_SUBSCRIPTION_TIMEOUT
             }
             val secondSection = timeout.substring(pos + SECOND_PREFIX.length)
                 .toLongOrNull()
-                ?: return DEFAULT_SUBSCRIPTION_TIMEOUT
+                ?: return SubscribeManagerImpl.DEFAULT_SUBSCRIPTION_TIMEOUT
             return TimeUnit.SECONDS.toMillis(secondSection)
         }
     }
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+import net.mm2d.log.Logger
+import net.mm2d.upnp.Http
+import net.mm2d.upnp.HttpRequest
+import net.mm2d.upnp.HttpResponse
+import net.mm2d.upnp.Property
+import net.mm2d.upnp.internal.message.HttpInputStream
+import net.mm2d.upnp.internal.message.HttpMessageBuffer
+import net.mm2d.upnp.internal.thread.TaskExecutors
+import net.mm2d.upnp.internal.thread.ThreadCondition
+import net.mm2d.upnp.internal.util.closeQuietly
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.net.SocketAddress
+import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.SocketChannel
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * HTTP client with non-blocking I/O.
+ *
+ * All requests are handled by a single thread with a [Selector].
+ * The response is accumulated until it is completed, so no thread is occupied while waiting for the response.
+ * Each request uses its own connection, which is closed after the response.
+ * Redirection is not followed, the response is returned as it is.
+ * Interim (1xx) responses are skipped, only the final response is returned.
+ * Requests that are not completed within [Property.DEFAULT_TIMEOUT] of inactivity fail with [SocketTimeoutException].
+ *
+ * The callbacks are called on the selector thread,
+ * so they must return immediately, and the heavy processing must be passed to the other thread.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal class AsyncHttpClient(
+    taskExecutors: TaskExecutors
+) : Runnable {
+    private val threadCondition = ThreadCondition(taskExecutors.server)
+    private val readBuffer: ByteBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE)
+    private val pendingQueue = ConcurrentLinkedQueue<Exchange>()
+    @Volatile
+    private var selector: Selector? = null
+
+    fun start() {
+        threadCondition.start(this)
+        threadCondition.waitReady()
+    }
+
+    fun stop() {
+        threadCondition.stop()
+        selector?.wakeup()
+    }
+
+    /**
+     * Send the request, and receive the response asynchronously.
+     *
+     * Exactly one of the callbacks is called.
+     *
+     * @param request Request to send
+     * @param onResponse Callback to receive the response
+     * @param onError Callback to receive the error
+     */
+    fun post(
+        request: HttpRequest,
+        onResponse: (HttpResponse) -> Unit,
+        onError: (IOException) -> Unit
+    ) {
+        val exchange = try {
+            val message = HttpRequest.copy(request).apply {
+                setHeader(Http.CONNECTION, Http.CLOSE)
+            }
+            val output = ByteArrayOutputStream()
+            message.writeData(output)
+            Exchange(message.getSocketAddress(), ByteBuffer.wrap(output.toByteArray()), onResponse, onError)
+        } catch (e: IOException) {
+            onError(e)
+            return
+        } catch (e: IllegalStateException) {
+            onError(IOException(e))
+            return
+        }
+        pendingQueue.offer(exchange)
+        val selector = selector
+        if (selector == null || threadCondition.isCanceled()) {
+            if (pendingQueue.remove(exchange)) {
+                exchange.fail(IOException("client is not running"))
+            }
+            return
+        }
+        selector.wakeup()
+    }
+
+    override fun run() {
+        Thread.currentThread().let {
+            it.name = it.name + "-async-http"
+        }
+        var selector: Selector? = null
+        try {
+            selector = Selector.open()
+            this.selector = selector
+            threadCondition.notifyReady()
+            while (!threadCondition.isCanceled()) {
+                registerPendingExchanges(selector)
+                selector.select(SELECT_TIMEOUT)
+                val now = System.currentTimeMillis()
+                val iterator = selector.selectedKeys().iterator()
+                while (iterator.hasNext()) {
+                    val key = iterator.next()
+                    iterator.remove()
+                    handleKey(key, now)
+                }
+                failTimedOutExchanges(selector, now)
+            }
+        } catch (e: IOException) {
+            Logger.w(e)
+        } finally {
+            this.selector = null
+            selector?.keys()?.forEach {
+                (it.attachment() as? Exchange)?.fail(IOException("client is stopped"))
+            }
+            selector.closeQuietly()
+            while (true) {
+                val exchange = pendingQueue.poll() ?: break
+                exchange.fail(IOException("client is stopped"))
+            }
+        }
+    }
+
+    private fun registerPendingExchanges(selector: Selector) {
+        val now = System.currentTimeMillis()
+        while (true) {
+            val exchange = pendingQueue.poll() ?: return
+            exchange.lastAccess = now
+            try {
+                val channel = SocketChannel.open()
+                exchange.channel = channel
+                channel.configureBlocking(false)
+                val ops = if (channel.connect(exchange.address)) SelectionKey.OP_WRITE else SelectionKey.OP_CONNECT
+                channel.register(selector, ops, exchange)
+            } catch (e: IOException) {
+                exchange.fail(e)
+            }
+        }
+    }
+
+    private fun handleKey(key: SelectionKey, now: Long) {
+        if (!key.isValid) return
+        val exchange = key.attachment() as Exchange
+        try {
+            when {
+                key.isConnectable -> connect(key, exchange, now)
+                key.isWritable -> write(key, exchange, now)
+                key.isReadable -> read(exchange, now)
+            }
+        } catch (e: IOException) {
+            exchange.fail(e)
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun connect(key: SelectionKey, exchange: Exchange, now: Long) {
+        if (!(key.channel() as SocketChannel).finishConnect()) return
+        exchange.lastAccess = now
+        key.interestOps(SelectionKey.OP_WRITE)
+    }
+
+    @Throws(IOException::class)
+    private fun write(key: SelectionKey, exchange: Exchange, now: Long) {
+        (key.channel() as SocketChannel).write(exchange.request)
+        exchange.lastAccess = now
+        if (!exchange.request.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_READ)
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun read(exchange: Exchange, now: Long) {
+        val channel = exchange.channel ?: return
+        readBuffer.clear()
+        val size = channel.read(readBuffer)
+        val buffer = exchange.responseBuffer
+        val length = if (size < 0) {
+            buffer.findMessageLengthAtClose().also {
+                if (it < 0) throw IOException("connection closed before the response is completed")
+            }
+        } else {
+            exchange.lastAccess = now
+            readBuffer.flip()
+            buffer.append(readBuffer)
+            buffer.findMessageLength()
+        }
+        if (length < 0) return
+        val response = HttpResponse.create().apply {
+            readData(HttpInputStream(buffer.data, 0, length))
+        }
+        exchange.complete(response)
+    }
+
+    private fun failTimedOutExchanges(selector: Selector, now: Long) {
+        selector.keys().forEach {
+            val exchange = it.attachment() as? Exchange ?: return@forEach
+            if (now - exchange.lastAccess > Property.DEFAULT_TIMEOUT) {
+                exchange.fail(SocketTimeoutException("request timed out: ${exchange.address}"))
+            }
+        }
+    }
+
+    private class Exchange(
+        val address: SocketAddress,
+        val request: ByteBuffer,
+        private val onResponse: (HttpResponse) -> Unit,
+        private val onError: (IOException) -> Unit
+    ) {
+        val responseBuffer = HttpMessageBuffer(true)
+        var channel: SocketChannel? = null
+        var lastAccess: Long = 0L
+        private var finished = false
+
+        fun complete(response: HttpResponse) {
+            if (!finish()) return
+            onResponse(response)
+        }
+
+        fun fail(e: IOException) {
+            if (!finish()) return
+            onError(e)
+        }
+
+        private fun finish(): Boolean {
+            if (finished) return false
+            finished = true
+            channel.closeQuietly()
+            return true
+        }
+    }
+
+    companion object {
+        private const val SELECT_TIMEOUT = 1000L
+        private const val READ_BUFFER_SIZE = 8192
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+import net.mm2d.log.Logger
+import net.mm2d.upnp.Http
+import net.mm2d.upnp.HttpClient
+import net.mm2d.upnp.HttpResponse
+import net.mm2d.upnp.SsdpMessage
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.net.URL
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Persistent cache of the Device and Service descriptions.
+ *
+ * Each description is stored in a file named with the hash of the URL, UUID,
+ * CONFIGID.UPNP.ORG and BOOTID.UPNP.ORG of the SSDP message.
+ * Since CONFIGID.UPNP.ORG is changed when the descriptions are changed,
+ * the cached description is used without communication if it is present.
+ * Otherwise, the cached description is validated with ETag / Last-Modified by a conditional request,
+ * and downloaded again if neither of them is available.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param directory directory to store the cache files
+ * @param maxEntries max number of the cache files, older files are deleted
+ * when this cache is created and when the number of files exceeds this by writing
+ */
+internal class DescriptionCache(
+    private val directory: File,
+    private val maxEntries: Int = DEFAULT_MAX_ENTRIES
+) {
+    private class Entry(
+        val body: String,
+        val etag: String?,
+        val lastModified: String?
+    )
+
+    private val entryCount: AtomicInteger
+
+    init {
+        directory.mkdirs()
+        entryCount = AtomicInteger(prune(maxEntries))
+    }
+
+    /**
+     * Returns the description of the URL from the cache or the network.
+     *
+     * @param client HttpClient
+     * @param url URL of the description
+     * @param ssdpMessage SSDP message of the device
+     * @return description
+     * @throws IOException if an I/O error occurs.
+     */
+    @Throws(IOException::class)
+    fun download(client: HttpClient, url: URL, ssdpMessage: SsdpMessage): String {
+        val configId = ssdpMessage.getHeader(Http.CONFIGID_UPNP_ORG)
+        val bootId = ssdpMessage.getHeader(Http.BOOTID_UPNP_ORG)
+        val file = File(directory, makeFileName(url.toString(), ssdpMessage.uuid, configId, bootId))
+        val entry = read(file)
+        if (entry != null) {
+            if (!configId.isNullOrEmpty()) {
+                Logger.v { "description cache hit: $url" }
+                return entry.body
+            }
+            if (entry.etag != null || entry.lastModified != null) {
+                val response = client.downloadIfModified(url, entry.etag, entry.lastModified)
+                if (response == null) {
+                    Logger.v { "description not modified: $url" }
+                    file.setLastModified(System.currentTimeMillis())
+                    return entry.body
+                }
+                return store(file, response)
+            }
+        }
+        return store(file, client.download(url))
+    }
+
+    private fun store(file: File, response: HttpResponse): String {
+        val body = response.getBody() ?: ""
+        if (body.isNotEmpty()) {
+            write(file, Entry(body, response.getHeader(Http.ETAG), response.getHeader(Http.LAST_MODIFIED)))
+        }
+        return body
+    }
+
+    private fun read(file: File): Entry? {
+        if (!file.exists()) return null
+        return try {
+            DataInputStream(file.inputStream().buffered()).use {
+                if (it.readInt() != VERSION) return null
+                val etag = it.readUTF().ifEmpty { null }
+                val lastModified = it.readUTF().ifEmpty { null }
+                val body = ByteArray(it.readInt()).also { body -> it.readFully(body) }
+                Entry(body.toString(Charsets.UTF_8), etag, lastModified)
+            }
+        } catch (e: IOException) {
+            Logger.w(e)
+            file.delete()
+            null
+        }
+    }
+
+    private fun write(file: File, entry: Entry) {
+        val isNew = !file.exists()
+        var temp: File? = null
+        try {
+            temp = File.createTempFile(TEMP_PREFIX, null, directory)
+            DataOutputStream(temp.outputStream().buffered()).use {
+                val body = entry.body.toByteArray(Charsets.UTF_8)
+                it.writeInt(VERSION)
+                it.writeUTF(entry.etag ?: "")
+                it.writeUTF(entry.lastModified ?: "")
+                it.writeInt(body.size)
+                it.write(body)
+            }
+            file.delete()
+            if (temp.renameTo(file)) {
+                temp = null
+                if (isNew && entryCount.incrementAndGet() > maxEntries) {
+                    trim(file)
+                }
+            }
+        } catch (e: IOException) {
+            Logger.w(e)
+        } finally {
+            temp?.delete()
+        }
+    }
+
+    // Delete a little more than the excess, so that the directory is not listed at every write.
+    @Synchronized
+    private fun trim(written: File) {
+        if (entryCount.get() <= maxEntries) return
+        entryCount.set(prune(maxEntries - maxEntries / TRIM_DIVISOR, written))
+    }
+
+    private fun prune(maxEntries: Int, keep: File? = null): Int {
+        val files = directory.listFiles() ?: return 0
+        if (keep == null) {
+            files.filter { it.name.startsWith(TEMP_PREFIX) }.forEach { it.delete() }
+        }
+        val entries = files.filter { it.name.endsWith(SUFFIX) }
+        if (entries.size <= maxEntries) return entries.size
+        entries.filter { it != keep }
+            .sortedBy { it.lastModified() }
+            .take(entries.size - maxEntries)
+            .forEach { it.delete() }
+        return maxEntries
+    }
+
+    companion object {
+        private const val VERSION = 1
+        private const val DEFAULT_MAX_ENTRIES = 1000
+        private const val TRIM_DIVISOR = 10
+        private const val TEMP_PREFIX = "tmp-"
+        private const val SUFFIX = ".cache"
+
+        private fun makeFileName(vararg keys: String?): String {
+            val digest = MessageDigest.getInstance("SHA-1")
+            keys.forEach {
+                digest.update((it ?: "").toByteArray(Charsets.UTF_8))
+                digest.update(0.toByte())
+            }
+            return digest.digest().joinToString("", postfix = SUFFIX) { "%02x".format(it) }
+        }
+    }
+}
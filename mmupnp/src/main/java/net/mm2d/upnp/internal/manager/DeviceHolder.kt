@@ -10,6 +10,7 @@ package net.mm2d.upnp.internal.manager
 import net.mm2d.upnp.Device
 import net.mm2d.upnp.internal.thread.TaskExecutors
 import net.mm2d.upnp.internal.thread.ThreadCondition
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
@@ -18,30 +19,32 @@ import kotlin.concurrent.withLock
  * A class holding [Device] found in [net.mm2d.upnp.ControlPoint].
  *
  * Check the expiration date of Device, and notify the expired Device as Lost.
+ * The Devices are held in a concurrent map, so that the reference does not wait for the expiration check.
+ * The expiration times are held in [ExpireQueue] guarded by the lock,
+ * so that adding, updating and expiring a Device take O(log n) without scanning all the Devices.
  *
  * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
  *
  * @constructor initialize
  * @param expireListener Listener to receive expired notifications
+ * @param clock function returning the current time in milliseconds
  */
 internal class DeviceHolder(
     taskExecutors: TaskExecutors,
-    private val expireListener: (Device) -> Unit
+    private val expireListener: (Device) -> Unit,
+    private val clock: () -> Long = System::currentTimeMillis
 ) : Runnable {
     private val threadCondition = ThreadCondition(taskExecutors.manager)
     private val lock = ReentrantLock()
     private val condition = lock.newCondition()
-    private val deviceMap = mutableMapOf<String, Device>()
+    private val deviceMap = ConcurrentHashMap<String, Device>()
+    private val expireQueue = ExpireQueue<String, Device>()
 
     val deviceList: List<Device>
-        get() = lock.withLock {
-            deviceMap.values.toList()
-        }
+        get() = deviceMap.values.toList()
 
     val size: Int
-        get() = lock.withLock {
-            deviceMap.size
-        }
+        get() = deviceMap.size
 
     fun start() {
         threadCondition.start(this)
@@ -49,68 +52,121 @@ internal class DeviceHolder(
 
     fun stop() {
         threadCondition.stop()
+        lock.withLock {
+            condition.signalAll()
+        }
     }
 
     fun add(device: Device) {
+        deviceMap[device.udn] = device
+        schedule(device)
+    }
+
+    /**
+     * Reschedule the expiration of the device.
+     *
+     * Call this when the SSDP message of the device is updated.
+     *
+     * @param device Device
+     */
+    fun update(device: Device) {
+        if (deviceMap[device.udn] === device) {
+            schedule(device)
+        }
+    }
+
+    private fun schedule(device: Device) {
+        val expireTime = device.expireTime
         lock.withLock {
-            deviceMap[device.udn] = device
-            condition.signalAll()
+            val earliest = expireQueue.peekTime()
+            expireQueue.put(device.udn, device, expireTime)
+            // wake up only if the next expiration time is changed
+            if (earliest == null || expireTime < earliest) {
+                condition.signalAll()
+            }
         }
     }
 
-    operator fun get(udn: String): Device? = lock.withLock {
-        deviceMap[udn]
+    // VisibleForTesting
+    // Wake up the expiration check to check the time again, when the clock is moved forward.
+    internal fun wakeUp(): Unit = lock.withLock {
+        condition.signalAll()
     }
 
-    fun remove(device: Device): Device? = lock.withLock {
-        deviceMap.remove(device.udn)
+    operator fun get(udn: String): Device? = deviceMap[udn]
+
+    /**
+     * Remove the device, if it is not replaced by the other instance.
+     *
+     * @param device Device
+     * @return removed Device, or null if it is not held
+     */
+    fun remove(device: Device): Device? {
+        if (!deviceMap.remove(device.udn, device)) return null
+        lock.withLock {
+            expireQueue.remove(device.udn)
+        }
+        return device
     }
 
-    fun remove(udn: String): Device? = lock.withLock {
-        deviceMap.remove(udn)
+    fun remove(udn: String): Device? = deviceMap.remove(udn)?.also {
+        lock.withLock {
+            expireQueue.remove(udn)
+        }
     }
 
-    fun clear(): Unit = lock.withLock {
+    fun clear() {
         deviceMap.clear()
+        lock.withLock {
+            expireQueue.clear()
+        }
     }
 
     override fun run() {
         Thread.currentThread().let {
             it.name = it.name + "-device-holder"
         }
-        lock.withLock {
-            try {
-                while (!threadCondition.isCanceled()) {
-                    while (deviceMap.isEmpty()) {
-                        condition.await()
+        try {
+            while (!threadCondition.isCanceled()) {
+                // The listener is called without the lock, since it may take the other locks.
+                lock.withLock { waitExpiredDevices() }.forEach {
+                    if (deviceMap.remove(it.udn, it)) {
+                        expireListener.invoke(it)
                     }
-                    expireDevice()
-                    waitNextExpireTime()
                 }
-            } catch (ignored: InterruptedException) {
             }
+        } catch (ignored: InterruptedException) {
         }
     }
 
-    private fun expireDevice() {
-        val now = System.currentTimeMillis()
-        deviceMap.values
-            .filter { it.expireTime < now }
-            .forEach {
-                deviceMap.remove(it.udn)
-                expireListener.invoke(it)
+    @Throws(InterruptedException::class)
+    private fun waitExpiredDevices(): List<Device> {
+        while (!threadCondition.isCanceled()) {
+            val now = clock()
+            val expiredDevices = pollExpiredDevices(now)
+            if (expiredDevices.isNotEmpty()) return expiredDevices
+            val next = expireQueue.peekTime()
+            if (next == null) {
+                condition.await()
+            } else {
+                condition.await(next + MARGIN_TIME - now, TimeUnit.MILLISECONDS)
             }
+        }
+        return emptyList()
     }
 
-    @Throws(InterruptedException::class)
-    private fun waitNextExpireTime() {
-        if (deviceMap.isEmpty()) {
-            return
+    private fun pollExpiredDevices(now: Long): List<Device> {
+        val result = mutableListOf<Device>()
+        while (true) {
+            val device = expireQueue.pollExpired(now - MARGIN_TIME) ?: return result
+            val expireTime = device.expireTime
+            // The expiration time may be extended without update
+            if (expireTime + MARGIN_TIME > now) {
+                expireQueue.put(device.udn, device, expireTime)
+            } else {
+                result.add(device)
+            }
         }
-        val mostRecentExpireTime = deviceMap.values.map { it.expireTime }.min() ?: 0L
-        val duration = mostRecentExpireTime - System.currentTimeMillis() + MARGIN_TIME
-        val sleep = maxOf(duration, MARGIN_TIME) // avoid negative value
-        condition.await(sleep, TimeUnit.MILLISECONDS)
     }
 
     companion object {
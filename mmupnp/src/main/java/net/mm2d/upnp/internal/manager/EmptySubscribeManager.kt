@@ -12,6 +12,12 @@ import net.mm2d.upnp.Service
 internal class EmptySubscribeManager : SubscribeManager {
     override fun checkEnabled() = throw IllegalStateException()
     override fun getEventPort(): Int = 0
+    override fun getSubscriptionTimeout(): Long = 0L
+    override fun getRenewCount(): Long = 0L
+    override fun getSavedRenewCount(): Long = 0L
+    override fun getEventGapCount(): Long = 0L
+    override fun getEventDuplicateCount(): Long = 0L
+    override fun getEventResetCount(): Long = 0L
     override fun initialize() = Unit
     override fun start() = Unit
     override fun stop() = Unit
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+/**
+ * Result of checking the SEQ of the event against the previous event of the subscription.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal enum class EventSequence {
+    /**
+     * The next SEQ of the previous event, or the initial event.
+     */
+    IN_ORDER,
+    /**
+     * Some events were lost between the previous event.
+     */
+    GAP,
+    /**
+     * The same or older SEQ as the previous event.
+     */
+    DUPLICATE,
+    /**
+     * SEQ went back to 0, the device restarted the subscription.
+     */
+    RESET
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+/**
+ * Indexed binary min-heap of the expiration time.
+ *
+ * Each element is identified by the key, and it has its position in the heap,
+ * so that the expiration time of the element can be changed in O(log n).
+ * This class is not thread safe.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal class ExpireQueue<K, V> {
+    private class Entry<K, V>(
+        val key: K,
+        var value: V,
+        var time: Long,
+        var index: Int
+    )
+
+    private val heap = ArrayList<Entry<K, V>>()
+    private val entryMap = HashMap<K, Entry<K, V>>()
+
+    val size: Int
+        get() = heap.size
+
+    fun isEmpty(): Boolean = heap.isEmpty()
+
+    /**
+     * Returns the earliest expiration time, or null if empty.
+     */
+    fun peekTime(): Long? = heap.firstOrNull()?.time
+
+    /**
+     * Add the element, or update the value and the expiration time of the element that has the same key.
+     *
+     * @param key key
+     * @param value value
+     * @param time expiration time
+     */
+    fun put(key: K, value: V, time: Long) {
+        val entry = entryMap[key]
+        if (entry == null) {
+            Entry(key, value, time, heap.size).let {
+                entryMap[key] = it
+                heap.add(it)
+                siftUp(it.index)
+            }
+            return
+        }
+        entry.value = value
+        val oldTime = entry.time
+        entry.time = time
+        if (time < oldTime) siftUp(entry.index) else siftDown(entry.index)
+    }
+
+    /**
+     * Remove the element of the key.
+     *
+     * @param key key
+     * @return value of the removed element
+     */
+    fun remove(key: K): V? {
+        val entry = entryMap.remove(key) ?: return null
+        removeAt(entry.index)
+        return entry.value
+    }
+
+    /**
+     * Remove and return the earliest element, if its expiration time is not after the specified time.
+     *
+     * @param time time
+     * @return value of the removed element, or null if there is no expired element
+     */
+    fun pollExpired(time: Long): V? {
+        val entry = heap.firstOrNull() ?: return null
+        if (entry.time > time) return null
+        entryMap.remove(entry.key)
+        removeAt(0)
+        return entry.value
+    }
+
+    fun clear() {
+        heap.clear()
+        entryMap.clear()
+    }
+
+    private fun removeAt(index: Int) {
+        val last = heap.removeAt(heap.lastIndex)
+        if (index == heap.size) return
+        last.index = index
+        heap[index] = last
+        siftDown(index)
+        siftUp(index)
+    }
+
+    private fun siftUp(start: Int) {
+        var index = start
+        val entry = heap[index]
+        while (index > 0) {
+            val parentIndex = (index - 1) / 2
+            val parent = heap[parentIndex]
+            if (parent.time <= entry.time) break
+            set(index, parent)
+            index = parentIndex
+        }
+        set(index, entry)
+    }
+
+    private fun siftDown(start: Int) {
+        var index = start
+        val entry = heap[index]
+        while (true) {
+            var childIndex = index * 2 + 1
+            if (childIndex >= heap.size) break
+            if (childIndex + 1 < heap.size && heap[childIndex + 1].time < heap[childIndex].time) {
+                childIndex++
+            }
+            val child = heap[childIndex]
+            if (entry.time <= child.time) break
+            set(index, child)
+            index = childIndex
+        }
+        set(index, entry)
+    }
+
+    private fun set(index: Int, entry: Entry<K, V>) {
+        heap[index] = entry
+        entry.index = index
+    }
+}
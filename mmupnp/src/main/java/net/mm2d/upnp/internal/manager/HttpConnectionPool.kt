@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+import net.mm2d.upnp.HttpClient.SocketHolder
+import java.net.Inet6Address
+import java.net.InetAddress
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Pool of keep-alive connections shared by [net.mm2d.upnp.HttpClient].
+ *
+ * A connection is borrowed by HttpClient while it is in use and returned when the HttpClient is closed,
+ * so that the next communication to the same host does not need a new TCP connection.
+ * Connections are identified by address, port and scope ID.
+ * Connections idle for longer than [idleTimeout] are closed,
+ * and the number of idle connections is limited per host and in total, closing the oldest one.
+ *
+ * This can be used from multiple threads.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param maxIdlePerHost maximum number of idle connections kept for each host
+ * @param maxIdleTotal maximum number of idle connections kept in total
+ * @param idleTimeout time in milliseconds to keep an idle connection
+ */
+internal class HttpConnectionPool(
+    private val maxIdlePerHost: Int = DEFAULT_MAX_IDLE_PER_HOST,
+    private val maxIdleTotal: Int = DEFAULT_MAX_IDLE_TOTAL,
+    private val idleTimeout: Long = DEFAULT_IDLE_TIMEOUT
+) {
+    private data class Key(
+        val address: InetAddress,
+        val port: Int,
+        val scopeId: Int
+    )
+
+    private class Entry(
+        val key: Key,
+        val socketHolder: SocketHolder,
+        val time: Long
+    )
+
+    // ordered from oldest to newest
+    private val idleList = LinkedList<Entry>()
+
+    /**
+     * Number of idle connections.
+     */
+    val idleCount: Int
+        get() = synchronized(idleList) { idleList.size }
+
+    /**
+     * Borrow an idle connection to the host.
+     *
+     * @param address address of the host
+     * @param port port of the host
+     * @return idle connection, or null if there is no connection available.
+     */
+    fun acquire(address: InetAddress, port: Int): SocketHolder? {
+        val key = Key(address, port, address.scopeId())
+        val now = System.currentTimeMillis()
+        return synchronized(idleList) {
+            removeExpired(now)
+            val iterator = idleList.descendingIterator()
+            while (iterator.hasNext()) {
+                val entry = iterator.next()
+                if (entry.key == key) {
+                    iterator.remove()
+                    return@synchronized entry.socketHolder
+                }
+            }
+            null
+        }
+    }
+
+    /**
+     * Return the connection that can be reused.
+     *
+     * @param socketHolder connection
+     */
+    fun release(socketHolder: SocketHolder) {
+        val socket = socketHolder.socket
+        if (socket.isClosed || !socket.isConnected) {
+            socketHolder.close()
+            return
+        }
+        val address = socket.inetAddress
+        val key = Key(address, socket.port, address.scopeId())
+        val now = System.currentTimeMillis()
+        val evicted = synchronized(idleList) {
+            removeExpired(now)
+            idleList.addLast(Entry(key, socketHolder, now))
+            trim(key)
+        }
+        evicted.forEach { it.socketHolder.close() }
+    }
+
+    /**
+     * Close all idle connections.
+     */
+    fun evictAll() {
+        val evicted = synchronized(idleList) {
+            idleList.toList().also { idleList.clear() }
+        }
+        evicted.forEach { it.socketHolder.close() }
+    }
+
+    private fun removeExpired(now: Long) {
+        val iterator = idleList.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            if (now - entry.time < idleTimeout) return
+            iterator.remove()
+            entry.socketHolder.close()
+        }
+    }
+
+    private fun trim(key: Key): List<Entry> {
+        val evicted = mutableListOf<Entry>()
+        var count = idleList.count { it.key == key }
+        val iterator = idleList.iterator()
+        while (iterator.hasNext() && count > maxIdlePerHost) {
+            val entry = iterator.next()
+            if (entry.key == key) {
+                iterator.remove()
+                evicted.add(entry)
+                count--
+            }
+        }
+        while (idleList.size > maxIdleTotal) {
+            evicted.add(idleList.removeFirst())
+        }
+        return evicted
+    }
+
+    private fun InetAddress.scopeId(): Int = (this as? Inet6Address)?.scopeId ?: 0
+
+    companion object {
+        private const val DEFAULT_MAX_IDLE_PER_HOST = 2
+        private const val DEFAULT_MAX_IDLE_TOTAL = 32
+        private val DEFAULT_IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(10)
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+import net.mm2d.upnp.Http
+import net.mm2d.upnp.SsdpMessage
+import java.net.InetAddress
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A class that detects SSDP messages that are repeated copies of the message received just before.
+ *
+ * A device sends the same announcement several times, once per NT/USN and repeatedly for UDP loss.
+ * Messages are identified by uuid, location, NTS and BOOTID.UPNP.ORG for each receiving interface,
+ * and the same message received within [suppressTime] is treated as duplicate.
+ * A duplicate does not extend the time of the original message,
+ * so a periodic announcement is always accepted once per [suppressTime].
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param suppressTime time in milliseconds to treat the same message as duplicate
+ */
+internal class SsdpDuplicateFilter(
+    private val suppressTime: Long = DEFAULT_SUPPRESS_TIME
+) {
+    private data class Key(
+        val uuid: String,
+        val localAddress: InetAddress?
+    )
+
+    private data class Fingerprint(
+        val location: String?,
+        val nts: String?,
+        val bootId: String?
+    )
+
+    private class Entry(
+        val fingerprint: Fingerprint,
+        val time: Long
+    )
+
+    private val map = mutableMapOf<Key, Entry>()
+    private var lastPurgeTime: Long = 0L
+    private val hit = AtomicLong()
+    private val miss = AtomicLong()
+
+    /**
+     * Number of messages judged to be duplicate.
+     */
+    val hitCount: Long
+        get() = hit.get()
+
+    /**
+     * Number of messages judged not to be duplicate.
+     */
+    val missCount: Long
+        get() = miss.get()
+
+    /**
+     * Judge whether the message is a duplicate of the message received just before.
+     *
+     * @param message SsdpMessage
+     * @return true: duplicate, false: otherwise
+     */
+    fun isDuplicate(message: SsdpMessage): Boolean {
+        val uuid = message.uuid
+        if (uuid.isEmpty()) {
+            miss.incrementAndGet()
+            return false
+        }
+        val key = Key(uuid, message.localAddress)
+        val fingerprint = Fingerprint(message.location, message.nts, message.getHeader(Http.BOOTID_UPNP_ORG))
+        val now = System.currentTimeMillis()
+        val duplicate = synchronized(map) {
+            purgeIfNeeded(now)
+            val entry = map[key]
+            if (entry != null && entry.fingerprint == fingerprint && now - entry.time < suppressTime) {
+                true
+            } else {
+                map[key] = Entry(fingerprint, now)
+                false
+            }
+        }
+        (if (duplicate) hit else miss).incrementAndGet()
+        return duplicate
+    }
+
+    /**
+     * Forget the messages of the uuid so that the next message will be accepted.
+     *
+     * @param uuid uuid
+     */
+    fun remove(uuid: String): Unit = synchronized(map) {
+        map.keys.removeAll { it.uuid == uuid }
+    }
+
+    /**
+     * Forget all messages.
+     */
+    fun clear(): Unit = synchronized(map) {
+        map.clear()
+    }
+
+    private fun purgeIfNeeded(now: Long) {
+        if (now - lastPurgeTime < suppressTime) return
+        lastPurgeTime = now
+        map.values.removeAll { now - it.time >= suppressTime }
+    }
+
+    companion object {
+        private val DEFAULT_SUPPRESS_TIME = TimeUnit.SECONDS.toMillis(2)
+    }
+}
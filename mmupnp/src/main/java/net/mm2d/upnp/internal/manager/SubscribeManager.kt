@@ -12,6 +12,12 @@ import net.mm2d.upnp.Service
 internal interface SubscribeManager {
     fun checkEnabled()
     fun getEventPort(): Int
+    fun getSubscriptionTimeout(): Long
+    fun getRenewCount(): Long
+    fun getSavedRenewCount(): Long
+    fun getEventGapCount(): Long
+    fun getEventDuplicateCount(): Long
+    fun getEventResetCount(): Long
     fun initialize()
     fun start()
     fun stop()
@@ -10,33 +10,132 @@ package net.mm2d.upnp.internal.manager
 import net.mm2d.log.Logger
 import net.mm2d.upnp.Service
 import net.mm2d.upnp.internal.impl.DiFactory
-import net.mm2d.upnp.internal.server.EventReceiver
+import net.mm2d.upnp.internal.server.EventServer
+import net.mm2d.upnp.internal.thread.IoPriority
 import net.mm2d.upnp.internal.thread.TaskExecutors
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
+/**
+ * Implements for [SubscribeManager].
+ *
+ * The SEQ of the received events are checked for each subscription.
+ * The duplicated events are dropped, and the lost events are counted.
+ * If [resubscribeOnEventGap] is true, the subscription is restarted when the lost events are detected,
+ * so that the initial event with all the evented state variables is received again.
+ *
+ * The initial event is often sent by the device before the response of SUBSCRIBE is read and registered.
+ * So the events of unknown SID are kept for a short time, and are processed when the SID is registered.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
 internal class SubscribeManagerImpl(
-    taskExecutors: TaskExecutors,
+    private val taskExecutors: TaskExecutors,
     private val listener: (service: Service, seq: Long, properties: List<Pair<String, String>>) -> Unit,
-    factory: DiFactory
+    factory: DiFactory,
+    private val subscriptionTimeout: Long = DEFAULT_SUBSCRIPTION_TIMEOUT,
+    private val resubscribeOnEventGap: Boolean = false
 ) : SubscribeManager {
     private val serviceHolder: SubscribeServiceHolder = factory.createSubscribeServiceHolder(taskExecutors)
-    private val eventReceiver: EventReceiver = factory.createEventReceiver(taskExecutors, this::onEventReceived)
+    private val eventReceiver: EventServer = factory.createEventReceiver(taskExecutors, this::onEventReceived)
+    private val gapCount = AtomicLong()
+    private val duplicateCount = AtomicLong()
+    private val resetCount = AtomicLong()
+    private val resubscribingSet: MutableSet<Service> = Collections.synchronizedSet(mutableSetOf())
+    // guarded by itself, also serializes the sequence check and the notification of the events
+    private val pendingEventMap = LinkedHashMap<String, MutableList<PendingEvent>>()
+
+    private class PendingEvent(
+        val seq: Long,
+        val properties: List<Pair<String, String>>,
+        val time: Long
+    )
 
     // VisibleForTesting
     internal fun onEventReceived(sid: String, seq: Long, properties: List<Pair<String, String>>): Boolean {
         Logger.d { "$sid $seq $properties" }
-        val service = serviceHolder.getService(sid) ?: run {
-            Logger.w { "no service to receive: $sid" }
-            return false
+        synchronized(pendingEventMap) {
+            val service = serviceHolder.getService(sid) ?: run {
+                Logger.w { "no service to receive: $sid" }
+                keepPendingEvent(sid, seq, properties)
+                return false
+            }
+            dispatchEvent(service, sid, seq, properties)
         }
-        listener(service, seq, properties)
         return true
     }
 
+    private fun keepPendingEvent(sid: String, seq: Long, properties: List<Pair<String, String>>) {
+        if (sid.isEmpty()) return
+        val now = System.currentTimeMillis()
+        pendingEventMap.values.forEach { list -> list.removeAll { now - it.time > PENDING_EVENT_LIFETIME } }
+        pendingEventMap.values.removeAll { it.isEmpty() }
+        val list = pendingEventMap.getOrPut(sid) { mutableListOf() }
+        if (list.size >= MAX_PENDING_EVENT_PER_SID) return
+        list.add(PendingEvent(seq, properties, now))
+        if (pendingEventMap.size > MAX_PENDING_SID) {
+            pendingEventMap.remove(pendingEventMap.keys.first())
+        }
+    }
+
+    private fun dispatchEvent(service: Service, sid: String, seq: Long, properties: List<Pair<String, String>>) {
+        when (serviceHolder.checkEventSequence(sid, seq)) {
+            EventSequence.DUPLICATE -> {
+                Logger.w { "duplicate event: $sid $seq" }
+                duplicateCount.incrementAndGet()
+                return
+            }
+            EventSequence.GAP -> {
+                Logger.w { "event lost before: $sid $seq" }
+                gapCount.incrementAndGet()
+                if (resubscribeOnEventGap) resubscribe(service)
+            }
+            EventSequence.RESET ->
+                resetCount.incrementAndGet()
+            else -> Unit
+        }
+        listener(service, seq, properties)
+    }
+
+    /**
+     * Restart the subscription to receive the initial event again.
+     *
+     * @param service Service
+     */
+    private fun resubscribe(service: Service) {
+        if (!resubscribingSet.add(service)) return
+        val keepRenew = serviceHolder.isKeepRenew(service)
+        val executed = taskExecutors.io(IoPriority.NORMAL, service.device.ipAddress) {
+            try {
+                service.unsubscribeSync()
+                service.subscribeSync(keepRenew)
+            } finally {
+                resubscribingSet.remove(service)
+            }
+        }
+        if (!executed) {
+            resubscribingSet.remove(service)
+        }
+    }
+
     override fun checkEnabled() = Unit
 
     override fun getEventPort(): Int =
         eventReceiver.getLocalPort()
 
+    override fun getSubscriptionTimeout(): Long = subscriptionTimeout
+
+    override fun getRenewCount(): Long = serviceHolder.renewCount
+
+    override fun getSavedRenewCount(): Long = serviceHolder.savedRenewCount
+
+    override fun getEventGapCount(): Long = gapCount.get()
+
+    override fun getEventDuplicateCount(): Long = duplicateCount.get()
+
+    override fun getEventResetCount(): Long = resetCount.get()
+
     override fun initialize(): Unit =
         serviceHolder.start()
 
@@ -44,6 +143,9 @@ internal class SubscribeManagerImpl(
         eventReceiver.start()
 
     override fun stop() {
+        synchronized(pendingEventMap) {
+            pendingEventMap.clear()
+        }
         serviceHolder.clear()
         eventReceiver.stop()
     }
@@ -54,8 +156,17 @@ internal class SubscribeManagerImpl(
     override fun getSubscribeService(subscriptionId: String): Service? =
         serviceHolder.getService(subscriptionId)
 
-    override fun register(service: Service, timeout: Long, keep: Boolean): Unit =
-        serviceHolder.add(service, timeout, keep)
+    override fun register(service: Service, timeout: Long, keep: Boolean) {
+        synchronized(pendingEventMap) {
+            serviceHolder.add(service, timeout, keep)
+            val sid = service.subscriptionId ?: return
+            val now = System.currentTimeMillis()
+            pendingEventMap.remove(sid)
+                ?.filter { now - it.time <= PENDING_EVENT_LIFETIME }
+                ?.sortedBy { it.seq }
+                ?.forEach { dispatchEvent(service, sid, it.seq, it.properties) }
+        }
+    }
 
     override fun renew(service: Service, timeout: Long): Unit =
         serviceHolder.renew(service, timeout)
@@ -65,4 +176,14 @@ internal class SubscribeManagerImpl(
 
     override fun unregister(service: Service): Unit =
         serviceHolder.remove(service)
+
+    companion object {
+        /**
+         * Default timeout of the subscription, also used when the response has no valid TIMEOUT header.
+         */
+        val DEFAULT_SUBSCRIPTION_TIMEOUT = TimeUnit.SECONDS.toMillis(300)
+        private val PENDING_EVENT_LIFETIME = TimeUnit.SECONDS.toMillis(10)
+        private const val MAX_PENDING_EVENT_PER_SID = 4
+        private const val MAX_PENDING_SID = 16
+    }
 }
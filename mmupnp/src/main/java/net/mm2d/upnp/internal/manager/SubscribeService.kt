@@ -8,26 +8,55 @@
 package net.mm2d.upnp.internal.manager
 
 import net.mm2d.upnp.Service
+import java.util.*
 import java.util.concurrent.TimeUnit
 
 /**
  * Class that manages Subscribe status of [Service].
  *
+ * When [adaptive] is true, the renew time is moved later while the renew keeps succeeding,
+ * and the margin before the expiration is widened according to the response time of the device.
+ * On failure, it goes back to the basic policy.
+ *
  * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
  *
  * @constructor initialize
  * @param service [Service]
- * @param subscriptionTimeout Time to time out
+ * @param subscriptionTimeout Time to time out, [INFINITE] if it does not expire
  * @param keepRenew true: periodically execute renew
+ * @param jitterRatio upper limit of the ratio to advance the renew time randomly
+ * @param adaptive true: adapt the renew time to the result of renew
+ * @param clock function returning the current time in milliseconds
  */
 internal class SubscribeService(
     val service: Service,
     private var subscriptionTimeout: Long,
-    private var keepRenew: Boolean
+    private var keepRenew: Boolean,
+    private val jitterRatio: Float = 0f,
+    private val adaptive: Boolean = false,
+    private val clock: () -> Long = System::currentTimeMillis
 ) {
     private var failCount: Int = 0
-    private var subscriptionStart: Long = System.currentTimeMillis()
-    private var subscriptionExpiryTime: Long = subscriptionStart + subscriptionTimeout
+    private var successCount: Int = 0
+    private var latency: Long = -1L
+    private var subscriptionStart: Long = clock()
+    private var subscriptionExpiryTime: Long = calculateExpiryTime()
+    private var jitter: Float = nextJitter()
+    private var lastSequence: Long = -1L
+
+    /**
+     * Number of renews that would have been executed by the basic policy during the last renew interval.
+     *
+     * Updated when renew succeeds. 1.0 for the basic policy, more than 1.0 if the interval was lengthened.
+     */
+    var lastRenewRatio: Double = 0.0
+        private set
+
+    /**
+     * Number of renew requests executed by [renewSubscribe].
+     */
+    var renewCount: Int = 0
+        private set
 
     /**
      * Returns whether the status has exceeded the upper limit of the number of retries.
@@ -47,15 +76,57 @@ internal class SubscribeService(
     fun getNextScanTime(): Long = if (!keepRenew) subscriptionExpiryTime else calculateRenewTime()
 
     fun renew(timeout: Long) {
-        subscriptionStart = System.currentTimeMillis()
+        subscriptionStart = clock()
         subscriptionTimeout = timeout
-        subscriptionExpiryTime = subscriptionStart + subscriptionTimeout
+        subscriptionExpiryTime = calculateExpiryTime()
+        jitter = nextJitter()
     }
 
+    private fun calculateExpiryTime(): Long =
+        if (subscriptionTimeout == INFINITE) Long.MAX_VALUE else subscriptionStart + subscriptionTimeout
+
+    private fun nextJitter(): Float = if (jitterRatio <= 0f) 0f else RANDOM.nextFloat() * jitterRatio
+
     fun setKeepRenew(keep: Boolean) {
         keepRenew = keep
     }
 
+    fun isKeepRenew(): Boolean = keepRenew
+
+    /**
+     * Check the SEQ of the received event, and remember it if it is newer than the previous one.
+     *
+     * SEQ starts from 0 at the initial event, and wraps around to 1 after [MAX_SEQUENCE].
+     * The first event received is always in order, even if it is not 0.
+     * The initial event that arrives before the subscription is registered is kept and processed at registration,
+     * but it may still be lost if it is too late, and resubscribing would hit the same race.
+     *
+     * @param seq SEQ of the event
+     * @return result of the check
+     */
+    fun checkSequence(seq: Long): EventSequence {
+        val last = lastSequence
+        val result = when {
+            last < 0 -> EventSequence.IN_ORDER
+            seq == nextSequence(last) -> EventSequence.IN_ORDER
+            seq == 0L -> EventSequence.RESET
+            isAfter(seq, last) -> EventSequence.GAP
+            else -> EventSequence.DUPLICATE
+        }
+        if (result != EventSequence.DUPLICATE) {
+            lastSequence = seq
+        }
+        return result
+    }
+
+    private fun nextSequence(seq: Long): Long = if (seq >= MAX_SEQUENCE) 1L else seq + 1
+
+    // Newer if it is ahead within the half of the range, considering the wrap around.
+    private fun isAfter(seq: Long, last: Long): Boolean {
+        val distance = (seq - last + MAX_SEQUENCE) % MAX_SEQUENCE
+        return distance in 1 until MAX_SEQUENCE / 2
+    }
+
     /**
      * Calculate and return the time to execute Renew (UTC(ms)).
      *
@@ -65,17 +136,36 @@ internal class SubscribeService(
      *
      * Also, by executing slightly before the reference time,
      * it is possible to operate even if the time is slightly offset for each device.
+     * The time is advanced by the random ratio up to [jitterRatio],
+     * so that the subscriptions started at the same time do not renew at the same time forever.
      *
      * @return Time to do Renew
      */
     fun calculateRenewTime(): Long {
-        var interval = subscriptionTimeout * (failCount + 1) / RETRY_COUNT
-        if (interval > MARGIN_TIME * 2) {
-            interval -= MARGIN_TIME
+        if (subscriptionTimeout == INFINITE) {
+            return Long.MAX_VALUE
+        }
+        val interval = calculateRenewInterval(adaptive && failCount == 0)
+        return subscriptionStart + interval - (interval * jitter).toLong()
+    }
+
+    private fun calculateRenewInterval(adapt: Boolean, failCount: Int = this.failCount): Long {
+        val margin: Long
+        var interval: Long
+        if (adapt) {
+            val ratio = minOf(BASE_RATIO + successCount * RATIO_STEP, MAX_RATIO)
+            margin = maxOf(MARGIN_TIME, latency * LATENCY_FACTOR)
+            interval = (subscriptionTimeout * ratio).toLong()
+        } else {
+            margin = MARGIN_TIME
+            interval = subscriptionTimeout * (failCount + 1) / RETRY_COUNT
+        }
+        if (interval > margin * 2) {
+            interval -= margin
         } else {
             interval /= 2
         }
-        return subscriptionStart + interval
+        return interval
     }
 
     /**
@@ -86,6 +176,14 @@ internal class SubscribeService(
      */
     fun isExpired(now: Long): Boolean = subscriptionExpiryTime < now
 
+    /**
+     * Return whether it is the time to renew.
+     *
+     * @param now Current time
+     * @return true: renew is required, false: otherwise
+     */
+    fun isRenewTime(now: Long): Boolean = keepRenew && calculateRenewTime() <= now
+
     /**
      * Execute renewSubscribe if there is a condition.
      *
@@ -93,24 +191,27 @@ internal class SubscribeService(
      * @return false: failed, true: otherwise
      */
     fun renewSubscribe(now: Long): Boolean {
-        if (!keepRenew || calculateRenewTime() > now) {
+        if (!isRenewTime(now)) {
             return true
         }
-        if (service.renewSubscribeSync()) {
-            resetFailCount()
+        val start = subscriptionStart
+        val baseInterval = calculateRenewInterval(false, 0)
+        renewCount++
+        val success = service.renewSubscribeSync()
+        updateLatency(clock() - now)
+        if (success) {
+            lastRenewRatio = if (baseInterval > 0) (now - start).toDouble() / baseInterval else 1.0
+            failCount = 0
+            successCount++
             return true
-        } else {
-            increaseFailCount()
         }
+        failCount++
+        successCount = 0
         return false
     }
 
-    private fun resetFailCount() {
-        failCount = 0
-    }
-
-    private fun increaseFailCount() {
-        failCount++
+    private fun updateLatency(time: Long) {
+        latency = if (latency < 0) time else (latency * 3 + time) / 4
     }
 
     override fun hashCode(): Int = service.hashCode()
@@ -123,7 +224,17 @@ internal class SubscribeService(
     }
 
     companion object {
+        /**
+         * Timeout of the subscription that does not expire.
+         */
+        const val INFINITE = Long.MAX_VALUE
+        private const val MAX_SEQUENCE = 4294967295L
         private val MARGIN_TIME = TimeUnit.SECONDS.toMillis(10)
         private const val RETRY_COUNT = 2
+        private const val BASE_RATIO = 0.5f
+        private const val RATIO_STEP = 0.05f
+        private const val MAX_RATIO = 0.75f
+        private const val LATENCY_FACTOR = 4
+        private val RANDOM = Random()
     }
 }
@@ -7,9 +7,12 @@
 
 package net.mm2d.upnp.internal.manager
 
+import net.mm2d.log.Logger
 import net.mm2d.upnp.Service
+import net.mm2d.upnp.internal.thread.IoPriority
 import net.mm2d.upnp.internal.thread.TaskExecutors
 import net.mm2d.upnp.internal.thread.ThreadCondition
+import java.util.*
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
@@ -20,52 +23,160 @@ import kotlin.concurrent.withLock
  * If specified, renew will be executed periodically so that the Subscription will not expire.
  * Also, expired services are deleted.
  *
+ * The next scan time of each subscription is held in [TimingWheel],
+ * so that the scan does not visit the subscriptions whose time has not come.
+ * The renew and unsubscribe requests are executed on the io executor,
+ * so that a slow device does not delay the renewal of the others.
+ *
+ * The renew requests are queued for each host, and the requests to a host are executed one by one,
+ * at most [maxConcurrentRenew] hosts at once.
+ * So the requests to the same host reuse a keep-alive connection, and do not flood the device.
+ * If [renewHostInterval] is specified, the host waits for the interval on another [TimingWheel] after each request,
+ * without holding the io thread, and it is still counted as renewing while waiting.
+ * The renew time is advanced randomly up to [renewJitterRatio] of the interval,
+ * so that the subscriptions started at the same time are spread out.
+ * If [adaptiveRenew] is true, the renew interval is adapted to the result of renew of each subscription,
+ * see [SubscribeService].
+ *
  * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param taskExecutors TaskExecutors
+ * @param renewJitterRatio upper limit of the ratio to advance the renew time randomly
+ * @param renewHostInterval interval in milliseconds between the renew requests to the same host
+ * @param adaptiveRenew true: adapt the renew interval to the result of renew
+ * @param maxConcurrentRenew max number of the hosts to execute the renew requests at once
+ * @param clock function returning the current time in milliseconds
  */
 internal class SubscribeServiceHolder(
-    taskExecutors: TaskExecutors
+    private val taskExecutors: TaskExecutors,
+    private val renewJitterRatio: Float = DEFAULT_RENEW_JITTER_RATIO,
+    private val renewHostInterval: Long = 0L,
+    private val adaptiveRenew: Boolean = false,
+    private val maxConcurrentRenew: Int = DEFAULT_MAX_CONCURRENT_RENEW,
+    private val clock: () -> Long = System::currentTimeMillis
 ) : Runnable {
     private val threadCondition = ThreadCondition(taskExecutors.manager)
     private val lock = ReentrantLock()
     private val condition = lock.newCondition()
     private val subscriptionMap = mutableMapOf<String, SubscribeService>()
+    private val timingWheel = TimingWheel<SubscribeService>(TICK_TIME, WHEEL_SIZE, clock())
+    private val hostWheel = TimingWheel<String>(TICK_TIME, WHEEL_SIZE, clock())
+    private val hostQueueMap = mutableMapOf<String, Queue<SubscribeService>>()
+    private val renewingHostSet = mutableSetOf<String>()
+    private val renewingSet = mutableSetOf<SubscribeService>()
+    private var wakeUpTime: Long = Long.MAX_VALUE
+    private var renewRequestCount: Long = 0L
+    private var basicRenewCount: Double = 0.0
+
+    /**
+     * Number of renew requests executed by this.
+     */
+    val renewCount: Long
+        get() = lock.withLock { renewRequestCount }
+
+    /**
+     * Number of renew requests reduced by the adaptive renew, compared with the basic policy.
+     *
+     * Negative if the renew interval was shortened more than lengthened.
+     */
+    val savedRenewCount: Long
+        get() = lock.withLock { Math.floor(basicRenewCount - renewRequestCount).toLong() }
 
     fun start(): Unit = threadCondition.start(this)
-    fun stop(): Unit = threadCondition.stop()
+
+    fun stop() {
+        threadCondition.stop()
+        lock.withLock {
+            condition.signalAll()
+        }
+    }
 
     fun add(service: Service, timeout: Long, keepRenew: Boolean): Unit = lock.withLock {
         val id = service.subscriptionId
         if (id.isNullOrEmpty()) {
             return
         }
-        subscriptionMap[id] = SubscribeService(service, timeout, keepRenew)
-        condition.signalAll()
+        subscriptionMap.remove(id)?.let { cancel(it) }
+        SubscribeService(service, timeout, keepRenew, renewJitterRatio, adaptiveRenew, clock).let {
+            subscriptionMap[id] = it
+            schedule(it)
+        }
     }
 
     fun renew(service: Service, timeout: Long): Unit = lock.withLock {
-        subscriptionMap[service.subscriptionId]?.renew(timeout)
+        subscriptionMap[service.subscriptionId]?.let {
+            it.renew(timeout)
+            schedule(it)
+        }
     }
 
     fun setKeepRenew(service: Service, keep: Boolean): Unit = lock.withLock {
-        subscriptionMap[service.subscriptionId]?.setKeepRenew(keep)
-        condition.signalAll()
+        subscriptionMap[service.subscriptionId]?.let {
+            it.setKeepRenew(keep)
+            schedule(it)
+        }
     }
 
     fun remove(service: Service): Unit = lock.withLock {
-        subscriptionMap.remove(service.subscriptionId)?.let {
-            condition.signalAll()
-        }
+        subscriptionMap.remove(service.subscriptionId)?.let { cancel(it) }
     }
 
     fun getService(subscriptionId: String): Service? = lock.withLock {
         subscriptionMap[subscriptionId]?.service
     }
 
+    fun isKeepRenew(service: Service): Boolean = lock.withLock {
+        subscriptionMap[service.subscriptionId]?.isKeepRenew() ?: false
+    }
+
+    /**
+     * Check the SEQ of the event received by the subscription.
+     *
+     * @param subscriptionId subscription ID
+     * @param seq SEQ
+     * @return result of the check, null if the subscription is not found
+     */
+    fun checkEventSequence(subscriptionId: String, seq: Long): EventSequence? = lock.withLock {
+        subscriptionMap[subscriptionId]?.checkSequence(seq)
+    }
+
     fun clear(): Unit = lock.withLock {
         subscriptionMap.values.forEach {
             it.service.unsubscribe()
         }
         subscriptionMap.clear()
+        timingWheel.clear()
+        hostQueueMap.clear()
+    }
+
+    // VisibleForTesting
+    // Wake up the scan to check the time again, when the clock is moved forward.
+    internal fun wakeUp(): Unit = lock.withLock {
+        condition.signalAll()
+    }
+
+    // While renewing, it is scheduled after the completion.
+    private fun schedule(subscribeService: SubscribeService, notBefore: Long = 0L) {
+        if (renewingSet.contains(subscribeService)) return
+        removeFromHostQueue(subscribeService)
+        val time = maxOf(subscribeService.getNextScanTime(), notBefore)
+        timingWheel.schedule(subscribeService, time)
+        if (time < wakeUpTime) {
+            condition.signalAll()
+        }
+    }
+
+    private fun cancel(subscribeService: SubscribeService) {
+        timingWheel.cancel(subscribeService)
+        removeFromHostQueue(subscribeService)
+    }
+
+    private fun removeFromHostQueue(subscribeService: SubscribeService) {
+        val host = subscribeService.host
+        val queue = hostQueueMap[host] ?: return
+        if (queue.remove(subscribeService) && queue.isEmpty()) {
+            hostQueueMap.remove(host)
+        }
     }
 
     override fun run() {
@@ -74,87 +185,186 @@ internal class SubscribeServiceHolder(
         }
         try {
             while (!threadCondition.isCanceled()) {
-                renewSubscribe(waitEntry())
-                removeExpiredService()
-                waitNextRenewTime()
+                val expiredList = lock.withLock {
+                    waitScanTime()
+                    scan(timingWheel.advance(clock()))
+                }
+                expiredList.forEach { unsubscribe(it) }
             }
         } catch (ignored: InterruptedException) {
         }
     }
 
+    // If the executor rejects it, retry at the next scan after the interval.
+    private fun unsubscribe(subscribeService: SubscribeService) {
+        val service = subscribeService.service
+        if (taskExecutors.io(IoPriority.LOW, subscribeService.host) { service.unsubscribeSync() }) return
+        Logger.w { "unsubscribe is rejected, retry later: ${service.serviceId}" }
+        lock.withLock {
+            schedule(subscribeService, clock() + MIN_INTERVAL)
+        }
+    }
+
     /**
-     * Wait until some entry is added to ServiceList.
+     * Wait until the scan time of some entries comes.
      *
-     * Returns a collection of Service that triggers renew as return value.
-     * Since the renew process is executed without exclusion,
-     * it returns a copy which has no other effect so that there is no need for exclusion.
+     * The hosts whose interval has passed are resumed while waiting.
      *
-     * @return collection of Service that triggers renew
      * @throws InterruptedException An interrupt occurred
      */
     @Throws(InterruptedException::class)
-    private fun waitEntry(): Collection<SubscribeService> = lock.withLock {
-        while (subscriptionMap.isEmpty()) {
-            condition.await()
+    private fun waitScanTime() {
+        while (!threadCondition.isCanceled()) {
+            val now = clock()
+            hostWheel.advance(now).forEach { startRenewHost(it) }
+            val next = minOf(timingWheel.nextTime() ?: Long.MAX_VALUE, hostWheel.nextTime() ?: Long.MAX_VALUE)
+            if (next <= now) {
+                wakeUpTime = now
+                return
+            }
+            wakeUpTime = next
+            if (next == Long.MAX_VALUE) {
+                condition.await()
+            } else {
+                condition.await(next - now, TimeUnit.MILLISECONDS)
+            }
         }
-        // 操作をロックしないようにコピーに対して処理を行う。
-        ArrayList(subscriptionMap.values)
     }
 
     /**
-     * Trigger renew on the argument [Service].
-     *
-     * This process does not exclude the whole because it includes network communication.
-     * Therefore, the argument list is a collection that is not accessed by others.
+     * Remove the expired entries, and start renew of the entries whose renew time has come.
      *
-     * @param serviceList [Service] collection
+     * @param list the entries to scan
+     * @return expired entries
      */
-    private fun renewSubscribe(serviceList: Collection<SubscribeService>) {
-        serviceList.forEach {
-            if (!it.renewSubscribe(System.currentTimeMillis()) && it.isFailed()) {
-                remove(it.service)
+    private fun scan(list: List<SubscribeService>): List<SubscribeService> {
+        val now = clock()
+        val expiredList = mutableListOf<SubscribeService>()
+        list.forEach {
+            when {
+                it.isExpired(now) -> {
+                    // it may be the retry of unsubscribe, which has already been removed
+                    val id = it.service.subscriptionId
+                    if (subscriptionMap[id] === it) {
+                        subscriptionMap.remove(id)
+                    }
+                    expiredList.add(it)
+                }
+                it.isRenewTime(now) ->
+                    hostQueueMap.getOrPut(it.host) { LinkedList() }.offer(it)
+                else ->
+                    schedule(it)
             }
         }
+        executeRenew()
+        return expiredList
     }
 
-    /**
-     * Remove expired [Service].
-     */
-    private fun removeExpiredService(): Unit = lock.withLock {
-        val now = System.currentTimeMillis()
-        subscriptionMap.values
-            .filter { it.isExpired(now) }
-            .map { it.service }
-            .forEach {
-                remove(it)
-                it.unsubscribeSync()
-            }
+    private fun executeRenew() {
+        for (host in hostQueueMap.keys.toList()) {
+            if (renewingHostSet.size >= maxConcurrentRenew) return
+            if (renewingHostSet.contains(host)) continue
+            renewingHostSet.add(host)
+            if (!startRenewHost(host)) return
+        }
     }
 
-    /**
-     * Wait until the latest Renew execution time.
-     *
-     * @throws InterruptedException An interrupt occurred
-     */
-    @Throws(InterruptedException::class)
-    private fun waitNextRenewTime(): Unit = lock.withLock {
-        if (subscriptionMap.isEmpty()) {
-            return
+    private fun startRenewHost(host: String): Boolean {
+        if (taskExecutors.io(IoPriority.LOW, host) { renewHost(host) }) return true
+        releaseHost(host)
+        return false
+    }
+
+    // The queued entries are scheduled again to retry later.
+    private fun releaseHost(host: String) {
+        renewingHostSet.remove(host)
+        val retryTime = clock() + MIN_INTERVAL
+        hostQueueMap.remove(host)?.forEach { timingWheel.schedule(it, retryTime) }
+        if (retryTime < wakeUpTime) {
+            condition.signalAll()
         }
-        val sleep = maxOf(findMostRecentTime() - System.currentTimeMillis(), MIN_INTERVAL)
-        // ビジーループを回避するため最小値を設ける
-        condition.await(sleep, TimeUnit.MILLISECONDS)
     }
 
     /**
-     * Returns the closest one of the times to scan.
+     * Execute the renew requests queued for the host one by one.
+     *
+     * If [renewHostInterval] is specified, this returns after a request,
+     * and the host is resumed by [hostWheel] after the interval.
+     * If the thread is interrupted, the host is released and the remaining requests are retried later.
      *
-     * @return Next time to scan
+     * @param host host
      */
-    private fun findMostRecentTime(): Long =
-        subscriptionMap.values.minBy { it.getNextScanTime() }?.getNextScanTime() ?: 0L
+    private fun renewHost(host: String) {
+        while (true) {
+            val subscribeService = lock.withLock { pollHostQueue(host) } ?: return
+            renewSubscribe(subscribeService)
+            lock.withLock {
+                if (Thread.currentThread().isInterrupted) {
+                    releaseHost(host)
+                    return
+                }
+                if (renewHostInterval > 0 && hostQueueMap.containsKey(host)) {
+                    val time = clock() + renewHostInterval
+                    hostWheel.schedule(host, time)
+                    if (time < wakeUpTime) {
+                        condition.signalAll()
+                    }
+                    return
+                }
+            }
+        }
+    }
+
+    // When the queue becomes empty, the host is released and the other hosts are started.
+    private fun pollHostQueue(host: String): SubscribeService? {
+        val queue = hostQueueMap[host]
+        val subscribeService = queue?.poll()
+        if (queue != null && queue.isEmpty()) {
+            hostQueueMap.remove(host)
+        }
+        if (subscribeService == null) {
+            renewingHostSet.remove(host)
+            executeRenew()
+            return null
+        }
+        renewingSet.add(subscribeService)
+        return subscribeService
+    }
+
+    private fun renewSubscribe(subscribeService: SubscribeService) {
+        val count = subscribeService.renewCount
+        val success = subscribeService.renewSubscribe(clock())
+        lock.withLock {
+            renewingSet.remove(subscribeService)
+            renewRequestCount += subscribeService.renewCount - count
+            if (subscribeService.renewCount != count) {
+                // the failed request would be executed by the basic policy too
+                basicRenewCount += if (success) subscribeService.lastRenewRatio else 1.0
+            }
+            val id = subscribeService.service.subscriptionId
+            val current = subscriptionMap[id]
+            when {
+                // replaced by add() while renewing
+                current !== subscribeService ->
+                    current?.let { schedule(it) }
+                !success && subscribeService.isFailed() ->
+                    subscriptionMap.remove(id)
+                else ->
+                    // ビジーループを回避するため最小値を設ける
+                    schedule(subscribeService, clock() + MIN_INTERVAL)
+            }
+        }
+    }
+
+    private val SubscribeService.host: String
+        get() = service.device.ipAddress
 
     companion object {
+        const val DEFAULT_RENEW_JITTER_RATIO = 0.1f
+        const val MAX_RENEW_JITTER_RATIO = 0.5f
+        private const val DEFAULT_MAX_CONCURRENT_RENEW = 8
+        private const val TICK_TIME = 100L
+        private const val WHEEL_SIZE = 64
         private val MIN_INTERVAL = TimeUnit.SECONDS.toMillis(1)
     }
 }
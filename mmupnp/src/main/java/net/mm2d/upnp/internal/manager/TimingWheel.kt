@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+/**
+ * Hierarchical timing wheel.
+ *
+ * The time is divided into ticks, and the element is put into the slot of the tick of its deadline.
+ * Each slot of the level L covers `wheelSize^L` ticks, the levels are added as needed.
+ * When the time comes to the slot of the upper level, the elements in it are moved to the lower level.
+ * So scheduling and canceling take O(1), and advancing the time only visits the non-empty slots.
+ * The element is returned at the tick including the deadline or later, never before the deadline.
+ * This class is not thread safe.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param tickTime time of a tick in milliseconds
+ * @param wheelSize number of slots of each level
+ * @param startTime current time
+ */
+internal class TimingWheel<T>(
+    private val tickTime: Long,
+    private val wheelSize: Int,
+    startTime: Long
+) {
+    private class Entry<T>(
+        val tick: Long,
+        val slot: MutableSet<T>
+    )
+
+    private class Level<T>(
+        val ticksPerSlot: Long,
+        wheelSize: Int
+    ) {
+        val slots: Array<MutableSet<T>> = Array(wheelSize) { LinkedHashSet<T>() }
+    }
+
+    private val levels = mutableListOf<Level<T>>()
+    private val entryMap = HashMap<T, Entry<T>>()
+    private val dueSet = LinkedHashSet<T>()
+    private var currentTick: Long = startTime / tickTime
+
+    val size: Int
+        get() = entryMap.size
+
+    fun isEmpty(): Boolean = entryMap.isEmpty()
+
+    operator fun contains(element: T): Boolean = entryMap.containsKey(element)
+
+    /**
+     * Schedule the element, or reschedule if it is already scheduled.
+     *
+     * @param element element
+     * @param time deadline
+     */
+    fun schedule(element: T, time: Long) {
+        cancel(element)
+        // round up not to return before the deadline
+        val tick = if (time > MAX_TIME - tickTime) MAX_TIME / tickTime else (time + tickTime - 1) / tickTime
+        place(element, tick)
+    }
+
+    /**
+     * Cancel the element.
+     *
+     * @param element element
+     * @return true: canceled, false: not scheduled
+     */
+    fun cancel(element: T): Boolean {
+        val entry = entryMap.remove(element) ?: return false
+        entry.slot.remove(element)
+        return true
+    }
+
+    fun clear() {
+        levels.forEach { level -> level.slots.forEach { it.clear() } }
+        dueSet.clear()
+        entryMap.clear()
+    }
+
+    /**
+     * Advance the time, and remove and return the elements whose deadline has come.
+     *
+     * @param time current time
+     * @return elements whose deadline has come
+     */
+    fun advance(time: Long): List<T> {
+        val tick = time / tickTime
+        while (currentTick < tick) {
+            val nextTick = findNextSlotTick()
+            if (nextTick > tick) {
+                currentTick = tick
+                break
+            }
+            // there is no element between them
+            currentTick = nextTick
+            expireSlots()
+        }
+        if (dueSet.isEmpty()) return emptyList()
+        val result = dueSet.toList()
+        dueSet.clear()
+        result.forEach { entryMap.remove(it) }
+        return result
+    }
+
+    /**
+     * Returns the time when [advance] should be called next.
+     *
+     * @return the time, or null if there is no element
+     */
+    fun nextTime(): Long? {
+        if (entryMap.isEmpty()) return null
+        if (dueSet.isNotEmpty()) return currentTick * tickTime
+        val tick = findNextSlotTick()
+        return if (tick > Long.MAX_VALUE / tickTime) Long.MAX_VALUE else tick * tickTime
+    }
+
+    private fun expireSlots() {
+        for (index in levels.indices.reversed()) {
+            val level = levels[index]
+            if (currentTick % level.ticksPerSlot != 0L) continue
+            val slot = level.slots[slotIndex(level, currentTick)]
+            if (slot.isEmpty()) continue
+            val elements = slot.toList()
+            slot.clear()
+            elements.forEach { place(it, entryMap.getValue(it).tick) }
+        }
+    }
+
+    private fun findNextSlotTick(): Long {
+        var nextTick = Long.MAX_VALUE
+        levels.forEach { level ->
+            val current = currentTick / level.ticksPerSlot
+            for (i in 1 until wheelSize) {
+                if (current + i > Long.MAX_VALUE / level.ticksPerSlot) break
+                val slotTick = (current + i) * level.ticksPerSlot
+                if (slotTick >= nextTick) break
+                if (level.slots[slotIndex(level, slotTick)].isNotEmpty()) {
+                    nextTick = slotTick
+                    break
+                }
+            }
+        }
+        return nextTick
+    }
+
+    private fun place(element: T, tick: Long) {
+        if (tick <= currentTick) {
+            dueSet.add(element)
+            entryMap[element] = Entry(tick, dueSet)
+            return
+        }
+        var index = 0
+        while (true) {
+            val level = getLevel(index)
+            if (tick / level.ticksPerSlot - currentTick / level.ticksPerSlot < wheelSize) {
+                val slot = level.slots[slotIndex(level, tick)]
+                slot.add(element)
+                entryMap[element] = Entry(tick, slot)
+                return
+            }
+            index++
+        }
+    }
+
+    private fun getLevel(index: Int): Level<T> {
+        while (levels.size <= index) {
+            val ticksPerSlot = levels.lastOrNull()?.let { it.ticksPerSlot * wheelSize } ?: 1L
+            levels.add(Level(ticksPerSlot, wheelSize))
+        }
+        return levels[index]
+    }
+
+    private fun slotIndex(level: Level<T>, tick: Long): Int =
+        ((tick / level.ticksPerSlot) % wheelSize).toInt()
+
+    companion object {
+        // limit to avoid the overflow of the calculation of the upper levels
+        private const val MAX_TIME = Long.MAX_VALUE / 2
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.message
+
+import net.mm2d.upnp.HttpMessage
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Buffered InputStream to read HTTP messages.
+ *
+ * Lines are found by scanning the buffer for LF, and only the necessary parts are decoded into String.
+ * The buffer is kept over the messages, so when the connection is reused,
+ * the same instance must be used for the following messages since the data may have been read ahead.
+ * This class is not thread safe.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal class HttpInputStream private constructor(
+    private val input: InputStream?,
+    private val buffer: ByteArray,
+    private var position: Int,
+    private var limit: Int
+) : InputStream() {
+    private var lineBuffer: ByteArray = EMPTY
+    private var lineData: ByteArray = EMPTY
+    private var lineStart: Int = 0
+    private var lineEnd: Int = 0
+
+    /**
+     * Read from the InputStream with the buffer.
+     *
+     * @param input source
+     * @param bufferSize size of the buffer, 1 means that the data is never read ahead
+     */
+    constructor(input: InputStream, bufferSize: Int = BUFFER_SIZE) : this(input, ByteArray(bufferSize), 0, 0)
+
+    /**
+     * Read the received data in place.
+     *
+     * @param data received data
+     * @param offset start of the data
+     * @param length length of the data
+     */
+    constructor(data: ByteArray, offset: Int, length: Int) : this(null, data, offset, offset + length)
+
+    @Throws(IOException::class)
+    private fun fill(): Boolean {
+        if (position < limit) return true
+        val input = input ?: return false
+        val size = input.read(buffer, 0, buffer.size)
+        if (size <= 0) return false
+        position = 0
+        limit = size
+        return true
+    }
+
+    @Throws(IOException::class)
+    override fun read(): Int {
+        if (!fill()) return -1
+        return buffer[position++].toInt() and 0xff
+    }
+
+    @Throws(IOException::class)
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) return 0
+        if (position >= limit) {
+            // large read does not need to go through the buffer
+            if (input != null && len >= buffer.size) return input.read(b, off, len)
+            if (!fill()) return -1
+        }
+        val size = minOf(len, limit - position)
+        System.arraycopy(buffer, position, b, off, size)
+        position += size
+        return size
+    }
+
+    @Throws(IOException::class)
+    override fun available(): Int = limit - position + (input?.available() ?: 0)
+
+    @Throws(IOException::class)
+    override fun close() {
+        input?.close()
+    }
+
+    /**
+     * Read a line, the line terminator (LF or CRLF) is not included.
+     *
+     * @return line
+     * @throws IOException if the stream is already ended.
+     */
+    @Throws(IOException::class)
+    fun readLine(): String {
+        nextLine()
+        return decode(lineStart, lineEnd)
+    }
+
+    /**
+     * Read a header line and set it to the message.
+     *
+     * Only the name and the value are decoded, a line without colon is ignored.
+     *
+     * @param message destination
+     * @return false if the line is blank, that is the end of headers
+     * @throws IOException if the stream is already ended.
+     */
+    @Throws(IOException::class)
+    fun readHeader(message: HttpMessage): Boolean {
+        nextLine()
+        if (lineStart == lineEnd) return false
+        val colon = indexOf(lineData, COLON, lineStart, lineEnd)
+        if (colon < 0) return true
+        val nameStart = trimStart(lineStart, colon)
+        val valueStart = trimStart(colon + 1, lineEnd)
+        val name = decode(nameStart, trimEnd(nameStart, colon))
+        message.setHeader(name, decode(valueStart, trimEnd(valueStart, lineEnd)))
+        return true
+    }
+
+    /**
+     * Read a chunk size line of the chunked transfer coding.
+     *
+     * The chunk extension is ignored.
+     *
+     * @return chunk size
+     * @throws IOException if the stream is already ended or the line is malformed.
+     */
+    @Throws(IOException::class)
+    fun readChunkSize(): Int {
+        nextLine()
+        return parseChunkSize(lineData, lineStart, lineEnd).also {
+            if (it < 0) throw IOException("Chunk format error! " + decode(lineStart, lineEnd))
+        }
+    }
+
+    /**
+     * Read the specified length of data.
+     *
+     * The length comes from the peer, so the array is grown as the data arrives,
+     * not allocated at once.
+     *
+     * @param length length to read
+     * @return read data
+     * @throws IOException if the stream is ended before the length.
+     */
+    @Throws(IOException::class)
+    fun readBytes(length: Int): ByteArray {
+        var data = ByteArray(minOf(length, BODY_BUFFER_SIZE))
+        var offset = 0
+        while (offset < length) {
+            if (offset == data.size) {
+                data = data.copyOf(minOf(length.toLong(), data.size * 2L).toInt())
+            }
+            val size = read(data, offset, data.size - offset)
+            if (size < 0) throw IOException("can't read from InputStream: $offset / $length")
+            offset += size
+        }
+        return data
+    }
+
+    /**
+     * Read the specified length of data and write it to the OutputStream.
+     *
+     * @param out destination
+     * @param length length to copy
+     * @throws IOException if the stream is ended before the length.
+     */
+    @Throws(IOException::class)
+    fun copyTo(out: OutputStream, length: Int) {
+        var remain = length
+        while (remain > 0) {
+            if (!fill()) throw IOException("can't read from InputStream: ${length - remain} / $length")
+            val size = minOf(remain, limit - position)
+            out.write(buffer, position, size)
+            position += size
+            remain -= size
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun nextLine() {
+        if (!fill()) throw IOException("can't read from InputStream")
+        val lf = indexOf(buffer, LF, position, limit)
+        if (lf >= 0) {
+            // the line is in the buffer, no copy is needed
+            setLine(buffer, position, lf)
+            position = lf + 1
+            return
+        }
+        var size = 0
+        while (true) {
+            if (!fill()) break
+            val end = indexOf(buffer, LF, position, limit)
+            val copyEnd = if (end < 0) limit else end
+            size = appendLine(size, position, copyEnd)
+            position = copyEnd
+            if (end >= 0) {
+                position++
+                break
+            }
+        }
+        setLine(lineBuffer, 0, size)
+    }
+
+    private fun appendLine(size: Int, start: Int, end: Int): Int {
+        val length = end - start
+        if (size + length > lineBuffer.size) {
+            lineBuffer = lineBuffer.copyOf(maxOf(lineBuffer.size * 2, size + length, LINE_BUFFER_SIZE))
+        }
+        System.arraycopy(buffer, start, lineBuffer, size, length)
+        return size + length
+    }
+
+    private fun setLine(data: ByteArray, start: Int, end: Int) {
+        lineData = data
+        lineStart = start
+        lineEnd = if (end > start && data[end - 1] == CR) end - 1 else end
+    }
+
+    private fun decode(start: Int, end: Int): String =
+        if (start == end) "" else String(lineData, start, end - start, Charsets.UTF_8)
+
+    private fun trimStart(start: Int, end: Int): Int {
+        var s = start
+        while (s < end && lineData[s].isWhitespace()) s++
+        return s
+    }
+
+    private fun trimEnd(start: Int, end: Int): Int {
+        var e = end
+        while (e > start && lineData[e - 1].isWhitespace()) e--
+        return e
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 8192
+        private const val LINE_BUFFER_SIZE = 256
+        private const val BODY_BUFFER_SIZE = 8192
+        private const val CR: Byte = '\r'.toByte()
+        private const val LF: Byte = '\n'.toByte()
+        private const val COLON: Byte = ':'.toByte()
+        private const val SEMICOLON: Byte = ';'.toByte()
+        private val EMPTY = ByteArray(0)
+
+        private fun Byte.isWhitespace(): Boolean = this == ' '.toByte() || this == '\t'.toByte() || this == CR
+
+        private fun indexOf(data: ByteArray, b: Byte, start: Int, end: Int): Int {
+            for (i in start until end) {
+                if (data[i] == b) return i
+            }
+            return -1
+        }
+
+        /**
+         * Returns the InputStream itself if it is HttpInputStream,
+         * otherwise wrap it without reading ahead, since the stream may be used by the caller after the message.
+         *
+         * @param input InputStream
+         * @return HttpInputStream
+         */
+        fun wrap(input: InputStream): HttpInputStream = input as? HttpInputStream ?: HttpInputStream(input, 1)
+
+        /**
+         * Parse the chunk size line of the chunked transfer coding, the chunk extension is ignored.
+         *
+         * @param data data
+         * @param start start of the line
+         * @param end end of the line, the line terminator is not included
+         * @return chunk size, or -1 if the line is malformed
+         */
+        fun parseChunkSize(data: ByteArray, start: Int, end: Int): Int {
+            var size = 0
+            var digits = 0
+            for (i in start until end) {
+                val b = data[i]
+                if (b == SEMICOLON) break
+                if (b.isWhitespace()) {
+                    if (digits == 0) continue
+                    break
+                }
+                val digit = Character.digit(b.toInt(), 16)
+                if (digit < 0 || size > Int.MAX_VALUE shr 4) return -1
+                size = size shl 4 or digit
+                digits++
+            }
+            return if (digits == 0) -1 else size
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.message
+
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * Buffer to accumulate a HTTP message received in pieces.
+ *
+ * Only the framing of the message is checked here,
+ * the message itself is parsed by HttpRequest or HttpResponse after it is completed.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param response true if the message is a response,
+ * whose body without Content-Length is terminated by the close of the connection
+ */
+internal class HttpMessageBuffer(
+    private val response: Boolean = false
+) {
+    var data: ByteArray = ByteArray(INITIAL_SIZE)
+        private set
+    var size: Int = 0
+        private set
+    private var scanned: Int = 0
+    private var bodyStart: Int = -1
+    private var contentLength: Int = -1
+    private var chunked: Boolean = false
+    private var untilClose: Boolean = false
+    private var interim: Boolean = false
+
+    @Throws(IOException::class)
+    fun append(buffer: ByteBuffer) {
+        val length = buffer.remaining()
+        if (size + length > data.size) {
+            if (size + length > MAX_SIZE) {
+                throw IOException("message is too large")
+            }
+            data = data.copyOf(maxOf(data.size * 2, size + length))
+        }
+        buffer.get(data, size, length)
+        size += length
+    }
+
+    /**
+     * Returns the length of the message if it is completed.
+     *
+     * Interim (1xx) responses are discarded, the length of the final response is returned.
+     *
+     * @return length of the message, or -1 if it is not completed yet.
+     * @throws IOException if the message is malformed.
+     */
+    @Throws(IOException::class)
+    fun findMessageLength(): Int {
+        while (true) {
+            if (bodyStart < 0 && !scanHeader()) return -1
+            if (!interim) break
+            // 1xx response has no body
+            discard(bodyStart)
+        }
+        if (chunked) return findChunkedEnd()
+        if (untilClose) return -1
+        val end = bodyStart + contentLength.coerceAtLeast(0)
+        return if (size >= end) end else -1
+    }
+
+    /**
+     * Returns the length of the message when the connection is closed by the peer.
+     *
+     * @return length of the message, or -1 if it is not completed.
+     * @throws IOException if the message is malformed.
+     */
+    @Throws(IOException::class)
+    fun findMessageLengthAtClose(): Int {
+        val length = findMessageLength()
+        if (length >= 0) return length
+        return if (bodyStart >= 0 && untilClose) size else -1
+    }
+
+    /**
+     * Discard all the data to reuse this buffer.
+     *
+     * The array grown for a large message is released.
+     */
+    fun clear() {
+        discard(size)
+        if (data.size > INITIAL_SIZE) {
+            data = ByteArray(INITIAL_SIZE)
+        }
+    }
+
+    private fun scanHeader(): Boolean {
+        var pos = scanned
+        while (true) {
+            val lf = indexOf(LF, pos)
+            if (lf < 0) {
+                scanned = pos
+                return false
+            }
+            if (isBlankLine(pos, lf)) {
+                bodyStart = lf + 1
+                parseHeader(bodyStart)
+                return true
+            }
+            pos = lf + 1
+        }
+    }
+
+    private fun parseHeader(end: Int) {
+        val lines = String(data, 0, end, Charsets.UTF_8).split('\n')
+        lines.forEach {
+            val colon = it.indexOf(':')
+            if (colon < 0) return@forEach
+            val name = it.substring(0, colon).trim()
+            val value = it.substring(colon + 1).trim()
+            when {
+                name.equals("Content-Length", true) ->
+                    contentLength = value.toIntOrNull()?.coerceAtLeast(0) ?: 0
+                name.equals("Transfer-Encoding", true) ->
+                    chunked = value.equals("chunked", true)
+            }
+        }
+        if (!response) return
+        val code = lines[0].split(" ", limit = 3).getOrNull(1)?.toIntOrNull()
+        interim = code != null && code in 100..199
+        untilClose = !chunked && contentLength < 0 && hasBody(code)
+    }
+
+    // 1xx, 204 and 304 responses never have a body
+    private fun hasBody(code: Int?): Boolean =
+        code == null || code >= 200 && code != 204 && code != 304
+
+    private fun discard(length: Int) {
+        System.arraycopy(data, length, data, 0, size - length)
+        size -= length
+        scanned = 0
+        bodyStart = -1
+        contentLength = -1
+        chunked = false
+        untilClose = false
+        interim = false
+    }
+
+    @Throws(IOException::class)
+    private fun findChunkedEnd(): Int {
+        var pos = bodyStart
+        while (true) {
+            val lf = indexOf(LF, pos)
+            if (lf < 0) return -1
+            val chunkSize = HttpInputStream.parseChunkSize(data, pos, lf)
+            if (chunkSize < 0) {
+                throw IOException("Chunk format error! " + String(data, pos, lf - pos, Charsets.UTF_8).trim())
+            }
+            if (chunkSize == 0) {
+                val end = indexOf(LF, lf + 1)
+                return if (end < 0) -1 else end + 1
+            }
+            val next = lf + 1 + chunkSize
+            if (next >= size) return -1
+            val chunkEnd = indexOf(LF, next)
+            if (chunkEnd < 0) return -1
+            pos = chunkEnd + 1
+        }
+    }
+
+    private fun isBlankLine(start: Int, lf: Int): Boolean =
+        lf == start || lf == start + 1 && data[start] == CR
+
+    private fun indexOf(b: Byte, start: Int): Int {
+        for (i in start until size) {
+            if (data[i] == b) return i
+        }
+        return -1
+    }
+
+    companion object {
+        private const val INITIAL_SIZE = 2048
+        private const val MAX_SIZE = 1024 * 1024
+        private const val CR: Byte = '\r'.toByte()
+        private const val LF: Byte = '\n'.toByte()
+    }
+}
@@ -200,7 +200,7 @@ internal class HttpMessageDelegate(
 
     @Throws(IOException::class)
     override fun readData(inputStream: InputStream) {
-        inputStream.run {
+        HttpInputStream.wrap(inputStream).run {
             readStartLine()
             readHeaders()
             if (isChunked) {
@@ -212,7 +212,7 @@ internal class HttpMessageDelegate(
     }
 
     @Throws(IOException::class)
-    private fun InputStream.readStartLine() {
+    private fun HttpInputStream.readStartLine() {
         val startLine = readLine()
         if (startLine.isEmpty()) {
             throw IOException("Illegal start line:$startLine")
@@ -225,20 +225,16 @@ internal class HttpMessageDelegate(
     }
 
     @Throws(IOException::class)
-    private fun InputStream.readHeaders() {
-        while (true) {
-            val line = readLine()
-            if (line.isEmpty()) {
-                break
-            }
-            setHeaderLine(line)
+    private fun HttpInputStream.readHeaders() {
+        @Suppress("ControlFlowWithEmptyBody")
+        while (readHeader(this@HttpMessageDelegate)) {
         }
     }
 
     private fun shouldStriveToReadBody() = !isKeepAlive() && startLineDelegate.shouldStriveToReadBody
 
     @Throws(IOException::class)
-    private fun InputStream.readBody() {
+    private fun HttpInputStream.readBody() {
         val length = contentLength
         bodyBinary = if (length < 0 && shouldStriveToReadBody()) {
             readBytes()
@@ -250,8 +246,8 @@ internal class HttpMessageDelegate(
     }
 
     @Throws(IOException::class)
-    private fun InputStream.readChunkedBody() {
-        bodyBinary = toOutputStream {
+    private fun HttpInputStream.readChunkedBody() {
+        bodyBinary = ByteArrayOutputStream(maxOf(available(), BUFFER_SIZE)).also {
             while (true) {
                 val length = readChunkSize()
                 if (length == 0) {
@@ -269,56 +265,7 @@ internal class HttpMessageDelegate(
     companion object {
         private const val DEFAULT_CHUNK_SIZE = 1024
         private const val BUFFER_SIZE = 1500
-        private const val CR: Int = '\r'.toInt()
-        private const val LF: Int = '\n'.toInt()
         private const val EOL: String = "\r\n"
         private val CRLF = EOL.toByteArray()
-
-        @Throws(IOException::class)
-        private inline fun InputStream.toOutputStream(
-            block: InputStream.(ByteArrayOutputStream) -> Unit
-        ): ByteArrayOutputStream = ByteArrayOutputStream(maxOf(available(), BUFFER_SIZE)).also { block(it) }
-
-        @Throws(IOException::class)
-        private fun InputStream.copyTo(out: OutputStream, requestBytes: Int) {
-            val buffer = ByteArray(BUFFER_SIZE)
-            var remain = requestBytes
-            while (remain > 0) {
-                val stroke = if (remain > buffer.size) buffer.size else remain
-                val size = read(buffer, 0, stroke)
-                if (size < 0) {
-                    throw IOException("can't read from InputStream: ${requestBytes - remain} / $requestBytes")
-                }
-                out.write(buffer, 0, size)
-                remain -= size
-            }
-        }
-
-        @Throws(IOException::class)
-        private fun InputStream.readLine(): String = toOutputStream {
-            while (true) {
-                val b = read()
-                if (b < 0) {
-                    if (it.size() == 0) throw IOException("can't read from InputStream")
-                    break
-                }
-                if (b == LF) break
-                if (b == CR) continue
-                it.write(b)
-            }
-        }.toString(Charsets.UTF_8.name())
-
-        @Throws(IOException::class)
-        private fun InputStream.readBytes(length: Int): ByteArray = toOutputStream { copyTo(it, length) }.toByteArray()
-
-        @Throws(IOException::class)
-        private fun InputStream.readChunkSize(): Int {
-            val line = readLine()
-            if (line.isEmpty()) {
-                throw IOException("Can not read chunk size!")
-            }
-            val chunkSize = line.split(";", limit = 2)[0]
-            return chunkSize.toIntOrNull(16) ?: throw IOException("Chunk format error! $chunkSize")
-        }
     }
 }
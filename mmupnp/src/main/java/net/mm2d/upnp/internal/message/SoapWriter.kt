@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.message
+
+import java.io.IOException
+
+/**
+ * Writer of SOAP Action request.
+ *
+ * The envelope is written directly as a string without DOM and Transformer.
+ * The parts that are fixed for the Action are built at the construction,
+ * so that each request only has to append the namespaces and escaped argument values.
+ * Element names are checked to be valid.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param serviceType ServiceType, used as the namespace of the action element
+ * @param actionName Action name
+ * @throws IOException if the action name is invalid.
+ */
+internal class SoapWriter
+@Throws(IOException::class)
+constructor(
+    serviceType: String,
+    actionName: String
+) {
+    private val prefix: String = StringBuilder().apply {
+        append("<s:Envelope xmlns:s=\"").append(SOAP_NS)
+        append("\" s:encodingStyle=\"").append(SOAP_STYLE).append("\">")
+        append("<s:Body>")
+        append("<u:").appendName(actionName)
+        append(" xmlns:u=\"").appendEscaped(serviceType, true).append('"')
+    }.toString()
+    private val suffix: String = "</u:$actionName></s:Body></s:Envelope>"
+
+    /**
+     * Create a SOAP Action XML string.
+     *
+     * @param namespaces custom namespaces, prefix to URI
+     * @param arguments Arguments, name to value
+     * @return SOAP Action XML string
+     * @throws IOException if the name of element or namespace is invalid.
+     */
+    @Throws(IOException::class)
+    fun write(
+        namespaces: Map<String, String>,
+        arguments: List<Pair<String, String?>>
+    ): String = StringBuilder(prefix.length + suffix.length + ARGUMENT_CAPACITY * arguments.size).apply {
+        append(prefix)
+        namespaces.forEach {
+            append(" xmlns:").appendName(it.key)
+            append("=\"").appendEscaped(it.value, true).append('"')
+        }
+        append('>')
+        arguments.forEach { (name, value) ->
+            append('<').appendName(name).append('>')
+            if (value != null) appendEscaped(value, false)
+            append("</").append(name).append('>')
+        }
+        append(suffix)
+    }.toString()
+
+    companion object {
+        private const val SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/"
+        private const val SOAP_STYLE = "http://schemas.xmlsoap.org/soap/encoding/"
+        private const val ARGUMENT_CAPACITY = 64
+
+        @Throws(IOException::class)
+        private fun StringBuilder.appendName(name: String): StringBuilder {
+            if (name.isEmpty() || !isNameStart(name[0]) || !name.all { isNameChar(it) }) {
+                throw IOException("invalid name: $name")
+            }
+            return append(name)
+        }
+
+        private fun isNameStart(c: Char): Boolean =
+            c.isLetter() || c == '_' || c == ':'
+
+        private fun isNameChar(c: Char): Boolean =
+            c.isLetterOrDigit() || c == '_' || c == ':' || c == '-' || c == '.'
+
+        /**
+         * Append the value with escaping the characters that can not be written as is.
+         *
+         * Line breaks and tabs in attribute values are also escaped, otherwise they are normalized by the parser.
+         */
+        private fun StringBuilder.appendEscaped(value: String, attribute: Boolean): StringBuilder {
+            var start = 0
+            value.forEachIndexed { i, c ->
+                val escaped = when (c) {
+                    '&' -> "&amp;"
+                    '<' -> "&lt;"
+                    '>' -> "&gt;"
+                    '"' -> if (attribute) "&quot;" else null
+                    '\t' -> if (attribute) "&#9;" else null
+                    '\n' -> if (attribute) "&#10;" else null
+                    '\r' -> "&#13;"
+                    else -> null
+                } ?: return@forEachIndexed
+                append(value, start, i).append(escaped)
+                start = i + 1
+            }
+            return append(value, start, value.length)
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.message
+
+import net.mm2d.upnp.Http
+import net.mm2d.upnp.HttpMessage
+import java.io.IOException
+
+/**
+ * View of a received SSDP datagram that is scanned in place.
+ *
+ * Only the positions of the start line and of the headers needed to decide whether to accept the message are recorded,
+ * no String or HttpMessage is created until [writeTo] is called.
+ * Since this refers to the receive buffer directly, it must not be used after the buffer is reused.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal class SsdpPacket private constructor(
+    private val data: ByteArray,
+    private val length: Int
+) {
+    private val fields = IntArray(FIELD_NAMES.size * 2) { -1 }
+    private var startLineEnd: Int = 0
+    private var headerEnd: Int = 0
+    private var bodyStart: Int = 0
+
+    /**
+     * Value of NTS field.
+     */
+    val nts: String?
+        get() = getField(NTS)
+
+    /**
+     * Value of LOCATION field.
+     */
+    val location: String?
+        get() = getField(LOCATION)
+
+    /**
+     * Returns whether the request method of start line is the specified one.
+     *
+     * @param method request method
+     * @return true: the request method matches
+     */
+    fun isMethod(method: String): Boolean {
+        if (startLineEnd <= method.length) return false
+        if (data[method.length] != SP) return false
+        for (i in method.indices) {
+            if (data[i] != method[i].toByte()) return false
+        }
+        return true
+    }
+
+    /**
+     * Returns whether the NTS field is ssdp:byebye.
+     *
+     * @return true: NTS is ssdp:byebye
+     */
+    fun isByeBye(): Boolean = fieldEquals(NTS, BYEBYE)
+
+    /**
+     * Returns whether the header used to identify Sony telepathy service exists.
+     *
+     * @return true: the header exists
+     */
+    fun hasTelepathyAddress(): Boolean = fields[TELEPATHY * 2] >= 0
+
+    private fun getField(field: Int): String? {
+        val start = fields[field * 2]
+        if (start < 0) return null
+        return newString(start, fields[field * 2 + 1])
+    }
+
+    private fun fieldEquals(field: Int, value: ByteArray): Boolean {
+        val start = fields[field * 2]
+        if (start < 0) return false
+        val end = fields[field * 2 + 1]
+        if (end - start != value.size) return false
+        for (i in value.indices) {
+            if (data[start + i] != value[i]) return false
+        }
+        return true
+    }
+
+    private fun newString(start: Int, end: Int): String = String(data, start, end - start, Charsets.UTF_8)
+
+    /**
+     * Write the start line, headers and body to the HttpMessage.
+     *
+     * @param message destination
+     * @throws IOException if the start line is not acceptable for the message
+     */
+    @Throws(IOException::class)
+    fun writeTo(message: HttpMessage) {
+        val startLine = newString(0, startLineEnd)
+        try {
+            message.setStartLine(startLine)
+        } catch (e: IllegalArgumentException) {
+            throw IOException("Illegal start line:$startLine")
+        }
+        forEachHeader { nameStart, nameEnd, valueStart, valueEnd ->
+            message.setHeader(newString(nameStart, nameEnd), newString(valueStart, valueEnd))
+        }
+        val contentLength = message.contentLength
+        val body = when {
+            contentLength <= 0 -> ByteArray(0)
+            bodyStart + contentLength > length ->
+                throw IOException("can't read body: ${length - bodyStart} / $contentLength")
+            else -> data.copyOfRange(bodyStart, bodyStart + contentLength)
+        }
+        message.setBodyBinary(body)
+    }
+
+    private fun scan(): Boolean {
+        var lineEnd = findLineEnd(0)
+        if (lineEnd < 0) return false
+        startLineEnd = trimEnd(0, lineEnd)
+        if (startLineEnd == 0) return false
+        var pos = lineEnd + 1
+        while (true) {
+            lineEnd = findLineEnd(pos)
+            if (lineEnd < 0) return false
+            if (trimCr(pos, lineEnd) == pos) {
+                headerEnd = pos
+                bodyStart = lineEnd + 1
+                return true
+            }
+            scanHeader(pos, lineEnd)
+            pos = lineEnd + 1
+        }
+    }
+
+    private fun scanHeader(start: Int, end: Int) {
+        val colon = indexOf(COLON, start, end)
+        if (colon < 0) return
+        val nameStart = trimStart(start, colon)
+        val nameEnd = trimEnd(nameStart, colon)
+        val field = findField(nameStart, nameEnd)
+        if (field < 0) return
+        val valueStart = trimStart(colon + 1, end)
+        fields[field * 2] = valueStart
+        fields[field * 2 + 1] = trimEnd(valueStart, end)
+    }
+
+    private inline fun forEachHeader(action: (nameStart: Int, nameEnd: Int, valueStart: Int, valueEnd: Int) -> Unit) {
+        var pos = findLineEnd(0) + 1
+        while (pos < headerEnd) {
+            val lineEnd = findLineEnd(pos)
+            val colon = indexOf(COLON, pos, lineEnd)
+            if (colon >= 0) {
+                val nameStart = trimStart(pos, colon)
+                val valueStart = trimStart(colon + 1, lineEnd)
+                action(nameStart, trimEnd(nameStart, colon), valueStart, trimEnd(valueStart, lineEnd))
+            }
+            pos = lineEnd + 1
+        }
+    }
+
+    private fun findField(start: Int, end: Int): Int {
+        FIELD_NAMES.forEachIndexed { index, name ->
+            if (equalsIgnoreCase(start, end, name)) return index
+        }
+        return -1
+    }
+
+    private fun equalsIgnoreCase(start: Int, end: Int, lowerName: ByteArray): Boolean {
+        if (end - start != lowerName.size) return false
+        for (i in lowerName.indices) {
+            if (data[start + i].toLowerCase() != lowerName[i]) return false
+        }
+        return true
+    }
+
+    private fun findLineEnd(start: Int): Int = indexOf(LF, start, length)
+
+    private fun indexOf(b: Byte, start: Int, end: Int): Int {
+        for (i in start until end) {
+            if (data[i] == b) return i
+        }
+        return -1
+    }
+
+    private fun trimCr(start: Int, end: Int): Int {
+        var e = end
+        while (e > start && data[e - 1] == CR) e--
+        return e
+    }
+
+    private fun trimStart(start: Int, end: Int): Int {
+        var s = start
+        while (s < end && data[s].isWhitespace()) s++
+        return s
+    }
+
+    private fun trimEnd(start: Int, end: Int): Int {
+        var e = end
+        while (e > start && data[e - 1].isWhitespace()) e--
+        return e
+    }
+
+    companion object {
+        private const val CR: Byte = '\r'.toByte()
+        private const val LF: Byte = '\n'.toByte()
+        private const val SP: Byte = ' '.toByte()
+        private const val COLON: Byte = ':'.toByte()
+
+        private const val NTS = 0
+        private const val LOCATION = 1
+        private const val TELEPATHY = 2
+        private val FIELD_NAMES: Array<ByteArray> = arrayOf(
+            Http.NTS,
+            Http.LOCATION,
+            "X-TelepathyAddress.sony.com"
+        ).map { it.toLowerCase().toByteArray() }.toTypedArray()
+        private val BYEBYE = "ssdp:byebye".toByteArray()
+
+        private fun Byte.isWhitespace(): Boolean = this == SP || this == CR || this == '\t'.toByte()
+
+        private fun Byte.toLowerCase(): Byte =
+            if (this >= 'A'.toByte() && this <= 'Z'.toByte()) (this + 0x20).toByte() else this
+
+        /**
+         * Scan the received data.
+         *
+         * @param data received data
+         * @param length length of received data
+         * @return SsdpPacket, or null if the data is not in the form of HTTP message
+         */
+        fun scan(data: ByteArray, length: Int): SsdpPacket? =
+            SsdpPacket(data, length).takeIf { it.scan() }
+    }
+}
@@ -9,7 +9,6 @@ package net.mm2d.upnp.internal.message
 
 import net.mm2d.upnp.HttpRequest
 import net.mm2d.upnp.SsdpMessage
-import java.io.ByteArrayInputStream
 import java.io.IOException
 import java.net.InetAddress
 
@@ -36,8 +35,12 @@ internal class SsdpRequest(
 
         @Throws(IOException::class)
         fun create(address: InetAddress, data: ByteArray, length: Int): SsdpRequest =
+            create(address, SsdpPacket.scan(data, length) ?: throw IOException("Illegal ssdp packet"))
+
+        @Throws(IOException::class)
+        fun create(address: InetAddress, packet: SsdpPacket): SsdpRequest =
             HttpRequest.create().apply {
-                readData(ByteArrayInputStream(data, 0, length))
+                packet.writeTo(this)
             }.let { SsdpRequest(it, SsdpMessageDelegate(it, address)) }
     }
 }
@@ -10,7 +10,6 @@ package net.mm2d.upnp.internal.message
 import net.mm2d.upnp.Http.Status
 import net.mm2d.upnp.HttpResponse
 import net.mm2d.upnp.SsdpMessage
-import java.io.ByteArrayInputStream
 import java.io.IOException
 import java.net.InetAddress
 
@@ -35,8 +34,12 @@ internal class SsdpResponse(
     companion object {
         @Throws(IOException::class)
         fun create(address: InetAddress, data: ByteArray, length: Int): SsdpResponse =
+            create(address, SsdpPacket.scan(data, length) ?: throw IOException("Illegal ssdp packet"))
+
+        @Throws(IOException::class)
+        fun create(address: InetAddress, packet: SsdpPacket): SsdpResponse =
             HttpResponse.create().apply {
-                readData(ByteArrayInputStream(data, 0, length))
+                packet.writeTo(this)
             }.let { SsdpResponse(it, SsdpMessageDelegate(it, address)) }
     }
 }
@@ -9,16 +9,14 @@ package net.mm2d.upnp.internal.parser
 
 import net.mm2d.upnp.Http
 import net.mm2d.upnp.HttpClient
-import net.mm2d.upnp.Icon
+import net.mm2d.upnp.IconFilter
 import net.mm2d.upnp.internal.impl.DeviceImpl
 import net.mm2d.upnp.internal.impl.IconImpl
 import net.mm2d.upnp.internal.impl.ServiceImpl
-import net.mm2d.upnp.util.XmlUtils
-import net.mm2d.upnp.util.forEachElement
-import org.w3c.dom.Node
+import net.mm2d.upnp.internal.manager.DescriptionCache
+import org.xml.sax.Attributes
 import org.xml.sax.SAXException
 import java.io.IOException
-import java.util.*
 import javax.xml.parsers.ParserConfigurationException
 
 /**
@@ -44,14 +42,77 @@ internal object DeviceParser {
      */
     @Throws(IOException::class, SAXException::class, ParserConfigurationException::class)
     fun loadDescription(client: HttpClient, builder: DeviceImpl.Builder) {
+        downloadDescription(client, builder)
+        loadServices(client, builder)
+    }
+
+    /**
+     * load DeviceDescription, and download the descriptions of Service and the binaries of Icon in parallel.
+     *
+     * After the Description is parsed, the descriptions of all Services including the embedded devices
+     * and the binaries of the Icons selected by the filter are downloaded by [downloader].
+     * Icons of the embedded devices are not downloaded, same as [net.mm2d.upnp.Device.loadIconBinary].
+     *
+     * @param client HttpClient
+     * @param builder DeviceのBuilder
+     * @param downloader ParallelDownloader
+     * @param iconFilter IconFilter to select the icons to download
+     * @param cache cache of the descriptions, null to download always
+     * @throws SAXException if an parse error occurs.
+     * @throws IOException if an I/O error occurs.
+     * @throws ParserConfigurationException If there is a problem with instantiation
+     */
+    @Throws(IOException::class, SAXException::class, ParserConfigurationException::class)
+    fun loadDescription(
+        client: HttpClient,
+        builder: DeviceImpl.Builder,
+        downloader: ParallelDownloader,
+        iconFilter: IconFilter,
+        cache: DescriptionCache? = null
+    ) {
+        downloadDescription(client, builder, cache)
+        val tasks = mutableListOf<(HttpClient) -> Unit>()
+        builder.collectServiceTasks(tasks, cache)
+        builder.collectIconTasks(tasks, iconFilter)
+        downloader.execute(client, tasks, builder.getIpAddress())
+    }
+
+    @Throws(IOException::class, SAXException::class, ParserConfigurationException::class)
+    private fun downloadDescription(client: HttpClient, builder: DeviceImpl.Builder, cache: DescriptionCache? = null) {
         val url = Http.makeUrlWithScopeId(builder.getLocation(), builder.getSsdpMessage().scopeId)
-        val description = client.downloadString(url)
+        val description = cache?.download(client, url, builder.getSsdpMessage()) ?: client.downloadString(url)
         if (description.isEmpty()) {
             throw IOException("download error: $url")
         }
         builder.setDownloadInfo(client)
         parseDescription(builder, description)
-        loadServices(client, builder)
+    }
+
+    private fun DeviceImpl.Builder.collectServiceTasks(
+        tasks: MutableList<(HttpClient) -> Unit>,
+        cache: DescriptionCache?
+    ) {
+        getServiceBuilderList().forEach { serviceBuilder ->
+            tasks.add { ServiceParser.loadDescription(it, this, serviceBuilder, cache) }
+        }
+        getEmbeddedDeviceBuilderList().forEach {
+            it.collectServiceTasks(tasks, cache)
+        }
+    }
+
+    private fun DeviceImpl.Builder.collectIconTasks(tasks: MutableList<(HttpClient) -> Unit>, filter: IconFilter) {
+        val iconList = getIconList()
+        if (iconList.isEmpty()) return
+        val baseUrl = getBaseUrl()
+        val scopeId = getSsdpMessage().scopeId
+        filter(iconList).mapNotNull { it as? IconImpl }.forEach { icon ->
+            tasks.add {
+                try {
+                    icon.loadBinary(it, baseUrl, scopeId)
+                } catch (ignored: IOException) {
+                }
+            }
+        }
     }
 
     @Throws(IOException::class, SAXException::class, ParserConfigurationException::class)
@@ -67,27 +128,97 @@ internal object DeviceParser {
     @Throws(IOException::class, SAXException::class, ParserConfigurationException::class)
     internal fun parseDescription(builder: DeviceImpl.Builder, description: String) {
         builder.setDescription(description)
-        val doc = XmlUtils.newDocument(true, description)
-        val deviceNode = XmlUtils.findChildElementByLocalName(doc.documentElement, "device") ?: throw IOException()
-        parseDevice(builder, deviceNode)
+        val handler = DeviceDescriptionHandler(builder)
+        ElementHandler.parse(description, handler)
+        if (!handler.found) throw IOException()
     }
 
-    private fun parseDevice(builder: DeviceImpl.Builder, deviceNode: Node) {
-        deviceNode.firstChild?.forEachElement {
-            when (val tag = it.localName) {
-                "iconList" ->
-                    parseIconList(builder, it)
-                "serviceList" ->
-                    parseServiceList(builder, it)
+    /**
+     * Handler to set the values of device elements to the builder.
+     *
+     * The first device element of the root element is parsed into the builder,
+     * and the device elements in its deviceList are parsed into embedded device builders recursively.
+     */
+    private class DeviceDescriptionHandler(
+        private val rootBuilder: DeviceImpl.Builder
+    ) : ElementHandler() {
+        private class DeviceFrame(
+            val builder: DeviceImpl.Builder,
+            val depth: Int
+        ) {
+            var embeddedBuilderList: MutableList<DeviceImpl.Builder>? = null
+        }
+
+        private val deviceStack = ArrayList<DeviceFrame>()
+        private var iconBuilder: IconImpl.Builder? = null
+        private var serviceBuilder: ServiceImpl.Builder? = null
+        var found: Boolean = false
+            private set
+
+        override fun onStartElement(uri: String, localName: String, attributes: Attributes) {
+            val frame = deviceStack.lastOrNull()
+            if (frame == null) {
+                if (!found && depth == 2 && localName == "device") {
+                    found = true
+                    deviceStack.add(DeviceFrame(rootBuilder, depth))
+                }
+                return
+            }
+            when (depth - frame.depth) {
+                1 -> if (localName == "deviceList") {
+                    frame.embeddedBuilderList = ArrayList()
+                }
+                2 -> when {
+                    localName == "icon" && parentName() == "iconList" ->
+                        iconBuilder = IconImpl.Builder()
+                    localName == "service" && parentName() == "serviceList" ->
+                        serviceBuilder = ServiceImpl.Builder()
+                    localName == "device" && parentName() == "deviceList" ->
+                        deviceStack.add(DeviceFrame(frame.builder.createEmbeddedDeviceBuilder(), depth))
+                }
+            }
+        }
+
+        override fun onEndElement(uri: String, localName: String, text: String) {
+            val frame = deviceStack.lastOrNull() ?: return
+            when (depth - frame.depth) {
+                0 -> endDevice(frame)
+                1 -> endDeviceChild(frame, uri, localName, text)
+                2 -> endDeviceGrandchild(frame, localName)
+                3 -> when (parentName(2)) {
+                    "iconList" -> iconBuilder?.setField(localName, text)
+                    "serviceList" -> serviceBuilder?.setField(localName, text)
+                }
+            }
+        }
+
+        private fun endDeviceGrandchild(frame: DeviceFrame, localName: String) {
+            if (localName == "icon" && parentName() == "iconList") {
+                iconBuilder?.let { frame.builder.addIcon(it.build()) }
+                iconBuilder = null
+            } else if (localName == "service" && parentName() == "serviceList") {
+                serviceBuilder?.let { frame.builder.addServiceBuilder(it) }
+                serviceBuilder = null
+            }
+        }
+
+        private fun endDevice(frame: DeviceFrame) {
+            deviceStack.removeAt(deviceStack.size - 1)
+            deviceStack.lastOrNull()?.embeddedBuilderList?.add(frame.builder)
+        }
+
+        private fun endDeviceChild(frame: DeviceFrame, uri: String, localName: String, text: String) {
+            when (localName) {
+                "iconList",
+                "serviceList" -> Unit
                 "deviceList" ->
-                    parseDeviceList(builder, it)
+                    frame.embeddedBuilderList?.let { frame.builder.setEmbeddedDeviceBuilderList(it) }
                 else -> {
-                    val namespace = it.namespaceURI
-                    val value = it.textContent
-                    builder.putTag(namespace, tag, value)
-                    builder.setField(tag, value)
+                    frame.builder.putTag(uri.ifEmpty { null }, localName, text)
+                    frame.builder.setField(localName, text)
                 }
             }
+            frame.embeddedBuilderList = null
         }
     }
 
@@ -122,22 +253,6 @@ internal object DeviceParser {
         }
     }
 
-    private fun parseIconList(builder: DeviceImpl.Builder, listNode: Node) {
-        listNode.firstChild?.forEachElement {
-            if (it.localName == "icon") {
-                builder.addIcon(parseIcon(it))
-            }
-        }
-    }
-
-    private fun parseIcon(iconNode: Node): Icon {
-        val builder = IconImpl.Builder()
-        iconNode.firstChild?.forEachElement {
-            builder.setField(it.localName, it.textContent)
-        }
-        return builder.build()
-    }
-
     private fun IconImpl.Builder.setField(tag: String, value: String) {
         when (tag) {
             "mimetype" ->
@@ -153,22 +268,6 @@ internal object DeviceParser {
         }
     }
 
-    private fun parseServiceList(builder: DeviceImpl.Builder, listNode: Node) {
-        listNode.firstChild?.forEachElement {
-            if (it.localName == "service") {
-                builder.addServiceBuilder(parseService(it))
-            }
-        }
-    }
-
-    private fun parseService(serviceNode: Node): ServiceImpl.Builder {
-        val serviceBuilder = ServiceImpl.Builder()
-        serviceNode.firstChild?.forEachElement {
-            serviceBuilder.setField(it.localName, it.textContent)
-        }
-        return serviceBuilder
-    }
-
     private fun ServiceImpl.Builder.setField(tag: String, value: String) {
         when (tag) {
             "serviceType" ->
@@ -183,16 +282,4 @@ internal object DeviceParser {
                 setControlUrl(value)
         }
     }
-
-    private fun parseDeviceList(builder: DeviceImpl.Builder, listNode: Node) {
-        val builderList = ArrayList<DeviceImpl.Builder>()
-        listNode.firstChild?.forEachElement {
-            if (it.localName == "device") {
-                val embeddedBuilder = builder.createEmbeddedDeviceBuilder()
-                parseDevice(embeddedBuilder, it)
-                builderList.add(embeddedBuilder)
-            }
-        }
-        builder.setEmbeddedDeviceBuilderList(builderList)
-    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.parser
+
+import org.xml.sax.Attributes
+import org.xml.sax.InputSource
+import org.xml.sax.SAXException
+import org.xml.sax.helpers.DefaultHandler
+import java.io.IOException
+import java.io.StringReader
+import javax.xml.parsers.ParserConfigurationException
+import javax.xml.parsers.SAXParser
+import javax.xml.parsers.SAXParserFactory
+
+/**
+ * Base of SAX handler that receives each element with its text content.
+ *
+ * The text passed to [onEndElement] is the same as textContent of DOM,
+ * that is, the concatenation of text of the element and all descendants.
+ * Names of the ancestor elements can be referred by [parentName].
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal abstract class ElementHandler : DefaultHandler() {
+    private val nameStack = ArrayList<String>()
+    private val textStack = ArrayList<StringBuilder>()
+
+    /**
+     * Depth of the current element. The root element is 1.
+     */
+    protected val depth: Int
+        get() = nameStack.size
+
+    /**
+     * Returns the local name of the ancestor element.
+     *
+     * @param level 1 for the parent, 2 for the grandparent, and so on.
+     * @return local name, or null if not exist.
+     */
+    protected fun parentName(level: Int = 1): String? = nameStack.getOrNull(nameStack.size - 1 - level)
+
+    /**
+     * Called at the start tag.
+     *
+     * @param uri namespace URI, empty if the element has no namespace.
+     * @param localName local name
+     * @param attributes attributes
+     */
+    protected open fun onStartElement(uri: String, localName: String, attributes: Attributes) = Unit
+
+    /**
+     * Called at the end tag.
+     *
+     * [depth] and [parentName] indicate the same as [onStartElement] of this element.
+     *
+     * @param uri namespace URI, empty if the element has no namespace.
+     * @param localName local name
+     * @param text text content
+     */
+    protected abstract fun onEndElement(uri: String, localName: String, text: String)
+
+    final override fun startElement(uri: String, localName: String, qName: String, attributes: Attributes) {
+        nameStack.add(localName)
+        textStack.add(StringBuilder())
+        onStartElement(uri, localName, attributes)
+    }
+
+    final override fun endElement(uri: String, localName: String, qName: String) {
+        val text = textStack.last().toString()
+        onEndElement(uri, localName, text)
+        nameStack.removeAt(nameStack.size - 1)
+        textStack.removeAt(textStack.size - 1)
+        textStack.lastOrNull()?.append(text)
+    }
+
+    final override fun characters(ch: CharArray, start: Int, length: Int) {
+        textStack.lastOrNull()?.append(ch, start, length)
+    }
+
+    companion object {
+        private val parserFactory: SAXParserFactory by lazy {
+            SAXParserFactory.newInstance().also {
+                it.isNamespaceAware = true
+            }
+        }
+        private val parserHolder = object : ThreadLocal<SAXParser>() {
+            override fun initialValue(): SAXParser = synchronized(parserFactory) {
+                parserFactory.newSAXParser()
+            }
+        }
+
+        /**
+         * Parse the XML with the handler.
+         *
+         * The namespace aware parser is reused in each thread.
+         *
+         * @param xml XML string
+         * @param handler handler
+         * @throws SAXException if an parse error occurs.
+         * @throws IOException if an I/O error occurs.
+         * @throws ParserConfigurationException If there is a problem with instantiation
+         */
+        @Throws(SAXException::class, IOException::class, ParserConfigurationException::class)
+        fun parse(xml: String, handler: ElementHandler) {
+            val parser = parserHolder.get()
+            try {
+                parser.parse(InputSource(StringReader(xml)), handler)
+            } finally {
+                parser.reset()
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.parser
+
+import net.mm2d.upnp.HttpClient
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Executor of download tasks with bounded parallelism.
+ *
+ * The calling thread also executes tasks with its own [HttpClient],
+ * and the other tasks are executed by helper tasks that use [HttpClient] created by [clientFactory].
+ * Since the calling thread takes the tasks that have not been started by helpers,
+ * it never waits for the task that is queued in the executor, even if the executor is busy.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param executor executor for the helper tasks, receives the destination host and the task
+ * @param clientFactory factory of [HttpClient] for the helper tasks
+ * @param parallelism max number of tasks executed at once, including the calling thread
+ */
+internal class ParallelDownloader(
+    private val executor: (host: String?, task: () -> Unit) -> Boolean,
+    private val clientFactory: () -> HttpClient,
+    private val parallelism: Int = DEFAULT_PARALLELISM
+) {
+    /**
+     * Execute all the tasks and wait for them.
+     *
+     * If a task throws an exception, the tasks not started yet are skipped,
+     * and the first exception is thrown after the running tasks are finished.
+     *
+     * @param client HttpClient used by the calling thread
+     * @param tasks tasks
+     * @param host destination host of the tasks, null if it is not limited
+     */
+    fun execute(client: HttpClient, tasks: List<(HttpClient) -> Unit>, host: String? = null) {
+        if (tasks.isEmpty()) return
+        val work = Work(tasks)
+        for (i in 1 until minOf(parallelism, tasks.size)) {
+            if (!executor(host) { runHelper(work) }) break
+        }
+        work.run(client)
+        work.await()
+        work.exception?.let { throw it }
+    }
+
+    private fun runHelper(work: Work) {
+        val client = clientFactory()
+        try {
+            work.run(client)
+        } finally {
+            client.close()
+        }
+    }
+
+    private class Work(
+        private val tasks: List<(HttpClient) -> Unit>
+    ) {
+        private val lock = ReentrantLock()
+        private val condition = lock.newCondition()
+        private var next = 0
+        private var finished = 0
+        var exception: Exception? = null
+            private set
+
+        fun run(client: HttpClient) {
+            while (true) {
+                val index = take()
+                if (index < 0) return
+                var failure: Exception? = null
+                try {
+                    tasks[index](client)
+                } catch (e: Exception) {
+                    failure = e
+                }
+                finish(failure)
+            }
+        }
+
+        private fun take(): Int = lock.withLock {
+            if (exception != null || next >= tasks.size) -1 else next++
+        }
+
+        private fun finish(failure: Exception?): Unit = lock.withLock {
+            if (exception == null) exception = failure
+            finished++
+            condition.signalAll()
+        }
+
+        fun await(): Unit = lock.withLock {
+            while (finished < next) {
+                condition.await()
+            }
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_PARALLELISM = 4
+    }
+}
@@ -11,11 +11,8 @@ import net.mm2d.upnp.Http
 import net.mm2d.upnp.HttpClient
 import net.mm2d.upnp.StateVariable
 import net.mm2d.upnp.internal.impl.*
-import net.mm2d.upnp.util.XmlUtils
-import net.mm2d.upnp.util.forEach
-import net.mm2d.upnp.util.forEachElement
-import org.w3c.dom.Element
-import org.w3c.dom.NodeList
+import net.mm2d.upnp.internal.manager.DescriptionCache
+import org.xml.sax.Attributes
 import org.xml.sax.SAXException
 import java.io.IOException
 import javax.xml.parsers.ParserConfigurationException
@@ -36,12 +33,18 @@ internal object ServiceParser {
      * @param client HttpClient
      * @param deviceBuilder DeviceのBuilder
      * @param builder ServiceのBuilder
+     * @param cache cache of the descriptions, null to download always
      * @throws SAXException if an parse error occurs.
      * @throws IOException if an I/O error occurs.
      * @throws ParserConfigurationException If there is a problem with instantiation
      */
     @Throws(IOException::class, SAXException::class, ParserConfigurationException::class)
-    fun loadDescription(client: HttpClient, deviceBuilder: DeviceImpl.Builder, builder: ServiceImpl.Builder) {
+    fun loadDescription(
+        client: HttpClient,
+        deviceBuilder: DeviceImpl.Builder,
+        builder: ServiceImpl.Builder,
+        cache: DescriptionCache? = null
+    ) {
         val scpdUrl = builder.getScpdUrl() ?: throw IOException("scpdUrl is null")
         // Treat as empty if "/ssdp/notfound". If try to download, "404 Not found" will be returned.
         // This may be Google's DIAL device.
@@ -49,50 +52,110 @@ internal object ServiceParser {
         val baseUrl = deviceBuilder.getBaseUrl()
         val scopeId = deviceBuilder.getSsdpMessage().scopeId
         val url = Http.makeAbsoluteUrl(baseUrl, scpdUrl, scopeId)
-        val description = client.downloadString(url)
+        val description = cache?.download(client, url, deviceBuilder.getSsdpMessage()) ?: client.downloadString(url)
         if (description.isEmpty()) {
             // 空であっても必須パラメータはそろっているため正常として扱う。
             return
         }
-        builder.setDescription(description)
-        val doc = XmlUtils.newDocument(true, description)
-        parseActionList(builder, doc.getElementsByTagName("action"))
-        parseStateVariableList(builder, doc.getElementsByTagName("stateVariable"))
+        // The devices of the same model have the same description, so the parsed model is shared among them.
+        builder.setModel(ServiceModel.intern(description, ::parseDescription))
     }
 
-    private fun parseActionList(builder: ServiceImpl.Builder, nodeList: NodeList) {
-        nodeList.forEach {
-            builder.addActionBuilder(parseAction(it as Element))
-        }
+    @Throws(IOException::class, SAXException::class, ParserConfigurationException::class)
+    private fun parseDescription(description: String): ServiceModel {
+        val handler = ServiceDescriptionHandler()
+        ElementHandler.parse(description, handler)
+        return ServiceModel.create(description, handler.actionBuilderList, handler.stateVariables)
     }
 
-    private fun parseStateVariableList(builder: ServiceImpl.Builder, nodeList: NodeList) {
-        nodeList.forEach {
-            builder.addStateVariable(parseStateVariable(it as Element))
-        }
-    }
+    /**
+     * Handler to collect the action and stateVariable elements.
+     *
+     * Like as getElementsByTagName of DOM, action and stateVariable elements are found at any depth.
+     */
+    private class ServiceDescriptionHandler : ElementHandler() {
+        val actionBuilderList = mutableListOf<ActionImpl.Builder>()
+        val stateVariables = mutableListOf<StateVariable>()
+        private var actionBuilder: ActionImpl.Builder? = null
+        private var argumentBuilder: ArgumentImpl.Builder? = null
+        private var stateVariableBuilder: StateVariableImpl.Builder? = null
+        private var elementDepth: Int = 0
 
-    private fun parseAction(element: Element): ActionImpl.Builder {
-        val builder = ActionImpl.Builder()
-        element.firstChild?.forEachElement {
-            when (it.localName) {
-                "name" -> builder.setName(it.textContent)
-                "argumentList" -> it.firstChild?.forEachElement { child ->
-                    if (child.localName == "argument") {
-                        builder.addArgumentBuilder(parseArgument(child))
+        override fun onStartElement(uri: String, localName: String, attributes: Attributes) {
+            when {
+                actionBuilder != null -> {
+                    if (depth - elementDepth == 2 && localName == "argument" && parentName() == "argumentList") {
+                        argumentBuilder = ArgumentImpl.Builder()
+                    }
+                }
+                stateVariableBuilder != null -> Unit
+                localName == "action" -> {
+                    actionBuilder = ActionImpl.Builder()
+                    elementDepth = depth
+                }
+                localName == "stateVariable" -> {
+                    stateVariableBuilder = StateVariableImpl.Builder().also {
+                        it.setSendEvents(attributes.getValue("sendEvents") ?: "")
+                        it.setMulticast(attributes.getValue("multicast") ?: "")
                     }
+                    elementDepth = depth
                 }
             }
         }
-        return builder
-    }
 
-    private fun parseArgument(element: Element): ArgumentImpl.Builder {
-        val builder = ArgumentImpl.Builder()
-        element.firstChild?.forEachElement {
-            builder.setField(it.localName, it.textContent)
+        override fun onEndElement(uri: String, localName: String, text: String) {
+            actionBuilder?.let {
+                onEndActionElement(it, localName, text)
+                return
+            }
+            stateVariableBuilder?.let {
+                onEndStateVariableElement(it, localName, text)
+            }
+        }
+
+        private fun onEndActionElement(action: ActionImpl.Builder, localName: String, text: String) {
+            when (depth - elementDepth) {
+                0 -> {
+                    actionBuilderList.add(action)
+                    actionBuilder = null
+                }
+                1 -> if (localName == "name") {
+                    action.setName(text)
+                }
+                2 -> if (localName == "argument" && parentName() == "argumentList") {
+                    argumentBuilder?.let { action.addArgumentBuilder(it) }
+                    argumentBuilder = null
+                }
+                3 -> argumentBuilder?.setField(localName, text)
+            }
+        }
+
+        private fun onEndStateVariableElement(
+            stateVariable: StateVariableImpl.Builder,
+            localName: String,
+            text: String
+        ) {
+            when (depth - elementDepth) {
+                0 -> {
+                    stateVariables.add(stateVariable.build())
+                    stateVariableBuilder = null
+                }
+                1 -> when (localName) {
+                    "name" ->
+                        stateVariable.setName(text)
+                    "dataType" ->
+                        stateVariable.setDataType(text)
+                    "defaultValue" ->
+                        stateVariable.setDefaultValue(text)
+                }
+                2 -> when (parentName()) {
+                    "allowedValueList" ->
+                        if (localName == "allowedValue") stateVariable.addAllowedValue(text)
+                    "allowedValueRange" ->
+                        stateVariable.setField(localName, text)
+                }
+            }
         }
-        return builder
     }
 
     private fun ArgumentImpl.Builder.setField(tag: String, value: String) {
@@ -106,43 +169,6 @@ internal object ServiceParser {
         }
     }
 
-    private fun parseStateVariable(element: Element): StateVariable {
-        val builder = StateVariableImpl.Builder()
-        builder.setSendEvents(element.getAttribute("sendEvents"))
-        builder.setMulticast(element.getAttribute("multicast"))
-        element.firstChild?.forEachElement {
-            when (it.localName) {
-                "name" ->
-                    builder.setName(it.textContent)
-                "dataType" ->
-                    builder.setDataType(it.textContent)
-                "defaultValue" ->
-                    builder.setDefaultValue(it.textContent)
-                "allowedValueList" ->
-                    parseAllowedValueList(builder, it)
-                "allowedValueRange" ->
-                    parseAllowedValueRange(builder, it)
-            }
-        }
-        return builder.build()
-    }
-
-    private fun parseAllowedValueList(builder: StateVariableImpl.Builder, element: Element) {
-        element.firstChild?.forEachElement {
-            if ("allowedValue" == it.localName) {
-                builder.addAllowedValue(it.textContent)
-            }
-        }
-    }
-
-    private fun parseAllowedValueRange(builder: StateVariableImpl.Builder, element: Element) {
-        element.firstChild?.forEachElement { element ->
-            element.localName.let {
-                builder.setField(it, element.textContent)
-            }
-        }
-    }
-
     private fun StateVariableImpl.Builder.setField(tag: String, value: String) {
         when (tag) {
             "step" ->
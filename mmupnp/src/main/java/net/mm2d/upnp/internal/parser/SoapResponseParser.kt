@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.parser
+
+import net.mm2d.upnp.Action
+import org.xml.sax.Attributes
+import org.xml.sax.SAXException
+import java.io.IOException
+import javax.xml.parsers.ParserConfigurationException
+
+/**
+ * Parser for the response of SOAP Action.
+ *
+ * Only the children of the element in the Body are read in a streaming pass, without DOM.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal object SoapResponseParser {
+    /**
+     * Parses the response of Action.
+     *
+     * @param xml XML string that is the response of Action
+     * @param responseTagName local name of the response element, such as "xxxResponse"
+     * @return Map with the local name of children of the response element as key and text as value
+     * @throws SAXException if an parse error occurs.
+     * @throws IOException if the response element is not found.
+     * @throws ParserConfigurationException If there is a problem with instantiation
+     */
+    @Throws(ParserConfigurationException::class, IOException::class, SAXException::class)
+    fun parseResponse(xml: String, responseTagName: String): Map<String, String> {
+        val handler = BodyHandler(responseTagName, false)
+        ElementHandler.parse(xml, handler)
+        if (!handler.found) throw IOException("no response tag")
+        return handler.result
+    }
+
+    /**
+     * Parses the error response of Action.
+     *
+     * @param xml XML string that is the response of Action
+     * @return error response such as 'faultcode','faultstring','UPnPError/errorCode','UPnPError/errorDescription'
+     * @throws SAXException if an parse error occurs.
+     * @throws IOException if the Fault element, UPnPError element or errorCode is not found.
+     * @throws ParserConfigurationException If there is a problem with instantiation
+     */
+    @Throws(ParserConfigurationException::class, IOException::class, SAXException::class)
+    fun parseErrorResponse(xml: String): Map<String, String> {
+        val handler = BodyHandler("Fault", true)
+        ElementHandler.parse(xml, handler)
+        if (!handler.found) throw IOException("no response tag")
+        if (handler.upnpErrorMissing) throw IOException("no UPnPError tag")
+        val result = handler.result
+        if (!result.containsKey(Action.ERROR_CODE_KEY)) {
+            throw IOException("no UPnPError/errorCode tag")
+        }
+        return result
+    }
+
+    /**
+     * Handler to collect the children of the first element with [tag] in the Body.
+     *
+     * If [parseDetail] is true, the children of UPnPError in the detail element are collected
+     * with the prefix "UPnPError/" instead of the detail element itself.
+     */
+    private class BodyHandler(
+        private val tag: String,
+        private val parseDetail: Boolean
+    ) : ElementHandler() {
+        val result = mutableMapOf<String, String>()
+        var found: Boolean = false
+            private set
+        var upnpErrorMissing: Boolean = false
+            private set
+        private var bodyFound: Boolean = false
+        private var inBody: Boolean = false
+        private var inTarget: Boolean = false
+        private var inDetail: Boolean = false
+        private var upnpErrorFound: Boolean = false
+        private var inUpnpError: Boolean = false
+
+        override fun onStartElement(uri: String, localName: String, attributes: Attributes) {
+            when (depth) {
+                2 -> if (!bodyFound && localName == "Body") {
+                    bodyFound = true
+                    inBody = true
+                }
+                3 -> if (inBody && !found && localName == tag) {
+                    found = true
+                    inTarget = true
+                }
+                4 -> if (inTarget && parseDetail && localName == "detail") {
+                    inDetail = true
+                    upnpErrorFound = false
+                }
+                5 -> if (inDetail && !upnpErrorFound && localName == "UPnPError") {
+                    upnpErrorFound = true
+                    inUpnpError = true
+                }
+            }
+        }
+
+        override fun onEndElement(uri: String, localName: String, text: String) {
+            when (depth) {
+                2 -> inBody = false
+                3 -> inTarget = false
+                4 -> if (inDetail) {
+                    inDetail = false
+                    if (!upnpErrorFound) upnpErrorMissing = true
+                } else if (inTarget) {
+                    result[localName] = text
+                }
+                5 -> inUpnpError = false
+                6 -> if (inUpnpError) {
+                    result["UPnPError/$localName"] = text
+                }
+            }
+        }
+    }
+}
@@ -7,9 +7,11 @@
 
 package net.mm2d.upnp.internal.server
 
+import net.mm2d.upnp.internal.util.closeQuietly
 import net.mm2d.upnp.util.toAddressString
-import java.net.InetAddress
-import java.net.InetSocketAddress
+import java.io.IOException
+import java.net.*
+import java.nio.channels.DatagramChannel
 
 /**
  * Multicast address
@@ -38,4 +40,27 @@ internal enum class Address(
     val ssdpSocketAddress: InetSocketAddress = InetSocketAddress(ssdpInetAddress, ServerConst.SSDP_PORT)
     val ssdpAddressString: String = ssdpSocketAddress.toAddressString()
     val eventInetAddress: InetAddress = InetAddress.getByName(eventAddress)
+
+    /**
+     * Open a [DatagramChannel] of the address family to send and receive multicast.
+     *
+     * @param networkInterface network interface to send multicast
+     * @param port port number to bind, 0 for ephemeral port
+     * @return DatagramChannel
+     * @throws IOException if an I/O error occurs.
+     */
+    @Throws(IOException::class)
+    fun openDatagramChannel(networkInterface: NetworkInterface, port: Int): DatagramChannel {
+        val family = if (this == IP_V4) StandardProtocolFamily.INET else StandardProtocolFamily.INET6
+        val channel = DatagramChannel.open(family)
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true)
+            channel.bind(InetSocketAddress(port))
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface)
+        } catch (e: IOException) {
+            channel.closeQuietly()
+            throw e
+        }
+        return channel
+    }
 }
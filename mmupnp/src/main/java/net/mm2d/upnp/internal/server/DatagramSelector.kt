@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.server
+
+import net.mm2d.log.Logger
+import net.mm2d.upnp.internal.thread.TaskExecutors
+import net.mm2d.upnp.internal.thread.ThreadCondition
+import net.mm2d.upnp.internal.util.closeQuietly
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Multiplexer that receives datagrams of multiple [DatagramChannel]s with a few threads.
+ *
+ * Registered channels are distributed to [threadCount] selector threads in turn.
+ * Each thread has a direct receive buffer and a byte array that are reused for every packet,
+ * so the receiver must not hold the data after it returns.
+ * A selector thread starts when a channel is registered and ends when all of its channels are closed.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param taskExecutors taskExecutors
+ * @param threadCount number of selector threads
+ */
+internal class DatagramSelector(
+    taskExecutors: TaskExecutors,
+    threadCount: Int = 1
+) {
+    private val workers: List<Worker> = List(threadCount.coerceAtLeast(1)) { Worker(taskExecutors, it) }
+    private val nextWorker = AtomicInteger()
+
+    /**
+     * Register a channel to receive.
+     *
+     * The channel will be configured to non-blocking mode.
+     * To stop receiving, close the channel.
+     *
+     * @param channel channel
+     * @param receiver receiver called in the selector thread
+     * @throws IOException if an I/O error occurs.
+     */
+    @Throws(IOException::class)
+    fun register(
+        channel: DatagramChannel,
+        receiver: (sourceAddress: InetAddress, data: ByteArray, length: Int) -> Unit
+    ) {
+        channel.configureBlocking(false)
+        val index = (nextWorker.getAndIncrement() and Int.MAX_VALUE) % workers.size
+        workers[index].register(Registration(channel, receiver))
+    }
+
+    /**
+     * Close the channel and stop receiving it.
+     *
+     * @param channel channel
+     */
+    fun unregister(channel: DatagramChannel) {
+        channel.closeQuietly()
+        workers.forEach { it.wakeup() }
+    }
+
+    private class Registration(
+        val channel: DatagramChannel,
+        val receiver: (sourceAddress: InetAddress, data: ByteArray, length: Int) -> Unit
+    )
+
+    private class Worker(
+        taskExecutors: TaskExecutors,
+        private val index: Int
+    ) : Runnable {
+        private val threadCondition = ThreadCondition(taskExecutors.server)
+        private val pendingQueue = ConcurrentLinkedQueue<Registration>()
+        private val buffer: ByteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+        private val data = ByteArray(BUFFER_SIZE)
+        private var running = false
+        @Volatile
+        private var selector: Selector? = null
+
+        fun register(registration: Registration) {
+            synchronized(this) {
+                pendingQueue.add(registration)
+                if (!running) {
+                    running = true
+                    threadCondition.start(this)
+                }
+            }
+            selector?.wakeup()
+        }
+
+        fun wakeup() {
+            selector?.wakeup()
+        }
+
+        override fun run() {
+            Thread.currentThread().let {
+                it.name = it.name + "-datagram-selector-" + index
+            }
+            var selector: Selector? = null
+            var idle = false
+            try {
+                selector = Selector.open()
+                this.selector = selector
+                registerPending(selector)
+                while (!threadCondition.isCanceled() && !Thread.currentThread().isInterrupted) {
+                    selector.select()
+                    val iterator = selector.selectedKeys().iterator()
+                    while (iterator.hasNext()) {
+                        val key = iterator.next()
+                        iterator.remove()
+                        receive(key)
+                    }
+                    registerPending(selector)
+                    idle = finishIfIdle(selector)
+                    if (idle) break
+                }
+            } catch (e: IOException) {
+                Logger.w(e)
+            } finally {
+                if (!idle) {
+                    synchronized(this) {
+                        running = false
+                    }
+                }
+                selector?.keys()?.forEach { it.channel().closeQuietly() }
+                selector.closeQuietly()
+                if (this.selector === selector) {
+                    this.selector = null
+                }
+            }
+        }
+
+        private fun registerPending(selector: Selector) {
+            while (true) {
+                val registration = pendingQueue.poll() ?: return
+                try {
+                    registration.channel.register(selector, SelectionKey.OP_READ, registration.receiver)
+                } catch (e: IOException) {
+                    Logger.w(e)
+                }
+            }
+        }
+
+        // closeされたchannelのkeyはselectの中で削除されるため、select後に判定する
+        private fun finishIfIdle(selector: Selector): Boolean {
+            synchronized(this) {
+                if (selector.keys().isNotEmpty() || pendingQueue.isNotEmpty()) return false
+                running = false
+                return true
+            }
+        }
+
+        private fun receive(key: SelectionKey) {
+            if (!key.isValid || !key.isReadable) return
+            val channel = key.channel() as DatagramChannel
+            @Suppress("UNCHECKED_CAST")
+            val receiver = key.attachment() as (InetAddress, ByteArray, Int) -> Unit
+            val source = try {
+                buffer.clear()
+                channel.receive(buffer) as? InetSocketAddress ?: return
+            } catch (e: IOException) {
+                Logger.w(e)
+                key.cancel()
+                return
+            }
+            buffer.flip()
+            val length = buffer.remaining()
+            buffer.get(data, 0, length)
+            try {
+                receiver(source.address, data, length)
+            } catch (e: Exception) {
+                Logger.w(e)
+            }
+        }
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 1500
+    }
+}
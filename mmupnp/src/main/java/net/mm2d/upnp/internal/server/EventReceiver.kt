@@ -8,11 +8,10 @@
 package net.mm2d.upnp.internal.server
 
 import net.mm2d.log.Logger
-import net.mm2d.upnp.Http
 import net.mm2d.upnp.HttpRequest
-import net.mm2d.upnp.HttpResponse
 import net.mm2d.upnp.Property
-import net.mm2d.upnp.internal.parser.parseEventXml
+import net.mm2d.upnp.internal.message.HttpInputStream
+import net.mm2d.upnp.internal.thread.IoPriority
 import net.mm2d.upnp.internal.thread.TaskExecutors
 import net.mm2d.upnp.internal.thread.ThreadCondition
 import net.mm2d.upnp.internal.util.closeQuietly
@@ -34,14 +33,14 @@ import java.util.*
 internal class EventReceiver(
     private val taskExecutors: TaskExecutors,
     private val listener: (sid: String, seq: Long, properties: List<Pair<String, String>>) -> Boolean
-) : Runnable {
+) : EventServer, Runnable {
     private var serverSocket: ServerSocket? = null
     private val clientList: MutableList<ClientTask> = Collections.synchronizedList(LinkedList())
     private val threadCondition = ThreadCondition(taskExecutors.server)
 
-    fun start(): Unit = threadCondition.start(this)
+    override fun start(): Unit = threadCondition.start(this)
 
-    fun stop() {
+    override fun stop() {
         threadCondition.stop()
         serverSocket.closeQuietly()
         synchronized(clientList) {
@@ -54,7 +53,7 @@ internal class EventReceiver(
     @Throws(IOException::class)
     internal fun createServerSocket(): ServerSocket = ServerSocket(0)
 
-    fun getLocalPort(): Int {
+    override fun getLocalPort(): Int {
         if (!threadCondition.waitReady()) return 0
         return serverSocket?.localPort ?: 0
     }
@@ -88,12 +87,8 @@ internal class EventReceiver(
     }
 
     // VisibleForTesting
-    internal fun notifyEvent(sid: String, request: HttpRequest): Boolean {
-        val seq = request.getHeader(Http.SEQ)?.toLongOrNull() ?: return false
-        val properties = request.getBody().parseEventXml()
-        if (properties.isEmpty()) return false
-        return listener(sid, seq, properties)
-    }
+    internal fun notifyEvent(sid: String, request: HttpRequest): Boolean =
+        request.notifyEvent(sid, listener)
 
     // VisibleForTesting
     internal class ClientTask(
@@ -101,7 +96,7 @@ internal class EventReceiver(
         private val eventReceiver: EventReceiver,
         private val socket: Socket
     ) : Runnable {
-        private val condition = ThreadCondition(taskExecutors.io)
+        private val condition = ThreadCondition(taskExecutors.ioFunction(IoPriority.HIGH))
 
         fun start(): Unit = condition.start(this)
 
@@ -112,7 +107,7 @@ internal class EventReceiver(
 
         override fun run() {
             try {
-                receiveAndReply(socket.getInputStream(), socket.getOutputStream())
+                receiveAndReply(HttpInputStream(socket.getInputStream()), socket.getOutputStream())
             } catch (e: IOException) {
                 Logger.w(e)
             } finally {
@@ -128,41 +123,7 @@ internal class EventReceiver(
                 readData(inputStream)
             }
             Logger.v { "receive event:\n$request" }
-            val nt = request.getHeader(Http.NT)
-            val nts = request.getHeader(Http.NTS)
-            val sid = request.getHeader(Http.SID)
-            if (nt.isNullOrEmpty() || nts.isNullOrEmpty()) {
-                RESPONSE_BAD.writeData(outputStream)
-            } else if (sid.isNullOrEmpty() || nt != Http.UPNP_EVENT || nts != Http.UPNP_PROPCHANGE) {
-                RESPONSE_FAIL.writeData(outputStream)
-            } else {
-                if (eventReceiver.notifyEvent(sid, request)) {
-                    RESPONSE_OK.writeData(outputStream)
-                } else {
-                    RESPONSE_FAIL.writeData(outputStream)
-                }
-            }
-        }
-
-        companion object {
-            private val RESPONSE_OK = HttpResponse.create().apply {
-                setStatus(Http.Status.HTTP_OK)
-                setHeader(Http.SERVER, Property.SERVER_VALUE)
-                setHeader(Http.CONNECTION, Http.CLOSE)
-                setHeader(Http.CONTENT_LENGTH, "0")
-            }
-            private val RESPONSE_BAD = HttpResponse.create().apply {
-                setStatus(Http.Status.HTTP_BAD_REQUEST)
-                setHeader(Http.SERVER, Property.SERVER_VALUE)
-                setHeader(Http.CONNECTION, Http.CLOSE)
-                setHeader(Http.CONTENT_LENGTH, "0")
-            }
-            private val RESPONSE_FAIL = HttpResponse.create().apply {
-                setStatus(Http.Status.HTTP_PRECON_FAILED)
-                setHeader(Http.SERVER, Property.SERVER_VALUE)
-                setHeader(Http.CONNECTION, Http.CLOSE)
-                setHeader(Http.CONTENT_LENGTH, "0")
-            }
+            request.selectEventResponse(eventReceiver::notifyEvent).writeData(outputStream)
         }
     }
 }
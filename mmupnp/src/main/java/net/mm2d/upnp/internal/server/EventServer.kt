@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.server
+
+import net.mm2d.upnp.Http
+import net.mm2d.upnp.HttpRequest
+import net.mm2d.upnp.HttpResponse
+import net.mm2d.upnp.Property
+import net.mm2d.upnp.internal.parser.parseEventXml
+
+/**
+ * Interface of HTTP server to receive Event notified by event subscription.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal interface EventServer {
+    /**
+     * Start the server.
+     */
+    fun start()
+
+    /**
+     * Stop the server.
+     */
+    fun stop()
+
+    /**
+     * Returns the port number that the server is listening to.
+     *
+     * Wait until the server is ready.
+     *
+     * @return port number, or 0 if the server is not running.
+     */
+    fun getLocalPort(): Int
+}
+
+/**
+ * Parse the event request and notify to the listener.
+ *
+ * @receiver event request
+ * @param sid Subscription ID
+ * @param listener listener to notify
+ * @return return value of the listener, or false if the request has no event.
+ */
+internal fun HttpRequest.notifyEvent(
+    sid: String,
+    listener: (sid: String, seq: Long, properties: List<Pair<String, String>>) -> Boolean
+): Boolean {
+    val seq = getHeader(Http.SEQ)?.toLongOrNull() ?: return false
+    val properties = getBody().parseEventXml()
+    if (properties.isEmpty()) return false
+    return listener(sid, seq, properties)
+}
+
+/**
+ * Validate the event request and select the response to reply.
+ *
+ * @receiver event request
+ * @param notifyEvent function to notify the event, returns true if accepted.
+ * @return response to reply
+ */
+internal fun HttpRequest.selectEventResponse(notifyEvent: (sid: String, request: HttpRequest) -> Boolean): HttpResponse {
+    val nt = getHeader(Http.NT)
+    val nts = getHeader(Http.NTS)
+    val sid = getHeader(Http.SID)
+    return when {
+        nt.isNullOrEmpty() || nts.isNullOrEmpty() -> RESPONSE_BAD
+        sid.isNullOrEmpty() || nt != Http.UPNP_EVENT || nts != Http.UPNP_PROPCHANGE -> RESPONSE_FAIL
+        notifyEvent(sid, this) -> RESPONSE_OK
+        else -> RESPONSE_FAIL
+    }
+}
+
+private val RESPONSE_OK = createEventResponse(Http.Status.HTTP_OK)
+private val RESPONSE_BAD = createEventResponse(Http.Status.HTTP_BAD_REQUEST)
+private val RESPONSE_FAIL = createEventResponse(Http.Status.HTTP_PRECON_FAILED)
+
+private fun createEventResponse(status: Http.Status): HttpResponse =
+    HttpResponse.create().apply {
+        setStatus(status)
+        setHeader(Http.SERVER, Property.SERVER_VALUE)
+        setHeader(Http.CONNECTION, Http.CLOSE)
+        setHeader(Http.CONTENT_LENGTH, "0")
+    }
@@ -7,8 +7,10 @@
 
 package net.mm2d.upnp.internal.server
 
+import net.mm2d.log.Logger
 import net.mm2d.upnp.Http
 import net.mm2d.upnp.HttpRequest
+import net.mm2d.upnp.internal.message.HttpInputStream
 import net.mm2d.upnp.internal.parser.parseEventXml
 import net.mm2d.upnp.internal.parser.parseUsn
 import net.mm2d.upnp.internal.thread.TaskExecutors
@@ -17,15 +19,16 @@ import net.mm2d.upnp.internal.util.closeQuietly
 import net.mm2d.upnp.util.findInet4Address
 import net.mm2d.upnp.util.findInet6Address
 import net.mm2d.upnp.util.toSimpleString
-import java.io.ByteArrayInputStream
 import java.io.IOException
 import java.net.*
+import java.nio.channels.DatagramChannel
 
 internal class MulticastEventReceiver(
     taskExecutors: TaskExecutors,
     val address: Address,
     private val networkInterface: NetworkInterface,
-    private val listener: (uuid: String, svcid: String, lvl: String, seq: Long, properties: List<Pair<String, String>>) -> Unit
+    private val listener: (uuid: String, svcid: String, lvl: String, seq: Long, properties: List<Pair<String, String>>) -> Unit,
+    private val datagramSelector: DatagramSelector? = null
 ) : Runnable {
     private val interfaceAddress: InterfaceAddress =
         if (address == Address.IP_V4)
@@ -33,6 +36,7 @@ internal class MulticastEventReceiver(
         else
             networkInterface.findInet6Address()
     private var socket: MulticastSocket? = null
+    private var channel: DatagramChannel? = null
     private val threadCondition = ThreadCondition(taskExecutors.server)
 
     // VisibleForTesting
@@ -44,12 +48,32 @@ internal class MulticastEventReceiver(
     }
 
     fun start() {
-        threadCondition.start(this)
+        val selector = datagramSelector
+        if (selector != null) {
+            startChannel(selector)
+        } else {
+            threadCondition.start(this)
+        }
+    }
+
+    private fun startChannel(selector: DatagramSelector) {
+        try {
+            val channel = address.openDatagramChannel(networkInterface, ServerConst.EVENT_PORT)
+            this.channel = channel
+            channel.join(address.eventInetAddress, networkInterface)
+            selector.register(channel) { _, data, length -> onReceive(data, length) }
+        } catch (e: IOException) {
+            Logger.w(e)
+            channel.closeQuietly()
+            channel = null
+        }
     }
 
     fun stop() {
         threadCondition.stop()
         socket.closeQuietly()
+        channel?.let { datagramSelector?.unregister(it) }
+        channel = null
     }
 
     override fun run() {
@@ -88,7 +112,7 @@ internal class MulticastEventReceiver(
     // VisibleForTesting
     internal fun onReceive(data: ByteArray, length: Int) {
         val request = HttpRequest.create().apply {
-            readData(ByteArrayInputStream(data, 0, length))
+            readData(HttpInputStream(data, 0, length))
         }
         if (request.getHeader(Http.NT) != Http.UPNP_EVENT) return
         if (request.getHeader(Http.NTS) != Http.UPNP_PROPCHANGE) return
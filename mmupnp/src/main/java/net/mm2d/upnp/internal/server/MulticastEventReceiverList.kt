@@ -16,11 +16,12 @@ internal class MulticastEventReceiverList(
     taskExecutors: TaskExecutors,
     protocol: Protocol,
     interfaces: Iterable<NetworkInterface>,
-    listener: (uuid: String, svcid: String, lvl: String, seq: Long, properties: List<Pair<String, String>>) -> Unit
+    listener: (uuid: String, svcid: String, lvl: String, seq: Long, properties: List<Pair<String, String>>) -> Unit,
+    datagramSelector: DatagramSelector? = null
 ) {
     private val list: List<MulticastEventReceiver> = interfaces.createServerList(protocol,
-        { newReceiver(taskExecutors, Address.IP_V4, it, listener) },
-        { newReceiver(taskExecutors, Address.IP_V6, it, listener) }
+        { newReceiver(taskExecutors, Address.IP_V4, it, listener, datagramSelector) },
+        { newReceiver(taskExecutors, Address.IP_V6, it, listener, datagramSelector) }
     )
 
     fun start(): Unit = list.forEach { it.start() }
@@ -32,9 +33,10 @@ internal class MulticastEventReceiverList(
             taskExecutors: TaskExecutors,
             address: Address,
             nif: NetworkInterface,
-            listener: (uuid: String, svcid: String, lvl: String, seq: Long, properties: List<Pair<String, String>>) -> Unit
+            listener: (uuid: String, svcid: String, lvl: String, seq: Long, properties: List<Pair<String, String>>) -> Unit,
+            datagramSelector: DatagramSelector? = null
         ): MulticastEventReceiver? = try {
-            MulticastEventReceiver(taskExecutors, address, nif, listener)
+            MulticastEventReceiver(taskExecutors, address, nif, listener, datagramSelector)
         } catch (e: IllegalArgumentException) {
             Logger.e(e)
             null
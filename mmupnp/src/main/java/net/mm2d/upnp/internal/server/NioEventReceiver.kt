@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.server
+
+import net.mm2d.log.Logger
+import net.mm2d.upnp.HttpRequest
+import net.mm2d.upnp.HttpResponse
+import net.mm2d.upnp.Property
+import net.mm2d.upnp.internal.message.HttpInputStream
+import net.mm2d.upnp.internal.message.HttpMessageBuffer
+import net.mm2d.upnp.internal.thread.IoPriority
+import net.mm2d.upnp.internal.thread.TaskExecutors
+import net.mm2d.upnp.internal.thread.ThreadCondition
+import net.mm2d.upnp.internal.util.closeQuietly
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Class to receive Event notified by event subscription with non-blocking I/O.
+ *
+ * Unlike [EventReceiver], all connections are handled by a single thread with a [Selector].
+ * A request is accumulated until it is completed, so a slow or misbehaving device does not occupy any thread.
+ * The completed request is parsed and notified on the io thread, then the response is written by the selector thread,
+ * so the listener never blocks the other connections.
+ * The request buffers are pooled, and the serialized responses are shared, since the responses are fixed.
+ * Connections that do not complete a request within [Property.DEFAULT_TIMEOUT] are closed.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal class NioEventReceiver(
+    private val taskExecutors: TaskExecutors,
+    private val listener: (sid: String, seq: Long, properties: List<Pair<String, String>>) -> Boolean
+) : EventServer, Runnable {
+    private val threadCondition = ThreadCondition(taskExecutors.server)
+    private val readBuffer: ByteBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE)
+    // accessed only by the selector thread
+    private val bufferPool = ArrayDeque<HttpMessageBuffer>()
+    private val responseQueue = ConcurrentLinkedQueue<SelectionKey>()
+    private val responseCache: MutableMap<HttpResponse, ByteArray> =
+        Collections.synchronizedMap(IdentityHashMap())
+    @Volatile
+    private var selector: Selector? = null
+    @Volatile
+    private var localPort: Int = 0
+
+    override fun start(): Unit = threadCondition.start(this)
+
+    override fun stop() {
+        threadCondition.stop()
+        selector?.wakeup()
+    }
+
+    // VisibleForTesting
+    @Throws(IOException::class)
+    internal fun createServerSocketChannel(): ServerSocketChannel =
+        ServerSocketChannel.open().also {
+            it.socket().bind(InetSocketAddress(0))
+        }
+
+    override fun getLocalPort(): Int {
+        if (!threadCondition.waitReady()) return 0
+        return localPort
+    }
+
+    override fun run() {
+        Thread.currentThread().let {
+            it.name = it.name + "-event-receiver"
+        }
+        var serverChannel: ServerSocketChannel? = null
+        var selector: Selector? = null
+        try {
+            selector = Selector.open()
+            this.selector = selector
+            serverChannel = createServerSocketChannel()
+            serverChannel.configureBlocking(false)
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT)
+            localPort = serverChannel.socket().localPort
+            threadCondition.notifyReady()
+            while (!threadCondition.isCanceled()) {
+                selector.select(SELECT_TIMEOUT)
+                val now = System.currentTimeMillis()
+                startResponses(now)
+                val iterator = selector.selectedKeys().iterator()
+                while (iterator.hasNext()) {
+                    val key = iterator.next()
+                    iterator.remove()
+                    handleKey(key, now)
+                }
+                closeTimedOutConnections(selector, now)
+            }
+        } catch (e: IOException) {
+            Logger.w(e)
+        } finally {
+            selector?.keys()?.forEach { it.channel().closeQuietly() }
+            selector.closeQuietly()
+            serverChannel.closeQuietly()
+            responseQueue.clear()
+            this.selector = null
+            localPort = 0
+        }
+    }
+
+    private fun handleKey(key: SelectionKey, now: Long) {
+        if (!key.isValid) return
+        try {
+            when {
+                key.isAcceptable -> accept(key, now)
+                key.isReadable -> read(key, now)
+                key.isWritable -> write(key, now)
+            }
+        } catch (e: IOException) {
+            Logger.w(e)
+            close(key)
+        }
+    }
+
+    private fun close(key: SelectionKey) {
+        key.channel().closeQuietly()
+        val connection = key.attachment() as? Connection ?: return
+        // while processing, the buffer is still read by the io thread
+        if (connection.processing) return
+        val buffer = connection.requestBuffer ?: return
+        connection.requestBuffer = null
+        if (bufferPool.size < MAX_POOL_SIZE) {
+            buffer.clear()
+            bufferPool.add(buffer)
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun accept(key: SelectionKey, now: Long) {
+        val channel = (key.channel() as ServerSocketChannel).accept() ?: return
+        channel.configureBlocking(false)
+        val buffer = bufferPool.pollFirst() ?: HttpMessageBuffer()
+        channel.register(key.selector(), SelectionKey.OP_READ, Connection(buffer, now))
+    }
+
+    @Throws(IOException::class)
+    private fun read(key: SelectionKey, now: Long) {
+        val channel = key.channel() as SocketChannel
+        val connection = key.attachment() as Connection
+        readBuffer.clear()
+        val size = channel.read(readBuffer)
+        if (size < 0) {
+            close(key)
+            return
+        }
+        connection.lastAccess = now
+        readBuffer.flip()
+        val buffer = connection.requestBuffer ?: return
+        buffer.append(readBuffer)
+        val length = buffer.findMessageLength()
+        if (length < 0) return
+        // stop reading until the response is ready
+        key.interestOps(0)
+        connection.processing = true
+        if (!taskExecutors.io(IoPriority.HIGH, null) { process(key, connection, buffer, length) }) {
+            process(key, connection, buffer, length)
+            startResponses(now)
+        }
+    }
+
+    // Executed on the io thread, the response is written by the selector thread.
+    private fun process(key: SelectionKey, connection: Connection, buffer: HttpMessageBuffer, length: Int) {
+        connection.response = try {
+            val request = HttpRequest.create().apply {
+                readData(HttpInputStream(buffer.data, 0, length))
+            }
+            Logger.v { "receive event:\n$request" }
+            ByteBuffer.wrap(serialize(request.selectEventResponse(::notifyEvent)))
+        } catch (e: Exception) {
+            Logger.w(e)
+            null
+        }
+        responseQueue.offer(key)
+        key.selector().wakeup()
+    }
+
+    private fun serialize(response: HttpResponse): ByteArray =
+        responseCache[response] ?: ByteArrayOutputStream().also { response.writeData(it) }.toByteArray().also {
+            if (responseCache.size < MAX_RESPONSE_CACHE_SIZE) responseCache[response] = it
+        }
+
+    private fun startResponses(now: Long) {
+        while (true) {
+            val key = responseQueue.poll() ?: return
+            val connection = key.attachment() as Connection
+            connection.processing = false
+            if (!key.isValid || connection.response == null) {
+                close(key)
+                continue
+            }
+            try {
+                key.interestOps(SelectionKey.OP_WRITE)
+                write(key, now)
+            } catch (e: IOException) {
+                Logger.w(e)
+                close(key)
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun write(key: SelectionKey, now: Long) {
+        val channel = key.channel() as SocketChannel
+        val connection = key.attachment() as Connection
+        val response = connection.response ?: return
+        channel.write(response)
+        connection.lastAccess = now
+        if (!response.hasRemaining()) {
+            close(key)
+        }
+    }
+
+    private fun closeTimedOutConnections(selector: Selector, now: Long) {
+        selector.keys().forEach {
+            val connection = it.attachment() as? Connection ?: return@forEach
+            if (!connection.processing && now - connection.lastAccess > Property.DEFAULT_TIMEOUT) {
+                Logger.w { "event connection timed out" }
+                close(it)
+            }
+        }
+    }
+
+    // VisibleForTesting
+    internal fun notifyEvent(sid: String, request: HttpRequest): Boolean =
+        request.notifyEvent(sid, listener)
+
+    private class Connection(
+        var requestBuffer: HttpMessageBuffer?,
+        var lastAccess: Long
+    ) {
+        @Volatile
+        var processing: Boolean = false
+        @Volatile
+        var response: ByteBuffer? = null
+    }
+
+    companion object {
+        private const val SELECT_TIMEOUT = 1000L
+        private const val READ_BUFFER_SIZE = 8192
+        private const val MAX_POOL_SIZE = 16
+        private const val MAX_RESPONSE_CACHE_SIZE = 8
+    }
+}
@@ -10,6 +10,7 @@ package net.mm2d.upnp.internal.server
 import net.mm2d.log.Logger
 import net.mm2d.upnp.Http
 import net.mm2d.upnp.SsdpMessage
+import net.mm2d.upnp.internal.message.SsdpPacket
 import java.io.IOException
 import java.net.InetAddress
 import java.net.URL
@@ -24,12 +25,25 @@ internal val DEFAULT_SSDP_MESSAGE_FILTER: (SsdpMessage) -> Boolean = { true }
  * @return true: if there is an invalid Location, such as a mismatch with the sender. false: otherwise
  */
 internal fun SsdpMessage.hasInvalidLocation(sourceAddress: InetAddress): Boolean =
-    (!hasValidLocation(sourceAddress)).also {
-        if (it) Logger.w { "Location: $location is invalid from $sourceAddress" }
+    location.isInvalidLocation(sourceAddress)
+
+/**
+ * Same as [SsdpMessage.hasInvalidLocation] for the packet before converting to SsdpMessage.
+ *
+ * @receiver SsdpPacket to check
+ * @param sourceAddress source address
+ * @return true: if there is an invalid Location, such as a mismatch with the sender. false: otherwise
+ */
+internal fun SsdpPacket.hasInvalidLocation(sourceAddress: InetAddress): Boolean =
+    location.isInvalidLocation(sourceAddress)
+
+private fun String?.isInvalidLocation(sourceAddress: InetAddress): Boolean =
+    (!isValidLocation(sourceAddress)).also {
+        if (it) Logger.w { "Location: $this is invalid from $sourceAddress" }
     }
 
-private fun SsdpMessage.hasValidLocation(sourceAddress: InetAddress): Boolean {
-    val location = location ?: return false
+private fun String?.isValidLocation(sourceAddress: InetAddress): Boolean {
+    val location = this ?: return false
     if (!Http.isHttpUrl(location)) return false
     try {
         return sourceAddress == InetAddress.getByName(URL(location).host)
@@ -38,8 +52,14 @@ private fun SsdpMessage.hasValidLocation(sourceAddress: InetAddress): Boolean {
     return false
 }
 
-internal fun SsdpMessage.isNotUpnp(): Boolean {
-    if (getHeader("X-TelepathyAddress.sony.com") != null) {
+internal fun SsdpMessage.isNotUpnp(): Boolean =
+    isTelepathy(getHeader("X-TelepathyAddress.sony.com") != null)
+
+internal fun SsdpPacket.isNotUpnp(): Boolean =
+    isTelepathy(hasTelepathyAddress())
+
+private fun isTelepathy(hasTelepathyAddress: Boolean): Boolean {
+    if (hasTelepathyAddress) {
         // Sony telepathy service(urn:schemas-sony-com:service:X_Telepathy:1) send ssdp packet,
         // but it's location address refuses connection. Since this is not correct as UPnP, ignore it.
         Logger.v("ignore sony telepathy service")
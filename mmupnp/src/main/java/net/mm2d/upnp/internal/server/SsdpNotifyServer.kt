@@ -9,6 +9,7 @@ package net.mm2d.upnp.internal.server
 
 import net.mm2d.log.Logger
 import net.mm2d.upnp.SsdpMessage
+import net.mm2d.upnp.internal.message.SsdpPacket
 import net.mm2d.upnp.internal.message.SsdpRequest
 import net.mm2d.upnp.internal.thread.TaskExecutors
 import java.io.IOException
@@ -32,8 +33,9 @@ internal class SsdpNotifyServer(
     constructor(
         taskExecutors: TaskExecutors,
         address: Address,
-        ni: NetworkInterface
-    ) : this(SsdpServerDelegate(taskExecutors, address, ni, ServerConst.SSDP_PORT)) {
+        ni: NetworkInterface,
+        datagramSelector: DatagramSelector? = null
+    ) : this(SsdpServerDelegate(taskExecutors, address, ni, ServerConst.SSDP_PORT, datagramSelector)) {
         delegate.setReceiver { sourceAddress, data, length ->
             onReceive(sourceAddress, data, length)
         }
@@ -57,17 +59,17 @@ internal class SsdpNotifyServer(
             return
         }
         try {
-            val message = createSsdpRequestMessage(data, length)
+            val packet = SsdpPacket.scan(data, length) ?: return
+            // ignore M-SEARCH packet
+            if (packet.isMethod(SsdpMessage.M_SEARCH)) return
+            if (packet.isNotUpnp()) return
+            // ByeBye accepts it regardless of address problems because it does not communicate
+            if (!packet.isByeBye() && packet.hasInvalidLocation(sourceAddress)) return
+
+            val message = createSsdpRequestMessage(packet)
             Logger.v { "receive ssdp notify from $sourceAddress in ${delegate.getLocalAddress()}:\n$message" }
 
             if (message.shouldNotAccept()) return
-            // ignore M-SEARCH packet
-            if (message.getMethod() == SsdpMessage.M_SEARCH) return
-            if (message.isNotUpnp()) return
-            // ByeBye accepts it regardless of address problems because it does not communicate
-            if (message.nts != SsdpMessage.SSDP_BYEBYE &&
-                message.hasInvalidLocation(sourceAddress)
-            ) return
 
             notifyListener?.invoke(message)
         } catch (ignored: IOException) {
@@ -75,8 +77,8 @@ internal class SsdpNotifyServer(
     }
 
     @Throws(IOException::class)
-    fun createSsdpRequestMessage(data: ByteArray, length: Int): SsdpRequest =
-        SsdpRequest.create(delegate.getLocalAddress(), data, length)
+    fun createSsdpRequestMessage(packet: SsdpPacket): SsdpRequest =
+        SsdpRequest.create(delegate.getLocalAddress(), packet)
 
     // VisibleForTesting
     internal fun InetAddress.isInvalidAddress(): Boolean {
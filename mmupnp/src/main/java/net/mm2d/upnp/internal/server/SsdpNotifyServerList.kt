@@ -22,11 +22,12 @@ internal class SsdpNotifyServerList(
     taskExecutors: TaskExecutors,
     protocol: Protocol,
     interfaces: Iterable<NetworkInterface>,
-    listener: (SsdpMessage) -> Unit
+    listener: (SsdpMessage) -> Unit,
+    datagramSelector: DatagramSelector? = null
 ) {
     private val list: List<SsdpNotifyServer> = interfaces.createServerList(protocol,
-        { newServer(taskExecutors, Address.IP_V4, it, listener) },
-        { newServer(taskExecutors, Address.IP_V6, it, listener) }
+        { newServer(taskExecutors, Address.IP_V4, it, listener, datagramSelector) },
+        { newServer(taskExecutors, Address.IP_V6, it, listener, datagramSelector) }
     )
 
     fun setSegmentCheckEnabled(enabled: Boolean): Unit =
@@ -44,9 +45,10 @@ internal class SsdpNotifyServerList(
             taskExecutors: TaskExecutors,
             address: Address,
             nif: NetworkInterface,
-            listener: (SsdpMessage) -> Unit
+            listener: (SsdpMessage) -> Unit,
+            datagramSelector: DatagramSelector? = null
         ): SsdpNotifyServer? = try {
-            SsdpNotifyServer(taskExecutors, address, nif).also {
+            SsdpNotifyServer(taskExecutors, address, nif, datagramSelector).also {
                 it.setNotifyListener(listener)
             }
         } catch (e: IllegalArgumentException) {
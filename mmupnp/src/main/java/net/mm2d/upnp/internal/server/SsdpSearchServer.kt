@@ -10,6 +10,7 @@ package net.mm2d.upnp.internal.server
 import net.mm2d.log.Logger
 import net.mm2d.upnp.Http
 import net.mm2d.upnp.SsdpMessage
+import net.mm2d.upnp.internal.message.SsdpPacket
 import net.mm2d.upnp.internal.message.SsdpRequest
 import net.mm2d.upnp.internal.message.SsdpResponse
 import net.mm2d.upnp.internal.thread.TaskExecutors
@@ -31,8 +32,9 @@ internal class SsdpSearchServer(
     constructor(
         taskExecutors: TaskExecutors,
         address: Address,
-        ni: NetworkInterface
-    ) : this(SsdpServerDelegate(taskExecutors, address, ni)) {
+        ni: NetworkInterface,
+        datagramSelector: DatagramSelector? = null
+    ) : this(SsdpServerDelegate(taskExecutors, address, ni, datagramSelector = datagramSelector)) {
         delegate.setReceiver { sourceAddress, data, length -> onReceive(sourceAddress, data, length) }
     }
 
@@ -60,12 +62,14 @@ internal class SsdpSearchServer(
     // VisibleForTesting
     internal fun onReceive(sourceAddress: InetAddress, data: ByteArray, length: Int) {
         try {
-            val message = SsdpResponse.create(delegate.getLocalAddress(), data, length)
+            val packet = SsdpPacket.scan(data, length) ?: return
+            if (packet.isNotUpnp()) return
+            if (packet.hasInvalidLocation(sourceAddress)) return
+
+            val message = SsdpResponse.create(delegate.getLocalAddress(), packet)
             Logger.v { "receive ssdp search response from $sourceAddress to ${delegate.getLocalAddress()}:\n$message" }
 
             if (message.shouldNotAccept()) return
-            if (message.isNotUpnp()) return
-            if (message.hasInvalidLocation(sourceAddress)) return
 
             listener?.invoke(message)
         } catch (ignored: IOException) {
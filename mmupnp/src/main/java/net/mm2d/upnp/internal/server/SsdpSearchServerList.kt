@@ -22,11 +22,12 @@ internal class SsdpSearchServerList(
     taskExecutors: TaskExecutors,
     protocol: Protocol,
     interfaces: Iterable<NetworkInterface>,
-    listener: (SsdpMessage) -> Unit
+    listener: (SsdpMessage) -> Unit,
+    datagramSelector: DatagramSelector? = null
 ) {
     private val list: List<SsdpSearchServer> = interfaces.createServerList(protocol,
-        { newServer(taskExecutors, Address.IP_V4, it, listener) },
-        { newServer(taskExecutors, Address.IP_V6, it, listener) }
+        { newServer(taskExecutors, Address.IP_V4, it, listener, datagramSelector) },
+        { newServer(taskExecutors, Address.IP_V6, it, listener, datagramSelector) }
     )
 
     fun setFilter(predicate: (SsdpMessage) -> Boolean): Unit =
@@ -47,9 +48,10 @@ internal class SsdpSearchServerList(
             taskExecutors: TaskExecutors,
             address: Address,
             nif: NetworkInterface,
-            listener: (SsdpMessage) -> Unit
+            listener: (SsdpMessage) -> Unit,
+            datagramSelector: DatagramSelector? = null
         ): SsdpSearchServer? = try {
-            SsdpSearchServer(taskExecutors, address, nif).also {
+            SsdpSearchServer(taskExecutors, address, nif, datagramSelector).also {
                 it.setResponseListener(listener)
             }
         } catch (e: IllegalArgumentException) {
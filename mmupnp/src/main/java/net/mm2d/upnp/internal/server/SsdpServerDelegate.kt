@@ -18,6 +18,8 @@ import net.mm2d.upnp.util.toSimpleString
 import java.io.ByteArrayOutputStream
 import java.io.IOException
 import java.net.*
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
 
 /**
  * A class that implements the common part of [SsdpServer].
@@ -28,12 +30,15 @@ import java.net.*
  * @param address Multicast address
  * @param networkInterface network interface
  * @param bindPort port number
+ * @param datagramSelector if specified, receive with the [DatagramChannel] registered to it instead of a thread.
+ * If the [DatagramChannel] is not available, such as before Android API 24, fall back to a thread.
  */
 internal class SsdpServerDelegate(
     private val taskExecutors: TaskExecutors,
     val address: Address,
     private val networkInterface: NetworkInterface,
-    private val bindPort: Int = 0
+    private val bindPort: Int = 0,
+    private val datagramSelector: DatagramSelector? = null
 ) : SsdpServer, Runnable {
     val interfaceAddress: InterfaceAddress =
         if (address == Address.IP_V4)
@@ -41,6 +46,8 @@ internal class SsdpServerDelegate(
         else
             networkInterface.findInet6Address()
     private var socket: MulticastSocket? = null
+    @Volatile
+    private var channel: DatagramChannel? = null
     private var receiver: ((sourceAddress: InetAddress, data: ByteArray, length: Int) -> Unit)? = null
     private val threadCondition = ThreadCondition(taskExecutors.server)
 
@@ -63,14 +70,55 @@ internal class SsdpServerDelegate(
         }
     }
 
+    // VisibleForTesting
+    @Throws(IOException::class)
+    internal fun createDatagramChannel(port: Int): DatagramChannel =
+        address.openDatagramChannel(networkInterface, port).also {
+            it.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 4)
+        }
+
     override fun start() {
         receiver ?: throw IllegalStateException("receiver must be set")
+        val selector = datagramSelector
+        if (selector != null) {
+            startChannel(selector)
+        } else {
+            threadCondition.start(this)
+        }
+    }
+
+    private fun startChannel(selector: DatagramSelector) {
+        try {
+            val channel = createDatagramChannel(bindPort)
+            this.channel = channel
+            if (bindPort != 0) {
+                channel.join(getSsdpInetAddress(), networkInterface)
+            }
+            selector.register(channel) { sourceAddress, data, length ->
+                receiver?.invoke(sourceAddress, data, length)
+            }
+        } catch (e: IOException) {
+            fallbackToThread(e)
+        } catch (e: UnsupportedOperationException) {
+            fallbackToThread(e)
+        } catch (e: LinkageError) {
+            // MulticastChannel and StandardSocketOptions are missing before Android API 24
+            fallbackToThread(e)
+        }
+    }
+
+    private fun fallbackToThread(e: Throwable) {
+        Logger.w(e) { "fall back to the thread receiver" }
+        channel.closeQuietly()
+        channel = null
         threadCondition.start(this)
     }
 
     override fun stop() {
         threadCondition.stop()
         socket.closeQuietly()
+        channel?.let { datagramSelector?.unregister(it) }
+        channel = null
     }
 
     override fun send(messageSupplier: () -> SsdpMessage) {
@@ -78,17 +126,26 @@ internal class SsdpServerDelegate(
     }
 
     private fun sendInner(message: SsdpMessage) {
+        val channel = channel
+        if (channel != null) {
+            sendData(message) { channel.send(ByteBuffer.wrap(it), address.ssdpSocketAddress) }
+            return
+        }
         if (!threadCondition.waitReady()) {
             Logger.w("socket is not ready")
             return
         }
         val socket = socket ?: return
+        sendData(message) { socket.send(DatagramPacket(it, it.size, address.ssdpSocketAddress)) }
+    }
+
+    private inline fun sendData(message: SsdpMessage, send: (data: ByteArray) -> Unit) {
         Logger.d { "send from $interfaceAddress:\n$message" }
         try {
             val data = ByteArrayOutputStream().also {
                 message.writeData(it)
             }.toByteArray()
-            socket.send(DatagramPacket(data, data.size, address.ssdpSocketAddress))
+            send(data)
         } catch (e: IOException) {
             Logger.w(e)
         }
@@ -7,6 +7,7 @@
 
 package net.mm2d.upnp.internal.thread
 
+import net.mm2d.log.Logger
 import java.util.concurrent.*
 
 internal object ExecutorFactory {
@@ -15,14 +16,19 @@ internal object ExecutorFactory {
     private const val PRIORITY_MANAGER = Thread.MIN_PRIORITY
     private const val PRIORITY_SERVER = Thread.MIN_PRIORITY + 1
     private const val KEEP_ALIVE_SECOND = 15L
+    private const val VIRTUAL_IO_PARALLELISM = 256
 
-    fun callback(): ExecuteFunction {
+    fun callback(threadCount: Int = 1): StripedTaskExecutor {
         val factory = ExecutorThreadFactory("callback-", PRIORITY_CALLBACK)
-        val executor = Executors.newSingleThreadExecutor(factory)
-        return DefaultTaskExecutor(executor).toFunction()
+        return StripedTaskExecutor(List(maxOf(threadCount, 1)) {
+            DefaultTaskExecutor(Executors.newSingleThreadExecutor(factory))
+        })
     }
 
-    fun io(maxThread: Int = maxPoolSize()): ExecuteFunction {
+    fun io(maxThread: Int = maxPoolSize(), virtualThread: Boolean = false): ExecuteFunction {
+        if (virtualThread) {
+            virtualThreadExecutor("io-")?.let { return DefaultTaskExecutor(it, true).toFunction() }
+        }
         val factory = ExecutorThreadFactory("io-", PRIORITY_IO)
         val queue = ThreadWorkQueue()
         val executor = ThreadPoolExecutor(0, maxThread, KEEP_ALIVE_SECOND, TimeUnit.SECONDS, queue, factory, queue)
@@ -31,17 +37,68 @@ internal object ExecutorFactory {
 
     private fun maxPoolSize(): Int = maxOf(2, Runtime.getRuntime().availableProcessors()) * 2
 
-    fun manager(): ExecuteFunction =
-        DefaultTaskExecutor(serviceExecutor("mg-", PRIORITY_MANAGER)).toFunction()
+    /**
+     * Returns the number of the io tasks that can run at once.
+     *
+     * @param virtualThread true if the virtual thread is requested
+     * @return the number of the threads of the platform thread pool,
+     * or the larger number if the virtual thread is available
+     */
+    fun ioParallelism(virtualThread: Boolean = false): Int =
+        if (virtualThread && isVirtualThreadSupported) VIRTUAL_IO_PARALLELISM else maxPoolSize()
 
-    fun server(): ExecuteFunction =
-        DefaultTaskExecutor(serviceExecutor("sv-", PRIORITY_SERVER), true).toFunction()
+    fun manager(virtualThread: Boolean = false): ExecuteFunction =
+        DefaultTaskExecutor(serviceExecutor("mg-", PRIORITY_MANAGER, virtualThread)).toFunction()
 
-    private fun serviceExecutor(prefix: String, priority: Int): ExecutorService =
-        ThreadPoolExecutor(
+    fun server(virtualThread: Boolean = false): ExecuteFunction =
+        DefaultTaskExecutor(serviceExecutor("sv-", PRIORITY_SERVER, virtualThread), true).toFunction()
+
+    private fun serviceExecutor(prefix: String, priority: Int, virtualThread: Boolean): ExecutorService =
+        (if (virtualThread) virtualThreadExecutor(prefix) else null) ?: ThreadPoolExecutor(
             0, Integer.MAX_VALUE,
             0L, TimeUnit.NANOSECONDS,
             SynchronousQueue(),
             ExecutorThreadFactory(prefix, priority)
         )
+
+    /**
+     * Whether the virtual thread is available on this runtime.
+     */
+    val isVirtualThreadSupported: Boolean by lazy {
+        createVirtualThreadFactory("vt-") != null
+    }
+
+    /**
+     * Create the executor that starts a new virtual thread for each task.
+     *
+     * The virtual thread is accessed by reflection because this library targets older runtimes.
+     *
+     * @param prefix prefix of the thread name, same as [ExecutorThreadFactory]
+     * @return executor, or null if the virtual thread is not available
+     */
+    private fun virtualThreadExecutor(prefix: String): ExecutorService? {
+        val factory = createVirtualThreadFactory(prefix)
+        if (factory == null) {
+            Logger.w { "virtual thread is not available, fall back to platform thread: $prefix" }
+            return null
+        }
+        return try {
+            Executors::class.java.getMethod("newThreadPerTaskExecutor", ThreadFactory::class.java)
+                .invoke(null, factory) as ExecutorService
+        } catch (e: Exception) {
+            Logger.w(e)
+            null
+        }
+    }
+
+    private fun createVirtualThreadFactory(prefix: String): ThreadFactory? = try {
+        val builderClass = Class.forName("java.lang.Thread\$Builder")
+        val builder = Thread::class.java.getMethod("ofVirtual").invoke(null)
+        val namedBuilder = builderClass.getMethod("name", String::class.java, Long::class.javaPrimitiveType)
+            .invoke(builder, "mmupnp-$prefix", 1L)
+        builderClass.getMethod("factory").invoke(namedBuilder) as ThreadFactory
+    } catch (e: Exception) {
+        // not supported or preview feature is not enabled
+        null
+    }
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.thread
+
+/**
+ * Priority class of the io task.
+ *
+ * The tasks are started in the order of the priority, and in the order of the submission in the same priority.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ */
+internal enum class IoPriority {
+    /**
+     * Task that someone is waiting for,
+     * such as the action and the subscription requested by the user and the event connection.
+     *
+     * Never rejected by the capacity of the queue.
+     */
+    HIGH,
+    /**
+     * Task that should be done soon, such as the processing of SSDP message and the resubscription.
+     */
+    NORMAL,
+    /**
+     * Task in background, such as the loading of the description and the renewal of the subscription.
+     */
+    LOW
+}
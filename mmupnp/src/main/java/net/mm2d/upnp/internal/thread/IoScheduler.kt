@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.thread
+
+import net.mm2d.log.Logger
+import net.mm2d.upnp.TaskExecutor
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Scheduler of the io tasks in front of the io executor.
+ *
+ * The tasks are kept in the queue of each [IoPriority], and passed to the executor
+ * only when it can be started immediately, so that the executor never queues the tasks by itself.
+ *
+ * - At most [maxRunning] tasks run at once. One of them is reserved for [IoPriority.HIGH],
+ *   so that the user action can be started even while the other tasks are blocked by slow devices.
+ * - At most [maxPerHost] tasks run at once for the same host. The tasks for the host over the limit wait,
+ *   and the tasks for the other hosts are started ahead of them.
+ * - The number of waiting tasks is limited to [capacity]. If it is full, the task is rejected,
+ *   except for [IoPriority.HIGH].
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param executor executor that runs the tasks
+ * @param maxRunning max number of tasks running at once
+ * @param maxPerHost max number of tasks running at once for the same host
+ * @param capacity max number of waiting tasks
+ */
+internal class IoScheduler(
+    private val executor: TaskExecutor,
+    private val maxRunning: Int,
+    private val maxPerHost: Int = DEFAULT_MAX_PER_HOST,
+    private val capacity: Int = DEFAULT_CAPACITY
+) : TaskExecutor {
+    private class Job(
+        val host: String?,
+        val task: Runnable
+    )
+
+    private val lock = ReentrantLock()
+    private val queues: List<ArrayDeque<Job>> = IoPriority.values().map { ArrayDeque<Job>() }
+    private val hostRunningMap = HashMap<String, Int>()
+    private val reserved = if (maxRunning > 1) 1 else 0
+    private var running: Int = 0
+    private var pending: Int = 0
+    private var terminated: Boolean = false
+    private val rejected = AtomicInteger()
+
+    /**
+     * Number of the tasks waiting to be started.
+     */
+    val pendingCount: Int
+        get() = lock.withLock { pending }
+
+    /**
+     * Number of the running tasks.
+     */
+    val runningCount: Int
+        get() = lock.withLock { running }
+
+    /**
+     * Number of the tasks rejected because the queue was full.
+     */
+    val rejectedCount: Int
+        get() = rejected.get()
+
+    override fun execute(task: Runnable): Boolean = execute(IoPriority.NORMAL, null, task)
+
+    /**
+     * Execute the task.
+     *
+     * @param priority priority
+     * @param host destination host of the task, null if it is not limited
+     * @param task task
+     * @return true if the task could be queued up
+     */
+    fun execute(priority: IoPriority, host: String?, task: Runnable): Boolean {
+        lock.withLock {
+            if (terminated) return false
+            if (priority != IoPriority.HIGH && pending >= capacity) {
+                rejected.incrementAndGet()
+                Logger.w { "io queue is full, reject the task: $priority $host" }
+                return false
+            }
+            queues[priority.ordinal].addLast(Job(host?.takeIf { it.isNotEmpty() }, task))
+            pending++
+        }
+        dispatch()
+        return true
+    }
+
+    /**
+     * Returns the [TaskExecutor] that executes the task with the priority.
+     *
+     * Terminating the returned executor does nothing.
+     *
+     * @param priority priority
+     * @return TaskExecutor
+     */
+    fun executor(priority: IoPriority): TaskExecutor = object : TaskExecutor {
+        override fun execute(task: Runnable): Boolean = this@IoScheduler.execute(priority, null, task)
+        override fun terminate() = Unit
+    }
+
+    override fun terminate() {
+        lock.withLock {
+            terminated = true
+            queues.forEach { it.clear() }
+            pending = 0
+        }
+        executor.terminate()
+    }
+
+    private fun dispatch() {
+        while (true) {
+            val job = lock.withLock { pollStartable() } ?: return
+            if (!executor.execute(Runnable { run(job) })) {
+                lock.withLock { release(job) }
+                return
+            }
+        }
+    }
+
+    private fun run(job: Job) {
+        try {
+            job.task.run()
+        } finally {
+            lock.withLock { release(job) }
+            dispatch()
+        }
+    }
+
+    private fun pollStartable(): Job? {
+        IoPriority.values().forEach { priority ->
+            val limit = if (priority == IoPriority.HIGH) maxRunning else maxRunning - reserved
+            if (running >= limit) return@forEach
+            val iterator = queues[priority.ordinal].iterator()
+            while (iterator.hasNext()) {
+                val job = iterator.next()
+                val host = job.host
+                if (host != null && (hostRunningMap[host] ?: 0) >= maxPerHost) continue
+                iterator.remove()
+                pending--
+                running++
+                if (host != null) hostRunningMap[host] = (hostRunningMap[host] ?: 0) + 1
+                return job
+            }
+        }
+        return null
+    }
+
+    private fun release(job: Job) {
+        running--
+        val host = job.host ?: return
+        val count = hostRunningMap[host] ?: return
+        if (count <= 1) hostRunningMap.remove(host) else hostRunningMap[host] = count - 1
+    }
+
+    companion object {
+        const val DEFAULT_MAX_PER_HOST = 4
+        const val DEFAULT_CAPACITY = 256
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.thread
+
+import net.mm2d.upnp.TaskExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * TaskExecutor that executes the tasks on the serial queues selected by the key.
+ *
+ * The tasks with the same key are executed in the order of submission on the same thread,
+ * and the tasks with different keys can be executed in parallel on the other threads.
+ * The tasks without a key are executed on the first queue.
+ * With a single queue, this is the same as a single thread executor.
+ *
+ * @author [大前良介 (OHMAE Ryosuke)](mailto:ryo@mm2d.net)
+ *
+ * @param stripes serial queues
+ */
+internal class StripedTaskExecutor(
+    private val stripes: List<TaskExecutor>
+) : TaskExecutor {
+    private val queueSize = AtomicInteger()
+    private val latency = AtomicLong()
+
+    /**
+     * Number of the tasks waiting to be started.
+     */
+    val pendingCount: Int
+        get() = queueSize.get()
+
+    /**
+     * Moving average of the time in milliseconds from the submission to the start of the tasks.
+     */
+    val averageLatency: Long
+        get() = TimeUnit.NANOSECONDS.toMillis(latency.get())
+
+    override fun execute(task: Runnable): Boolean = execute(stripes[0], task)
+
+    /**
+     * Execute the task on the queue selected by the key.
+     *
+     * @param key key to select the queue
+     * @param task task to execute
+     * @return true if the task could be queued up
+     */
+    fun execute(key: Any, task: Runnable): Boolean =
+        execute(stripes[(key.hashCode() and Int.MAX_VALUE) % stripes.size], task)
+
+    private fun execute(stripe: TaskExecutor, task: Runnable): Boolean {
+        val time = System.nanoTime()
+        queueSize.incrementAndGet()
+        val executed = stripe.execute(Runnable {
+            queueSize.decrementAndGet()
+            updateLatency(System.nanoTime() - time)
+            task.run()
+        })
+        if (!executed) {
+            queueSize.decrementAndGet()
+        }
+        return executed
+    }
+
+    private fun updateLatency(time: Long) {
+        while (true) {
+            val average = latency.get()
+            if (latency.compareAndSet(average, average + (time - average) / LATENCY_WEIGHT)) return
+        }
+    }
+
+    override fun terminate() {
+        stripes.forEach { it.terminate() }
+    }
+
+    companion object {
+        private const val LATENCY_WEIGHT = 8
+    }
+}
@@ -11,12 +11,85 @@ import net.mm2d.upnp.TaskExecutor
 
 internal class TaskExecutors(
     callback: TaskExecutor? = null,
-    io: TaskExecutor? = null
+    io: TaskExecutor? = null,
+    callbackThreadCount: Int = 1,
+    virtualThreadEnabled: Boolean = false,
+    ioMaxPerHost: Int = IoScheduler.DEFAULT_MAX_PER_HOST,
+    ioQueueCapacity: Int = IoScheduler.DEFAULT_CAPACITY
 ) {
-    val callback = callback?.toFunction() ?: ExecutorFactory.callback()
-    val io = io?.toFunction() ?: ExecutorFactory.io()
-    val manager = ExecutorFactory.manager()
-    val server = ExecutorFactory.server()
+    // Only when the callback executor is not specified
+    private val stripedCallback: StripedTaskExecutor? =
+        if (callback == null) ExecutorFactory.callback(callbackThreadCount) else null
+    val callback = callback?.toFunction() ?: stripedCallback!!.toFunction()
+    // Only when the io executor is not specified
+    // The blocking socket I/O is run on virtual threads if enabled and available
+    private val ioScheduler: IoScheduler? = if (io != null) null else IoScheduler(
+        ExecutorFactory.io(virtualThread = virtualThreadEnabled),
+        ExecutorFactory.ioParallelism(virtualThreadEnabled),
+        ioMaxPerHost,
+        ioQueueCapacity
+    )
+    val io = io?.toFunction() ?: ioScheduler!!.toFunction()
+    val manager = ExecutorFactory.manager(virtualThreadEnabled)
+    val server = ExecutorFactory.server(virtualThreadEnabled)
+
+    /**
+     * Number of the callback tasks waiting to be started.
+     */
+    val callbackPendingCount: Int
+        get() = stripedCallback?.pendingCount ?: 0
+
+    /**
+     * Moving average of the time in milliseconds from the submission to the start of the callback tasks.
+     */
+    val callbackLatency: Long
+        get() = stripedCallback?.averageLatency ?: 0L
+
+    /**
+     * Number of the io tasks waiting to be started.
+     */
+    val ioPendingCount: Int
+        get() = ioScheduler?.pendingCount ?: 0
+
+    /**
+     * Number of the io tasks rejected because the queue was full.
+     */
+    val ioRejectedCount: Int
+        get() = ioScheduler?.rejectedCount ?: 0
+
+    /**
+     * Execute the task on the io thread with the priority and the limit for the host.
+     *
+     * If the io executor is specified, it is used regardless of the priority and the host.
+     *
+     * @param priority priority
+     * @param host destination host of the task, null if it is not limited
+     * @param task task to execute
+     * @return true if the task could be queued up
+     */
+    fun io(priority: IoPriority, host: String?, task: () -> Unit): Boolean =
+        ioScheduler?.execute(priority, host, Runnable(task)) ?: io(task)
+
+    /**
+     * Returns the function that executes the task on the io thread with the priority.
+     *
+     * @param priority priority
+     * @return ExecuteFunction
+     */
+    fun ioFunction(priority: IoPriority): ExecuteFunction =
+        ioScheduler?.executor(priority)?.toFunction() ?: io
+
+    /**
+     * Execute the task on the callback thread keeping the order of the tasks with the same key.
+     *
+     * If the callback executor is specified, it is used regardless of the key.
+     *
+     * @param key key to keep the order, such as UDN of the device
+     * @param task task to execute
+     * @return true if the task could be queued up
+     */
+    fun callback(key: Any, task: () -> Unit): Boolean =
+        stripedCallback?.execute(key, Runnable(task)) ?: callback(task)
 
     fun terminate() {
         callback.terminate()
@@ -89,6 +89,9 @@ class ControlPointFactoryTest {
             .setNotifySegmentCheckEnabled(true)
             .setSubscriptionEnabled(true)
             .setMulticastEventingEnabled(true)
+            .setNioEventReceiverEnabled(true)
+            .setNioDatagramThreadCount(1)
+            .setDescriptionCacheDirectory(null)
             .setCallbackExecutor(mockk())
             .setCallbackHandler { true }
             .build()
@@ -10,8 +10,10 @@ package net.mm2d.upnp
 import com.google.common.truth.Truth.assertThat
 import io.mockk.every
 import io.mockk.mockk
+import io.mockk.slot
 import io.mockk.spyk
 import net.mm2d.upnp.Http.Status
+import net.mm2d.upnp.internal.manager.HttpConnectionPool
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.JUnit4
@@ -19,6 +21,7 @@ import java.io.IOException
 import java.net.InetAddress
 import java.net.Socket
 import java.net.URL
+import java.util.*
 
 @Suppress("TestFunctionName", "NonAsciiCharacters")
 @RunWith(JUnit4::class)
@@ -133,6 +136,79 @@ class HttpClientTest {
         }
     }
 
+    @Test
+    fun download_closeしたコネクションはプールを通して再利用される() {
+        val responseBody = "responseBody"
+        val sockets = Collections.synchronizedSet(mutableSetOf<Socket>())
+        val server = HttpServerMock()
+        server.setServerCore { socket, inputStream, outputStream ->
+            sockets.add(socket)
+            val request = HttpRequest.create()
+            request.readData(inputStream)
+            val response = HttpResponse.create()
+            response.setStartLine("HTTP/1.1 200 OK")
+            response.setBody(responseBody, true)
+            response.setHeader(Http.CONNECTION, Http.KEEP_ALIVE)
+            response.writeData(outputStream)
+            true
+        }
+        server.open()
+        val port = server.localPort
+        val pool = HttpConnectionPool()
+
+        try {
+            val client1 = HttpClient.create(true, pool)
+            assertThat(client1.downloadString(URL("http://127.0.0.1:$port/"))).isEqualTo(responseBody)
+            client1.close()
+            assertThat(pool.idleCount).isEqualTo(1)
+
+            val client2 = HttpClient.create(true, pool)
+            assertThat(client2.downloadString(URL("http://127.0.0.1:$port/"))).isEqualTo(responseBody)
+            assertThat(pool.idleCount).isEqualTo(0)
+            assertThat(client2.localAddress).isNotNull()
+            client2.close()
+
+            assertThat(sockets).hasSize(1)
+            assertThat(pool.idleCount).isEqualTo(1)
+        } finally {
+            pool.evictAll()
+            server.close()
+        }
+    }
+
+    @Test
+    fun download_プール中に切断されたコネクションは新しいコネクションでリトライ() {
+        val responseBody = "responseBody"
+        val server = HttpServerMock()
+        server.setServerCore { _, inputStream, outputStream ->
+            val request = HttpRequest.create()
+            request.readData(inputStream)
+            val response = HttpResponse.create()
+            response.setStartLine("HTTP/1.1 200 OK")
+            response.setBody(responseBody, true)
+            response.setHeader(Http.CONNECTION, Http.KEEP_ALIVE)
+            response.writeData(outputStream)
+            false // コネクション切断
+        }
+        server.open()
+        val port = server.localPort
+        val pool = HttpConnectionPool()
+
+        try {
+            val client1 = HttpClient.create(true, pool)
+            assertThat(client1.downloadString(URL("http://127.0.0.1:$port/"))).isEqualTo(responseBody)
+            client1.close()
+
+            val client2 = HttpClient.create(true, pool)
+            assertThat(client2.downloadString(URL("http://127.0.0.1:$port/"))).isEqualTo(responseBody)
+            assertThat(client2.isKeepAlive).isTrue()
+            client2.close()
+        } finally {
+            pool.evictAll()
+            server.close()
+        }
+    }
+
     @Test
     fun download_KeepAliveでリクエストしてもcloseが返されたらclose() {
         val responseBody = "responseBody"
@@ -439,6 +515,38 @@ class HttpClientTest {
         client.download(URL("http://www.example.com/index.html"))
     }
 
+    @Test
+    fun downloadIfModified_304ならnullが返りヘッダが設定されている() {
+        val client = spyk(HttpClient())
+        val response = HttpResponse.create()
+        response.setStartLine("HTTP/1.1 304 Not Modified")
+        val slot = slot<HttpRequest>()
+        every { client.post(capture(slot)) } returns response
+        assertThat(client.downloadIfModified(URL("http://192.0.2.2/index.html"), "\"etag\"", "date")).isNull()
+        assertThat(slot.captured.getHeader(Http.IF_NONE_MATCH)).isEqualTo("\"etag\"")
+        assertThat(slot.captured.getHeader(Http.IF_MODIFIED_SINCE)).isEqualTo("date")
+    }
+
+    @Test
+    fun downloadIfModified_200ならresponseが返る() {
+        val client = spyk(HttpClient())
+        val response = HttpResponse.create()
+        response.setStartLine("HTTP/1.1 200 OK")
+        response.setBody("body")
+        every { client.post(any()) } returns response
+        assertThat(client.downloadIfModified(URL("http://192.0.2.2/index.html"), null, "date"))
+            .isSameInstanceAs(response)
+    }
+
+    @Test(expected = IOException::class)
+    fun downloadIfModified_その他のステータスならException() {
+        val client = spyk(HttpClient())
+        val response = HttpResponse.create()
+        response.setStartLine("HTTP/1.1 404 Not Found")
+        every { client.post(any()) } returns response
+        client.downloadIfModified(URL("http://192.0.2.2/index.html"), "\"etag\"", null)
+    }
+
     @Test
     fun canReuse_初期状態ではfalse() {
         val client = HttpClient()
@@ -494,4 +602,69 @@ class HttpClientTest {
         request.setUrl(URL("http://192.168.0.1/index.html"))
         assertThat(with(client) { socket.canReuse(request) }).isFalse()
     }
+
+    @Test
+    fun postPipelined_1つの接続で順番に応答を受け取る() {
+        val sockets = Collections.synchronizedSet(HashSet<Socket>())
+        val server = HttpServerMock()
+        server.setServerCore { socket, inputStream, outputStream ->
+            sockets.add(socket)
+            val request = HttpRequest.create()
+            request.readData(inputStream)
+            val response = HttpResponse.create()
+            response.setStartLine("HTTP/1.1 200 OK")
+            response.setHeader(Http.CONNECTION, Http.KEEP_ALIVE)
+            response.setBody(request.getBody()!!, true)
+            response.writeData(outputStream)
+            true
+        }
+        server.open()
+        val port = server.localPort
+        try {
+            val requests = (0 until 3).map { createPostRequest(port, "body$it") }
+            val client = HttpClient(true)
+            val responses = client.postPipelined(requests)
+            assertThat(responses.map { it.getBody() }).containsExactly("body0", "body1", "body2").inOrder()
+            assertThat(sockets).hasSize(1)
+            assertThat(client.isClosed).isFalse()
+            client.close()
+        } finally {
+            server.close()
+        }
+    }
+
+    @Test
+    fun postPipelined_途中でcloseされたら残りは個別に送信する() {
+        val server = HttpServerMock()
+        server.setServerCore { _, inputStream, outputStream ->
+            val request = HttpRequest.create()
+            request.readData(inputStream)
+            val response = HttpResponse.create()
+            response.setStartLine("HTTP/1.1 200 OK")
+            response.setHeader(Http.CONNECTION, Http.CLOSE)
+            response.setBody(request.getBody()!!, true)
+            response.writeData(outputStream)
+            false
+        }
+        server.open()
+        val port = server.localPort
+        try {
+            val requests = (0 until 3).map { createPostRequest(port, "body$it") }
+            val client = HttpClient(true)
+            val responses = client.postPipelined(requests)
+            assertThat(responses.map { it.getBody() }).containsExactly("body0", "body1", "body2").inOrder()
+            assertThat(client.isClosed).isTrue()
+            client.close()
+        } finally {
+            server.close()
+        }
+    }
+
+    private fun createPostRequest(port: Int, body: String): HttpRequest =
+        HttpRequest.create().apply {
+            setMethod(Http.POST)
+            setUrl(URL("http://127.0.0.1:$port/"), true)
+            setHeader(Http.CONNECTION, Http.KEEP_ALIVE)
+            setBody(body, true)
+        }
 }
@@ -130,6 +130,13 @@ class EmptyControlPointTest {
         assertThat(controlPoint.deviceList).isNotNull()
     }
 
+    @Test
+    fun getSsdpDuplicateCount() {
+        val controlPoint = EmptyControlPoint
+        assertThat(controlPoint.ssdpDuplicateHitCount).isEqualTo(0)
+        assertThat(controlPoint.ssdpDuplicateMissCount).isEqualTo(0)
+    }
+
     @Test
     fun getDevice() {
         val controlPoint = EmptyControlPoint
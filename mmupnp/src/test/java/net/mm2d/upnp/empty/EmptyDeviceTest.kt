@@ -13,6 +13,7 @@ import net.mm2d.upnp.Adapter.iconFilter
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.JUnit4
+import java.io.IOException
 
 @RunWith(JUnit4::class)
 class EmptyDeviceTest {
@@ -226,4 +227,9 @@ class EmptyDeviceTest {
         val device = EmptyDevice
         assertThat(device.isPinned).isFalse()
     }
+
+    @Test(expected = IOException::class)
+    fun invokeBatchSync() {
+        EmptyDevice.invokeBatchSync(emptyList())
+    }
 }
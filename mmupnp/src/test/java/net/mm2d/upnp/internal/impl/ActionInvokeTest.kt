@@ -11,6 +11,7 @@ import com.google.common.truth.Truth.assertThat
 import io.mockk.*
 import kotlinx.coroutines.runBlocking
 import net.mm2d.upnp.*
+import net.mm2d.upnp.internal.manager.AsyncHttpClient
 import net.mm2d.upnp.internal.thread.TaskExecutors
 import net.mm2d.upnp.util.XmlUtils
 import org.junit.After
@@ -18,13 +19,11 @@ import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.JUnit4
-import org.w3c.dom.Document
 import org.w3c.dom.Element
 import org.w3c.dom.Node
 import java.io.IOException
 import java.net.URL
 import java.util.*
-import javax.xml.transform.TransformerException
 
 @Suppress("TestFunctionName", "NonAsciiCharacters")
 @RunWith(JUnit4::class)
@@ -44,10 +43,11 @@ class ActionInvokeTest {
         every { service.serviceType } returns SERVICE_TYPE
         every { service.controlUrl } returns ""
         every { service.device.controlPoint.taskExecutors } returns TaskExecutors()
-        action = ActionImpl.Builder()
-            .setService(service)
-            .setName(ACTION_NAME)
-            .addArgumentBuilder(
+        every { service.device.controlPoint.asyncHttpClient } returns null
+        action = ActionImpl(
+            service = service,
+            name = ACTION_NAME,
+            argumentMap = listOf(
                 ArgumentImpl.Builder()
                     .setName(IN_ARG_NAME_1)
                     .setDirection("in")
@@ -58,8 +58,7 @@ class ActionInvokeTest {
                             .setName("1")
                             .build()
                     )
-            )
-            .addArgumentBuilder(
+                    .build(),
                 ArgumentImpl.Builder()
                     .setName(IN_ARG_NAME_2)
                     .setDirection("in")
@@ -71,8 +70,7 @@ class ActionInvokeTest {
                             .setDefaultValue(IN_ARG_DEFAULT_VALUE)
                             .build()
                     )
-            )
-            .addArgumentBuilder(
+                    .build(),
                 ArgumentImpl.Builder()
                     .setName(OUT_ARG_NAME1)
                     .setDirection("out")
@@ -83,8 +81,9 @@ class ActionInvokeTest {
                             .setName("3")
                             .build()
                     )
-            )
-            .build()
+                    .build()
+            ).map { it.name to it }.toMap()
+        )
         invokeDelegate = action.invokeDelegate
         every { invokeDelegate.makeAbsoluteControlUrl() } returns url
         mockHttpClient = spyk(HttpClient())
@@ -101,7 +100,7 @@ class ActionInvokeTest {
             </s:Envelope>""".trimIndent()
         )
         mockkObject(HttpClient.Companion)
-        every { HttpClient.create(false) } returns mockHttpClient
+        every { HttpClient.create(any(), any()) } returns mockHttpClient
     }
 
     @After
@@ -114,7 +113,7 @@ class ActionInvokeTest {
     fun invokeSync_postでIOExceptionが発生() {
         val client: HttpClient = mockk(relaxed = true)
         every { client.post(any()) } throws IOException()
-        every { HttpClient.create(any()) } returns client
+        every { HttpClient.create(any(), any()) } returns client
         action.invokeSync(emptyMap())
     }
 
@@ -133,6 +132,24 @@ class ActionInvokeTest {
             .isEqualTo(request.getBodyBinary()?.size.toString())
     }
 
+    @Test
+    fun invokeSync_2回目以降はリクエストのテンプレートが再利用される() {
+        every { mockHttpClient.post(any()) } returns httpResponse
+        action.invokeSync(emptyMap())
+        action.invokeSync(emptyMap())
+        verify(exactly = 1) { invokeDelegate.makeAbsoluteControlUrl() }
+    }
+
+    @Test
+    fun invokeSync_baseUrlが変化したらテンプレートが再作成される() {
+        every { mockHttpClient.post(any()) } returns httpResponse
+        every { action.service.device.baseUrl } returns "http://127.0.0.1:8888/"
+        action.invokeSync(emptyMap())
+        every { action.service.device.baseUrl } returns "http://127.0.0.2:8888/"
+        action.invokeSync(emptyMap())
+        verify(exactly = 2) { invokeDelegate.makeAbsoluteControlUrl() }
+    }
+
     private fun createChildElementList(parent: Element): List<Element> {
         val elements = ArrayList<Element>()
         val children = parent.childNodes
@@ -518,13 +535,25 @@ class ActionInvokeTest {
     }
 
     @Test(expected = IOException::class)
-    fun makeSoap_xml作成でExceptionが発生したらIOException() {
+    fun makeSoap_要素名が不正ならIOException() {
         with(invokeDelegate) {
-            every { any<Document>().formatXmlString() } throws TransformerException("")
-            emptyList<Pair<String, String?>>().makeSoap(emptyMap())
+            listOf<Pair<String, String?>>("<name>" to "value").makeSoap(emptyMap())
         }
     }
 
+    @Test
+    fun makeSoap_値がエスケープされる() {
+        val value = "<a href=\"x\">&'\r\n"
+        val soap = with(invokeDelegate) {
+            listOf<Pair<String, String?>>(IN_ARG_NAME_1 to value).makeSoap(mapOf("custom" to "urn:a&b"))
+        }
+        val doc = XmlUtils.newDocument(true, soap)
+        val body = XmlUtils.findChildElementByLocalName(doc.documentElement, "Body")
+        val action = XmlUtils.findChildElementByLocalName(body!!, ACTION_NAME)
+        assertThat(action!!.lookupNamespaceURI("custom")).isEqualTo("urn:a&b")
+        assertThat(createChildElementList(action)[0].textContent).isEqualTo(value)
+    }
+
     @Test
     fun invoke_success() {
         every { action.invokeSync(any(), any()) } returns emptyMap()
@@ -547,6 +576,43 @@ class ActionInvokeTest {
         verify(exactly = 1) { onError.invoke(any()) }
     }
 
+    @Test
+    fun invoke_asyncHttpClientがあれば非同期で送受信する() {
+        val client: AsyncHttpClient = mockk()
+        val requestSlot = slot<HttpRequest>()
+        var postThread: Thread? = null
+        every { client.post(capture(requestSlot), any(), any()) } answers {
+            postThread = Thread.currentThread()
+            arg<(HttpResponse) -> Unit>(1).invoke(httpResponse)
+        }
+        every { action.service.device.controlPoint.asyncHttpClient } returns client
+        val onResult: (Map<String, String>) -> Unit = mockk(relaxed = true)
+        val onError: (IOException) -> Unit = mockk(relaxed = true)
+        action.invoke(emptyMap(), true, onResult, onError)
+        Thread.sleep(200)
+        verify(exactly = 1) { onResult.invoke(mapOf(OUT_ARG_NAME1 to OUT_ARG_VALUE1)) }
+        verify(inverse = true) { onError.invoke(any()) }
+        verify(inverse = true) { mockHttpClient.post(any()) }
+        assertThat(requestSlot.captured.getHeader(Http.SOAPACTION)).isEqualTo("\"$SERVICE_TYPE#$ACTION_NAME\"")
+        // the request is built on the io thread, not on the caller thread
+        assertThat(postThread).isNotSameInstanceAs(Thread.currentThread())
+    }
+
+    @Test
+    fun invoke_asyncHttpClientのエラーが通知される() {
+        val client: AsyncHttpClient = mockk()
+        every { client.post(any(), any(), any()) } answers {
+            arg<(IOException) -> Unit>(2).invoke(IOException())
+        }
+        every { action.service.device.controlPoint.asyncHttpClient } returns client
+        val onResult: (Map<String, String>) -> Unit = mockk(relaxed = true)
+        val onError: (IOException) -> Unit = mockk(relaxed = true)
+        action.invoke(emptyMap(), true, onResult, onError)
+        Thread.sleep(200)
+        verify(inverse = true) { onResult.invoke(any()) }
+        verify(exactly = 1) { onError.invoke(any()) }
+    }
+
     @Test
     fun invoke_no_callback_success() {
         every { action.invokeSync(any(), any()) } returns emptyMap()
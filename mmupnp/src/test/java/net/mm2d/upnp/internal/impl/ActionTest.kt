@@ -17,20 +17,6 @@ import org.junit.runners.JUnit4
 @Suppress("TestFunctionName", "NonAsciiCharacters")
 @RunWith(JUnit4::class)
 class ActionTest {
-    @Test(expected = IllegalStateException::class)
-    fun build_ServiceをsetしていないとException() {
-        ActionImpl.Builder()
-            .setName("name")
-            .build()
-    }
-
-    @Test(expected = IllegalStateException::class)
-    fun build_NameをsetしていないとException() {
-        ActionImpl.Builder()
-            .setService(mockk(relaxed = true))
-            .build()
-    }
-
     @Test
     fun addArgumentBuilder_setした値が取得できる() {
         val argumentBuilder: ArgumentImpl.Builder = mockk(relaxed = true)
@@ -45,10 +31,11 @@ class ActionTest {
     fun getService_setした値が取得できる() {
         val service: ServiceImpl = mockk(relaxed = true)
         val name = "name"
-        val action = ActionImpl.Builder()
-            .setService(service)
-            .setName(name)
-            .build()
+        val action = ActionImpl(
+            service = service,
+            name = name,
+            argumentMap = emptyMap()
+        )
         assertThat(action.service).isSameInstanceAs(service)
     }
 
@@ -56,10 +43,11 @@ class ActionTest {
     fun getName_setした値が取得できる() {
         val service: ServiceImpl = mockk(relaxed = true)
         val name = "name"
-        val action = ActionImpl.Builder()
-            .setService(service)
-            .setName(name)
-            .build()
+        val action = ActionImpl(
+            service = service,
+            name = name,
+            argumentMap = emptyMap()
+        )
         assertThat(action.name).isEqualTo(name)
     }
 
@@ -67,10 +55,11 @@ class ActionTest {
     fun getArgumentList_Argumentがない場合はサイズ0() {
         val service: ServiceImpl = mockk(relaxed = true)
         val name = "name"
-        val action = ActionImpl.Builder()
-            .setService(service)
-            .setName(name)
-            .build()
+        val action = ActionImpl(
+            service = service,
+            name = name,
+            argumentMap = emptyMap()
+        )
         assertThat(action.argumentList.size).isEqualTo(0)
     }
 
@@ -80,16 +69,17 @@ class ActionTest {
         val stateVariable: StateVariable = mockk(relaxed = true)
         val name = "name"
         val service: ServiceImpl = mockk(relaxed = true)
-        val action = ActionImpl.Builder()
-            .setService(service)
-            .setName(name)
-            .addArgumentBuilder(
+        val action = ActionImpl(
+            service = service,
+            name = name,
+            argumentMap = listOf(
                 ArgumentImpl.Builder()
                     .setName(argumentName)
                     .setDirection("in")
                     .setRelatedStateVariable(stateVariable)
-            )
-            .build()
+                    .build()
+            ).map { it.name to it }.toMap()
+        )
 
         assertThat(action.argumentList.size).isEqualTo(1)
         val argument = action.argumentList[0]
@@ -104,16 +94,17 @@ class ActionTest {
         val stateVariable: StateVariable = mockk(relaxed = true)
         val name = "name"
         val service: ServiceImpl = mockk(relaxed = true)
-        val action = ActionImpl.Builder()
-            .setService(service)
-            .setName(name)
-            .addArgumentBuilder(
+        val action = ActionImpl(
+            service = service,
+            name = name,
+            argumentMap = listOf(
                 ArgumentImpl.Builder()
                     .setName(argumentName)
                     .setDirection("in")
                     .setRelatedStateVariable(stateVariable)
-            )
-            .build()
+                    .build()
+            ).map { it.name to it }.toMap()
+        )
         val argument = action.findArgument(argumentName)
 
         assertThat(argument!!.name).isEqualTo(argumentName)
@@ -128,10 +119,11 @@ class ActionTest {
         val device: DeviceImpl = mockk(relaxed = true)
         val service: ServiceImpl = mockk(relaxed = true)
         every { service.device } returns device
-        val action = ActionImpl.Builder()
-            .setService(service)
-            .setName("name")
-            .build()
+        val action = ActionImpl(
+            service = service,
+            name = "name",
+            argumentMap = emptyMap()
+        )
         every { device.baseUrl } returns "http://10.0.0.1:1000/"
         every { device.scopeId } returns 0
         every { service.controlUrl } returns "/control"
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.impl
+
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockk
+import net.mm2d.upnp.ControlPoint.EventListener
+import net.mm2d.upnp.ControlPoint.NotifyEventListener
+import net.mm2d.upnp.Service
+import net.mm2d.upnp.internal.thread.TaskExecutors
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class ConflatingEventDispatcherTest {
+    private lateinit var taskExecutors: TaskExecutors
+
+    @Before
+    fun setUp() {
+        taskExecutors = TaskExecutors()
+    }
+
+    @After
+    fun tearDown() {
+        taskExecutors.terminate()
+    }
+
+    @Test(timeout = 10000L)
+    fun dispatch_リスナーが処理中の値は最新のものだけ通知される() {
+        val dispatcher = ConflatingEventDispatcher(taskExecutors)
+        val service: Service = mockk(relaxed = true)
+        val blocker = CountDownLatch(1)
+        val finished = CountDownLatch(1)
+        val received = mutableListOf<String>()
+        val listener = object : NotifyEventListener {
+            override fun onNotifyEvent(service: Service, seq: Long, variable: String, value: String) {
+                blocker.await()
+                received.add("$variable=$value:$seq")
+                if (value == "last") finished.countDown()
+            }
+        }
+
+        dispatcher.dispatch(listener, service, 0, "A", "first")
+        Thread.sleep(100L)
+        (1..100).forEach {
+            dispatcher.dispatch(listener, service, it.toLong(), "A", it.toString())
+        }
+        dispatcher.dispatch(listener, service, 101, "B", "1")
+        dispatcher.dispatch(listener, service, 102, "A", "last")
+        assertThat(dispatcher.backlogSize).isEqualTo(2)
+        blocker.countDown()
+        finished.await(1, TimeUnit.SECONDS)
+
+        assertThat(received).containsExactly("A=first:0", "A=last:102", "B=1:101").inOrder()
+        assertThat(dispatcher.conflatedCount).isEqualTo(100)
+        assertThat(dispatcher.backlogSize).isEqualTo(0)
+    }
+
+    @Test(timeout = 10000L)
+    fun dispatch_EventListenerにはプロパティをまとめて通知する() {
+        val dispatcher = ConflatingEventDispatcher(taskExecutors)
+        val service: Service = mockk(relaxed = true)
+        every { service.serviceId } returns "id"
+        val blocker = CountDownLatch(1)
+        val finished = CountDownLatch(2)
+        val received = mutableListOf<Pair<Long, List<Pair<String, String>>>>()
+        val listener = object : EventListener {
+            override fun onEvent(service: Service, seq: Long, properties: List<Pair<String, String>>) {
+                blocker.await()
+                received.add(seq to properties)
+                finished.countDown()
+            }
+        }
+
+        dispatcher.dispatch(listener, service, 0, listOf("A" to "0"))
+        Thread.sleep(100L)
+        dispatcher.dispatch(listener, service, 1, listOf("A" to "1", "B" to "1"))
+        dispatcher.dispatch(listener, service, 2, listOf("A" to "2"))
+        blocker.countDown()
+        finished.await(1, TimeUnit.SECONDS)
+
+        assertThat(received).containsExactly(
+            0L to listOf("A" to "0"),
+            2L to listOf("A" to "2", "B" to "1")
+        ).inOrder()
+    }
+
+    @Test(timeout = 10000L)
+    fun dispatch_リスナーが例外を投げても以降の通知は届く() {
+        val dispatcher = ConflatingEventDispatcher(taskExecutors)
+        val service: Service = mockk(relaxed = true)
+        val finished = CountDownLatch(1)
+        val received = mutableListOf<String>()
+        val listener = object : NotifyEventListener {
+            override fun onNotifyEvent(service: Service, seq: Long, variable: String, value: String) {
+                if (value == "error") throw RuntimeException()
+                received.add("$variable=$value")
+                if (value == "last") finished.countDown()
+            }
+        }
+
+        dispatcher.dispatch(listener, service, 0, "A", "error")
+        dispatcher.dispatch(listener, service, 0, "B", "1")
+        Thread.sleep(100L)
+        dispatcher.dispatch(listener, service, 1, "A", "last")
+        finished.await(1, TimeUnit.SECONDS)
+
+        assertThat(received).containsExactly("B=1", "A=last")
+        assertThat(dispatcher.backlogSize).isEqualTo(0)
+    }
+}
@@ -37,6 +37,11 @@ import java.io.IOException
 import java.net.InetAddress
 import java.net.URL
 import java.util.*
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 @Suppress("TestFunctionName", "NonAsciiCharacters", "ClassName")
 @RunWith(Enclosed::class)
@@ -449,6 +454,22 @@ class ControlPointTest {
             verify(exactly = 1) { subscribeManager.unregister(service) }
         }
 
+        @Test
+        fun lostDevice_StateVariableの値がクリアされる() {
+            val uuid = "uuid"
+            val device: Device = mockk(relaxed = true)
+            val service: ServiceImpl = mockk(relaxed = true)
+            val cache = StateVariableCache()
+            cache.put("name", "value", 0L)
+            every { device.udn } returns uuid
+            every { device.serviceList } returns listOf(service)
+            every { service.stateVariableCache } returns cache
+            cp.discoverDevice(device)
+            cp.lostDevice(device)
+
+            assertThat(cache.values).isEmpty()
+        }
+
         @Test
         fun stop_lostDeviceが通知される() {
             val uuid = "uuid"
@@ -547,13 +568,13 @@ class ControlPointTest {
     @RunWith(JUnit4::class)
     class DeviceDiscovery {
         private lateinit var cp: ControlPointImpl
-        private lateinit var loadingDeviceMap: MutableMap<String, DeviceImpl.Builder>
+        private lateinit var loadingDeviceMap: ConcurrentMap<String, DeviceImpl.Builder>
         private lateinit var deviceHolder: DeviceHolder
         private lateinit var taskExecutors: TaskExecutors
 
         @Before
         fun setUp() {
-            loadingDeviceMap = spyk(HashMap())
+            loadingDeviceMap = spyk(ConcurrentSkipListMap())
             val factory = spyk(DiFactory())
             taskExecutors = spyk(TaskExecutors())
             every { factory.createTaskExecutors() } returns taskExecutors
@@ -613,7 +634,7 @@ class ControlPointTest {
                 throw IOException()
             }
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(any()) } returns client
+            every { HttpClient.create(any(), any()) } returns client
             cp.onReceiveSsdpMessage(message)
             assertThat(loadingDeviceMap).containsKey(udn)
             Thread.sleep(1000L) // Exception発生を待つ
@@ -655,7 +676,7 @@ class ControlPointTest {
             val message = SsdpRequest.create(address, data, data.size)
             val udn = "uuid:01234567-89ab-cdef-0123-456789abcdef"
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(any()) } returns httpClient
+            every { HttpClient.create(any(), any()) } returns httpClient
             val iconFilter = spyk(iconFilter { listOf(it[0]) })
             cp.setIconFilter(iconFilter)
             cp.onReceiveSsdpMessage(message)
@@ -697,10 +718,56 @@ class ControlPointTest {
             verify(exactly = 1) { deviceBuilder.updateSsdpMessage(message2) }
         }
 
+        @Test(timeout = 30000L)
+        fun discoverDevice_lostDevice_並行に実行しても通知の順序が保たれる() {
+            val events = mutableMapOf<String, MutableList<String>>()
+            cp.addDiscoveryListener(discoveryListener(
+                { events.getOrPut(it.udn) { mutableListOf() }.add("discover") },
+                { events.getOrPut(it.udn) { mutableListOf() }.add("lost") }
+            ))
+            val devices = List(50) { index ->
+                mockk<Device>(relaxed = true).also { every { it.udn } returns "uuid:$index" }
+            }
+            val threadCount = 8
+            val executor = Executors.newFixedThreadPool(threadCount)
+            val start = CountDownLatch(1)
+            val end = CountDownLatch(threadCount)
+            repeat(threadCount) {
+                executor.execute {
+                    start.await()
+                    repeat(10) {
+                        devices.shuffled().forEach {
+                            cp.discoverDevice(it)
+                            assertThat(cp.getDevice(it.udn)).isAnyOf(it, null)
+                            cp.lostDevice(it)
+                        }
+                    }
+                    end.countDown()
+                }
+            }
+            start.countDown()
+            assertThat(end.await(20, TimeUnit.SECONDS)).isTrue()
+            executor.shutdown()
+            cp.clearDeviceList()
+            val callbackFinished = CountDownLatch(1)
+            taskExecutors.callback { callbackFinished.countDown() }
+            callbackFinished.await()
+
+            assertThat(cp.deviceListSize).isEqualTo(0)
+            assertThat(deviceHolder.size).isEqualTo(0)
+            devices.forEach { device ->
+                val list = events[device.udn]!!
+                assertThat(list.size % 2).isEqualTo(0)
+                list.forEachIndexed { index, event ->
+                    assertThat(event).isEqualTo(if (index % 2 == 0) "discover" else "lost")
+                }
+            }
+        }
+
         @Test
         fun tryAddDevice() {
             val uuid = "uuid"
-            every { taskExecutors.io(any<() -> Unit>()) } returns true
+            every { taskExecutors.io(any(), any(), any<() -> Unit>()) } returns true
             cp.tryAddDevice(uuid, "http://10.0.0.1/")
             verify(exactly = 1) { cp.loadDevice(uuid, any()) }
         }
@@ -708,7 +775,7 @@ class ControlPointTest {
         @Test
         fun tryAddDevice_already_added() {
             val uuid = "uuid"
-            every { taskExecutors.io(any<() -> Unit>()) } returns true
+            every { taskExecutors.io(any(), any(), any<() -> Unit>()) } returns true
             cp.tryAddDevice(uuid, "http://10.0.0.1/")
             cp.tryAddDevice(uuid, "http://10.0.0.1/")
             verify(exactly = 1) { cp.loadDevice(uuid, any()) }
@@ -717,7 +784,7 @@ class ControlPointTest {
         @Test
         fun tryAddDevice_already_added_fail_first() {
             val uuid = "uuid"
-            every { taskExecutors.io(any<() -> Unit>()) } returns false
+            every { taskExecutors.io(any(), any(), any<() -> Unit>()) } returns false
             cp.tryAddDevice(uuid, "http://10.0.0.1/")
             cp.tryAddDevice(uuid, "http://10.0.0.1/")
             verify(exactly = 2) { cp.loadDevice(uuid, any()) }
@@ -730,7 +797,7 @@ class ControlPointTest {
             every { device.location } returns location
             every { cp.deviceList } returns listOf(device)
             val uuid = "uuid"
-            every { taskExecutors.io(any<() -> Unit>()) } returns true
+            every { taskExecutors.io(any(), any(), any<() -> Unit>()) } returns true
             cp.tryAddDevice(uuid, location)
             verify(inverse = true) { cp.loadDevice(uuid, any()) }
         }
@@ -767,7 +834,7 @@ class ControlPointTest {
                 httpClient.downloadString(URL("http://192.0.2.2:12345/mmupnp.xml"))
             } returns TestUtils.getResourceAsString("mmupnp.xml")
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(any()) } returns httpClient
+            every { HttpClient.create(any(), any()) } returns httpClient
             every { httpClient.localAddress } returns InetAddress.getByName("192.0.2.3")
         }
 
@@ -859,7 +926,7 @@ class ControlPointTest {
     class イベント伝搬テスト {
         private lateinit var cp: ControlPointImpl
         private lateinit var subscribeManager: SubscribeManagerImpl
-        private val loadingDeviceMap = spyk(HashMap<String, DeviceImpl.Builder>())
+        private val loadingDeviceMap = spyk(ConcurrentSkipListMap<String, DeviceImpl.Builder>())
         private lateinit var deviceHolder: DeviceHolder
         private val ssdpSearchServerList: SsdpSearchServerList = mockk(relaxed = true)
         private val ssdpNotifyServerList: SsdpNotifyServerList = mockk(relaxed = true)
@@ -1187,6 +1254,35 @@ class ControlPointTest {
             verify(exactly = 1) { listener.onEvent(service, lvl, seq, properties) }
         }
 
+        @Test
+        fun `onReceiveMulticastEvent StateVariableのキャッシュは更新しない`() {
+            val cp = ControlPointImpl(
+                Protocol.DEFAULT,
+                NetworkUtils.getAvailableInet4Interfaces(),
+                notifySegmentCheckEnabled = false,
+                subscriptionEnabled = true,
+                multicastEventingEnabled = false,
+                factory = DiFactory(
+                    Protocol.DEFAULT,
+                    taskExecutor { it.run().let { true } },
+                    stateVariableCacheEnabled = true
+                )
+            )
+            val uuid = "uuid"
+            val svcid = "svcid"
+            val device: Device = mockk(relaxed = true)
+            every { device.udn } returns uuid
+            val service: ServiceImpl = mockk(relaxed = true)
+            val cache = StateVariableCache()
+            every { service.stateVariableCache } returns cache
+            every { device.findServiceById(svcid) } returns service
+            cp.discoverDevice(device)
+
+            cp.onReceiveMulticastEvent(uuid, svcid, "upnp:/info", 0L, listOf("name" to "value"))
+
+            assertThat(cache.values).isEmpty()
+        }
+
         @Test
         fun `onReceiveMulticastEvent removeしたlistenerには通知されない`() {
             val uuid = "uuid"
@@ -1265,7 +1361,7 @@ class ControlPointTest {
             } returns TestUtils.getResourceAsString("mmupnp.xml")
 
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(any()) } returns httpClient
+            every { HttpClient.create(any(), any()) } returns httpClient
             every { httpClient.localAddress } returns InetAddress.getByName("192.0.2.3")
             val builder = DeviceImpl.Builder(cp, ssdpMessage)
             DeviceParser.loadDescription(httpClient, builder)
@@ -559,7 +559,7 @@ class ServiceTest {
             val slot = slot<HttpRequest>()
             every { client.post(capture(slot)) } returns createSubscribeResponse()
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(any()) } returns client
+            every { HttpClient.create(any(), any()) } returns client
             cds.subscribeSync()
 
             val request = slot.captured
@@ -581,7 +581,7 @@ class ServiceTest {
             val slot = slot<HttpRequest>()
             every { client.post(capture(slot)) } returns createSubscribeResponse()
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(any()) } returns client
+            every { HttpClient.create(any(), any()) } returns client
             cds.subscribeSync(true)
 
             val request = slot.captured
@@ -590,13 +590,31 @@ class ServiceTest {
             unmockkObject(HttpClient.Companion)
         }
 
+        @Test
+        fun subscribe_要求するTIMEOUTを指定できる() {
+            val client = spyk(HttpClient())
+            val slot = slot<HttpRequest>()
+            every { client.post(capture(slot)) } returns createSubscribeResponse()
+            mockkObject(HttpClient.Companion)
+            every { HttpClient.create(any(), any()) } returns client
+            every { subscribeManager.getSubscriptionTimeout() } returns TimeUnit.SECONDS.toMillis(1800)
+
+            mmupnp.subscribeSync()
+            assertThat(slot.captured.getHeader(Http.TIMEOUT)).isEqualTo("Second-1800")
+
+            mmupnp.requestedSubscriptionTimeout = Long.MAX_VALUE
+            mmupnp.renewSubscribeSync()
+            assertThat(slot.captured.getHeader(Http.TIMEOUT)).isEqualTo("Second-infinite")
+            unmockkObject(HttpClient.Companion)
+        }
+
         @Test
         fun renewSubscribe1() {
             val client = spyk(HttpClient())
             val slot = slot<HttpRequest>()
             every { client.post(capture(slot)) } returns createSubscribeResponse()
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(any()) } returns client
+            every { HttpClient.create(any(), any()) } returns client
             cds.subscribeSync()
             cds.renewSubscribeSync()
 
@@ -611,7 +629,7 @@ class ServiceTest {
             val slot = slot<HttpRequest>()
             every { client.post(capture(slot)) } returns createSubscribeResponse()
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(any()) } returns client
+            every { HttpClient.create(any(), any()) } returns client
             cds.subscribeSync()
             cds.subscribeSync()
 
@@ -626,7 +644,7 @@ class ServiceTest {
             val slot = slot<HttpRequest>()
             every { client.post(capture(slot)) } returns createSubscribeResponse()
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(any()) } returns client
+            every { HttpClient.create(any(), any()) } returns client
             cds.subscribeSync()
             cds.unsubscribeSync()
 
@@ -641,7 +659,7 @@ class ServiceTest {
             val client = spyk(HttpClient())
             every { client.post(any()) } returns createSubscribeResponse()
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(any()) } returns client
+            every { HttpClient.create(any(), any()) } returns client
             cds.subscribeSync()
 
             assertThat(cds.subscriptionId).isEqualTo(SID)
@@ -673,6 +691,23 @@ class ServiceTest {
             assertThat(SubscribeDelegate.parseTimeout(response)).isEqualTo(DEFAULT_SUBSCRIPTION_TIMEOUT)
         }
 
+        @Test
+        fun parseTimeout_infiniteを要求していた場合無期限() {
+            val response = HttpResponse.create()
+            response.setStartLine("HTTP/1.1 200 OK")
+            response.setHeader(Http.TIMEOUT, "Second-infinite")
+            assertThat(SubscribeDelegate.parseTimeout(response, Long.MAX_VALUE)).isEqualTo(Long.MAX_VALUE)
+            assertThat(SubscribeDelegate.parseTimeout(response, DEFAULT_SUBSCRIPTION_TIMEOUT))
+                .isEqualTo(DEFAULT_SUBSCRIPTION_TIMEOUT)
+        }
+
+        @Test
+        fun makeTimeoutHeader_秒単位に切り上げる() {
+            assertThat(SubscribeDelegate.makeTimeoutHeader(DEFAULT_SUBSCRIPTION_TIMEOUT)).isEqualTo("Second-300")
+            assertThat(SubscribeDelegate.makeTimeoutHeader(1500L)).isEqualTo("Second-2")
+            assertThat(SubscribeDelegate.makeTimeoutHeader(Long.MAX_VALUE)).isEqualTo("Second-infinite")
+        }
+
         @Test
         fun parseTimeout_secondの指定通り() {
             val response = HttpResponse.create()
@@ -733,7 +768,7 @@ class ServiceTest {
 
             httpClient = mockk(relaxed = true)
             mockkObject(HttpClient.Companion)
-            every { HttpClient.create(false) } returns httpClient
+            every { HttpClient.create(any(), any()) } returns httpClient
         }
 
         @After
@@ -912,6 +947,22 @@ class ServiceTest {
             assertThat(service.unsubscribeSync()).isTrue()
         }
 
+        @Test
+        fun subscribeSync_unsubscribeSync_StateVariableの値がクリアされる() {
+            val response = HttpResponse.create()
+            response.setStatus(Http.Status.HTTP_OK)
+            response.setHeader(Http.SID, "sid")
+            response.setHeader(Http.TIMEOUT, "second-300")
+            every { httpClient.post(any()) } returns response
+            service.stateVariableCache.put("name", "old", 0L)
+            assertThat(service.subscribeSync()).isTrue()
+            assertThat(service.getStateVariableValue("name")).isNull()
+
+            service.stateVariableCache.put("name", "value", 0L)
+            assertThat(service.unsubscribeSync()).isTrue()
+            assertThat(service.getStateVariableValue("name")).isNull()
+        }
+
         @Test
         fun unsubscribeSync_OK以外は失敗() {
             val response = HttpResponse.create()
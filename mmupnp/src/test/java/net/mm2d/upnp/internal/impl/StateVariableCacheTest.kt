@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.impl
+
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class StateVariableCacheTest {
+    @Test
+    fun update_イベントの値を時刻とともに保持する() {
+        val cache = StateVariableCache()
+        val service: ServiceImpl = mockk(relaxed = true)
+        every { service.stateVariableCache } returns cache
+        val before = System.currentTimeMillis()
+
+        StateVariableCache.Updater(null).update(service, listOf("A" to "1", "B" to "2"))
+        StateVariableCache.Updater(null).update(service, listOf("A" to "3"))
+
+        assertThat(cache["A"]!!.value).isEqualTo("3")
+        assertThat(cache["B"]!!.value).isEqualTo("2")
+        assertThat(cache["B"]!!.time).isAtLeast(before)
+        assertThat(cache["C"]).isNull()
+        assertThat(cache.values.keys).containsExactly("A", "B")
+    }
+
+    @Test
+    fun update_LastChangeはパーサーの結果も保持する() {
+        val cache = StateVariableCache()
+        val service: ServiceImpl = mockk(relaxed = true)
+        every { service.stateVariableCache } returns cache
+        val updater = StateVariableCache.Updater { _, value ->
+            if (value == "broken") throw IllegalArgumentException()
+            listOf("Volume" to value)
+        }
+
+        updater.update(service, listOf("LastChange" to "10"))
+        assertThat(cache["LastChange"]!!.value).isEqualTo("10")
+        assertThat(cache["Volume"]!!.value).isEqualTo("10")
+
+        updater.update(service, listOf("LastChange" to "broken"))
+        assertThat(cache["LastChange"]!!.value).isEqualTo("broken")
+        assertThat(cache["Volume"]!!.value).isEqualTo("10")
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+import com.google.common.truth.Truth.assertThat
+import net.mm2d.upnp.Http
+import net.mm2d.upnp.HttpRequest
+import net.mm2d.upnp.HttpResponse
+import net.mm2d.upnp.internal.thread.TaskExecutors
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.IOException
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.URL
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class AsyncHttpClientTest {
+    private lateinit var taskExecutors: TaskExecutors
+    private lateinit var serverSocket: ServerSocket
+    private lateinit var client: AsyncHttpClient
+
+    @Before
+    fun setUp() {
+        taskExecutors = TaskExecutors()
+        serverSocket = ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"))
+        client = AsyncHttpClient(taskExecutors)
+    }
+
+    @After
+    fun tearDown() {
+        client.stop()
+        serverSocket.close()
+        taskExecutors.terminate()
+    }
+
+    private fun makeRequest(): HttpRequest = HttpRequest.create().apply {
+        setMethod(Http.POST)
+        setUrl(URL("http://127.0.0.1:${serverSocket.localPort}/control"), true)
+        setHeader(Http.CONNECTION, Http.KEEP_ALIVE)
+        setBody("request", true)
+    }
+
+    private fun serve(response: String): CountDownLatch {
+        val received = CountDownLatch(1)
+        thread {
+            serverSocket.accept().use { socket ->
+                val request = HttpRequest.create().apply { readData(socket.getInputStream()) }
+                if (request.getBody() == "request" && request.getHeader(Http.CONNECTION) == Http.CLOSE) {
+                    received.countDown()
+                }
+                socket.getOutputStream().write(response.toByteArray())
+                socket.getOutputStream().flush()
+            }
+        }
+        return received
+    }
+
+    private fun post(): Pair<HttpResponse?, IOException?> {
+        val latch = CountDownLatch(1)
+        var response: HttpResponse? = null
+        var error: IOException? = null
+        client.post(makeRequest(), {
+            response = it
+            latch.countDown()
+        }, {
+            error = it
+            latch.countDown()
+        })
+        latch.await(5, TimeUnit.SECONDS)
+        return response to error
+    }
+
+    @Test(timeout = 10000L)
+    fun post_ContentLengthのあるレスポンスを受信できる() {
+        client.start()
+        val received = serve("HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nbody")
+
+        val (response, error) = post()
+
+        assertThat(error).isNull()
+        assertThat(response!!.getStatus()).isEqualTo(Http.Status.HTTP_OK)
+        assertThat(response.getBody()).isEqualTo("body")
+        assertThat(received.count).isEqualTo(0)
+    }
+
+    @Test(timeout = 10000L)
+    fun post_1xxレスポンスは読み飛ばす() {
+        client.start()
+        serve("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nbody")
+
+        val (response, error) = post()
+
+        assertThat(error).isNull()
+        assertThat(response!!.getStatus()).isEqualTo(Http.Status.HTTP_OK)
+        assertThat(response.getBody()).isEqualTo("body")
+    }
+
+    @Test(timeout = 10000L)
+    fun post_切断で終わるレスポンスを受信できる() {
+        client.start()
+        serve("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\nbody")
+
+        val (response, error) = post()
+
+        assertThat(error).isNull()
+        assertThat(response!!.getBody()).isEqualTo("body")
+    }
+
+    @Test(timeout = 10000L)
+    fun post_レスポンスの途中で切断されたらエラー() {
+        client.start()
+        serve("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nbody")
+
+        val (response, error) = post()
+
+        assertThat(response).isNull()
+        assertThat(error).isNotNull()
+    }
+
+    @Test(timeout = 10000L)
+    fun post_接続できなければエラー() {
+        client.start()
+        serverSocket.close()
+
+        val (response, error) = post()
+
+        assertThat(response).isNull()
+        assertThat(error).isNotNull()
+    }
+
+    @Test(timeout = 10000L)
+    fun post_開始前はエラー() {
+        val (response, error) = post()
+
+        assertThat(response).isNull()
+        assertThat(error).isNotNull()
+    }
+}
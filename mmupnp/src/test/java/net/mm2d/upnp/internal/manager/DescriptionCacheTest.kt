@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import net.mm2d.upnp.Http
+import net.mm2d.upnp.HttpClient
+import net.mm2d.upnp.HttpResponse
+import net.mm2d.upnp.SsdpMessage
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.net.URL
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class DescriptionCacheTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+    private lateinit var client: HttpClient
+
+    @Before
+    fun setUp() {
+        client = mockk(relaxed = true)
+    }
+
+    private fun createSsdpMessage(configId: String?, bootId: String? = "1"): SsdpMessage =
+        mockk<SsdpMessage>(relaxed = true).also {
+            every { it.uuid } returns UUID
+            every { it.getHeader(Http.CONFIGID_UPNP_ORG) } returns configId
+            every { it.getHeader(Http.BOOTID_UPNP_ORG) } returns bootId
+        }
+
+    private fun createResponse(body: String, etag: String? = null, lastModified: String? = null): HttpResponse =
+        HttpResponse.create().apply {
+            setStartLine("HTTP/1.1 200 OK")
+            etag?.let { setHeader(Http.ETAG, it) }
+            lastModified?.let { setHeader(Http.LAST_MODIFIED, it) }
+            setBody(body, true)
+        }
+
+    @Test
+    fun download_CONFIGIDがあればキャッシュから通信なしで取得する() {
+        every { client.download(URL) } returns createResponse(BODY)
+        val message = createSsdpMessage("100")
+
+        assertThat(DescriptionCache(temporaryFolder.root).download(client, URL, message)).isEqualTo(BODY)
+        assertThat(DescriptionCache(temporaryFolder.root).download(client, URL, message)).isEqualTo(BODY)
+
+        verify(exactly = 1) { client.download(URL) }
+        verify(inverse = true) { client.downloadIfModified(any(), any(), any()) }
+    }
+
+    @Test
+    fun download_BOOTIDが変化したら再取得する() {
+        every { client.download(URL) } returns createResponse(BODY)
+        val cache = DescriptionCache(temporaryFolder.root)
+
+        cache.download(client, URL, createSsdpMessage("100", "1"))
+        cache.download(client, URL, createSsdpMessage("100", "2"))
+
+        verify(exactly = 2) { client.download(URL) }
+    }
+
+    @Test
+    fun download_CONFIGIDがなければETagで検証する() {
+        every { client.download(URL) } returns createResponse(BODY, etag = ETAG)
+        every { client.downloadIfModified(URL, ETAG, null) } returns null
+        val cache = DescriptionCache(temporaryFolder.root)
+        val message = createSsdpMessage(null)
+
+        cache.download(client, URL, message)
+        assertThat(cache.download(client, URL, message)).isEqualTo(BODY)
+
+        verify(exactly = 1) { client.download(URL) }
+        verify(exactly = 1) { client.downloadIfModified(URL, ETAG, null) }
+    }
+
+    @Test
+    fun download_更新されていれば新しい内容を保存する() {
+        every { client.download(URL) } returns createResponse(BODY, lastModified = DATE)
+        every { client.downloadIfModified(URL, null, DATE) } returns createResponse("new", lastModified = DATE2)
+        every { client.downloadIfModified(URL, null, DATE2) } returns null
+        val cache = DescriptionCache(temporaryFolder.root)
+        val message = createSsdpMessage(null)
+
+        cache.download(client, URL, message)
+        assertThat(cache.download(client, URL, message)).isEqualTo("new")
+        assertThat(cache.download(client, URL, message)).isEqualTo("new")
+    }
+
+    @Test
+    fun download_検証できなければ毎回取得する() {
+        every { client.download(URL) } returns createResponse(BODY)
+        val cache = DescriptionCache(temporaryFolder.root)
+        val message = createSsdpMessage(null)
+
+        cache.download(client, URL, message)
+        cache.download(client, URL, message)
+
+        verify(exactly = 2) { client.download(URL) }
+    }
+
+    @Test
+    fun download_壊れたキャッシュは無視される() {
+        every { client.download(URL) } returns createResponse(BODY)
+        val message = createSsdpMessage("100")
+        DescriptionCache(temporaryFolder.root).download(client, URL, message)
+        temporaryFolder.root.listFiles()!!.forEach { it.writeBytes(byteArrayOf(0, 0, 0, 1, 0)) }
+
+        assertThat(DescriptionCache(temporaryFolder.root).download(client, URL, message)).isEqualTo(BODY)
+
+        verify(exactly = 2) { client.download(URL) }
+    }
+
+    @Test
+    fun init_上限を超えたファイルは古いものから削除される() {
+        every { client.download(any()) } returns createResponse(BODY)
+        val message = createSsdpMessage("100")
+        val cache = DescriptionCache(temporaryFolder.root)
+        repeat(3) {
+            cache.download(client, URL("http://192.0.2.2/$it.xml"), message)
+        }
+        temporaryFolder.root.listFiles()!!.forEachIndexed { index, file ->
+            file.setLastModified(1_000_000L * (index + 1))
+        }
+        val newest = temporaryFolder.root.listFiles()!!.maxBy { it.lastModified() }!!
+
+        DescriptionCache(temporaryFolder.root, 1)
+
+        assertThat(temporaryFolder.root.listFiles()!!.toList()).containsExactly(newest)
+    }
+
+    @Test
+    fun download_上限を超えたら古いものから削除される() {
+        every { client.download(any()) } returns createResponse(BODY)
+        val message = createSsdpMessage("100")
+        val cache = DescriptionCache(temporaryFolder.root, 2)
+        repeat(2) {
+            cache.download(client, URL("http://192.0.2.2/$it.xml"), message)
+        }
+        temporaryFolder.root.listFiles()!!.forEach { it.setLastModified(1_000_000L) }
+        val old = temporaryFolder.root.listFiles()!!.toList()
+
+        cache.download(client, URL("http://192.0.2.2/2.xml"), message)
+        val files = temporaryFolder.root.listFiles()!!.toList()
+        assertThat(files).hasSize(2)
+        assertThat(files - old).hasSize(1)
+    }
+
+    companion object {
+        private const val UUID = "uuid:01234567-89ab-cdef-0123-456789abcdef"
+        private const val BODY = "<root/>"
+        private const val ETAG = "\"etag\""
+        private const val DATE = "Mon, 01 Jun 2020 00:00:00 GMT"
+        private const val DATE2 = "Tue, 02 Jun 2020 00:00:00 GMT"
+        private val URL = URL("http://192.0.2.2:12345/device.xml")
+    }
+}
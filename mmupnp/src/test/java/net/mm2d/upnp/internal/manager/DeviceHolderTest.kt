@@ -18,11 +18,14 @@ import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.JUnit4
+import java.util.concurrent.atomic.AtomicLong
 
 @Suppress("TestFunctionName", "NonAsciiCharacters")
 @RunWith(JUnit4::class)
 class DeviceHolderTest {
     private lateinit var taskExecutors: TaskExecutors
+    private val now = AtomicLong(START_TIME)
+    private val clock: () -> Long = { now.get() }
 
     @Before
     fun setUp() {
@@ -121,32 +124,66 @@ class DeviceHolderTest {
         holder.run()
     }
 
-    @Test(timeout = 20000L)
+    @Test(timeout = 10000L)
     fun expireDevice_時間経過後に削除される() {
         val expireListener: (Device) -> Unit = mockk(relaxed = true)
-        val holder = DeviceHolder(taskExecutors, expireListener)
+        val holder = DeviceHolder(taskExecutors, expireListener, clock)
         val device1: Device = mockk(relaxed = true)
         every { device1.udn } returns UDN
         val device2: Device = mockk(relaxed = true)
         every { device2.udn } returns UDN + "2"
 
-        every { device1.expireTime } returns System.currentTimeMillis() + 100L
-        every { device2.expireTime } returns System.currentTimeMillis() + 200L
+        every { device1.expireTime } returns START_TIME + 100L
+        every { device2.expireTime } returns START_TIME + 200L
 
         holder.start()
-        Thread.sleep(1)
         holder.add(device1)
         holder.add(device2)
 
         assertThat(holder.size).isEqualTo(2)
 
-        Thread.sleep(11000L) // 内部で10秒のマージンを持っているため十分な時間を開ける
+        holder.advance(10100L) // 内部で10秒のマージンを持っているため1つだけ期限切れ
+        verify(timeout = 5000L, exactly = 1) { expireListener.invoke(device1) }
+        assertThat(holder.size).isEqualTo(1)
 
+        holder.advance(1000L)
+        verify(timeout = 5000L, exactly = 1) { expireListener.invoke(device2) }
         assertThat(holder.size).isEqualTo(0)
         verify(exactly = 1) { expireListener.invoke(device1) }
     }
 
+    @Test(timeout = 10000L)
+    fun update_期限が延長されたデバイスは削除されない() {
+        val expireListener: (Device) -> Unit = mockk(relaxed = true)
+        val holder = DeviceHolder(taskExecutors, expireListener, clock)
+        val device1: Device = mockk(relaxed = true)
+        every { device1.udn } returns UDN
+        every { device1.expireTime } returns START_TIME + 100L
+        val device2: Device = mockk(relaxed = true)
+        every { device2.udn } returns UDN + "2"
+        every { device2.expireTime } returns START_TIME + 200L
+
+        holder.start()
+        holder.add(device1)
+        holder.add(device2)
+        every { device1.expireTime } returns START_TIME + 60000L
+        holder.update(device1)
+
+        holder.advance(11000L) // 内部で10秒のマージンを持っているため十分な時間を進める
+        verify(timeout = 5000L, exactly = 1) { expireListener.invoke(device2) }
+
+        assertThat(holder.deviceList).containsExactly(device1)
+        verify(exactly = 1) { expireListener.invoke(device2) }
+        verify(inverse = true) { expireListener.invoke(device1) }
+    }
+
+    private fun DeviceHolder.advance(time: Long) {
+        now.addAndGet(time)
+        wakeUp()
+    }
+
     companion object {
+        private const val START_TIME = 1_000_000L
         private const val UDN = "uuid:01234567-89ab-cdef-0123-456789abcdef"
     }
 }
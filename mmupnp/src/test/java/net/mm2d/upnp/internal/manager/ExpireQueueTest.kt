@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.*
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class ExpireQueueTest {
+    @Test
+    fun pollExpired_期限の早い順に取り出される() {
+        val queue = ExpireQueue<String, Int>()
+        val random = Random(0)
+        val times = List(100) { random.nextInt(1000).toLong() }
+        times.forEachIndexed { index, time -> queue.put("$index", index, time) }
+
+        val result = generateSequence { queue.pollExpired(Long.MAX_VALUE) }.map { times[it] }.toList()
+
+        assertThat(result).isEqualTo(times.sorted())
+        assertThat(queue.isEmpty()).isTrue()
+    }
+
+    @Test
+    fun pollExpired_期限前のものは取り出されない() {
+        val queue = ExpireQueue<String, String>()
+        queue.put("a", "a", 10L)
+        queue.put("b", "b", 20L)
+
+        assertThat(queue.pollExpired(15L)).isEqualTo("a")
+        assertThat(queue.pollExpired(15L)).isNull()
+        assertThat(queue.peekTime()).isEqualTo(20L)
+    }
+
+    @Test
+    fun put_同じキーは期限と値が更新される() {
+        val queue = ExpireQueue<String, String>()
+        queue.put("a", "a1", 10L)
+        queue.put("b", "b", 20L)
+        queue.put("a", "a2", 30L)
+
+        assertThat(queue.size).isEqualTo(2)
+        assertThat(queue.pollExpired(Long.MAX_VALUE)).isEqualTo("b")
+        assertThat(queue.pollExpired(Long.MAX_VALUE)).isEqualTo("a2")
+
+        queue.put("c", "c", 30L)
+        queue.put("d", "d", 40L)
+        queue.put("d", "d", 5L)
+        assertThat(queue.peekTime()).isEqualTo(5L)
+    }
+
+    @Test
+    fun remove_削除後も順序が保たれる() {
+        val queue = ExpireQueue<String, Int>()
+        val random = Random(1)
+        val times = List(100) { random.nextInt(1000).toLong() }
+        times.forEachIndexed { index, time -> queue.put("$index", index, time) }
+        (0 until 100 step 3).forEach { assertThat(queue.remove("$it")).isEqualTo(it) }
+        assertThat(queue.remove("0")).isNull()
+
+        val result = generateSequence { queue.pollExpired(Long.MAX_VALUE) }.toList()
+
+        assertThat(result.map { times[it] }).isInOrder()
+        assertThat(result).containsExactlyElementsIn((0 until 100).filter { it % 3 != 0 })
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import net.mm2d.upnp.HttpClient.SocketHolder
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.net.InetAddress
+import java.net.Socket
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class HttpConnectionPoolTest {
+    private fun createSocketHolder(address: InetAddress, port: Int): SocketHolder {
+        val socket: Socket = mockk(relaxed = true)
+        every { socket.isClosed } returns false
+        every { socket.isConnected } returns true
+        every { socket.inetAddress } returns address
+        every { socket.port } returns port
+        every { socket.getInputStream() } returns ByteArrayInputStream(ByteArray(0))
+        every { socket.getOutputStream() } returns ByteArrayOutputStream()
+        return SocketHolder(socket)
+    }
+
+    @Test
+    fun acquire_releaseしたコネクションを取得できる() {
+        val pool = HttpConnectionPool()
+        val holder = createSocketHolder(ADDRESS1, 80)
+        pool.release(holder)
+
+        assertThat(pool.idleCount).isEqualTo(1)
+        assertThat(pool.acquire(ADDRESS1, 80)).isSameInstanceAs(holder)
+        assertThat(pool.idleCount).isEqualTo(0)
+        assertThat(pool.acquire(ADDRESS1, 80)).isNull()
+    }
+
+    @Test
+    fun acquire_アドレスかポートが異なれば取得できない() {
+        val pool = HttpConnectionPool()
+        pool.release(createSocketHolder(ADDRESS1, 80))
+
+        assertThat(pool.acquire(ADDRESS1, 8080)).isNull()
+        assertThat(pool.acquire(ADDRESS2, 80)).isNull()
+        assertThat(pool.idleCount).isEqualTo(1)
+    }
+
+    @Test
+    fun acquire_新しいものから取得する() {
+        val pool = HttpConnectionPool()
+        val holder1 = createSocketHolder(ADDRESS1, 80)
+        val holder2 = createSocketHolder(ADDRESS1, 80)
+        pool.release(holder1)
+        pool.release(holder2)
+
+        assertThat(pool.acquire(ADDRESS1, 80)).isSameInstanceAs(holder2)
+        assertThat(pool.acquire(ADDRESS1, 80)).isSameInstanceAs(holder1)
+    }
+
+    @Test
+    fun acquire_idleTimeoutを過ぎたものはcloseされる() {
+        val pool = HttpConnectionPool(idleTimeout = 0)
+        val holder = createSocketHolder(ADDRESS1, 80)
+        pool.release(holder)
+
+        assertThat(pool.acquire(ADDRESS1, 80)).isNull()
+        verify(exactly = 1) { holder.socket.close() }
+    }
+
+    @Test
+    fun release_closeされたものは保持しない() {
+        val pool = HttpConnectionPool()
+        val holder = createSocketHolder(ADDRESS1, 80)
+        every { holder.socket.isClosed } returns true
+        pool.release(holder)
+
+        assertThat(pool.idleCount).isEqualTo(0)
+    }
+
+    @Test
+    fun release_ホストごとの上限を超えたら古いものからcloseする() {
+        val pool = HttpConnectionPool(maxIdlePerHost = 1)
+        val holder1 = createSocketHolder(ADDRESS1, 80)
+        val holder2 = createSocketHolder(ADDRESS1, 80)
+        val holder3 = createSocketHolder(ADDRESS2, 80)
+        pool.release(holder1)
+        pool.release(holder2)
+        pool.release(holder3)
+
+        assertThat(pool.idleCount).isEqualTo(2)
+        verify(exactly = 1) { holder1.socket.close() }
+        verify(exactly = 0) { holder2.socket.close() }
+        verify(exactly = 0) { holder3.socket.close() }
+    }
+
+    @Test
+    fun release_全体の上限を超えたら古いものからcloseする() {
+        val pool = HttpConnectionPool(maxIdleTotal = 1)
+        val holder1 = createSocketHolder(ADDRESS1, 80)
+        val holder2 = createSocketHolder(ADDRESS2, 80)
+        pool.release(holder1)
+        pool.release(holder2)
+
+        assertThat(pool.idleCount).isEqualTo(1)
+        verify(exactly = 1) { holder1.socket.close() }
+        assertThat(pool.acquire(ADDRESS2, 80)).isSameInstanceAs(holder2)
+    }
+
+    @Test
+    fun evictAll_すべてcloseする() {
+        val pool = HttpConnectionPool()
+        val holder1 = createSocketHolder(ADDRESS1, 80)
+        val holder2 = createSocketHolder(ADDRESS2, 80)
+        pool.release(holder1)
+        pool.release(holder2)
+        pool.evictAll()
+
+        assertThat(pool.idleCount).isEqualTo(0)
+        verify(exactly = 1) { holder1.socket.close() }
+        verify(exactly = 1) { holder2.socket.close() }
+    }
+
+    companion object {
+        private val ADDRESS1 = InetAddress.getByName("192.0.2.2")
+        private val ADDRESS2 = InetAddress.getByName("192.0.2.3")
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockk
+import net.mm2d.upnp.Http
+import net.mm2d.upnp.SsdpMessage
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.net.InetAddress
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class SsdpDuplicateFilterTest {
+    private fun message(
+        uuid: String = UUID,
+        location: String = LOCATION,
+        nts: String = SsdpMessage.SSDP_ALIVE,
+        bootId: String? = null,
+        localAddress: InetAddress = LOCAL_ADDRESS
+    ): SsdpMessage = mockk(relaxed = true) {
+        every { this@mockk.uuid } returns uuid
+        every { this@mockk.location } returns location
+        every { this@mockk.nts } returns nts
+        every { this@mockk.localAddress } returns localAddress
+        every { getHeader(Http.BOOTID_UPNP_ORG) } returns bootId
+    }
+
+    @Test
+    fun isDuplicate_同一メッセージは重複と判定される() {
+        val filter = SsdpDuplicateFilter()
+
+        assertThat(filter.isDuplicate(message())).isFalse()
+        assertThat(filter.isDuplicate(message())).isTrue()
+        assertThat(filter.isDuplicate(message())).isTrue()
+        assertThat(filter.hitCount).isEqualTo(2)
+        assertThat(filter.missCount).isEqualTo(1)
+    }
+
+    @Test
+    fun isDuplicate_内容が異なれば重複ではない() {
+        val filter = SsdpDuplicateFilter()
+
+        assertThat(filter.isDuplicate(message())).isFalse()
+        assertThat(filter.isDuplicate(message(nts = SsdpMessage.SSDP_BYEBYE))).isFalse()
+        assertThat(filter.isDuplicate(message())).isFalse()
+        assertThat(filter.isDuplicate(message(bootId = "2"))).isFalse()
+        assertThat(filter.isDuplicate(message(bootId = "2", location = "http://192.0.2.2:12346/"))).isFalse()
+        assertThat(filter.isDuplicate(message(uuid = "uuid:other"))).isFalse()
+        assertThat(filter.isDuplicate(message(localAddress = InetAddress.getByName("192.0.2.4")))).isFalse()
+        assertThat(filter.hitCount).isEqualTo(0)
+        assertThat(filter.missCount).isEqualTo(7)
+    }
+
+    @Test
+    fun isDuplicate_uuidが空なら判定しない() {
+        val filter = SsdpDuplicateFilter()
+
+        assertThat(filter.isDuplicate(message(uuid = ""))).isFalse()
+        assertThat(filter.isDuplicate(message(uuid = ""))).isFalse()
+    }
+
+    @Test
+    fun isDuplicate_時間が経過すれば重複ではない() {
+        val filter = SsdpDuplicateFilter(10L)
+
+        assertThat(filter.isDuplicate(message())).isFalse()
+        Thread.sleep(20L)
+        assertThat(filter.isDuplicate(message())).isFalse()
+    }
+
+    @Test
+    fun remove_削除後は重複ではない() {
+        val filter = SsdpDuplicateFilter()
+
+        assertThat(filter.isDuplicate(message())).isFalse()
+        filter.remove(UUID)
+        assertThat(filter.isDuplicate(message())).isFalse()
+        filter.clear()
+        assertThat(filter.isDuplicate(message())).isFalse()
+    }
+
+    companion object {
+        private const val UUID = "uuid:01234567-89ab-cdef-0123-456789abcdef"
+        private const val LOCATION = "http://192.0.2.2:12345/device.xml"
+        private val LOCAL_ADDRESS = InetAddress.getByName("192.0.2.3")
+    }
+}
@@ -50,6 +50,88 @@ class SubscribeManagerImplTest {
         taskExecutors.terminate()
     }
 
+    @Test
+    fun onEventReceived_duplicate_event_is_dropped() {
+        val holder: SubscribeServiceHolder = mockk(relaxed = true)
+        val executors: TaskExecutors = mockk(relaxed = true)
+        val factory = spyk(DiFactory())
+        every { factory.createSubscribeServiceHolder(any()) } returns holder
+        val listener: (Service, Long, List<Pair<String, String>>) -> Unit = mockk(relaxed = true)
+        val manager = SubscribeManagerImpl(executors, listener, factory)
+        val sid = "sid"
+        every { holder.getService(sid) } returns mockk(relaxed = true)
+        every { holder.checkEventSequence(sid, 1) } returns EventSequence.DUPLICATE
+
+        assertThat(manager.onEventReceived(sid, 1, listOf("" to ""))).isTrue()
+
+        verify(inverse = true) { listener.invoke(any(), any(), any()) }
+        assertThat(manager.getEventDuplicateCount()).isEqualTo(1)
+        assertThat(manager.getEventGapCount()).isEqualTo(0)
+    }
+
+    @Test
+    fun onEventReceived_resubscribe_on_gap() {
+        val holder: SubscribeServiceHolder = mockk(relaxed = true)
+        val taskExecutors = TaskExecutors()
+        val factory = spyk(DiFactory())
+        every { factory.createSubscribeServiceHolder(any()) } returns holder
+        val listener: (Service, Long, List<Pair<String, String>>) -> Unit = mockk(relaxed = true)
+        val manager = SubscribeManagerImpl(taskExecutors, listener, factory, resubscribeOnEventGap = true)
+        val sid = "sid"
+        val service: Service = mockk(relaxed = true)
+        every { holder.getService(sid) } returns service
+        every { holder.isKeepRenew(service) } returns true
+        every { holder.checkEventSequence(sid, 3) } returns EventSequence.GAP
+
+        assertThat(manager.onEventReceived(sid, 3, listOf("" to ""))).isTrue()
+
+        verify(exactly = 1) { listener.invoke(service, 3, any()) }
+        verify(timeout = 1000L) { service.unsubscribeSync() }
+        verify(timeout = 1000L) { service.subscribeSync(true) }
+        assertThat(manager.getEventGapCount()).isEqualTo(1)
+
+        taskExecutors.terminate()
+    }
+
+    @Test
+    fun register_登録前に届いたイベントは登録時に通知される() {
+        val taskExecutors = TaskExecutors()
+        val listener: (Service, Long, List<Pair<String, String>>) -> Unit = mockk(relaxed = true)
+        val manager = SubscribeManagerImpl(taskExecutors, listener, DiFactory())
+        val sid = "sid"
+        val service: Service = mockk(relaxed = true)
+        every { service.subscriptionId } returns sid
+
+        // the initial NOTIFY arrives before the response of SUBSCRIBE is handled
+        manager.onEventReceived(sid, 0, listOf("A" to "0"))
+        verify(inverse = true) { listener.invoke(any(), any(), any()) }
+
+        manager.register(service, 300000L, false)
+        verify(exactly = 1) { listener.invoke(service, 0, listOf("A" to "0")) }
+
+        assertThat(manager.onEventReceived(sid, 1, listOf("A" to "1"))).isTrue()
+        verify(exactly = 1) { listener.invoke(service, 1, listOf("A" to "1")) }
+        assertThat(manager.getEventGapCount()).isEqualTo(0)
+
+        taskExecutors.terminate()
+    }
+
+    @Test
+    fun register_他のSIDのイベントは通知されない() {
+        val taskExecutors = TaskExecutors()
+        val listener: (Service, Long, List<Pair<String, String>>) -> Unit = mockk(relaxed = true)
+        val manager = SubscribeManagerImpl(taskExecutors, listener, DiFactory())
+        val service: Service = mockk(relaxed = true)
+        every { service.subscriptionId } returns "sid"
+
+        manager.onEventReceived("other", 0, listOf("A" to "0"))
+        manager.register(service, 300000L, false)
+
+        verify(inverse = true) { listener.invoke(any(), any(), any()) }
+
+        taskExecutors.terminate()
+    }
+
     @Test
     fun initialize() {
         val holder: SubscribeServiceHolder = mockk(relaxed = true)
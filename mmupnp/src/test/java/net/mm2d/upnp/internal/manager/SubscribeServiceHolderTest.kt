@@ -10,19 +10,27 @@ package net.mm2d.upnp.internal.manager
 import com.google.common.truth.Truth.assertThat
 import io.mockk.every
 import io.mockk.mockk
+import io.mockk.spyk
 import io.mockk.verify
 import net.mm2d.upnp.Service
+import net.mm2d.upnp.internal.thread.IoPriority
 import net.mm2d.upnp.internal.thread.TaskExecutors
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.JUnit4
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
 @Suppress("TestFunctionName", "NonAsciiCharacters")
 @RunWith(JUnit4::class)
 class SubscribeServiceHolderTest {
     private lateinit var taskExecutors: TaskExecutors
+    private val now = AtomicLong(START_TIME)
+    private val clock: () -> Long = { now.get() }
 
     @Before
     fun setUp() {
@@ -106,6 +114,17 @@ class SubscribeServiceHolderTest {
         assertThat(subscribeHolder.getService(id2)).isNull()
     }
 
+    private fun SubscribeServiceHolder.advance(time: Long) {
+        now.addAndGet(time)
+        wakeUp()
+    }
+
+    private fun waitUntil(condition: () -> Boolean) {
+        while (!condition()) {
+            Thread.sleep(10L)
+        }
+    }
+
     @Test(timeout = 10000L)
     fun expire_時間経過で削除される() {
         val id1 = "id1"
@@ -114,7 +133,7 @@ class SubscribeServiceHolderTest {
         val id2 = "id2"
         val service2: Service = mockk(relaxed = true)
         every { service2.subscriptionId } returns id2
-        val subscribeHolder = SubscribeServiceHolder(taskExecutors)
+        val subscribeHolder = SubscribeServiceHolder(taskExecutors, clock = clock)
         subscribeHolder.start()
 
         subscribeHolder.add(service1, 1000L, false)
@@ -123,12 +142,14 @@ class SubscribeServiceHolderTest {
         assertThat(subscribeHolder.getService(id1)).isEqualTo(service1)
         assertThat(subscribeHolder.getService(id2)).isEqualTo(service2)
 
-        Thread.sleep(3000L)
+        subscribeHolder.advance(3000L)
+        verify(timeout = 5000L) { service1.unsubscribeSync() }
 
         assertThat(subscribeHolder.getService(id1)).isNull()
         assertThat(subscribeHolder.getService(id2)).isEqualTo(service2)
 
-        Thread.sleep(3000L)
+        subscribeHolder.advance(3000L)
+        verify(timeout = 5000L) { service2.unsubscribeSync() }
 
         assertThat(subscribeHolder.getService(id1)).isNull()
         assertThat(subscribeHolder.getService(id2)).isNull()
@@ -146,15 +167,15 @@ class SubscribeServiceHolderTest {
         every { service2.renewSubscribeSync() } returns true
         every { service2.subscriptionId } returns "id2"
 
-        val subscribeHolder = SubscribeServiceHolder(taskExecutors)
+        val subscribeHolder = SubscribeServiceHolder(taskExecutors, clock = clock)
         subscribeHolder.start()
 
         subscribeHolder.add(service1, 1000L, true)
         subscribeHolder.add(service2, 500L, true)
         verify(inverse = true) { service1.renewSubscribeSync() }
 
-        Thread.sleep(2000L)
-        verify(atLeast = 1) { service1.renewSubscribeSync() }
+        subscribeHolder.advance(300L)
+        verify(timeout = 5000L, atLeast = 1) { service1.renewSubscribeSync() }
 
         subscribeHolder.stop()
     }
@@ -165,13 +186,134 @@ class SubscribeServiceHolderTest {
         val service: Service = mockk(relaxed = true)
         every { service.renewSubscribeSync() } returns false
         every { service.subscriptionId } returns id
-        val subscribeHolder = SubscribeServiceHolder(taskExecutors)
+        val subscribeHolder = SubscribeServiceHolder(taskExecutors, clock = clock)
         subscribeHolder.start()
 
         subscribeHolder.add(service, 1000L, true)
-        Thread.sleep(3000L)
+        subscribeHolder.advance(300L)
+        verify(timeout = 5000L, exactly = 1) { service.renewSubscribeSync() }
+        subscribeHolder.advance(3000L)
+        verify(timeout = 5000L) { service.unsubscribeSync() }
         assertThat(subscribeHolder.getService(id)).isNull()
 
         subscribeHolder.stop()
     }
+
+    @Test(timeout = 10000L)
+    fun renew_応答の遅いrenewが他のrenewを待たせない() {
+        val latch = CountDownLatch(1)
+        val slowService: Service = mockk(relaxed = true)
+        every { slowService.renewSubscribeSync() } answers {
+            latch.await()
+            true
+        }
+        every { slowService.subscriptionId } returns "id1"
+        every { slowService.device.ipAddress } returns "192.0.2.2"
+
+        val service: Service = mockk(relaxed = true)
+        every { service.renewSubscribeSync() } returns true
+        every { service.subscriptionId } returns "id2"
+        every { service.device.ipAddress } returns "192.0.2.3"
+
+        val subscribeHolder = SubscribeServiceHolder(taskExecutors, clock = clock)
+        subscribeHolder.start()
+
+        subscribeHolder.add(slowService, 500L, true)
+        subscribeHolder.add(service, 1000L, true)
+
+        subscribeHolder.advance(300L)
+        verify(timeout = 5000L, atLeast = 1) { slowService.renewSubscribeSync() }
+        verify(timeout = 5000L, atLeast = 1) { service.renewSubscribeSync() }
+
+        latch.countDown()
+        subscribeHolder.stop()
+    }
+
+    @Test(timeout = 10000L)
+    fun renew_同じホストへのrenewは1つずつ実行される() {
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val services = (1..4).map { index ->
+            mockk<Service>(relaxed = true).also {
+                every { it.renewSubscribeSync() } answers {
+                    maxRunning.accumulateAndGet(running.incrementAndGet()) { a, b -> maxOf(a, b) }
+                    Thread.sleep(100L)
+                    running.decrementAndGet()
+                    true
+                }
+                every { it.subscriptionId } returns "id$index"
+                every { it.device.ipAddress } returns "192.0.2.2"
+            }
+        }
+        val subscribeHolder = SubscribeServiceHolder(taskExecutors, 0f, clock = clock)
+        subscribeHolder.start()
+
+        services.forEach { subscribeHolder.add(it, 1000L, true) }
+
+        subscribeHolder.advance(300L)
+        services.forEach {
+            verify(timeout = 5000L, atLeast = 1) { it.renewSubscribeSync() }
+        }
+        assertThat(maxRunning.get()).isEqualTo(1)
+
+        subscribeHolder.stop()
+    }
+
+    @Test(timeout = 10000L)
+    fun renew_同じホストへのrenewは間隔を空けて実行される() {
+        val count = AtomicInteger()
+        val services = (1..2).map { index ->
+            mockk<Service>(relaxed = true).also {
+                every { it.renewSubscribeSync() } answers {
+                    count.incrementAndGet()
+                    true
+                }
+                every { it.subscriptionId } returns "id$index"
+                every { it.device.ipAddress } returns "192.0.2.2"
+            }
+        }
+        val subscribeHolder = SubscribeServiceHolder(taskExecutors, 0f, 500L, clock = clock)
+        subscribeHolder.start()
+
+        services.forEach { subscribeHolder.add(it, 1000L, true) }
+
+        subscribeHolder.advance(300L)
+        waitUntil { count.get() == 1 }
+        subscribeHolder.advance(400L)
+        Thread.sleep(100L)
+        assertThat(count.get()).isEqualTo(1)
+
+        subscribeHolder.advance(200L)
+        waitUntil { count.get() == 2 }
+
+        subscribeHolder.stop()
+    }
+
+    @Test(timeout = 10000L)
+    fun expire_unsubscribeが実行できなければ後で再実行される() {
+        val executors = spyk(taskExecutors)
+        val count = AtomicInteger()
+        every { executors.io(IoPriority.LOW, any(), any()) } answers {
+            if (count.getAndIncrement() == 0) false else callOriginal()
+        }
+        val service: Service = mockk(relaxed = true)
+        every { service.subscriptionId } returns "id"
+        val subscribeHolder = SubscribeServiceHolder(executors, clock = clock)
+        subscribeHolder.start()
+
+        subscribeHolder.add(service, 500L, false)
+
+        subscribeHolder.advance(600L)
+        waitUntil { count.get() == 1 }
+        verify(inverse = true) { service.unsubscribeSync() }
+        subscribeHolder.advance(1000L)
+        verify(timeout = 5000L) { service.unsubscribeSync() }
+        assertThat(count.get()).isEqualTo(2)
+
+        subscribeHolder.stop()
+    }
+
+    companion object {
+        private const val START_TIME = 1_000_000L
+    }
 }
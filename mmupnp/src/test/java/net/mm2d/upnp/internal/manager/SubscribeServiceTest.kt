@@ -176,6 +176,104 @@ class SubscribeServiceTest {
         assertThat(subscribeService.calculateRenewTime() - start - TimeUnit.SECONDS.toMillis(4)).isLessThan(100L)
     }
 
+    @Test
+    fun calculateRenewTime_ジッターの範囲で早まる() {
+        val service: Service = mockk(relaxed = true)
+        val timeout = TimeUnit.SECONDS.toMillis(300)
+        val times = (0 until 20).map {
+            val start = System.currentTimeMillis()
+            val subscribeService = SubscribeService(service, timeout, false, 0.5f)
+            subscribeService.calculateRenewTime() - start
+        }
+
+        times.forEach {
+            assertThat(it).isAtLeast(TimeUnit.SECONDS.toMillis(70))
+            assertThat(it).isAtMost(TimeUnit.SECONDS.toMillis(140) + 100L)
+        }
+        assertThat(times.distinct().size).isGreaterThan(1)
+    }
+
+    @Test
+    fun calculateRenewTime_adaptiveの場合成功が続くと間隔が延びる() {
+        val service: Service = mockk(relaxed = true)
+        every { service.renewSubscribeSync() } returns true
+        val timeout = TimeUnit.SECONDS.toMillis(300)
+        val subscribeService = SubscribeService(service, timeout, true, 0f, true)
+        val start = System.currentTimeMillis()
+        val first = subscribeService.calculateRenewTime() - start
+        assertThat(first - TimeUnit.SECONDS.toMillis(140)).isLessThan(100L)
+
+        repeat(10) {
+            subscribeService.renewSubscribe(subscribeService.calculateRenewTime())
+        }
+        val interval = subscribeService.calculateRenewTime() - start
+
+        assertThat(interval).isGreaterThan(first)
+        assertThat(interval).isAtMost(TimeUnit.SECONDS.toMillis(215) + 100L)
+        assertThat(subscribeService.renewCount).isEqualTo(10)
+    }
+
+    @Test
+    fun calculateRenewTime_adaptiveでも失敗すると基本の間隔に戻る() {
+        val service: Service = mockk(relaxed = true)
+        every { service.renewSubscribeSync() } returns true
+        val timeout = TimeUnit.SECONDS.toMillis(300)
+        val subscribeService = SubscribeService(service, timeout, true, 0f, true)
+        val start = System.currentTimeMillis()
+        repeat(10) {
+            subscribeService.renewSubscribe(subscribeService.calculateRenewTime())
+        }
+        every { service.renewSubscribeSync() } returns false
+        subscribeService.renewSubscribe(subscribeService.calculateRenewTime())
+
+        assertThat(subscribeService.calculateRenewTime() - start - TimeUnit.SECONDS.toMillis(290)).isLessThan(100L)
+    }
+
+    @Test
+    fun isExpired_無期限の場合期限切れにならない() {
+        val service: Service = mockk(relaxed = true)
+        val subscribeService = SubscribeService(service, SubscribeService.INFINITE, true)
+
+        assertThat(subscribeService.isExpired(Long.MAX_VALUE - 1)).isFalse()
+        assertThat(subscribeService.isRenewTime(Long.MAX_VALUE - 1)).isFalse()
+    }
+
+    @Test
+    fun checkSequence_SEQの順序を判定する() {
+        val service: Service = mockk(relaxed = true)
+        val subscribeService = SubscribeService(service, TimeUnit.SECONDS.toMillis(300), false)
+
+        assertThat(subscribeService.checkSequence(0)).isEqualTo(EventSequence.IN_ORDER)
+        assertThat(subscribeService.checkSequence(1)).isEqualTo(EventSequence.IN_ORDER)
+        assertThat(subscribeService.checkSequence(1)).isEqualTo(EventSequence.DUPLICATE)
+        assertThat(subscribeService.checkSequence(4)).isEqualTo(EventSequence.GAP)
+        assertThat(subscribeService.checkSequence(3)).isEqualTo(EventSequence.DUPLICATE)
+        assertThat(subscribeService.checkSequence(5)).isEqualTo(EventSequence.IN_ORDER)
+        assertThat(subscribeService.checkSequence(0)).isEqualTo(EventSequence.RESET)
+        assertThat(subscribeService.checkSequence(1)).isEqualTo(EventSequence.IN_ORDER)
+    }
+
+    @Test
+    fun checkSequence_最初のイベントが0でなくても欠落とはしない() {
+        val service: Service = mockk(relaxed = true)
+        val subscribeService = SubscribeService(service, TimeUnit.SECONDS.toMillis(300), false)
+
+        assertThat(subscribeService.checkSequence(2)).isEqualTo(EventSequence.IN_ORDER)
+        assertThat(subscribeService.checkSequence(3)).isEqualTo(EventSequence.IN_ORDER)
+        assertThat(subscribeService.checkSequence(5)).isEqualTo(EventSequence.GAP)
+    }
+
+    @Test
+    fun checkSequence_最大値の次は1() {
+        val service: Service = mockk(relaxed = true)
+        val subscribeService = SubscribeService(service, TimeUnit.SECONDS.toMillis(300), false)
+
+        subscribeService.checkSequence(4294967294L)
+        assertThat(subscribeService.checkSequence(4294967295L)).isEqualTo(EventSequence.IN_ORDER)
+        assertThat(subscribeService.checkSequence(1)).isEqualTo(EventSequence.IN_ORDER)
+        assertThat(subscribeService.checkSequence(4294967295L)).isEqualTo(EventSequence.DUPLICATE)
+    }
+
     @Test
     fun renewSubscribe() {
         val service: Service = mockk(relaxed = true)
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.manager
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class TimingWheelTest {
+    @Test
+    fun advance_期限が来た要素だけを返す() {
+        val wheel = TimingWheel<String>(100L, 8, 0L)
+        wheel.schedule("a", 300L)
+        wheel.schedule("b", 150L)
+        wheel.schedule("c", 1000L)
+
+        assertThat(wheel.advance(100L)).isEmpty()
+        assertThat(wheel.advance(200L)).containsExactly("b")
+        assertThat(wheel.advance(300L)).containsExactly("a")
+        assertThat(wheel.size).isEqualTo(1)
+        assertThat(wheel.advance(999L)).isEmpty()
+        assertThat(wheel.advance(1000L)).containsExactly("c")
+        assertThat(wheel.isEmpty()).isTrue()
+    }
+
+    @Test
+    fun advance_期限より前に返さない() {
+        val wheel = TimingWheel<String>(100L, 8, 0L)
+        wheel.schedule("a", 101L)
+
+        assertThat(wheel.advance(199L)).isEmpty()
+        assertThat(wheel.advance(200L)).containsExactly("a")
+    }
+
+    @Test
+    fun advance_過去の期限はすぐに返す() {
+        val wheel = TimingWheel<String>(100L, 8, 1000L)
+        wheel.schedule("a", 0L)
+
+        assertThat(wheel.nextTime()).isEqualTo(1000L)
+        assertThat(wheel.advance(1000L)).containsExactly("a")
+    }
+
+    @Test
+    fun cancel_キャンセルした要素は返さない() {
+        val wheel = TimingWheel<String>(100L, 8, 0L)
+        wheel.schedule("a", 300L)
+        wheel.schedule("b", 300L)
+
+        assertThat(wheel.cancel("a")).isTrue()
+        assertThat(wheel.cancel("a")).isFalse()
+        assertThat(wheel.contains("a")).isFalse()
+        assertThat(wheel.advance(300L)).containsExactly("b")
+    }
+
+    @Test
+    fun schedule_再スケジュールすると新しい期限で返す() {
+        val wheel = TimingWheel<String>(100L, 8, 0L)
+        wheel.schedule("a", 300L)
+        wheel.schedule("a", 5000L)
+
+        assertThat(wheel.advance(300L)).isEmpty()
+        assertThat(wheel.nextTime()).isAtMost(5000L)
+        assertThat(wheel.advance(5000L)).containsExactly("a")
+    }
+
+    @Test
+    fun advance_上位の階層から正しく降りてくる() {
+        val wheel = TimingWheel<Long>(1L, 4, 0L)
+        val times = listOf(3L, 4L, 15L, 16L, 17L, 63L, 64L, 65L, 1000L, 4097L)
+        times.forEach { wheel.schedule(it, it) }
+
+        val result = mutableListOf<Long>()
+        var now = 0L
+        while (!wheel.isEmpty()) {
+            now = wheel.nextTime()!!
+            wheel.advance(now).forEach {
+                assertThat(it).isEqualTo(now)
+                result.add(it)
+            }
+        }
+        assertThat(result).containsExactlyElementsIn(times).inOrder()
+        assertThat(now).isEqualTo(4097L)
+    }
+
+    @Test
+    fun advance_まとめて進めても漏れなく返す() {
+        val wheel = TimingWheel<Long>(1L, 4, 0L)
+        val times = (1L..200L step 7).toList()
+        times.forEach { wheel.schedule(it, it) }
+
+        assertThat(wheel.advance(100L)).containsExactlyElementsIn(times.filter { it <= 100L })
+        assertThat(wheel.advance(200L)).containsExactlyElementsIn(times.filter { it > 100L })
+    }
+
+    @Test
+    fun nextTime_遠い期限でもオーバーフローしない() {
+        val wheel = TimingWheel<String>(100L, 64, System.currentTimeMillis())
+        wheel.schedule("a", Long.MAX_VALUE)
+
+        assertThat(wheel.nextTime()!!).isGreaterThan(System.currentTimeMillis())
+        assertThat(wheel.advance(System.currentTimeMillis() + 1000L)).isEmpty()
+        assertThat(wheel.contains("a")).isTrue()
+    }
+}
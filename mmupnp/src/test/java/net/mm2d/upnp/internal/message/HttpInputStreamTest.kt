@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.message
+
+import com.google.common.truth.Truth.assertThat
+import io.mockk.mockk
+import io.mockk.verify
+import net.mm2d.upnp.HttpMessage
+import net.mm2d.upnp.HttpResponse
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class HttpInputStreamTest {
+    @Test
+    fun readLine_CRLFとLFのどちらも行末として扱う() {
+        val input = HttpInputStream(ByteArrayInputStream("line1\r\nline2\nline3".toByteArray()))
+        assertThat(input.readLine()).isEqualTo("line1")
+        assertThat(input.readLine()).isEqualTo("line2")
+        assertThat(input.readLine()).isEqualTo("line3")
+    }
+
+    @Test
+    fun readLine_バッファをまたぐ行を読み出せる() {
+        val line = "0123456789".repeat(10)
+        val input = HttpInputStream(ByteArrayInputStream("$line\r\n$line\r\n".toByteArray()), 16)
+        assertThat(input.readLine()).isEqualTo(line)
+        assertThat(input.readLine()).isEqualTo(line)
+    }
+
+    @Test(expected = IOException::class)
+    fun readLine_終端に達していたらException() {
+        val input = HttpInputStream(ByteArrayInputStream("line\r\n".toByteArray()))
+        input.readLine()
+        input.readLine()
+    }
+
+    @Test
+    fun readHeader_名前と値をtrimして設定する() {
+        val message: HttpMessage = mockk(relaxed = true)
+        val input = HttpInputStream(ByteArrayInputStream("  Name :  value: 1 \r\nillegal\r\n\r\n".toByteArray()))
+        assertThat(input.readHeader(message)).isTrue()
+        assertThat(input.readHeader(message)).isTrue()
+        assertThat(input.readHeader(message)).isFalse()
+        verify(exactly = 1) { message.setHeader("Name", "value: 1") }
+        verify(exactly = 1) { message.setHeader(any(), any()) }
+    }
+
+    @Test
+    fun readChunkSize_拡張を無視してサイズを返す() {
+        val input = HttpInputStream(ByteArrayInputStream("1a;name=value\r\nFF \r\n0\r\n".toByteArray()))
+        assertThat(input.readChunkSize()).isEqualTo(0x1a)
+        assertThat(input.readChunkSize()).isEqualTo(0xff)
+        assertThat(input.readChunkSize()).isEqualTo(0)
+    }
+
+    @Test(expected = IOException::class)
+    fun readChunkSize_フォーマットエラーならException() {
+        HttpInputStream(ByteArrayInputStream("xyz\r\n".toByteArray())).readChunkSize()
+    }
+
+    @Test
+    fun parseChunkSize_不正な値なら負の値() {
+        fun parse(line: String): Int = line.toByteArray().let { HttpInputStream.parseChunkSize(it, 0, it.size) }
+        assertThat(parse("")).isLessThan(0)
+        assertThat(parse(";ext")).isLessThan(0)
+        assertThat(parse("1g")).isLessThan(0)
+        assertThat(parse("100000000")).isLessThan(0)
+        assertThat(parse("7fffffff")).isEqualTo(Int.MAX_VALUE)
+    }
+
+    @Test
+    fun readBytes_copyTo_指定サイズを読み出せる() {
+        val input = HttpInputStream(ByteArrayInputStream("0123456789".toByteArray()), 4)
+        assertThat(input.readBytes(3)).isEqualTo("012".toByteArray())
+        val output = ByteArrayOutputStream()
+        input.copyTo(output, 6)
+        assertThat(output.toByteArray()).isEqualTo("345678".toByteArray())
+        assertThat(input.read()).isEqualTo('9'.toInt())
+        assertThat(input.read()).isEqualTo(-1)
+    }
+
+    @Test
+    fun readBytes_バッファをまたいで指定サイズを読み出せる() {
+        val data = ByteArray(20000) { it.toByte() }
+        val input = HttpInputStream(ByteArrayInputStream(data), 100)
+        assertThat(input.readBytes(data.size)).isEqualTo(data)
+    }
+
+    @Test(expected = IOException::class)
+    fun readBytes_巨大なContentLengthでも受信前に確保せずException() {
+        val data = "HTTP/1.1 200 OK\r\nContent-Length: 2000000000\r\n\r\nabc".toByteArray()
+        HttpResponse.create(HttpInputStream(ByteArrayInputStream(data)))
+    }
+
+    @Test(expected = IOException::class)
+    fun copyTo_途中で終端に達したらException() {
+        HttpInputStream(ByteArrayInputStream("0123".toByteArray())).copyTo(ByteArrayOutputStream(), 5)
+    }
+
+    @Test
+    fun wrap_先読みしない() {
+        val source = ByteArrayInputStream("line\r\nrest".toByteArray())
+        val input = HttpInputStream.wrap(source)
+        assertThat(input.readLine()).isEqualTo("line")
+        assertThat(source.available()).isEqualTo(4)
+        assertThat(HttpInputStream.wrap(input)).isSameInstanceAs(input)
+    }
+
+    @Test
+    fun readData_同じストリームから連続してメッセージを読み出せる() {
+        val data = ("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nab" +
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n2\r\ncd\r\n0\r\n\r\n").toByteArray()
+        val input = HttpInputStream(ByteArrayInputStream(data))
+        assertThat(HttpResponse.create(input).getBody()).isEqualTo("ab")
+        assertThat(HttpResponse.create(input).getBody()).isEqualTo("cd")
+    }
+
+    @Test
+    fun readData_受信データをそのまま読み出せる() {
+        val data = "xxHTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nabxx".toByteArray()
+        val response = HttpResponse.create(HttpInputStream(data, 2, data.size - 4))
+        assertThat(response.getStatusCode()).isEqualTo(200)
+        assertThat(response.getBody()).isEqualTo("ab")
+    }
+}
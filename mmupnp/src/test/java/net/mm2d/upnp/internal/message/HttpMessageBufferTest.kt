@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.message
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.IOException
+import java.nio.ByteBuffer
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class HttpMessageBufferTest {
+    @Test
+    fun findMessageLength_ヘッダが終わるまでは未完了() {
+        val buffer = HttpMessageBuffer()
+        buffer.append(ByteBuffer.wrap("NOTIFY / HTTP/1.1\r\nContent-Length: 0\r\n".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(-1)
+        buffer.append(ByteBuffer.wrap("\r\n".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(buffer.size)
+    }
+
+    @Test
+    fun findMessageLength_ContentLength分のbodyが揃うまでは未完了() {
+        val buffer = HttpMessageBuffer()
+        buffer.append(ByteBuffer.wrap("NOTIFY / HTTP/1.1\r\ncontent-length: 4\r\n\r\nab".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(-1)
+        buffer.append(ByteBuffer.wrap("cdef".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(buffer.size - 2)
+    }
+
+    @Test
+    fun findMessageLength_chunkedは終端chunkまで未完了() {
+        val buffer = HttpMessageBuffer()
+        buffer.append(ByteBuffer.wrap("NOTIFY / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n4\r\nabcd\r\n".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(-1)
+        buffer.append(ByteBuffer.wrap("0\r\n".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(-1)
+        buffer.append(ByteBuffer.wrap("\r\n".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(buffer.size)
+    }
+
+    @Test
+    fun findMessageLength_必要に応じて拡張される() {
+        val buffer = HttpMessageBuffer()
+        val body = ByteArray(10000) { 'a'.toByte() }
+        buffer.append(ByteBuffer.wrap("NOTIFY / HTTP/1.1\r\nContent-Length: ${body.size}\r\n\r\n".toByteArray()))
+        buffer.append(ByteBuffer.wrap(body))
+        assertThat(buffer.findMessageLength()).isEqualTo(buffer.size)
+    }
+
+    @Test
+    fun clear_再利用できる() {
+        val buffer = HttpMessageBuffer()
+        buffer.append(ByteBuffer.wrap("NOTIFY / HTTP/1.1\r\nContent-Length: 10000\r\n\r\n".toByteArray()))
+        buffer.append(ByteBuffer.wrap(ByteArray(10000)))
+        assertThat(buffer.findMessageLength()).isEqualTo(buffer.size)
+
+        buffer.clear()
+        assertThat(buffer.size).isEqualTo(0)
+        assertThat(buffer.data.size).isLessThan(10000)
+        buffer.append(ByteBuffer.wrap("NOTIFY / HTTP/1.1\r\nContent-Length: 0\r\n\r\n".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(buffer.size)
+    }
+
+    @Test(expected = IOException::class)
+    fun findMessageLength_chunk_sizeが不正ならException() {
+        val buffer = HttpMessageBuffer()
+        buffer.append(ByteBuffer.wrap("NOTIFY / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nxyz\r\n".toByteArray()))
+        buffer.findMessageLength()
+    }
+
+    @Test
+    fun findMessageLength_ContentLengthのないリクエストはbodyなし() {
+        val buffer = HttpMessageBuffer()
+        buffer.append(ByteBuffer.wrap("GET / HTTP/1.1\r\nHost: a\r\n\r\n".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(buffer.size)
+    }
+
+    @Test
+    fun findMessageLength_ContentLengthのないレスポンスは切断まで未完了() {
+        val buffer = HttpMessageBuffer(true)
+        buffer.append(ByteBuffer.wrap("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\nabc".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(-1)
+        assertThat(buffer.findMessageLengthAtClose()).isEqualTo(buffer.size)
+    }
+
+    @Test
+    fun findMessageLengthAtClose_ヘッダの途中で切断されたら未完了() {
+        val buffer = HttpMessageBuffer(true)
+        buffer.append(ByteBuffer.wrap("HTTP/1.1 200 OK\r\nConnection: close\r\n".toByteArray()))
+        assertThat(buffer.findMessageLengthAtClose()).isEqualTo(-1)
+    }
+
+    @Test
+    fun findMessageLengthAtClose_ContentLength分に満たなければ未完了() {
+        val buffer = HttpMessageBuffer(true)
+        buffer.append(ByteBuffer.wrap("HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nab".toByteArray()))
+        assertThat(buffer.findMessageLengthAtClose()).isEqualTo(-1)
+    }
+
+    @Test
+    fun findMessageLength_204レスポンスはbodyなし() {
+        val buffer = HttpMessageBuffer(true)
+        buffer.append(ByteBuffer.wrap("HTTP/1.1 204 No Content\r\n\r\n".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(buffer.size)
+    }
+
+    @Test
+    fun findMessageLength_1xxレスポンスは破棄して最終レスポンスを返す() {
+        val buffer = HttpMessageBuffer(true)
+        val final = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nab"
+        buffer.append(ByteBuffer.wrap("HTTP/1.1 100 Continue\r\n\r\n".toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(-1)
+        buffer.append(ByteBuffer.wrap(final.toByteArray()))
+        assertThat(buffer.findMessageLength()).isEqualTo(final.length)
+        assertThat(String(buffer.data, 0, final.length)).isEqualTo(final)
+    }
+}
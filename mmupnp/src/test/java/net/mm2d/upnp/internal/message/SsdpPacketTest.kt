@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.message
+
+import com.google.common.truth.Truth.assertThat
+import net.mm2d.upnp.Http
+import net.mm2d.upnp.HttpRequest
+import net.mm2d.upnp.HttpResponse
+import net.mm2d.upnp.SsdpMessage
+import net.mm2d.upnp.util.TestUtils
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayInputStream
+import java.io.IOException
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class SsdpPacketTest {
+    private fun scanResource(name: String): SsdpPacket {
+        val data = TestUtils.getResourceAsByteArray(name)
+        return SsdpPacket.scan(data, data.size)!!
+    }
+
+    @Test
+    fun scan_必要なヘッダが取得できる() {
+        val packet = scanResource("ssdp-notify-alive0.bin")
+
+        assertThat(packet.nts).isEqualTo(SsdpMessage.SSDP_ALIVE)
+        assertThat(packet.location).isEqualTo("http://192.0.2.2:12345/device.xml")
+        assertThat(packet.isByeBye()).isFalse()
+        assertThat(packet.hasTelepathyAddress()).isFalse()
+        assertThat(packet.isMethod(SsdpMessage.NOTIFY)).isTrue()
+        assertThat(packet.isMethod(SsdpMessage.M_SEARCH)).isFalse()
+    }
+
+    @Test
+    fun scan_byebye() {
+        val packet = scanResource("ssdp-notify-byebye0.bin")
+
+        assertThat(packet.isByeBye()).isTrue()
+        assertThat(packet.location).isNull()
+    }
+
+    @Test
+    fun scan_telepathy() {
+        val packet = scanResource("ssdp-notify-alive-telepathy.bin")
+
+        assertThat(packet.hasTelepathyAddress()).isTrue()
+    }
+
+    @Test
+    fun scan_ヘッダ名の大文字小文字と空白を無視する() {
+        val data = "NOTIFY * HTTP/1.1\r\nnts :  ssdp:byebye \r\nLocation:http://192.0.2.2/\r\n\r\n".toByteArray()
+        val packet = SsdpPacket.scan(data, data.size)!!
+
+        assertThat(packet.isByeBye()).isTrue()
+        assertThat(packet.location).isEqualTo("http://192.0.2.2/")
+    }
+
+    @Test
+    fun scan_lengthより後ろは無視する() {
+        val data = "NOTIFY * HTTP/1.1\r\nNTS: ssdp:alive\r\n\r\nNTS: ssdp:byebye\r\n\r\n".toByteArray()
+        val packet = SsdpPacket.scan(data, 38)!!
+
+        assertThat(packet.nts).isEqualTo(SsdpMessage.SSDP_ALIVE)
+    }
+
+    @Test
+    fun scan_空行で終わらない場合はnull() {
+        val data = "NOTIFY * HTTP/1.1\r\nNTS: ssdp:alive\r\n".toByteArray()
+
+        assertThat(SsdpPacket.scan(data, data.size)).isNull()
+        assertThat(SsdpPacket.scan(ByteArray(0), 0)).isNull()
+    }
+
+    @Test
+    fun writeTo_ストリームから読み込んだものと等価() {
+        val data = TestUtils.getResourceAsByteArray("ssdp-notify-alive0.bin")
+        val expected = HttpRequest.create().also { it.readData(ByteArrayInputStream(data)) }
+        val actual = HttpRequest.create()
+
+        SsdpPacket.scan(data, data.size)!!.writeTo(actual)
+
+        assertThat(actual.getMessageString()).isEqualTo(expected.getMessageString())
+        assertThat(actual.getHeader(Http.USN)).isEqualTo(expected.getHeader(Http.USN))
+    }
+
+    @Test
+    fun writeTo_response() {
+        val data = TestUtils.getResourceAsByteArray("ssdp-search-response0.bin")
+        val expected = HttpResponse.create(ByteArrayInputStream(data))
+        val actual = HttpResponse.create()
+
+        SsdpPacket.scan(data, data.size)!!.writeTo(actual)
+
+        assertThat(actual.getMessageString()).isEqualTo(expected.getMessageString())
+    }
+
+    @Test(expected = IOException::class)
+    fun writeTo_startLineが不正ならException() {
+        val data = "NOTIFY * HTTP/1.1\r\nNTS: ssdp:alive\r\n\r\n".toByteArray()
+
+        SsdpPacket.scan(data, data.size)!!.writeTo(HttpResponse.create())
+    }
+}
@@ -10,11 +10,14 @@ package net.mm2d.upnp.internal.parser
 import com.google.common.truth.Truth.assertThat
 import io.mockk.every
 import io.mockk.mockk
+import io.mockk.verify
+import net.mm2d.upnp.Adapter.iconFilter
 import net.mm2d.upnp.HttpClient
 import net.mm2d.upnp.SsdpMessage
 import net.mm2d.upnp.internal.impl.ControlPointImpl
 import net.mm2d.upnp.internal.impl.DeviceImpl
 import net.mm2d.upnp.internal.message.SsdpRequest
+import net.mm2d.upnp.internal.thread.TaskExecutors
 import net.mm2d.upnp.util.TestUtils
 import org.junit.Assert.fail
 import org.junit.Before
@@ -80,6 +83,92 @@ class DeviceParserTest {
             assertThat(ControlPointImpl.collectUdn(device)).hasSize(1)
         }
 
+        @Test
+        fun loadDescription_同じSCPDのServiceはモデルを共有する() {
+            every {
+                httpClient.downloadString(URL("http://192.0.2.2:12345/device.xml"))
+            } returns TestUtils.getResourceAsString("device.xml")
+            every {
+                httpClient.downloadString(URL("http://192.0.2.2:12345/cds.xml"))
+            } answers { TestUtils.getResourceAsString("cds.xml") }
+
+            val builder1 = DeviceImpl.Builder(controlPoint, ssdpMessage)
+            DeviceParser.loadDescription(httpClient, builder1)
+            val device1 = builder1.build()
+            val builder2 = DeviceImpl.Builder(controlPoint, ssdpMessage)
+            DeviceParser.loadDescription(httpClient, builder2)
+            val device2 = builder2.build()
+
+            val service1 = device1.findServiceById("urn:upnp-org:serviceId:ContentDirectory")!!
+            val service2 = device2.findServiceById("urn:upnp-org:serviceId:ContentDirectory")!!
+            assertThat(service2.description).isSameInstanceAs(service1.description)
+            assertThat(service2.stateVariableList[0]).isSameInstanceAs(service1.stateVariableList[0])
+            val action1 = service1.findAction("Browse")!!
+            val action2 = service2.findAction("Browse")!!
+            assertThat(action2.argumentList[0]).isSameInstanceAs(action1.argumentList[0])
+            assertThat(action1.service).isSameInstanceAs(service1)
+            assertThat(action2.service).isSameInstanceAs(service2)
+        }
+
+        @Test
+        fun loadDescription_GCを挟んでも使用中のモデルは共有される() {
+            every {
+                httpClient.downloadString(URL("http://192.0.2.2:12345/device.xml"))
+            } returns TestUtils.getResourceAsString("device.xml")
+            every {
+                httpClient.downloadString(URL("http://192.0.2.2:12345/cds.xml"))
+            } answers { TestUtils.getResourceAsString("cds.xml") }
+
+            // only the device is kept, the builder is not reachable after loading
+            fun load(): DeviceImpl = DeviceImpl.Builder(controlPoint, ssdpMessage).also {
+                DeviceParser.loadDescription(httpClient, it)
+            }.build()
+
+            val device1 = load()
+            System.gc()
+            val device2 = load()
+
+            val service1 = device1.findServiceById("urn:upnp-org:serviceId:ContentDirectory")!!
+            val service2 = device2.findServiceById("urn:upnp-org:serviceId:ContentDirectory")!!
+            assertThat(service2.stateVariableList[0]).isSameInstanceAs(service1.stateVariableList[0])
+        }
+
+        @Test
+        fun loadDescription_並列にServiceとIconを取得できる() {
+            every {
+                httpClient.downloadString(URL("http://192.0.2.2:12345/device.xml"))
+            } returns TestUtils.getResourceAsString("device.xml")
+            val taskExecutors = TaskExecutors()
+            val downloader = ParallelDownloader({ _, task -> taskExecutors.io(task) }, { httpClient })
+
+            val builder = DeviceImpl.Builder(controlPoint, ssdpMessage)
+            DeviceParser.loadDescription(httpClient, builder, downloader, iconFilter { it })
+            val device = builder.build()
+            taskExecutors.terminate()
+
+            assertThat(device.serviceList).hasSize(3)
+            assertThat(device.serviceList.all { it.actionList.isNotEmpty() }).isTrue()
+            verify(exactly = 4) { httpClient.downloadBinary(any()) }
+        }
+
+        @Test
+        fun loadDescription_並列にEmbeddedDeviceのServiceも取得できる() {
+            every {
+                httpClient.downloadString(URL("http://192.0.2.2:12345/device.xml"))
+            } returns TestUtils.getResourceAsString("device-with-embedded-device.xml")
+            val taskExecutors = TaskExecutors()
+            val downloader = ParallelDownloader({ _, task -> taskExecutors.io(task) }, { httpClient })
+
+            val builder = DeviceImpl.Builder(controlPoint, ssdpMessage)
+            DeviceParser.loadDescription(httpClient, builder, downloader, iconFilter { it })
+            val device = builder.build()
+            taskExecutors.terminate()
+
+            val embedded = device.deviceList[0]
+            assertThat(embedded.serviceList.all { it.actionList.isNotEmpty() }).isTrue()
+            assertThat(embedded.deviceList[0].serviceList.all { it.actionList.isNotEmpty() }).isTrue()
+        }
+
         @Test
         fun loadDescription_想定外のタグは無視する() {
             every {
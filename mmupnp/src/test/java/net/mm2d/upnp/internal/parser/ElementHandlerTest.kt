@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.parser
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import org.xml.sax.SAXException
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class ElementHandlerTest {
+    private class RecordHandler : ElementHandler() {
+        val result = mutableListOf<String>()
+
+        override fun onEndElement(uri: String, localName: String, text: String) {
+            result.add("$depth:${parentName()}:$uri:$localName:$text")
+        }
+    }
+
+    @Test
+    fun parse_子孫要素のテキストを含むtextContentが渡される() {
+        val handler = RecordHandler()
+        ElementHandler.parse("<root><a>x<b>y</b>z</a></root>", handler)
+        assertThat(handler.result).containsExactly(
+            "3:a::b:y",
+            "2:root::a:xyz",
+            "1:null::root:xyz"
+        ).inOrder()
+    }
+
+    @Test
+    fun parse_namespaceとlocalNameが渡される() {
+        val handler = RecordHandler()
+        ElementHandler.parse("<root xmlns:s=\"urn:test\"><s:a>x</s:a></root>", handler)
+        assertThat(handler.result).contains("2:root:urn:test:a:x")
+    }
+
+    @Test
+    fun parse_エラー後も同一スレッドで再利用できる() {
+        try {
+            ElementHandler.parse("<root><a></root>", RecordHandler())
+        } catch (ignored: SAXException) {
+        }
+        val handler = RecordHandler()
+        ElementHandler.parse("<root>x</root>", handler)
+        assertThat(handler.result).containsExactly("1:null::root:x")
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.parser
+
+import com.google.common.truth.Truth.assertThat
+import io.mockk.mockk
+import io.mockk.verify
+import net.mm2d.upnp.HttpClient
+import net.mm2d.upnp.internal.thread.TaskExecutors
+import org.junit.After
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class ParallelDownloaderTest {
+    private lateinit var taskExecutors: TaskExecutors
+
+    @Before
+    fun setUp() {
+        taskExecutors = TaskExecutors()
+    }
+
+    @After
+    fun tearDown() {
+        taskExecutors.terminate()
+    }
+
+    @Test(timeout = 10000L)
+    fun execute_並列に実行される() {
+        val helperClient: HttpClient = mockk(relaxed = true)
+        val downloader = ParallelDownloader({ _, task -> taskExecutors.io(task) }, { helperClient })
+        val latch = CountDownLatch(2)
+        val task: (HttpClient) -> Unit = {
+            latch.countDown()
+            assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue()
+        }
+
+        downloader.execute(mockk(relaxed = true), listOf(task, task))
+
+        verify(timeout = 1000L) { helperClient.close() }
+    }
+
+    @Test
+    fun execute_executorが実行できない場合は呼び出しスレッドで全て実行する() {
+        val executor: (String?, () -> Unit) -> Boolean = { _, _ -> false }
+        val downloader = ParallelDownloader(executor, { fail(); mockk() })
+        val client: HttpClient = mockk(relaxed = true)
+        val count = AtomicInteger()
+
+        val task: (HttpClient) -> Unit = {
+            assertThat(it).isSameInstanceAs(client)
+            count.incrementAndGet()
+        }
+
+        downloader.execute(client, List(5) { task })
+
+        assertThat(count.get()).isEqualTo(5)
+    }
+
+    @Test
+    fun execute_executorに宛先のホストが渡される() {
+        val hostList = mutableListOf<String?>()
+        val executor: (String?, () -> Unit) -> Boolean = { host, _ ->
+            hostList.add(host)
+            false
+        }
+        val downloader = ParallelDownloader(executor, { mockk() })
+
+        downloader.execute(mockk(relaxed = true), List(2) { { _: HttpClient -> } }, "192.0.2.2")
+
+        assertThat(hostList).containsExactly("192.0.2.2")
+    }
+
+    @Test
+    fun execute_Exceptionが発生したら残りを実行せずにthrowする() {
+        val executor: (String?, () -> Unit) -> Boolean = { _, _ -> false }
+        val downloader = ParallelDownloader(executor, { mockk() })
+        val count = AtomicInteger()
+        val tasks = listOf<(HttpClient) -> Unit>(
+            { count.incrementAndGet() },
+            { throw IOException() },
+            { count.incrementAndGet() }
+        )
+
+        try {
+            downloader.execute(mockk(relaxed = true), tasks)
+            fail()
+        } catch (e: IOException) {
+        }
+        assertThat(count.get()).isEqualTo(1)
+    }
+}
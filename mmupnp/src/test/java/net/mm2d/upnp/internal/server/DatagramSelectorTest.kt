@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.server
+
+import com.google.common.truth.Truth.assertThat
+import net.mm2d.upnp.internal.thread.TaskExecutors
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class DatagramSelectorTest {
+    private lateinit var taskExecutors: TaskExecutors
+    private lateinit var sender: DatagramChannel
+
+    @Before
+    fun setUp() {
+        taskExecutors = TaskExecutors()
+        sender = DatagramChannel.open()
+    }
+
+    @After
+    fun tearDown() {
+        sender.close()
+        taskExecutors.terminate()
+    }
+
+    private fun openChannel(): DatagramChannel =
+        DatagramChannel.open().also {
+            it.socket().bind(InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+        }
+
+    private fun DatagramChannel.sendTo(channel: DatagramChannel, message: String) {
+        send(ByteBuffer.wrap(message.toByteArray()), channel.socket().localSocketAddress)
+    }
+
+    @Test(timeout = 10000L)
+    fun register_受信したデータがreceiverに渡される() {
+        val selector = DatagramSelector(taskExecutors)
+        val channel = openChannel()
+        val queue = LinkedBlockingQueue<String>()
+        selector.register(channel) { _, data, length ->
+            queue.add(String(data, 0, length))
+        }
+
+        sender.sendTo(channel, "message1")
+        sender.sendTo(channel, "message2")
+
+        assertThat(queue.poll(5, TimeUnit.SECONDS)).isEqualTo("message1")
+        assertThat(queue.poll(5, TimeUnit.SECONDS)).isEqualTo("message2")
+        selector.unregister(channel)
+        assertThat(channel.isOpen).isFalse()
+    }
+
+    @Test(timeout = 10000L)
+    fun register_複数のchannelを複数のスレッドで受信できる() {
+        val selector = DatagramSelector(taskExecutors, 2)
+        val channels = List(3) { openChannel() }
+        val queue = LinkedBlockingQueue<String>()
+        channels.forEachIndexed { index, channel ->
+            selector.register(channel) { _, data, length ->
+                queue.add("$index:" + String(data, 0, length))
+            }
+        }
+
+        channels.forEach { sender.sendTo(it, "message") }
+
+        val received = List(3) { queue.poll(5, TimeUnit.SECONDS) }
+        assertThat(received).containsExactly("0:message", "1:message", "2:message")
+        channels.forEach { selector.unregister(it) }
+    }
+
+    @Test(timeout = 10000L)
+    fun register_unregister後に再度registerしても受信できる() {
+        val selector = DatagramSelector(taskExecutors)
+        val queue = LinkedBlockingQueue<String>()
+        val channel1 = openChannel()
+        selector.register(channel1) { _, data, length ->
+            queue.add(String(data, 0, length))
+        }
+        sender.sendTo(channel1, "message1")
+        assertThat(queue.poll(5, TimeUnit.SECONDS)).isEqualTo("message1")
+        selector.unregister(channel1)
+        Thread.sleep(100)
+
+        val channel2 = openChannel()
+        selector.register(channel2) { _, data, length ->
+            queue.add(String(data, 0, length))
+        }
+        sender.sendTo(channel2, "message2")
+        assertThat(queue.poll(5, TimeUnit.SECONDS)).isEqualTo("message2")
+        selector.unregister(channel2)
+    }
+
+    @Test(timeout = 10000L)
+    fun register_receiverでExceptionが発生しても受信を継続する() {
+        val selector = DatagramSelector(taskExecutors)
+        val channel = openChannel()
+        val queue = LinkedBlockingQueue<String>()
+        selector.register(channel) { _, data, length ->
+            val message = String(data, 0, length)
+            if (message == "error") throw IllegalStateException()
+            queue.add(message)
+        }
+
+        sender.sendTo(channel, "error")
+        sender.sendTo(channel, "message")
+
+        assertThat(queue.poll(5, TimeUnit.SECONDS)).isEqualTo("message")
+        selector.unregister(channel)
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.server
+
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.slot
+import net.mm2d.upnp.Http
+import net.mm2d.upnp.HttpRequest
+import net.mm2d.upnp.HttpResponse
+import net.mm2d.upnp.internal.thread.TaskExecutors
+import net.mm2d.upnp.util.TestUtils
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayOutputStream
+import java.net.InetAddress
+import java.net.Socket
+import java.util.concurrent.CountDownLatch
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class NioEventReceiverTest {
+    private lateinit var taskExecutors: TaskExecutors
+
+    @Before
+    fun setUp() {
+        taskExecutors = TaskExecutors()
+    }
+
+    @After
+    fun tearDown() {
+        taskExecutors.terminate()
+    }
+
+    private fun createNotifyRequest(chunked: Boolean = false): HttpRequest =
+        HttpRequest.create().apply {
+            setMethod(Http.NOTIFY)
+            setUri("/")
+            setHeader(Http.CONNECTION, Http.CLOSE)
+            setHeader(Http.NT, Http.UPNP_EVENT)
+            setHeader(Http.NTS, Http.UPNP_PROPCHANGE)
+            setHeader(Http.SID, SID)
+            setHeader(Http.SEQ, "0")
+            if (chunked) {
+                setHeader(Http.TRANSFER_ENCODING, Http.CHUNKED)
+            }
+            setBody(TestUtils.getResourceAsString("propchange.xml"), !chunked)
+        }
+
+    private fun HttpRequest.toByteArray(): ByteArray =
+        ByteArrayOutputStream().also { writeData(it) }.toByteArray()
+
+    private fun NioEventReceiver.sendAndReceive(vararg data: ByteArray): HttpResponse =
+        Socket(InetAddress.getLoopbackAddress(), getLocalPort()).use { socket ->
+            socket.soTimeout = 5000
+            data.forEach {
+                socket.getOutputStream().write(it)
+                socket.getOutputStream().flush()
+                Thread.sleep(50)
+            }
+            HttpResponse.create(socket.getInputStream())
+        }
+
+    @Test(timeout = 10000L)
+    fun open_close_デッドロックしない() {
+        val receiver = NioEventReceiver(taskExecutors, mockk())
+        receiver.start()
+        receiver.stop()
+    }
+
+    @Test(timeout = 10000L)
+    fun close_open前なら即終了() {
+        val receiver = NioEventReceiver(taskExecutors, mockk())
+        receiver.stop()
+    }
+
+    @Test
+    fun getLocalPort_開始前は0() {
+        val receiver = NioEventReceiver(taskExecutors, mockk())
+        assertThat(receiver.getLocalPort()).isEqualTo(0)
+    }
+
+    @Test(timeout = 10000L)
+    fun getLocalPort_開始後は待ち受けポート() {
+        val receiver = NioEventReceiver(taskExecutors, mockk())
+        receiver.start()
+        assertThat(receiver.getLocalPort()).isGreaterThan(0)
+        receiver.stop()
+    }
+
+    @Test(timeout = 10000L)
+    fun onEventReceived_分割して届いたイベントの値が取得できること() {
+        val sidSlot = slot<String>()
+        val seqSlot = slot<Long>()
+        val propertiesSlot = slot<List<Pair<String, String>>>()
+        val listener: (String, Long, List<Pair<String, String>>) -> Boolean = mockk()
+        every { listener.invoke(capture(sidSlot), capture(seqSlot), capture(propertiesSlot)) } returns true
+        val receiver = NioEventReceiver(taskExecutors, listener)
+        receiver.start()
+
+        val data = createNotifyRequest().toByteArray()
+        val response = receiver.sendAndReceive(
+            data.copyOfRange(0, 10),
+            data.copyOfRange(10, data.size - 10),
+            data.copyOfRange(data.size - 10, data.size)
+        )
+        receiver.stop()
+
+        assertThat(response.getStatus()).isEqualTo(Http.Status.HTTP_OK)
+        assertThat(sidSlot.captured).isEqualTo(SID)
+        assertThat(seqSlot.captured).isEqualTo(0L)
+        assertThat(propertiesSlot.captured).contains("SystemUpdateID" to "0")
+        assertThat(propertiesSlot.captured).contains("ContainerUpdateIDs" to "")
+    }
+
+    @Test(timeout = 10000L)
+    fun onEventReceived_chunkedのイベントが取得できること() {
+        val propertiesSlot = slot<List<Pair<String, String>>>()
+        val listener: (String, Long, List<Pair<String, String>>) -> Boolean = mockk()
+        every { listener.invoke(any(), any(), capture(propertiesSlot)) } returns true
+        val receiver = NioEventReceiver(taskExecutors, listener)
+        receiver.start()
+
+        val response = receiver.sendAndReceive(createNotifyRequest(true).toByteArray())
+        receiver.stop()
+
+        assertThat(response.getStatus()).isEqualTo(Http.Status.HTTP_OK)
+        assertThat(propertiesSlot.captured).contains("SystemUpdateID" to "0")
+    }
+
+    @Test(timeout = 10000L)
+    fun onEventReceived_Failedが返る() {
+        val receiver = NioEventReceiver(taskExecutors) { _, _, _ -> false }
+        receiver.start()
+
+        val response = receiver.sendAndReceive(createNotifyRequest().toByteArray())
+        receiver.stop()
+
+        assertThat(response.getStatus()).isEqualTo(Http.Status.HTTP_PRECON_FAILED)
+    }
+
+    @Test(timeout = 10000L)
+    fun onEventReceived_BadRequestが返る() {
+        val receiver = NioEventReceiver(taskExecutors, mockk())
+        receiver.start()
+
+        val request = createNotifyRequest().apply {
+            setHeader(Http.NT, "")
+        }
+        val response = receiver.sendAndReceive(request.toByteArray())
+        receiver.stop()
+
+        assertThat(response.getStatus()).isEqualTo(Http.Status.HTTP_BAD_REQUEST)
+    }
+
+    @Test(timeout = 10000L)
+    fun onEventReceived_連続したリクエストに応答できる() {
+        val receiver = NioEventReceiver(taskExecutors) { _, _, _ -> true }
+        receiver.start()
+
+        repeat(20) {
+            val response = receiver.sendAndReceive(createNotifyRequest(it % 2 == 0).toByteArray())
+            assertThat(response.getStatus()).isEqualTo(Http.Status.HTTP_OK)
+        }
+        receiver.stop()
+    }
+
+    @Test(timeout = 10000L)
+    fun onEventReceived_listenerが処理中でも他の接続に応答できる() {
+        val latch = CountDownLatch(1)
+        val receiver = NioEventReceiver(taskExecutors) { sid, _, _ ->
+            if (sid == SID) latch.await()
+            true
+        }
+        receiver.start()
+
+        val blocked = Socket(InetAddress.getLoopbackAddress(), receiver.getLocalPort())
+        blocked.getOutputStream().write(createNotifyRequest().toByteArray())
+        blocked.getOutputStream().flush()
+        Thread.sleep(100)
+
+        val request = createNotifyRequest().apply { setHeader(Http.SID, "other") }
+        assertThat(receiver.sendAndReceive(request.toByteArray()).getStatus()).isEqualTo(Http.Status.HTTP_OK)
+
+        latch.countDown()
+        blocked.soTimeout = 5000
+        assertThat(HttpResponse.create(blocked.getInputStream()).getStatus()).isEqualTo(Http.Status.HTTP_OK)
+        blocked.close()
+        receiver.stop()
+    }
+
+    companion object {
+        private const val SID = "uuid:s1234567-89ab-cdef-0123-456789abcdef"
+    }
+}
@@ -193,7 +193,7 @@ class SsdpNotifyServerTest {
             spyk(SsdpNotifyServer(taskExecutors, Address.IP_V4, NetworkUtils.getAvailableInet4Interfaces()[0]))
         val address = createInterfaceAddress("192.0.2.1", "255.255.0.0", 24)
         every { receiver.interfaceAddress } returns address
-        every { receiver.createSsdpRequestMessage(any(), any()) } throws IOException()
+        every { receiver.createSsdpRequestMessage(any()) } throws IOException()
         val listener: (SsdpMessage) -> Unit = spyk { }
         receiver.setNotifyListener(listener)
         val data = TestUtils.getResourceAsByteArray("ssdp-notify-alive0.bin")
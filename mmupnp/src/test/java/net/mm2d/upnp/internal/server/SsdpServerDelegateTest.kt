@@ -29,6 +29,7 @@ import java.net.DatagramPacket
 import java.net.InetAddress
 import java.net.MulticastSocket
 import java.net.SocketTimeoutException
+import java.nio.channels.DatagramChannel
 
 @Suppress("TestFunctionName", "NonAsciiCharacters")
 @RunWith(JUnit4::class)
@@ -69,6 +70,71 @@ class SsdpServerDelegateTest {
         assertThat(server.interfaceAddress).isEqualTo(networkInterface.findInet4Address())
     }
 
+    @Test
+    fun start_stop_DatagramSelectorを使用する() {
+        val networkInterface = NetworkUtils.getAvailableInet4Interfaces()[0]
+        val selector: DatagramSelector = mockk(relaxed = true)
+        val server = spyk(
+            SsdpServerDelegate(taskExecutors, Address.IP_V4, networkInterface, ServerConst.SSDP_PORT, selector)
+        )
+        val channel: DatagramChannel = mockk(relaxed = true)
+        every { server.createDatagramChannel(any()) } returns channel
+        server.setReceiver(mockk(relaxed = true))
+        server.start()
+
+        verify(exactly = 1) { channel.join(Address.IP_V4.ssdpInetAddress, networkInterface) }
+        verify(exactly = 1) { selector.register(channel, any()) }
+        verify(inverse = true) { server.createMulticastSocket(any()) }
+
+        server.stop()
+        verify(exactly = 1) { selector.unregister(channel) }
+    }
+
+    @Test
+    fun send_DatagramSelector使用時はchannelから送信する() {
+        val networkInterface = NetworkUtils.getAvailableInet4Interfaces()[0]
+        val selector: DatagramSelector = mockk(relaxed = true)
+        val server = spyk(SsdpServerDelegate(taskExecutors, Address.IP_V4, networkInterface, 0, selector))
+        val channel: DatagramChannel = mockk(relaxed = true)
+        every { server.createDatagramChannel(any()) } returns channel
+        server.setReceiver(mockk(relaxed = true))
+        server.start()
+        val message = SsdpRequest.create().apply {
+            setMethod(SsdpMessage.M_SEARCH)
+            setUri("*")
+        }
+
+        server.send { message }
+        Thread.sleep(500)
+
+        verify(exactly = 1) { channel.send(any(), Address.IP_V4.ssdpSocketAddress) }
+        verify(inverse = true) { channel.join(any(), any()) }
+        server.stop()
+    }
+
+    @Test(timeout = 10000L)
+    fun start_DatagramChannelが使用できなければスレッドで受信する() {
+        val networkInterface = NetworkUtils.getAvailableInet4Interfaces()[0]
+        val selector: DatagramSelector = mockk(relaxed = true)
+        val server = spyk(SsdpServerDelegate(taskExecutors, Address.IP_V4, networkInterface, 0, selector))
+        every { server.createDatagramChannel(any()) } throws NoSuchMethodError()
+        val socket = spyk(MockMulticastSocket())
+        every { server.createMulticastSocket(any()) } returns socket
+        server.setReceiver(mockk(relaxed = true))
+        server.start()
+        val message = SsdpRequest.create().apply {
+            setMethod(SsdpMessage.M_SEARCH)
+            setUri("*")
+        }
+
+        server.send { message }
+
+        verify(timeout = 1000L) { server.createMulticastSocket(0) }
+        verify(timeout = 1000L) { socket.send(any()) }
+        verify(inverse = true) { selector.register(any(), any()) }
+        server.stop()
+    }
+
     @Test(expected = IllegalStateException::class)
     fun start_without_open() {
         val networkInterface = NetworkUtils.getAvailableInet4Interfaces()[0]
@@ -15,8 +15,10 @@ import io.mockk.verify
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.JUnit4
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
 
 @Suppress("TestFunctionName", "NonAsciiCharacters")
 @RunWith(JUnit4::class)
@@ -149,4 +151,47 @@ class ExecutorFactoryTest {
         verify(exactly = 1) { executorService.shutdown() }
         verify(exactly = 1) { executorService.shutdownNow() }
     }
+
+    @Test(timeout = 10000L)
+    fun io_virtualThread指定でも実行できる() {
+        val executor = ExecutorFactory.io(virtualThread = true)
+        val latch = CountDownLatch(1)
+        var thread: Thread? = null
+        assertThat(executor {
+            thread = Thread.currentThread()
+            latch.countDown()
+        }).isTrue()
+        latch.await()
+
+        assertThat(thread!!.name).startsWith("mmupnp-io-")
+        assertThat(isVirtual(thread!!)).isEqualTo(ExecutorFactory.isVirtualThreadSupported)
+        executor.terminate()
+    }
+
+    @Test(timeout = 10000L)
+    fun server_virtualThread指定でも実行できる() {
+        val executor = ExecutorFactory.server(true)
+        val latch = CountDownLatch(1)
+        assertThat(executor { latch.countDown() }).isTrue()
+
+        assertThat(latch.await(1, TimeUnit.SECONDS)).isTrue()
+        executor.terminate()
+    }
+
+    @Test
+    fun isVirtualThreadSupported_ランタイムの対応状況と一致する() {
+        val supported = try {
+            Thread::class.java.getMethod("ofVirtual").invoke(null)
+            true
+        } catch (e: Exception) {
+            false
+        }
+        assertThat(ExecutorFactory.isVirtualThreadSupported).isEqualTo(supported)
+    }
+
+    private fun isVirtual(thread: Thread): Boolean = try {
+        Thread::class.java.getMethod("isVirtual").invoke(thread) as Boolean
+    } catch (e: Exception) {
+        false
+    }
 }
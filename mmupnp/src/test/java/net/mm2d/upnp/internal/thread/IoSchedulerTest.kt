@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.thread
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class IoSchedulerTest {
+    private val blocker = CountDownLatch(1)
+    private val executor = DefaultTaskExecutor(Executors.newCachedThreadPool())
+
+    @After
+    fun tearDown() {
+        blocker.countDown()
+        executor.terminate()
+    }
+
+    @Test(timeout = 10000L)
+    fun execute_優先度の順に開始される() {
+        val scheduler = IoScheduler(executor, 1)
+        val result = Collections.synchronizedList(mutableListOf<IoPriority>())
+        val latch = CountDownLatch(3)
+        scheduler.execute(IoPriority.NORMAL, null, Runnable { blocker.await() })
+        IoPriority.values().reversed().forEach {
+            scheduler.execute(it, null, Runnable {
+                result.add(it)
+                latch.countDown()
+            })
+        }
+        assertThat(scheduler.pendingCount).isEqualTo(3)
+
+        blocker.countDown()
+        latch.await()
+
+        assertThat(result).containsExactly(IoPriority.HIGH, IoPriority.NORMAL, IoPriority.LOW).inOrder()
+    }
+
+    @Test(timeout = 10000L)
+    fun execute_同じホストの上限を超えたタスクは待ち他のホストが先に開始される() {
+        val scheduler = IoScheduler(executor, 4, maxPerHost = 1)
+        val started = CountDownLatch(1)
+        val other = CountDownLatch(1)
+        val waiting = CountDownLatch(1)
+        scheduler.execute(IoPriority.LOW, "a", Runnable {
+            started.countDown()
+            blocker.await()
+        })
+        started.await()
+        scheduler.execute(IoPriority.LOW, "a", Runnable { waiting.countDown() })
+        scheduler.execute(IoPriority.LOW, "b", Runnable { other.countDown() })
+
+        assertThat(other.await(1, TimeUnit.SECONDS)).isTrue()
+        assertThat(waiting.count).isEqualTo(1)
+        assertThat(scheduler.pendingCount).isEqualTo(1)
+
+        blocker.countDown()
+        assertThat(waiting.await(1, TimeUnit.SECONDS)).isTrue()
+    }
+
+    @Test(timeout = 10000L)
+    fun execute_HIGH以外はキューが満杯なら拒否される() {
+        val scheduler = IoScheduler(executor, 1, capacity = 1)
+        scheduler.execute(IoPriority.NORMAL, null, Runnable { blocker.await() })
+
+        assertThat(scheduler.execute(IoPriority.LOW, null, Runnable { })).isTrue()
+        assertThat(scheduler.execute(IoPriority.LOW, null, Runnable { })).isFalse()
+        assertThat(scheduler.execute(IoPriority.NORMAL, null, Runnable { })).isFalse()
+        assertThat(scheduler.execute(IoPriority.HIGH, null, Runnable { })).isTrue()
+        assertThat(scheduler.rejectedCount).isEqualTo(2)
+        assertThat(scheduler.pendingCount).isEqualTo(2)
+    }
+
+    @Test(timeout = 10000L)
+    fun execute_HIGHのために1スレッドが予約される() {
+        val scheduler = IoScheduler(executor, 2)
+        val high = CountDownLatch(1)
+        scheduler.execute(IoPriority.LOW, null, Runnable { blocker.await() })
+        scheduler.execute(IoPriority.LOW, null, Runnable { })
+        scheduler.execute(IoPriority.HIGH, null, Runnable { high.countDown() })
+
+        assertThat(high.await(1, TimeUnit.SECONDS)).isTrue()
+        assertThat(scheduler.pendingCount).isEqualTo(1)
+    }
+
+    @Test
+    fun execute_terminate後は実行できない() {
+        val scheduler = IoScheduler(executor, 2)
+        scheduler.terminate()
+
+        assertThat(scheduler.execute(IoPriority.HIGH, null, Runnable { })).isFalse()
+        assertThat(scheduler.executor(IoPriority.LOW).execute(Runnable { })).isFalse()
+    }
+}
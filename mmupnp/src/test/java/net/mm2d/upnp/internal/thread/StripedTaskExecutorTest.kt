@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 大前良介 (OHMAE Ryosuke)
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/MIT
+ */
+
+package net.mm2d.upnp.internal.thread
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+@Suppress("TestFunctionName", "NonAsciiCharacters")
+@RunWith(JUnit4::class)
+class StripedTaskExecutorTest {
+    @Test(timeout = 10000L)
+    fun execute_同じキーのタスクは順番に実行される() {
+        val executor = ExecutorFactory.callback(4)
+        val result = Collections.synchronizedMap(mutableMapOf<String, MutableList<Int>>())
+        val latch = CountDownLatch(400)
+        (0 until 100).forEach { index ->
+            listOf("a", "b", "c", "d").forEach { key ->
+                executor.execute(key, Runnable {
+                    result.getOrPut(key) { Collections.synchronizedList(mutableListOf()) }.add(index)
+                    latch.countDown()
+                })
+            }
+        }
+        latch.await()
+
+        listOf("a", "b", "c", "d").forEach {
+            assertThat(result[it]).isEqualTo((0 until 100).toList())
+        }
+        assertThat(executor.pendingCount).isEqualTo(0)
+        executor.terminate()
+    }
+
+    @Test(timeout = 10000L)
+    fun execute_遅いタスクが他のキューを待たせない() {
+        val executor = ExecutorFactory.callback(2)
+        val (slow, fast) = findKeysOnDifferentQueues()
+        val blocker = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        val executed = CountDownLatch(1)
+
+        executor.execute(slow, Runnable {
+            started.countDown()
+            blocker.await()
+        })
+        started.await()
+        executor.execute(slow, Runnable { })
+        executor.execute(fast, Runnable { executed.countDown() })
+
+        assertThat(executed.await(1, TimeUnit.SECONDS)).isTrue()
+        assertThat(executor.pendingCount).isEqualTo(1)
+        blocker.countDown()
+        executor.terminate()
+    }
+
+    @Test
+    fun execute_終了後は実行できない() {
+        val executor = ExecutorFactory.callback(2)
+        executor.terminate()
+
+        assertThat(executor.execute("a", Runnable { })).isFalse()
+        assertThat(executor.pendingCount).isEqualTo(0)
+    }
+
+    private fun findKeysOnDifferentQueues(): Pair<String, String> {
+        val keys = (0 until 10).map { it.toString() }
+        val first = keys.first { (it.hashCode() and Int.MAX_VALUE) % 2 == 0 }
+        val second = keys.first { (it.hashCode() and Int.MAX_VALUE) % 2 == 1 }
+        return first to second
+    }
+}